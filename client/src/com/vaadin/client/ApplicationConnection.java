@@ -18,6 +18,7 @@ package com.vaadin.client;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -188,6 +189,20 @@ public class ApplicationConnection {
 
     private boolean hasActiveRequest = false;
 
+    /**
+     * Whether the server has enabled push, in which case a long-polling
+     * request is kept open for receiving changes from the server.
+     */
+    private boolean pushEnabled = false;
+
+    private boolean longPollActive = false;
+
+    /**
+     * Time in milliseconds to wait before reopening a failed long-polling
+     * request.
+     */
+    private static final int LONG_POLL_RETRY_DELAY = 5000;
+
     /**
      * Some browsers cancel pending XHR requests when a request that might
      * navigate away from the page starts (indicated by a beforeunload event).
@@ -271,6 +286,14 @@ public class ApplicationConnection {
 
     private int lastResponseId = -1;
 
+    /**
+     * The sync id of the last handled message, used for handling the messages
+     * in the order the server rendered them.
+     */
+    private int lastSeenServerSyncId = -1;
+
+    private boolean handlingPendingMessages = false;
+
     /**
      * The communication handler methods are called at certain points during
      * communication with the server. This allows for making add-ons that keep
@@ -1311,6 +1334,30 @@ public class ApplicationConnection {
             return;
         }
 
+        final int syncId = getServerSyncId(json);
+        if (syncId != -1 && lastSeenServerSyncId != -1) {
+            if (syncId <= lastSeenServerSyncId) {
+                // Overtaken by a newer message that was handled forcibly
+                VConsole.error("Ignoring message " + syncId
+                        + " rendered before the last handled message "
+                        + lastSeenServerSyncId + ", repainting everything");
+                if (isResponse(json)) {
+                    endRequest();
+                }
+                resynchronize();
+                return;
+            } else if (syncId != lastSeenServerSyncId + 1) {
+                // A message rendered before this one has not arrived yet
+                VConsole.log("Postponing message " + syncId
+                        + " until message " + (lastSeenServerSyncId + 1)
+                        + " has been handled");
+                pendingUIDLMessages.add(new PendingUIDLMessage(start,
+                        jsonText, json));
+                forceHandleMessage.schedule(MAX_SUSPENDED_TIMEOUT);
+                return;
+            }
+        }
+
         VConsole.log("Handling message from server");
         eventBus.fireEvent(new ResponseHandlingStartedEvent(this));
 
@@ -1324,6 +1371,10 @@ public class ApplicationConnection {
 
         lastResponseId++;
 
+        if (syncId != -1) {
+            lastSeenServerSyncId = syncId;
+        }
+
         final MultiStepDuration handleUIDLDuration = new MultiStepDuration();
 
         // Get security key
@@ -1524,7 +1575,9 @@ public class ApplicationConnection {
                         + jsonText.length() + " characters of JSON");
                 VConsole.log("Referenced paintables: " + connectorMap.size());
 
-                endRequest();
+                if (isResponse(json)) {
+                    endRequest();
+                }
 
                 if (Profiler.isEnabled()) {
                     Scheduler.get().scheduleDeferred(new ScheduledCommand() {
@@ -2252,6 +2305,11 @@ public class ApplicationConnection {
 
         };
         ApplicationConfiguration.runWhenDependenciesLoaded(c);
+
+        if (!pendingUIDLMessages.isEmpty()) {
+            // The next message may have been waiting for this one
+            handlePendingMessages();
+        }
     }
 
     private void findZeroSizeComponents(
@@ -3281,6 +3339,8 @@ public class ApplicationConnection {
         public void run() {
             VConsole.log("WARNING: reponse handling was never resumed, forcibly removing locks...");
             responseHandlingLocks.clear();
+            // Do not wait any longer for messages that may have been lost
+            lastSeenServerSyncId = -1;
             handlePendingMessages();
         }
     };
@@ -3314,11 +3374,38 @@ public class ApplicationConnection {
      * suspended.
      */
     private void handlePendingMessages() {
-        for (PendingUIDLMessage pending : pendingUIDLMessages) {
-            handleUIDLMessage(pending.getStart(), pending.getJsonText(),
-                    pending.getJson());
+        if (handlingPendingMessages) {
+            return;
+        }
+        handlingPendingMessages = true;
+        try {
+            int pendingCount;
+            do {
+                // Messages that still can not be handled are enqueued again
+                List<PendingUIDLMessage> pendingMessages = pendingUIDLMessages;
+                pendingUIDLMessages = new ArrayList<PendingUIDLMessage>();
+                pendingCount = pendingMessages.size();
+                Collections.sort(pendingMessages,
+                        new Comparator<PendingUIDLMessage>() {
+                            @Override
+                            public int compare(PendingUIDLMessage m1,
+                                    PendingUIDLMessage m2) {
+                                return getServerSyncId(m1.getJson())
+                                        - getServerSyncId(m2.getJson());
+                            }
+                        });
+                for (PendingUIDLMessage pending : pendingMessages) {
+                    handleUIDLMessage(pending.getStart(),
+                            pending.getJsonText(), pending.getJson());
+                }
+            } while (!pendingUIDLMessages.isEmpty()
+                    && pendingUIDLMessages.size() < pendingCount);
+        } finally {
+            handlingPendingMessages = false;
+        }
+        if (pendingUIDLMessages.isEmpty()) {
+            forceHandleMessage.cancel();
         }
-        pendingUIDLMessages.clear();
     }
 
     private boolean handleErrorInDelegate(String details, int statusCode) {
@@ -3346,6 +3433,155 @@ public class ApplicationConnection {
         return applicationRunning;
     }
 
+    /**
+     * Sets whether changes made on the server outside client requests are
+     * pushed to the client. When enabled, a long-polling request is kept open
+     * and reopened whenever the server responds to it.
+     * 
+     * @param pushEnabled
+     *            <code>true</code> to keep a long-polling request open,
+     *            <code>false</code> to stop polling after the current request
+     */
+    public void setPushEnabled(boolean pushEnabled) {
+        this.pushEnabled = pushEnabled;
+        if (pushEnabled && !longPollActive) {
+            sendLongPollRequest();
+        }
+    }
+
+    /**
+     * Returns whether a long-polling request is kept open for receiving
+     * changes pushed from the server.
+     * 
+     * @return <code>true</code> if push is enabled, otherwise
+     *         <code>false</code>
+     */
+    public boolean isPushEnabled() {
+        return pushEnabled;
+    }
+
+    private void sendLongPollRequest() {
+        longPollActive = true;
+        String uri = translateVaadinUri(ApplicationConstants.APP_PROTOCOL_PREFIX
+                + ApplicationConstants.UIDL_PATH + '/');
+        uri = addGetParameters(uri, ApplicationConstants.PARAM_LONG_POLL + "=1");
+        uri = addGetParameters(uri, UIConstants.UI_ID_PARAMETER + "="
+                + configuration.getUIId());
+        // Security: double cookie submission pattern
+        String payload = uidlSecurityKey + VAR_BURST_SEPARATOR;
+
+        RequestCallback callback = new RequestCallback() {
+            @Override
+            public void onResponseReceived(Request request, Response response) {
+                String text = response.getText();
+                if (response.getStatusCode() != Response.SC_OK
+                        || !text.startsWith("for(;;);[")) {
+                    VConsole.error("Long-polling request failed with status "
+                            + response.getStatusCode());
+                    retryLongPollRequest();
+                    return;
+                }
+                // for(;;);[realjson]
+                handleLongPollResponse(text.substring(9, text.length() - 1));
+                reopenLongPollRequest();
+            }
+
+            @Override
+            public void onError(Request request, Throwable exception) {
+                VConsole.error(exception);
+                retryLongPollRequest();
+            }
+        };
+        try {
+            doAjaxRequest(uri, payload, callback);
+        } catch (RequestException e) {
+            VConsole.error(e);
+            retryLongPollRequest();
+        }
+    }
+
+    private void reopenLongPollRequest() {
+        longPollActive = false;
+        if (pushEnabled && applicationRunning) {
+            sendLongPollRequest();
+        }
+    }
+
+    private void retryLongPollRequest() {
+        longPollActive = true;
+        new Timer() {
+            @Override
+            public void run() {
+                reopenLongPollRequest();
+            }
+        }.schedule(LONG_POLL_RETRY_DELAY);
+    }
+
+    /**
+     * Handles the changes received as a response to a long-polling request.
+     * The changes are not a response to a request made by the client, so they
+     * are handled without waiting for any ongoing request to complete. Like
+     * all messages from the server, they are handled in the order the server
+     * rendered them, see {@link ApplicationConstants#SERVER_SYNC_ID}.
+     * 
+     * @param jsonText
+     *            the received JSON
+     */
+    private void handleLongPollResponse(String jsonText) {
+        final ValueMap json;
+        try {
+            json = parseJSONResponse(jsonText);
+        } catch (final Exception e) {
+            VConsole.error(e);
+            return;
+        }
+        handleReceivedJSONMessage(new Date(), jsonText, json);
+    }
+
+    /**
+     * Checks whether the given message is a response to a request made by the
+     * client, as opposed to changes pushed by the server.
+     * 
+     * @param json
+     *            the received message
+     * @return <code>true</code> if the message is a response to a client
+     *         request, <code>false</code> if it was pushed by the server
+     */
+    private static boolean isResponse(ValueMap json) {
+        return !json.containsKey(ApplicationConstants.SERVER_ASYNC);
+    }
+
+    /**
+     * Repaints the whole UI once there is no active request.
+     */
+    private void resynchronize() {
+        if (hasActiveRequest()) {
+            new Timer() {
+                @Override
+                public void run() {
+                    resynchronize();
+                }
+            }.schedule(50);
+        } else {
+            repaintAll();
+        }
+    }
+
+    /**
+     * Gets the sequence number the server has given a response.
+     * 
+     * @param json
+     *            the received response
+     * @return the sync id of the response, or -1 if the response has none
+     */
+    private static int getServerSyncId(ValueMap json) {
+        if (json.containsKey(ApplicationConstants.SERVER_SYNC_ID)) {
+            return json.getInt(ApplicationConstants.SERVER_SYNC_ID);
+        } else {
+            return -1;
+        }
+    }
+
     public <H extends EventHandler> HandlerRegistration addHandler(
             GwtEvent.Type<H> type, H handler) {
         return eventBus.addHandler(type, handler);
@@ -79,6 +79,7 @@ import com.vaadin.client.ComponentConnector;
 import com.vaadin.client.ConnectorMap;
 import com.vaadin.client.Focusable;
 import com.vaadin.client.MouseEventDetailsBuilder;
+import com.vaadin.client.Profiler;
 import com.vaadin.client.TooltipInfo;
 import com.vaadin.client.UIDL;
 import com.vaadin.client.Util;
@@ -179,6 +180,14 @@ public class VScrollTable extends FlowPanel implements HasWidgets,
     /** For internal use only. May be removed or replaced in the future. */
     public boolean showRowHeaders = false;
 
+    /**
+     * Should the DOM of rows scrolled out of the cache window be reused for
+     * new rows.
+     * <p>
+     * For internal use only. May be removed or replaced in the future.
+     */
+    public boolean recycleRows = false;
+
     private String[] columnOrder;
 
     protected ApplicationConnection client;
@@ -1314,6 +1323,15 @@ public class VScrollTable extends FlowPanel implements HasWidgets,
                 : CACHE_RATE_DEFAULT);
     }
 
+    /** For internal use only. May be removed or replaced in the future. */
+    public void setRowRecyclingFromUIDL(UIDL uidl) {
+        recycleRows = uidl
+                .hasAttribute(TableConstants.ATTRIBUTE_RECYCLE_ROWS);
+        if (!recycleRows && scrollBody != null) {
+            scrollBody.clearRecycledRows();
+        }
+    }
+
     private void setCacheRate(double d) {
         if (cache_rate != d) {
             cache_rate = d;
@@ -4331,6 +4349,12 @@ public class VScrollTable extends FlowPanel implements HasWidgets,
 
         private final LinkedList<Widget> renderedRows = new LinkedList<Widget>();
 
+        /**
+         * Detached rows waiting to be reused for new rows when row recycling
+         * is enabled.
+         */
+        private final LinkedList<VScrollTableRow> recycledRows = new LinkedList<VScrollTableRow>();
+
         /**
          * Due some optimizations row height measuring is deferred and initial
          * set of rows is rendered detached. Flag set on when table body has
@@ -4419,6 +4443,8 @@ public class VScrollTable extends FlowPanel implements HasWidgets,
                 VScrollTableRow row = (VScrollTableRow) w;
                 row.updateStyleNames(primaryStyleName);
             }
+            // Recycled rows would still have the old cell wrapper style names
+            recycledRows.clear();
         }
 
         public int getAvailableWidth() {
@@ -4640,7 +4666,72 @@ public class VScrollTable extends FlowPanel implements HasWidgets,
                 // This is a generated row.
                 return new VScrollTableGeneratedRow(uidl, aligns2);
             }
-            return new VScrollTableRow(uidl, aligns2);
+            VScrollTableRow row = reuseRecycledRow(uidl, aligns2);
+            if (row != null) {
+                return row;
+            }
+            Profiler.enter("VScrollTableBody.createRow");
+            row = new VScrollTableRow(uidl, aligns2);
+            Profiler.leave("VScrollTableBody.createRow");
+            return row;
+        }
+
+        /**
+         * Binds a previously discarded row to the given row data, if row
+         * recycling is enabled and a compatible row is available.
+         * 
+         * @param uidl
+         *            the row data
+         * @param aligns2
+         *            the column alignments
+         * @return a recycled row bound to the row data, or <code>null</code> if
+         *         no row could be reused
+         */
+        private VScrollTableRow reuseRecycledRow(UIDL uidl, char[] aligns2) {
+            if (recycledRows.isEmpty() || !hasOnlyTextCells(uidl)) {
+                return null;
+            }
+            int cellCount = uidl.getChildCount() + (showRowHeaders ? 1 : 0);
+            while (!recycledRows.isEmpty()) {
+                VScrollTableRow row = recycledRows.removeFirst();
+                if (row.getElement().getChildCount() == cellCount) {
+                    Profiler.enter("VScrollTableBody.reuseRecycledRow");
+                    row.rebind(uidl, aligns2);
+                    Profiler.leave("VScrollTableBody.reuseRecycledRow");
+                    return row;
+                }
+                // The columns have changed since the row was discarded
+            }
+            return null;
+        }
+
+        private boolean hasOnlyTextCells(UIDL uidl) {
+            final Iterator<?> cells = uidl.getChildIterator();
+            while (cells.hasNext()) {
+                if (!(cells.next() instanceof String)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Keeps a discarded row for later reuse if row recycling is enabled.
+         * At most as many rows as fit in the cache window are kept.
+         */
+        private void recycleRow(VScrollTableRow row) {
+            if (!recycleRows || !row.isRecyclable()) {
+                return;
+            }
+            int maxRecycledRows = (int) (pageLength * (1 + 2 * cache_rate));
+            if (recycledRows.size() < maxRecycledRows) {
+                recycledRows.add(row);
+            }
+        }
+
+        /** For internal use only. May be removed or replaced in the future. */
+        public void clearRecycledRows() {
+            recycledRows.clear();
         }
 
         private void addRowBeforeFirstRendered(VScrollTableRow row) {
@@ -4773,6 +4864,7 @@ public class VScrollTable extends FlowPanel implements HasWidgets,
             tBodyElement.removeChild(toBeRemoved.getElement());
             orphan(toBeRemoved);
             renderedRows.remove(index);
+            recycleRow(toBeRemoved);
         }
 
         @Override
@@ -4999,7 +5091,7 @@ public class VScrollTable extends FlowPanel implements HasWidgets,
             private static final int DRAGMODE_MULTIROW = 2;
             protected ArrayList<Widget> childWidgets = new ArrayList<Widget>();
             private boolean selected = false;
-            protected final int rowKey;
+            protected int rowKey;
 
             private String[] actionKeys = null;
             private final TableRowElement rowElement;
@@ -5067,6 +5159,111 @@ public class VScrollTable extends FlowPanel implements HasWidgets,
                 }
             }
 
+            /**
+             * Checks whether this row can be reused for other row data after
+             * it has been discarded. Rows containing widgets and rows that are
+             * still referenced for focus or selection are never reused.
+             * 
+             * @return true if the row can be recycled, otherwise false
+             */
+            protected boolean isRecyclable() {
+                if (!childWidgets.isEmpty() || this == focusedRow
+                        || this == selectionRangeStart) {
+                    return false;
+                }
+                for (SelectionRange range : selectedRowRanges) {
+                    if (range.startRow == this) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            /**
+             * Binds this discarded row to new row data, reusing the existing
+             * row and cell elements. The row data must only contain text cells
+             * and have as many cells as this row.
+             * 
+             * @param uidl
+             *            the new row data
+             * @param aligns
+             *            the column alignments
+             */
+            protected void rebind(UIDL uidl, char[] aligns) {
+                rowKey = uidl.getIntAttribute("key");
+                selected = false;
+                isDragging = false;
+                touchStart = null;
+                if (contextTouchTimeout != null) {
+                    contextTouchTimeout.cancel();
+                    contextTouchTimeout = null;
+                }
+                if (dragTouchTimeout != null) {
+                    dragTouchTimeout.cancel();
+                    dragTouchTimeout = null;
+                }
+                cellToolTips.clear();
+
+                getElement().getStyle().setProperty("visibility", "hidden");
+
+                String primaryStyleName = VScrollTable.this
+                        .getStylePrimaryName();
+                rowStyle = uidl.getStringAttribute("rowstyle");
+                setStyleName(primaryStyleName + "-row");
+                if (rowStyle != null) {
+                    addStyleName(primaryStyleName + "-row-" + rowStyle);
+                }
+
+                String rowDescription = uidl.getStringAttribute("rowdescr");
+                if (rowDescription != null && !rowDescription.equals("")) {
+                    tooltipInfo = new TooltipInfo(rowDescription);
+                } else {
+                    tooltipInfo = null;
+                }
+
+                int col = 0;
+                int visibleColumnIndex = -1;
+
+                if (showRowHeaders) {
+                    boolean sorted = tHead.getHeaderCell(col).isSorted();
+                    updateCellWithText(getCellElement(col),
+                            buildCaptionHtmlSnippet(uidl), aligns[col++],
+                            "rowheader", true, sorted, null);
+                    visibleColumnIndex++;
+                }
+
+                if (uidl.hasAttribute("al")) {
+                    actionKeys = uidl.getStringArrayAttribute("al");
+                } else {
+                    actionKeys = null;
+                }
+
+                final Iterator<?> cells = uidl.getChildIterator();
+                while (cells.hasNext()) {
+                    final String text = (String) cells.next();
+                    visibleColumnIndex++;
+
+                    String columnId = visibleColOrder[visibleColumnIndex];
+                    String style = uidl.getStringAttribute("style-"
+                            + columnId);
+                    String description = uidl.getStringAttribute("descr-"
+                            + columnId);
+
+                    boolean sorted = tHead.getHeaderCell(col).isSorted();
+                    updateCellWithText(getCellElement(col), text,
+                            aligns[col++], style, isRenderHtmlInCells(),
+                            sorted, description);
+                }
+
+                if (uidl.hasAttribute("selected")) {
+                    toggleSelection();
+                }
+            }
+
+            private TableCellElement getCellElement(int cellIx) {
+                return rowElement.getChild(cellIx).cast();
+            }
+
             protected void updateStyleNames(String primaryStyleName) {
 
                 if (getStylePrimaryName().contains("odd")) {
@@ -5268,40 +5465,54 @@ public class VScrollTable extends FlowPanel implements HasWidgets,
                 final Element container = DOM.createDiv();
                 container.setClassName(VScrollTable.this.getStylePrimaryName()
                         + "-cell-wrapper");
+                td.appendChild(container);
+
+                updateCellWithText(td, text, align, style, textIsHTML, sorted,
+                        description);
 
-                td.setClassName(VScrollTable.this.getStylePrimaryName()
-                        + "-cell-content");
+                getElement().appendChild(td);
+            }
 
+            /**
+             * Updates the style names, text, alignment and tooltip of a text
+             * cell created by
+             * {@link #initCellWithText(String, char, String, boolean, boolean, String, TableCellElement)}
+             * .
+             */
+            private void updateCellWithText(TableCellElement td, String text,
+                    char align, String style, boolean textIsHTML,
+                    boolean sorted, String description) {
+                final Element container = td.getFirstChildElement().cast();
+                String className = VScrollTable.this.getStylePrimaryName()
+                        + "-cell-content";
                 if (style != null && !style.equals("")) {
-                    td.addClassName(VScrollTable.this.getStylePrimaryName()
-                            + "-cell-content-" + style);
+                    className += " " + VScrollTable.this.getStylePrimaryName()
+                            + "-cell-content-" + style;
                 }
-
                 if (sorted) {
-                    td.addClassName(VScrollTable.this.getStylePrimaryName()
-                            + "-cell-content-sorted");
+                    className += " " + VScrollTable.this.getStylePrimaryName()
+                            + "-cell-content-sorted";
                 }
+                td.setClassName(className);
 
                 if (textIsHTML) {
                     container.setInnerHTML(text);
                 } else {
                     container.setInnerText(text);
                 }
-                if (align != ALIGN_LEFT) {
-                    switch (align) {
-                    case ALIGN_CENTER:
-                        container.getStyle().setProperty("textAlign", "center");
-                        break;
-                    case ALIGN_RIGHT:
-                    default:
-                        container.getStyle().setProperty("textAlign", "right");
-                        break;
-                    }
+                switch (align) {
+                case ALIGN_LEFT:
+                    container.getStyle().setProperty("textAlign", "");
+                    break;
+                case ALIGN_CENTER:
+                    container.getStyle().setProperty("textAlign", "center");
+                    break;
+                case ALIGN_RIGHT:
+                default:
+                    container.getStyle().setProperty("textAlign", "right");
+                    break;
                 }
                 setTooltip(td, description);
-
-                td.appendChild(container);
-                getElement().appendChild(td);
             }
 
             protected void updateCellStyleNames(TableCellElement td,
@@ -6168,6 +6379,11 @@ public class VScrollTable extends FlowPanel implements HasWidgets,
                 return spanColumns;
             }
 
+            @Override
+            protected boolean isRecyclable() {
+                return false;
+            }
+
             @Override
             protected void initCellWidths() {
                 if (spanColumns) {
@@ -158,6 +158,12 @@ public class VTreeTable extends VScrollTable {
                 super(uidl, aligns2);
             }
 
+            @Override
+            protected boolean isRecyclable() {
+                // The tree cell state is not restored when rebinding
+                return false;
+            }
+
             @Override
             public void addCell(UIDL rowUidl, String text, char align,
                     String style, boolean textIsHTML, boolean isSorted,
@@ -127,6 +127,8 @@ public class TableConnector extends AbstractHasComponentsConnector implements
 
         getWidget().setCacheRateFromUIDL(uidl);
 
+        getWidget().setRowRecyclingFromUIDL(uidl);
+
         getWidget().recalcWidths = uidl.hasAttribute("recalcWidths");
         if (getWidget().recalcWidths) {
             getWidget().tHead.clear();
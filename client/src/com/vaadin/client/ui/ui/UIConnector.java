@@ -521,6 +521,14 @@ public class UIConnector extends AbstractSingleComponentContainerConnector
         return windows;
     }
 
+    @Override
+    public void onStateChanged(StateChangeEvent stateChangeEvent) {
+        super.onStateChanged(stateChangeEvent);
+        if (getState().pushEnabled != getConnection().isPushEnabled()) {
+            getConnection().setPushEnabled(getState().pushEnabled);
+        }
+    }
+
     @Override
     public UIState getState() {
         return (UIState) super.getState();
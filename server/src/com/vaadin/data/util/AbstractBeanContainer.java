@@ -22,6 +22,7 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import com.vaadin.data.Container;
 import com.vaadin.data.Container.Filterable;
@@ -226,8 +227,10 @@ public abstract class AbstractBeanContainer<IDTYPE, BEANTYPE> extends
         internalRemoveAllItems();
 
         // detach listeners from all Items
-        for (Item item : itemIdToItem.values()) {
-            removeAllValueChangeListeners(item);
+        for (Map.Entry<IDTYPE, BeanItem<BEANTYPE>> entry : itemIdToItem
+                .entrySet()) {
+            removeAllValueChangeListeners(entry.getValue());
+            removeIndexListeners(entry.getKey(), entry.getValue());
         }
         itemIdToItem.clear();
 
@@ -297,6 +300,7 @@ public abstract class AbstractBeanContainer<IDTYPE, BEANTYPE> extends
         if (internalRemoveItem(itemId)) {
             // detach listeners from Item
             removeAllValueChangeListeners(item);
+            removeIndexListeners(itemId, item);
 
             // remove item
             itemIdToItem.remove(itemId);
@@ -319,6 +323,7 @@ public abstract class AbstractBeanContainer<IDTYPE, BEANTYPE> extends
     @Override
     public void valueChange(ValueChangeEvent event) {
         // if a property that is used in a filter is changed, refresh filtering
+        clearFilteringCache();
         filterAll();
     }
 
@@ -374,6 +379,15 @@ public abstract class AbstractBeanContainer<IDTYPE, BEANTYPE> extends
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The container is not notified when beans are changed directly, so
+     * results remembered for the built-in filters may then be outdated. Call
+     * {@link #removeAllContainerFilters()} before adding the filters again to
+     * check all beans.
+     * </p>
+     */
     @Override
     public void addContainerFilter(Filter filter)
             throws UnsupportedFilterException {
@@ -400,6 +414,10 @@ public abstract class AbstractBeanContainer<IDTYPE, BEANTYPE> extends
      *            The id of the property
      */
     private void addValueChangeListener(Item item, Object propertyId) {
+        if (isPropertyIndexed(propertyId)) {
+            // the IndexListener of the property also updates filtering
+            return;
+        }
         Property<?> property = item.getItemProperty(propertyId);
         if (property instanceof ValueChangeNotifier) {
             // avoid multiple notifications for the same property if
@@ -438,6 +456,154 @@ public abstract class AbstractBeanContainer<IDTYPE, BEANTYPE> extends
         }
     }
 
+    /**
+     * Listener that updates the property index when the value of an indexed
+     * property of an item changes, and re-filters the container if the
+     * property is being filtered.
+     * 
+     * There is one listener per item and property, considered equal if they
+     * are for the same item and property so that a new instance can be used
+     * to remove the listener.
+     */
+    private class IndexListener implements ValueChangeListener {
+
+        private final Object itemId;
+        private final Object propertyId;
+
+        private IndexListener(Object itemId, Object propertyId) {
+            this.itemId = itemId;
+            this.propertyId = propertyId;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void valueChange(ValueChangeEvent event) {
+            // only created for ids of items in the container
+            updatePropertyIndex((IDTYPE) itemId, propertyId, event.getProperty()
+                    .getValue());
+            clearFilteringCache();
+            if (isPropertyFiltered(propertyId)) {
+                filterAll();
+            }
+        }
+
+        private AbstractBeanContainer<IDTYPE, BEANTYPE> getContainer() {
+            return AbstractBeanContainer.this;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof AbstractBeanContainer.IndexListener)) {
+                return false;
+            }
+            IndexListener other = (IndexListener) obj;
+            return other.getContainer() == getContainer()
+                    && itemId.equals(other.itemId)
+                    && propertyId.equals(other.propertyId);
+        }
+
+        @Override
+        public int hashCode() {
+            return itemId.hashCode() * 31 + propertyId.hashCode();
+        }
+    }
+
+    private void addIndexListener(IDTYPE itemId, Item item, Object propertyId) {
+        Property<?> property = item.getItemProperty(propertyId);
+        if (property instanceof ValueChangeNotifier) {
+            ((ValueChangeNotifier) property).addValueChangeListener(new IndexListener(
+                    itemId, propertyId));
+        }
+    }
+
+    private void removeIndexListener(Object itemId, Item item,
+            Object propertyId) {
+        Property<?> property = item.getItemProperty(propertyId);
+        if (property instanceof ValueChangeNotifier) {
+            ((ValueChangeNotifier) property).removeValueChangeListener(new IndexListener(
+                    itemId, propertyId));
+        }
+    }
+
+    private void removeIndexListeners(Object itemId, Item item) {
+        for (Object propertyId : getIndexedPropertyIds()) {
+            removeIndexListener(itemId, item, propertyId);
+        }
+    }
+
+    /**
+     * Indexes the values of a property to speed up filtering by the property.
+     * See {@link AbstractInMemoryContainer#addPropertyIndex(Object)} for the
+     * supported filters.
+     * 
+     * The index is updated when property values are changed through the
+     * {@link BeanItem} properties. If the beans are modified directly, the
+     * index needs to be rebuilt by removing and adding it again.
+     * 
+     * @param propertyId
+     *            the id of the property to index
+     * @return true if the index was added, false if the property is already
+     *         indexed or does not exist in the container
+     * @since 7.1
+     */
+    @Override
+    public boolean addPropertyIndex(Object propertyId) {
+        if (!super.addPropertyIndex(propertyId)) {
+            return false;
+        }
+        for (Map.Entry<IDTYPE, BeanItem<BEANTYPE>> entry : itemIdToItem
+                .entrySet()) {
+            // the index listener takes care of re-filtering
+            removeValueChangeListener(entry.getValue(), propertyId);
+            addIndexListener(entry.getKey(), entry.getValue(), propertyId);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removePropertyIndex(Object propertyId) {
+        if (!isPropertyIndexed(propertyId)) {
+            return false;
+        }
+        for (Map.Entry<IDTYPE, BeanItem<BEANTYPE>> entry : itemIdToItem
+                .entrySet()) {
+            removeIndexListener(entry.getKey(), entry.getValue(), propertyId);
+        }
+        super.removePropertyIndex(propertyId);
+        if (isPropertyFiltered(propertyId)) {
+            for (Item item : itemIdToItem.values()) {
+                addValueChangeListener(item, propertyId);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Collection<?> getIndexedPropertyIds() {
+        return super.getIndexedPropertyIds();
+    }
+
+    /**
+     * Sets the executor used for sorting and filtering large containers in
+     * parallel. See
+     * {@link AbstractInMemoryContainer#setParallelExecutor(Executor)} for the
+     * requirements on the properties and filters used.
+     * 
+     * @param executor
+     *            the executor to use, or null to sort and filter in the
+     *            calling thread only
+     * @since 7.1
+     */
+    @Override
+    public void setParallelExecutor(Executor executor) {
+        super.setParallelExecutor(executor);
+    }
+
+    @Override
+    public Executor getParallelExecutor() {
+        return super.getParallelExecutor();
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -474,6 +640,10 @@ public abstract class AbstractBeanContainer<IDTYPE, BEANTYPE> extends
             BeanItem<BEANTYPE> item) {
         itemIdToItem.put(itemId, item);
 
+        for (Object propertyId : getIndexedPropertyIds()) {
+            addIndexListener(itemId, item, propertyId);
+        }
+
         // add listeners to be able to update filtering on property
         // changes
         for (Filter filter : getFilters()) {
@@ -877,6 +1047,9 @@ public abstract class AbstractBeanContainer<IDTYPE, BEANTYPE> extends
             return false;
         }
 
+        removePropertyIndex(propertyId);
+        clearFilteringCache();
+
         // Removes the Property to Property list and types
         model.remove(propertyId);
 
@@ -15,17 +15,36 @@
  */
 package com.vaadin.data.util;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import com.vaadin.data.Container;
 import com.vaadin.data.Container.ItemSetChangeNotifier;
 import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import com.vaadin.data.util.ParallelTasks.RangeTask;
+import com.vaadin.data.util.filter.AbstractJunctionFilter;
+import com.vaadin.data.util.filter.And;
+import com.vaadin.data.util.filter.Between;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.IsNull;
+import com.vaadin.data.util.filter.Not;
+import com.vaadin.data.util.filter.Or;
 import com.vaadin.data.util.filter.SimpleStringFilter;
 import com.vaadin.data.util.filter.UnsupportedFilterException;
 
@@ -79,6 +98,11 @@ import com.vaadin.data.util.filter.UnsupportedFilterException;
  * {@link #addFilter(com.vaadin.data.Container.Filter)} and
  * {@link #removeFilters(Object)} respectively.
  * 
+ * Filtering can be sped up by indexing the values of selected properties with
+ * {@link #addPropertyIndex(Object)}. Subclasses that store property values
+ * themselves must call {@link #updatePropertyIndex(Object, Object, Object)}
+ * when a value changes.
+ * 
  * @param <ITEMIDTYPE>
  *            the class of item identifiers in the container, use Object if can
  *            be any class
@@ -125,6 +149,51 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
      */
     private ItemSorter itemSorter = new DefaultItemSorter();
 
+    /**
+     * Indexes of property values used to speed up filtering, by property id.
+     * 
+     * If null, no properties are indexed.
+     */
+    private Map<Object, PropertyValueIndex<ITEMIDTYPE>> propertyIndexes = null;
+
+    /**
+     * The position of each item identifier in the list of all item
+     * identifiers, used for ordering the items found using the property
+     * indexes. Built when first needed and discarded when the order changes.
+     */
+    private transient Map<ITEMIDTYPE, Integer> itemIdPositions = null;
+
+    /**
+     * The number of earlier filtering results to remember.
+     */
+    private static final int MAX_FILTER_RESULTS = 3;
+
+    /**
+     * The results of the latest filtering with different sets of filters,
+     * most recent first. Discarded whenever items are added, removed, sorted
+     * or changed through the container.
+     */
+    private transient LinkedList<FilterResult<ITEMIDTYPE>> filterResults = null;
+
+    /**
+     * The executor used for sorting and filtering large containers in
+     * parallel, null to do everything in the calling thread.
+     */
+    private transient Executor parallelExecutor = null;
+
+    /**
+     * The item identifiers that passed a set of filters.
+     */
+    private static class FilterResult<ID> implements Serializable {
+        private final Set<Filter> filters;
+        private final ListSet<ID> itemIds;
+
+        private FilterResult(Set<Filter> filters, ListSet<ID> itemIds) {
+            this.filters = filters;
+            this.itemIds = itemIds;
+        }
+    }
+
     // Constructors
 
     /**
@@ -432,18 +501,91 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
             originalFilteredItemIds = Collections.emptyList();
             wasUnfiltered = true;
         }
-        setFilteredItemIds(new ListSet<ITEMIDTYPE>());
 
-        // Filter
+        // Find earlier results for the same filters, for filters that are
+        // implied by the current ones (narrowing) or for filters that imply
+        // the current ones (relaxing)
+        Set<Filter> filters = getFilters();
+        boolean reusable = isReusable(filters);
+        FilterResult<ITEMIDTYPE> sameResult = null;
+        FilterResult<ITEMIDTYPE> broaderResult = null;
+        FilterResult<ITEMIDTYPE> narrowerResult = null;
+        if (filterResults != null && reusable) {
+            for (FilterResult<ITEMIDTYPE> result : filterResults) {
+                if (result.filters.equals(filters)) {
+                    sameResult = result;
+                    break;
+                } else if (implies(filters, result.filters)) {
+                    if (broaderResult == null
+                            || result.itemIds.size() < broaderResult.itemIds
+                                    .size()) {
+                        broaderResult = result;
+                    }
+                } else if (implies(result.filters, filters)) {
+                    if (narrowerResult == null
+                            || result.itemIds.size() > narrowerResult.itemIds
+                                    .size()) {
+                        narrowerResult = result;
+                    }
+                }
+            }
+        }
+
+        if (sameResult != null) {
+            // the remembered list must not change with the filtered list
+            setFilteredItemIds(new ListSet<ITEMIDTYPE>(sameResult.itemIds));
+        } else {
+            setFilteredItemIds(new ListSet<ITEMIDTYPE>());
+
+            // Only the items found using the property indexes (if any) or
+            // the items that passed broader filters need to be checked
+            Collection<ITEMIDTYPE> candidates = getFilterCandidates();
+            List<ITEMIDTYPE> idsToCheck;
+            if (candidates != null
+                    && (broaderResult == null || candidates.size() < broaderResult.itemIds
+                            .size())) {
+                idsToCheck = inContainerOrder(candidates);
+            } else if (broaderResult != null) {
+                idsToCheck = broaderResult.itemIds;
+            } else {
+                idsToCheck = getAllItemIds();
+            }
+
+            // Items that passed narrower filters pass without checking
+            Collection<ITEMIDTYPE> passingItemIds = Collections.emptySet();
+            if (narrowerResult != null) {
+                passingItemIds = narrowerResult.itemIds;
+            }
+
+            // Filter
+            if (parallelExecutor != null) {
+                boolean[] passes = passesFilters(idsToCheck, passingItemIds);
+                int index = 0;
+                for (ITEMIDTYPE id : idsToCheck) {
+                    if (passes[index++]) {
+                        getFilteredItemIds().add(id);
+                    }
+                }
+            } else {
+                for (ITEMIDTYPE id : idsToCheck) {
+                    if (passingItemIds.contains(id) || passesFilters(id)) {
+                        getFilteredItemIds().add(id);
+                    }
+                }
+            }
+        }
+        if (reusable) {
+            rememberFilterResult(filters,
+                    (ListSet<ITEMIDTYPE>) getFilteredItemIds());
+        }
+
         boolean equal = true;
         Iterator<ITEMIDTYPE> origIt = originalFilteredItemIds.iterator();
-        for (final Iterator<ITEMIDTYPE> i = getAllItemIds().iterator(); i
-                .hasNext();) {
-            final ITEMIDTYPE id = i.next();
-            if (passesFilters(id)) {
-                // filtered list comes from the full list, can use ==
-                equal = equal && origIt.hasNext() && origIt.next() == id;
-                getFilteredItemIds().add(id);
+        for (ITEMIDTYPE id : getFilteredItemIds()) {
+            // filtered list comes from the full list, can use ==
+            if (!origIt.hasNext() || origIt.next() != id) {
+                equal = false;
+                break;
             }
         }
 
@@ -451,6 +593,250 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
                 || origIt.hasNext();
     }
 
+    /**
+     * Checks which of the given items pass the filters, using the parallel
+     * executor for large lists.
+     */
+    private boolean[] passesFilters(List<ITEMIDTYPE> itemIds,
+            final Collection<ITEMIDTYPE> passingItemIds) {
+        final List<ITEMIDTYPE> ids = itemIds instanceof RandomAccess ? itemIds
+                : new ArrayList<ITEMIDTYPE>(itemIds);
+        final boolean[] passes = new boolean[ids.size()];
+        ParallelTasks.runInRanges(parallelExecutor, passes.length,
+                new RangeTask() {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            ITEMIDTYPE id = ids.get(i);
+                            passes[i] = passingItemIds.contains(id)
+                                    || passesFilters(id);
+                        }
+                    }
+                });
+        return passes;
+    }
+
+    /**
+     * Checks if the result of filtering with the given filters can be
+     * remembered and reused. Other filters, e.g. custom filters using identity
+     * equality, may be changed while not in the container and thus give a
+     * different result when added again.
+     */
+    private static boolean isReusable(Collection<Filter> filters) {
+        for (Filter filter : filters) {
+            if (!isImmutable(filter)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isImmutable(Filter filter) {
+        Class<? extends Filter> type = filter.getClass();
+        if (type == And.class || type == Or.class) {
+            return isReusable(((AbstractJunctionFilter) filter).getFilters());
+        } else if (type == Not.class) {
+            return isImmutable(((Not) filter).getFilter());
+        }
+        return type == Compare.Equal.class || type == Compare.Greater.class
+                || type == Compare.Less.class
+                || type == Compare.GreaterOrEqual.class
+                || type == Compare.LessOrEqual.class
+                || type == SimpleStringFilter.class || type == IsNull.class
+                || type == Between.class;
+    }
+
+    /**
+     * Checks if all items passing the given new filters are certain to pass
+     * the old filters, based on the filters themselves.
+     */
+    private static boolean implies(Set<Filter> newFilters,
+            Set<Filter> oldFilters) {
+        for (Filter oldFilter : oldFilters) {
+            if (newFilters.contains(oldFilter)) {
+                continue;
+            }
+            boolean implied = false;
+            for (Filter newFilter : newFilters) {
+                if (implies(newFilter, oldFilter)) {
+                    implied = true;
+                    break;
+                }
+            }
+            if (!implied) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean implies(Filter newFilter, Filter oldFilter) {
+        if (newFilter.equals(oldFilter)) {
+            return true;
+        } else if (newFilter instanceof SimpleStringFilter
+                && oldFilter instanceof SimpleStringFilter) {
+            // e.g. one more character typed in a filter field
+            SimpleStringFilter newStringFilter = (SimpleStringFilter) newFilter;
+            SimpleStringFilter oldStringFilter = (SimpleStringFilter) oldFilter;
+            if (!newStringFilter.getPropertyId().equals(
+                    oldStringFilter.getPropertyId())
+                    || newStringFilter.isIgnoreCase() != oldStringFilter
+                            .isIgnoreCase()) {
+                return false;
+            }
+            String newString = newStringFilter.getFilterString();
+            String oldString = oldStringFilter.getFilterString();
+            if (oldStringFilter.isOnlyMatchPrefix()) {
+                return newStringFilter.isOnlyMatchPrefix()
+                        && newString.startsWith(oldString);
+            } else {
+                return newString.contains(oldString);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remembers the result of filtering with the given filters, to be used as
+     * a starting point when the filters change.
+     */
+    private void rememberFilterResult(Set<Filter> filters,
+            ListSet<ITEMIDTYPE> itemIds) {
+        if (filterResults == null) {
+            filterResults = new LinkedList<FilterResult<ITEMIDTYPE>>();
+        }
+        for (Iterator<FilterResult<ITEMIDTYPE>> i = filterResults.iterator(); i
+                .hasNext();) {
+            if (i.next().filters.equals(filters)) {
+                i.remove();
+            }
+        }
+        filterResults.addFirst(new FilterResult<ITEMIDTYPE>(
+                new HashSet<Filter>(filters),
+                new ListSet<ITEMIDTYPE>(itemIds)));
+        if (filterResults.size() > MAX_FILTER_RESULTS) {
+            filterResults.removeLast();
+        }
+    }
+
+    /**
+     * Discards the remembered results of earlier filtering, used for speeding
+     * up re-filtering when filters are added, removed or changed. This must be
+     * called whenever the items or their property values change in a way that
+     * can change the result of filtering.
+     * 
+     * @since 7.1
+     */
+    protected void clearFilteringCache() {
+        filterResults = null;
+    }
+
+    /**
+     * Returns the identifiers of the items that may pass the filters of the
+     * container according to the property indexes. All the returned items must
+     * still be checked using {@link #passesFilters(Object)}.
+     * 
+     * Subclasses that override {@link #passesFilters(Object)} to accept items
+     * that do not pass the filters should override this method to return null
+     * in those cases.
+     * 
+     * @return the candidate item identifiers in no particular order, or null
+     *         if the filters cannot be resolved using the property indexes and
+     *         all items need to be checked
+     */
+    protected Collection<ITEMIDTYPE> getFilterCandidates() {
+        if (propertyIndexes == null) {
+            return null;
+        }
+        // checking all items is faster than ordering the candidates if most
+        // items are candidates
+        int maxCandidates = getAllItemIds().size() / 2;
+        // all filters must pass, so the smallest candidate set is enough
+        Collection<ITEMIDTYPE> candidates = null;
+        for (Filter filter : getFilters()) {
+            Collection<ITEMIDTYPE> filterCandidates = getFilterCandidates(
+                    filter, maxCandidates);
+            if (filterCandidates != null
+                    && (candidates == null || filterCandidates.size() < candidates
+                            .size())) {
+                candidates = filterCandidates;
+            }
+        }
+        if (candidates != null && candidates.size() > maxCandidates) {
+            return null;
+        }
+        return candidates;
+    }
+
+    private Collection<ITEMIDTYPE> getFilterCandidates(Filter filter,
+            int maxCandidates) {
+        if (filter instanceof And) {
+            Collection<ITEMIDTYPE> candidates = null;
+            for (Filter subFilter : ((And) filter).getFilters()) {
+                Collection<ITEMIDTYPE> subCandidates = getFilterCandidates(
+                        subFilter, maxCandidates);
+                if (subCandidates != null
+                        && (candidates == null || subCandidates.size() < candidates
+                                .size())) {
+                    candidates = subCandidates;
+                }
+            }
+            return candidates;
+        } else if (filter instanceof Or) {
+            Set<ITEMIDTYPE> candidates = new HashSet<ITEMIDTYPE>();
+            for (Filter subFilter : ((Or) filter).getFilters()) {
+                Collection<ITEMIDTYPE> subCandidates = getFilterCandidates(
+                        subFilter, maxCandidates);
+                if (subCandidates == null) {
+                    return null;
+                }
+                candidates.addAll(subCandidates);
+                if (candidates.size() > maxCandidates) {
+                    return null;
+                }
+            }
+            return candidates;
+        }
+        for (PropertyValueIndex<ITEMIDTYPE> index : propertyIndexes.values()) {
+            if (filter.appliesToProperty(index.getPropertyId())) {
+                return index.getCandidates(filter, maxCandidates);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Orders the given item identifiers in the order they are in the full item
+     * identifier list.
+     */
+    private List<ITEMIDTYPE> inContainerOrder(Collection<ITEMIDTYPE> itemIds) {
+        List<ITEMIDTYPE> allItemIds = getAllItemIds();
+        if (itemIdPositions == null
+                || itemIdPositions.size() != allItemIds.size()) {
+            itemIdPositions = new HashMap<ITEMIDTYPE, Integer>(
+                    allItemIds.size() * 2);
+            int position = 0;
+            for (ITEMIDTYPE itemId : allItemIds) {
+                itemIdPositions.put(itemId, position++);
+            }
+        }
+
+        BitSet positions = new BitSet(allItemIds.size());
+        for (ITEMIDTYPE itemId : itemIds) {
+            Integer position = itemIdPositions.get(itemId);
+            if (position != null) {
+                positions.set(position);
+            }
+        }
+        List<ITEMIDTYPE> ordered = new ArrayList<ITEMIDTYPE>(
+                positions.cardinality());
+        for (int i = positions.nextSetBit(0); i >= 0; i = positions
+                .nextSetBit(i + 1)) {
+            ordered.add(allItemIds.get(i));
+        }
+        return ordered;
+    }
+
     /**
      * Checks if the given itemId passes the filters set for the container. The
      * caller should make sure the itemId exists in the container. For
@@ -492,6 +878,12 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
      * added and an {@link UnsupportedFilterException} may occur when performing
      * filtering.
      * 
+     * Results of filtering with the built-in immutable filters are remembered
+     * and reused when the same filters are added again. If the items have been
+     * modified without the container being notified, e.g. beans changed
+     * directly, call {@link #removeAllFilters()} before adding the filters
+     * again to check all items.
+     * 
      * @throws UnsupportedFilterException
      *             if the filter is detected as not supported by the container
      */
@@ -539,6 +931,9 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
             return;
         }
         getFilters().clear();
+        // re-adding filters checks all items again, e.g. after beans in the
+        // container have been modified directly
+        clearFilteringCache();
         filterAll();
     }
 
@@ -593,6 +988,132 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
         return Collections.emptyList();
     }
 
+    // property indexes
+
+    /**
+     * Indexes the values of a property to speed up filtering the container
+     * with filters on the property.
+     * 
+     * {@link Compare.Equal} and {@link IsNull} filters can always use the
+     * index. If all non-null values of the property are {@link Comparable} and
+     * of the same class, the index is also used for other {@link Compare}
+     * filters, {@link Between} filters and {@link SimpleStringFilter}s that
+     * only match the prefix of the value. {@link And} and {@link Or} filters
+     * can use the indexes of their sub-filters.
+     * 
+     * The index is kept up to date when items are added or removed and when
+     * the value of the property changes through the {@link Property} API.
+     * Values must not change in a way that affects their equality or ordering
+     * without the container being notified.
+     * 
+     * This can be used to implement a public method for adding indexes in
+     * subclasses.
+     * 
+     * @param propertyId
+     *            the id of the property to index
+     * @return true if the index was added, false if the property is already
+     *         indexed or does not exist in the container
+     * @since 7.1
+     */
+    protected boolean addPropertyIndex(Object propertyId) {
+        if (propertyId == null
+                || !getContainerPropertyIds().contains(propertyId)
+                || (propertyIndexes != null && propertyIndexes
+                        .containsKey(propertyId))) {
+            return false;
+        }
+        PropertyValueIndex<ITEMIDTYPE> index = new PropertyValueIndex<ITEMIDTYPE>(
+                propertyId);
+        for (ITEMIDTYPE itemId : getAllItemIds()) {
+            index.put(itemId, getPropertyValue(getUnfilteredItem(itemId),
+                    propertyId));
+        }
+        if (propertyIndexes == null) {
+            propertyIndexes = new LinkedHashMap<Object, PropertyValueIndex<ITEMIDTYPE>>();
+        }
+        propertyIndexes.put(propertyId, index);
+        return true;
+    }
+
+    /**
+     * Removes the index of the values of a property.
+     * 
+     * This can be used to implement a public method for removing indexes in
+     * subclasses.
+     * 
+     * @param propertyId
+     *            the id of the property
+     * @return true if the index was removed, false if the property was not
+     *         indexed
+     * @since 7.1
+     */
+    protected boolean removePropertyIndex(Object propertyId) {
+        if (propertyIndexes == null
+                || propertyIndexes.remove(propertyId) == null) {
+            return false;
+        }
+        if (propertyIndexes.isEmpty()) {
+            propertyIndexes = null;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the ids of the properties that are indexed using
+     * {@link #addPropertyIndex(Object)}.
+     * 
+     * @return an unmodifiable collection of property ids, empty if no
+     *         properties are indexed
+     * @since 7.1
+     */
+    protected Collection<?> getIndexedPropertyIds() {
+        if (propertyIndexes == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableCollection(propertyIndexes.keySet());
+    }
+
+    /**
+     * Checks if the values of a property are indexed.
+     * 
+     * @param propertyId
+     *            the id of the property
+     * @return true if the property is indexed
+     * @since 7.1
+     */
+    protected boolean isPropertyIndexed(Object propertyId) {
+        return propertyIndexes != null
+                && propertyIndexes.containsKey(propertyId);
+    }
+
+    /**
+     * Updates the property index (if any) when the value of a property has
+     * changed. This should be called before the container is filtered again.
+     * 
+     * @param itemId
+     *            the id of the item
+     * @param propertyId
+     *            the id of the property that changed
+     * @param newValue
+     *            the new value of the property
+     * @since 7.1
+     */
+    protected void updatePropertyIndex(ITEMIDTYPE itemId, Object propertyId,
+            Object newValue) {
+        if (propertyIndexes != null) {
+            PropertyValueIndex<ITEMIDTYPE> index = propertyIndexes
+                    .get(propertyId);
+            if (index != null && getAllItemIds().contains(itemId)) {
+                index.put(itemId, newValue);
+            }
+        }
+    }
+
+    private static Object getPropertyValue(Item item, Object propertyId) {
+        Property<?> property = item.getItemProperty(propertyId);
+        return property == null ? null : property.getValue();
+    }
+
     // sorting
 
     /**
@@ -640,6 +1161,8 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
 
         // Perform the actual sort
         doSort();
+        itemIdPositions = null;
+        clearFilteringCache();
 
         // Post sort updates
         if (isFiltered()) {
@@ -659,7 +1182,118 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
      * 
      */
     protected void doSort() {
-        Collections.sort(getAllItemIds(), getItemSorter());
+        sortItemIds(getAllItemIds());
+    }
+
+    /**
+     * Sorts a list of item identifiers using the item sorter.
+     * 
+     * If the item sorter is a {@link DefaultItemSorter}, the values of the
+     * sort properties are looked up once for each item and then compared
+     * directly, and the parallel executor (if any) is used for sorting large
+     * lists. Other item sorters are used as such.
+     * 
+     * @param itemIds
+     *            the list of item identifiers to sort
+     * @since 7.1
+     */
+    protected void sortItemIds(List<?> itemIds) {
+        ItemSorter sorter = getItemSorter();
+        if (!(sorter instanceof DefaultItemSorter)
+                || !((DefaultItemSorter) sorter).isSortKeySupported()
+                || itemIds.size() < 2) {
+            Collections.sort(itemIds, sorter);
+            return;
+        }
+
+        final DefaultItemSorter keySorter = (DefaultItemSorter) sorter;
+        final Object[] ids = itemIds.toArray();
+        final SortKey[] keys = new SortKey[ids.length];
+        ParallelTasks.runInRanges(parallelExecutor, ids.length,
+                new RangeTask() {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            keys[i] = new SortKey(ids[i], keySorter
+                                    .getSortKey(ids[i]));
+                        }
+                    }
+                });
+        ParallelTasks.sort(keys, new SortKeyComparator(keySorter),
+                parallelExecutor);
+
+        @SuppressWarnings("unchecked")
+        ListIterator<Object> i = ((List<Object>) itemIds).listIterator();
+        for (SortKey key : keys) {
+            i.next();
+            i.set(key.itemId);
+        }
+    }
+
+    /**
+     * An item identifier with the values of its sort properties.
+     */
+    private static class SortKey implements Serializable {
+        private final Object itemId;
+        private final Object[] values;
+
+        private SortKey(Object itemId, Object[] values) {
+            this.itemId = itemId;
+            this.values = values;
+        }
+    }
+
+    private static class SortKeyComparator implements Comparator<SortKey>,
+            Serializable {
+        private final DefaultItemSorter sorter;
+
+        private SortKeyComparator(DefaultItemSorter sorter) {
+            this.sorter = sorter;
+        }
+
+        @Override
+        public int compare(SortKey key1, SortKey key2) {
+            return sorter.compareSortKeys(key1.values, key2.values);
+        }
+    }
+
+    // parallel sorting and filtering
+
+    /**
+     * Sets the executor used for sorting and filtering large containers in
+     * parallel. By default, sorting and filtering is done in the calling
+     * thread.
+     * 
+     * When an executor is set, the item properties used for sorting and
+     * filtering as well as the filters and the {@link Comparator} of a
+     * {@link DefaultItemSorter} must be safe to use from multiple threads at
+     * the same time. The calling thread does part of the work itself and waits
+     * for the tasks submitted to the executor to complete.
+     * 
+     * The executor is not serialized with the container.
+     * 
+     * This can be used to implement a public method for enabling parallel
+     * sorting and filtering in subclasses.
+     * 
+     * @param executor
+     *            the executor to use, or null to sort and filter in the
+     *            calling thread only
+     * @since 7.1
+     */
+    protected void setParallelExecutor(Executor executor) {
+        parallelExecutor = executor;
+    }
+
+    /**
+     * Returns the executor used for sorting and filtering large containers in
+     * parallel.
+     * 
+     * @return the executor, or null if sorting and filtering is done in the
+     *         calling thread only
+     * @since 7.1
+     */
+    protected Executor getParallelExecutor() {
+        return parallelExecutor;
     }
 
     /**
@@ -693,6 +1327,14 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
         if (isFiltered()) {
             getFilteredItemIds().clear();
         }
+        itemIdPositions = null;
+        clearFilteringCache();
+        if (propertyIndexes != null) {
+            for (PropertyValueIndex<ITEMIDTYPE> index : propertyIndexes
+                    .values()) {
+                index.clear();
+            }
+        }
     }
 
     /**
@@ -716,6 +1358,16 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
         if (result && isFiltered()) {
             getFilteredItemIds().remove(itemId);
         }
+        if (result) {
+            itemIdPositions = null;
+            clearFilteringCache();
+            if (propertyIndexes != null) {
+                for (PropertyValueIndex<ITEMIDTYPE> index : propertyIndexes
+                        .values()) {
+                    index.remove(itemId);
+                }
+            }
+        }
 
         return result;
     }
@@ -761,6 +1413,21 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
         // by the caller after calling this method.
         getAllItemIds().add(position, itemId);
         registerNewItem(position, itemId, item);
+        clearFilteringCache();
+
+        if (itemIdPositions != null) {
+            if (position == getAllItemIds().size() - 1) {
+                itemIdPositions.put(itemId, position);
+            } else {
+                itemIdPositions = null;
+            }
+        }
+        if (propertyIndexes != null) {
+            for (PropertyValueIndex<ITEMIDTYPE> index : propertyIndexes
+                    .values()) {
+                index.put(itemId, getPropertyValue(item, index.getPropertyId()));
+            }
+        }
 
         return item;
     }
@@ -978,6 +1645,8 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
     @Deprecated
     protected void setAllItemIds(List<ITEMIDTYPE> allItemIds) {
         this.allItemIds = allItemIds;
+        itemIdPositions = null;
+        clearFilteringCache();
     }
 
     /**
@@ -1003,6 +1672,7 @@ public abstract class AbstractInMemoryContainer<ITEMIDTYPE, PROPERTYIDCLASS, ITE
      */
     protected void setFilters(Set<Filter> filters) {
         this.filters = filters;
+        clearFilteringCache();
     }
 
     /**
@@ -153,6 +153,65 @@ public class DefaultItemSorter implements ItemSorter {
         return r;
     }
 
+    /**
+     * Checks whether items can be sorted by comparing the keys returned by
+     * {@link #getSortKey(Object)} instead of calling
+     * {@link #compare(Object, Object)}. Subclasses can override the comparison
+     * methods so this is only done for instances of this class itself.
+     * 
+     * @return true if sort keys can be used
+     */
+    boolean isSortKeySupported() {
+        return getClass() == DefaultItemSorter.class;
+    }
+
+    /**
+     * Gets the values of the sort properties for an item, so that they only
+     * need to be looked up once per item instead of once per comparison.
+     * 
+     * @param itemId
+     *            the id of the item
+     * @return the values of the sort properties, or null if the container
+     *         does not contain the item
+     */
+    Object[] getSortKey(Object itemId) {
+        Item item = container.getItem(itemId);
+        if (item == null) {
+            return null;
+        }
+        Object[] key = new Object[sortPropertyIds.length];
+        for (int i = 0; i < key.length; i++) {
+            Property<?> property = item.getItemProperty(sortPropertyIds[i]);
+            key[i] = (property == null) ? null : property.getValue();
+        }
+        return key;
+    }
+
+    /**
+     * Compares two keys returned by {@link #getSortKey(Object)}, giving the
+     * same result as {@link #compare(Object, Object)} for the corresponding
+     * items.
+     */
+    int compareSortKeys(Object[] key1, Object[] key2) {
+        if (key1 == null) {
+            return key2 == null ? 0 : 1;
+        } else if (key2 == null) {
+            return -1;
+        }
+        for (int i = 0; i < key1.length; i++) {
+            int result;
+            if (sortDirections[i]) {
+                result = propertyValueComparator.compare(key1[i], key2[i]);
+            } else {
+                result = propertyValueComparator.compare(key2[i], key1[i]);
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
     /*
      * (non-Javadoc)
      * 
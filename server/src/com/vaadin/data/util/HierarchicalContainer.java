@@ -656,9 +656,9 @@ public class HierarchicalContainer extends IndexedContainer implements
     protected void doSort() {
         super.doSort();
 
-        Collections.sort(roots, getItemSorter());
+        sortItemIds(roots);
         for (LinkedList<Object> childList : children.values()) {
-            Collections.sort(childList, getItemSorter());
+            sortItemIds(childList);
         }
     }
 
@@ -702,6 +702,9 @@ public class HierarchicalContainer extends IndexedContainer implements
      */
     @Override
     protected boolean doFilterContainer(boolean hasFilters) {
+        // earlier results do not take changes in the hierarchy into account
+        clearFilteringCache();
+
         if (!hasFilters) {
             // All filters removed
             filteredRoots = null;
@@ -853,6 +856,16 @@ public class HierarchicalContainer extends IndexedContainer implements
         }
     }
 
+    @Override
+    protected Collection<Object> getFilterCandidates() {
+        if (filterOverride != null) {
+            // also parents of matching items are included
+            return null;
+        } else {
+            return super.getFilterCandidates();
+        }
+    }
+
     private static final Logger getLogger() {
         return Logger.getLogger(HierarchicalContainer.class.getName());
     }
@@ -28,6 +28,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -337,6 +338,8 @@ public class IndexedContainer extends
         if (defaultPropertyValues != null) {
             defaultPropertyValues.remove(propertyId);
         }
+        removePropertyIndex(propertyId);
+        clearFilteringCache();
 
         // If remove the Property from all Items
         for (final Iterator<Object> i = getAllItemIds().iterator(); i.hasNext();) {
@@ -945,6 +948,9 @@ public class IndexedContainer extends
                                 + getType().getName() + " was expected");
             }
 
+            updatePropertyIndex(itemId, propertyId, newValue);
+            clearFilteringCache();
+
             // update the container filtering if this property is being filtered
             if (isPropertyFiltered(propertyId)) {
                 filterAll();
@@ -1179,6 +1185,13 @@ public class IndexedContainer extends
         removeFilters(propertyId);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Results of filtering with the built-in filters are remembered and reused
+     * when the same filters are added again, see {@link #addFilter(Filter)}.
+     * </p>
+     */
     @Override
     public void addContainerFilter(Filter filter)
             throws UnsupportedFilterException {
@@ -1195,4 +1208,51 @@ public class IndexedContainer extends
         return super.hasContainerFilters();
     }
 
+    /**
+     * Indexes the values of a property to speed up filtering by the property.
+     * See {@link AbstractInMemoryContainer#addPropertyIndex(Object)} for the
+     * supported filters.
+     * 
+     * @param propertyId
+     *            the id of the property to index
+     * @return true if the index was added, false if the property is already
+     *         indexed or does not exist in the container
+     * @since 7.1
+     */
+    @Override
+    public boolean addPropertyIndex(Object propertyId) {
+        return super.addPropertyIndex(propertyId);
+    }
+
+    @Override
+    public boolean removePropertyIndex(Object propertyId) {
+        return super.removePropertyIndex(propertyId);
+    }
+
+    @Override
+    public Collection<?> getIndexedPropertyIds() {
+        return super.getIndexedPropertyIds();
+    }
+
+    /**
+     * Sets the executor used for sorting and filtering large containers in
+     * parallel. See
+     * {@link AbstractInMemoryContainer#setParallelExecutor(Executor)} for the
+     * requirements on the properties and filters used.
+     * 
+     * @param executor
+     *            the executor to use, or null to sort and filter in the
+     *            calling thread only
+     * @since 7.1
+     */
+    @Override
+    public void setParallelExecutor(Executor executor) {
+        super.setParallelExecutor(executor);
+    }
+
+    @Override
+    public Executor getParallelExecutor() {
+        return super.getParallelExecutor();
+    }
+
 }
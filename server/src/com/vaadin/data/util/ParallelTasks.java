@@ -0,0 +1,263 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.data.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Helpers for splitting the work done on large in-memory containers into
+ * tasks run using an {@link Executor}. The calling thread runs one of the tasks
+ * itself and waits for the others to complete.
+ * 
+ * @see AbstractInMemoryContainer#setParallelExecutor(Executor)
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+class ParallelTasks {
+
+    /**
+     * The minimum number of elements handled by one task. Lists smaller than
+     * two times this are always handled in the calling thread.
+     */
+    static final int MIN_RANGE_SIZE = 5000;
+
+    /**
+     * A task operating on a range of indexes.
+     */
+    interface RangeTask extends Serializable {
+        /**
+         * Runs the task for the given range.
+         * 
+         * @param from
+         *            the first index to handle (inclusive)
+         * @param to
+         *            the last index to handle (exclusive)
+         */
+        void run(int from, int to);
+    }
+
+    private ParallelTasks() {
+        // only static helpers
+    }
+
+    /**
+     * Splits the range from 0 to size into about equal parts, at most one per
+     * available processor.
+     * 
+     * @param size
+     *            the number of elements
+     * @return the boundaries of the ranges, starting with 0 and ending with
+     *         size
+     */
+    static int[] getRangeBounds(int size) {
+        int ranges = Math.min(Runtime.getRuntime().availableProcessors(),
+                size / MIN_RANGE_SIZE);
+        ranges = Math.max(1, ranges);
+        int[] bounds = new int[ranges + 1];
+        for (int i = 0; i <= ranges; i++) {
+            bounds[i] = (int) ((long) size * i / ranges);
+        }
+        return bounds;
+    }
+
+    /**
+     * Runs a task for all the elements from 0 to size, split into ranges as
+     * returned by {@link #getRangeBounds(int)}. If the executor is null or the
+     * size is small, the task is run for the whole range in the calling thread.
+     * 
+     * @param executor
+     *            the executor to use, or null to run in the calling thread
+     * @param size
+     *            the number of elements
+     * @param task
+     *            the task to run for each range
+     */
+    static void runInRanges(Executor executor, int size, RangeTask task) {
+        if (executor == null) {
+            task.run(0, size);
+        } else {
+            runAll(executor, getRangeBounds(size), task);
+        }
+    }
+
+    /**
+     * Sorts an array using the given comparator. The sort is stable and gives
+     * the same result as {@link Arrays#sort(Object[], Comparator)}, but if an
+     * executor is given, large arrays are sorted in parts that are then merged
+     * in parallel. The comparator must thus be safe to use from multiple
+     * threads.
+     * 
+     * @param array
+     *            the array to sort
+     * @param comparator
+     *            the comparator to use
+     * @param executor
+     *            the executor to use, or null to sort in the calling thread
+     */
+    static <T> void sort(final T[] array, final Comparator<? super T> comparator,
+            Executor executor) {
+        int[] bounds = getRangeBounds(array.length);
+        if (executor == null || bounds.length <= 2) {
+            Arrays.sort(array, comparator);
+            return;
+        }
+
+        runAll(executor, bounds, new RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                Arrays.sort(array, from, to, comparator);
+            }
+        });
+
+        // Merge pairs of adjacent sorted ranges until only one remains
+        T[] source = array;
+        T[] target = array.clone();
+        while (bounds.length > 2) {
+            final int[] sortedBounds = bounds;
+            final T[] mergeSource = source;
+            final T[] mergeTarget = target;
+            int[] mergedBounds = new int[(bounds.length) / 2 + 1];
+            for (int i = 0; i < mergedBounds.length - 1; i++) {
+                mergedBounds[i] = bounds[2 * i];
+            }
+            mergedBounds[mergedBounds.length - 1] = array.length;
+            runAll(executor, mergedBounds, new RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    int index = Arrays.binarySearch(sortedBounds, from);
+                    int middle = Math.min(sortedBounds[index + 1], to);
+                    merge(mergeSource, mergeTarget, from, middle, to,
+                            comparator);
+                }
+            });
+
+            source = mergeTarget;
+            target = mergeSource;
+            bounds = mergedBounds;
+        }
+        if (source != array) {
+            System.arraycopy(source, 0, array, 0, array.length);
+        }
+    }
+
+    /**
+     * Merges the sorted ranges from-middle and middle-to of the source array
+     * to the target array, taking elements from the first range when equal.
+     */
+    private static <T> void merge(T[] source, T[] target, int from,
+            int middle, int to, Comparator<? super T> comparator) {
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to
+                    || (left < middle && comparator.compare(source[left],
+                            source[right]) <= 0)) {
+                target[i] = source[left++];
+            } else {
+                target[i] = source[right++];
+            }
+        }
+    }
+
+    /**
+     * Runs a task for each range, the last one in the calling thread and the
+     * others using the executor, and waits for all of them to complete. If
+     * the executor rejects a task, the remaining ranges are run in the
+     * calling thread. The first runtime exception or error thrown by a task
+     * is then rethrown.
+     */
+    private static void runAll(Executor executor, int[] bounds, RangeTask task) {
+        int last = bounds.length - 2;
+        List<FutureTask<Object>> futures = new ArrayList<FutureTask<Object>>(
+                last + 1);
+        boolean rejected = false;
+        for (int i = 0; i <= last; i++) {
+            FutureTask<Object> future = new FutureTask<Object>(new RangeCall(
+                    task, bounds[i], bounds[i + 1]));
+            if (i < last && !rejected) {
+                try {
+                    executor.execute(future);
+                } catch (RejectedExecutionException e) {
+                    // e.g. shut down or saturated executor
+                    rejected = true;
+                    future.run();
+                }
+            } else {
+                future.run();
+            }
+            futures.add(future);
+        }
+
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (FutureTask<Object> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // the tasks are still using the data, keep waiting
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    private static class RangeCall implements Callable<Object>, Serializable {
+        private final RangeTask task;
+        private final int from;
+        private final int to;
+
+        private RangeCall(RangeTask task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Object call() {
+            task.run(from, to);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.data.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.util.filter.Between;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.IsNull;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+
+/**
+ * An index from the values of one property to the identifiers of the items
+ * having that value. Used by {@link AbstractInMemoryContainer} to find the
+ * items that can pass a filter without evaluating the filter for every item in
+ * the container.
+ * 
+ * As long as all non-null values are {@link Comparable} and of the same class,
+ * the values are kept sorted so that {@link Compare} and {@link Between}
+ * filters and prefix matching {@link SimpleStringFilter}s can be resolved
+ * using a range of the index. Otherwise, only equality and null checks are
+ * supported.
+ * 
+ * The index is only used to narrow down the items to evaluate: the filters
+ * are still evaluated for all the returned items.
+ * 
+ * This class is an internal Vaadin class and subject to change.
+ * 
+ * @param <ID>
+ *            the class of item identifiers in the index
+ * 
+ * @since 7.1
+ */
+class PropertyValueIndex<ID> implements Serializable {
+
+    private final Object propertyId;
+
+    /**
+     * The indexed value of each item, needed for removing and updating items.
+     */
+    private final Map<ID, Object> itemValues = new HashMap<ID, Object>();
+
+    /**
+     * The identifiers of the items with a given non-null value. A
+     * {@link TreeMap} while the index is sorted. The map values are either a
+     * single item id or an {@link IdSet} when several items have the same
+     * value, as most values are typically unique.
+     */
+    private Map<Object, Object> valueToIds = new TreeMap<Object, Object>();
+
+    /**
+     * The class of all non-null values while the index is sorted, null if
+     * there are no non-null values.
+     */
+    private Class<?> valueClass = null;
+
+    private boolean sorted = true;
+
+    private final Set<ID> nullIds = new HashSet<ID>();
+
+    /**
+     * The identifiers of the items by the lower case string representation of
+     * their value. Only created when first needed for case insensitive prefix
+     * matching.
+     */
+    private TreeMap<String, Object> lowerCaseToIds = null;
+
+    /**
+     * The identifiers of the items sharing a value in the index maps.
+     */
+    private static final class IdSet<ID> extends HashSet<ID> {
+    }
+
+    /**
+     * Creates an empty index for the given property.
+     * 
+     * @param propertyId
+     *            the id of the indexed property
+     */
+    PropertyValueIndex(Object propertyId) {
+        this.propertyId = propertyId;
+    }
+
+    /**
+     * Returns the id of the indexed property.
+     * 
+     * @return the property id
+     */
+    Object getPropertyId() {
+        return propertyId;
+    }
+
+    /**
+     * Adds an item to the index or updates the value of an item that is
+     * already in the index.
+     * 
+     * @param itemId
+     *            the id of the item
+     * @param value
+     *            the current value of the indexed property in the item
+     */
+    void put(ID itemId, Object value) {
+        if (itemValues.containsKey(itemId)) {
+            Object oldValue = itemValues.get(itemId);
+            if (oldValue == value
+                    || (oldValue != null && oldValue.equals(value))) {
+                return;
+            }
+            remove(itemId);
+        }
+
+        if (value == null) {
+            nullIds.add(itemId);
+        } else {
+            if (sorted && !isSortable(value)) {
+                makeUnsorted();
+            }
+            if (sorted) {
+                valueClass = value.getClass();
+            }
+            addId(valueToIds, value, itemId);
+            if (lowerCaseToIds != null) {
+                addId(lowerCaseToIds, value.toString().toLowerCase(), itemId);
+            }
+        }
+        itemValues.put(itemId, value);
+    }
+
+    /**
+     * Removes an item from the index.
+     * 
+     * @param itemId
+     *            the id of the item to remove
+     */
+    void remove(Object itemId) {
+        if (!itemValues.containsKey(itemId)) {
+            return;
+        }
+        Object value = itemValues.remove(itemId);
+        if (value == null) {
+            nullIds.remove(itemId);
+        } else {
+            removeId(valueToIds, value, itemId);
+            if (lowerCaseToIds != null) {
+                removeId(lowerCaseToIds, value.toString().toLowerCase(),
+                        itemId);
+            }
+        }
+    }
+
+    /**
+     * Removes all items from the index.
+     */
+    void clear() {
+        itemValues.clear();
+        valueToIds.clear();
+        nullIds.clear();
+        lowerCaseToIds = null;
+        if (sorted) {
+            valueClass = null;
+        }
+    }
+
+    /**
+     * Returns the identifiers of the items that may pass the given filter. The
+     * returned collection always contains all the items in the index that pass
+     * the filter but may also contain items that do not.
+     * 
+     * The returned collection must not be modified and is only valid until the
+     * index is next changed.
+     * 
+     * @param filter
+     *            the filter to resolve
+     * @param maxCandidates
+     *            the number of candidates after which collecting the candidates
+     *            from a range of values can be stopped, as the index would not
+     *            help enough
+     * @return the candidate item ids or null if the filter cannot be resolved
+     *         using this index or there are too many candidates
+     */
+    Collection<ID> getCandidates(Filter filter, int maxCandidates) {
+        if (filter instanceof IsNull) {
+            if (propertyId.equals(((IsNull) filter).getPropertyId())) {
+                return nullIds;
+            }
+        } else if (filter instanceof Compare) {
+            Compare compare = (Compare) filter;
+            if (propertyId.equals(compare.getPropertyId())) {
+                return getCandidates(compare, maxCandidates);
+            }
+        } else if (filter instanceof Between) {
+            Between between = (Between) filter;
+            if (propertyId.equals(between.getPropertyId())) {
+                return getCandidates(between, maxCandidates);
+            }
+        } else if (filter instanceof SimpleStringFilter) {
+            SimpleStringFilter stringFilter = (SimpleStringFilter) filter;
+            if (propertyId.equals(stringFilter.getPropertyId())) {
+                return getCandidates(stringFilter, maxCandidates);
+            }
+        }
+        return null;
+    }
+
+    private Collection<ID> getCandidates(Compare filter, int maxCandidates) {
+        Object value = filter.getValue();
+        if (value == null) {
+            return filter.getOperation() == Compare.Operation.EQUAL ? nullIds
+                    : null;
+        }
+        if (!sorted) {
+            // Compare uses equals() only for non-comparable values
+            if (filter.getOperation() == Compare.Operation.EQUAL
+                    && !(value instanceof Comparable)) {
+                return getIds(valueToIds, value);
+            }
+            return null;
+        }
+        if (!(value instanceof Comparable)
+                || (valueClass != null && valueClass != value.getClass())) {
+            return null;
+        }
+
+        NavigableMap<Object, Object> sortedValues = getSortedValues();
+        switch (filter.getOperation()) {
+        case EQUAL:
+            return getIds(sortedValues, value);
+        case GREATER:
+            // Compare considers null greater than any value
+            return collectIds(sortedValues.tailMap(value, false), nullIds,
+                    maxCandidates);
+        case GREATER_OR_EQUAL:
+            return collectIds(sortedValues.tailMap(value, true), nullIds,
+                    maxCandidates);
+        case LESS:
+            return collectIds(sortedValues.headMap(value, false), null,
+                    maxCandidates);
+        case LESS_OR_EQUAL:
+            return collectIds(sortedValues.headMap(value, true), null,
+                    maxCandidates);
+        }
+        return null;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private Collection<ID> getCandidates(Between filter,
+            int maxCandidates) {
+        Comparable start = filter.getStartValue();
+        Comparable end = filter.getEndValue();
+        if (!sorted || start == null || end == null) {
+            return null;
+        }
+        if (valueClass == null) {
+            return Collections.emptyList();
+        }
+        if (valueClass != start.getClass() || valueClass != end.getClass()) {
+            return null;
+        }
+        if (start.compareTo(end) > 0) {
+            return Collections.emptyList();
+        }
+        return collectIds(getSortedValues().subMap(start, true, end, true),
+                null, maxCandidates);
+    }
+
+    private Collection<ID> getCandidates(SimpleStringFilter filter,
+            int maxCandidates) {
+        if (!filter.isOnlyMatchPrefix()) {
+            return null;
+        }
+        String prefix = filter.getFilterString();
+        if (filter.isIgnoreCase()) {
+            if (lowerCaseToIds == null) {
+                lowerCaseToIds = new TreeMap<String, Object>();
+                for (Entry<ID, Object> entry : itemValues.entrySet()) {
+                    if (entry.getValue() != null) {
+                        addId(lowerCaseToIds, entry.getValue().toString()
+                                .toLowerCase(), entry.getKey());
+                    }
+                }
+            }
+            return collectPrefixIds(lowerCaseToIds, prefix, maxCandidates);
+        } else if (sorted
+                && (valueClass == null || valueClass == String.class)) {
+            return collectPrefixIds(getSortedValues(), prefix,
+                    maxCandidates);
+        }
+        return null;
+    }
+
+    private NavigableMap<Object, Object> getSortedValues() {
+        return (NavigableMap<Object, Object>) valueToIds;
+    }
+
+    private boolean isSortable(Object value) {
+        return value instanceof Comparable
+                && (valueClass == null || valueClass == value.getClass());
+    }
+
+    /**
+     * Switches to hash based indexing when a value that cannot be compared to
+     * the existing values is added.
+     */
+    private void makeUnsorted() {
+        sorted = false;
+        valueClass = null;
+        valueToIds = new HashMap<Object, Object>();
+        for (Entry<ID, Object> entry : itemValues.entrySet()) {
+            if (entry.getValue() != null) {
+                addId(valueToIds, entry.getValue(), entry.getKey());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<ID> getIds(Map<Object, Object> map, Object value) {
+        Object ids = map.get(value);
+        if (ids == null) {
+            return Collections.emptySet();
+        } else if (ids instanceof IdSet) {
+            return (IdSet<ID>) ids;
+        } else {
+            return Collections.singleton((ID) ids);
+        }
+    }
+
+    private List<ID> collectIds(Map<?, Object> range, Set<ID> extraIds,
+            int maxCandidates) {
+        List<ID> ids = new ArrayList<ID>();
+        if (extraIds != null) {
+            ids.addAll(extraIds);
+        }
+        for (Object valueIds : range.values()) {
+            addIds(ids, valueIds);
+            if (ids.size() > maxCandidates) {
+                return null;
+            }
+        }
+        return ids;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <K> List<ID> collectPrefixIds(NavigableMap<K, Object> map,
+            String prefix, int maxCandidates) {
+        List<ID> ids = new ArrayList<ID>();
+        for (Entry<K, Object> entry : map.tailMap((K) prefix, true)
+                .entrySet()) {
+            if (!entry.getKey().toString().startsWith(prefix)) {
+                break;
+            }
+            addIds(ids, entry.getValue());
+            if (ids.size() > maxCandidates) {
+                return null;
+            }
+        }
+        return ids;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addIds(List<ID> ids, Object valueIds) {
+        if (valueIds instanceof IdSet) {
+            ids.addAll((IdSet<ID>) valueIds);
+        } else {
+            ids.add((ID) valueIds);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> void addId(Map<K, Object> map, K key, Object itemId) {
+        Object ids = map.get(key);
+        if (ids == null) {
+            map.put(key, itemId);
+        } else if (ids instanceof IdSet) {
+            ((IdSet<Object>) ids).add(itemId);
+        } else {
+            IdSet<Object> idSet = new IdSet<Object>();
+            idSet.add(ids);
+            idSet.add(itemId);
+            map.put(key, idSet);
+        }
+    }
+
+    private static <K> void removeId(Map<K, Object> map, K key, Object itemId) {
+        Object ids = map.get(key);
+        if (ids instanceof IdSet) {
+            IdSet<?> idSet = (IdSet<?>) ids;
+            idSet.remove(itemId);
+            if (idSet.size() == 1) {
+                map.put(key, idSet.iterator().next());
+            }
+        } else if (ids != null && ids.equals(itemId)) {
+            map.remove(key);
+        }
+    }
+}
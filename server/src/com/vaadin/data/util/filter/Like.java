@@ -15,14 +15,132 @@
  */
 package com.vaadin.data.util.filter;
 
+import java.io.Serializable;
+import java.util.regex.Pattern;
+
 import com.vaadin.data.Container.Filter;
 import com.vaadin.data.Item;
 
 public class Like implements Filter {
+
+    /**
+     * How the value is matched in memory, determined from the positions of the
+     * % wildcards in the filter value.
+     */
+    private enum MatchMode {
+        EQUALS, STARTS_WITH, ENDS_WITH, CONTAINS, ANY, PATTERN
+    }
+
+    /**
+     * Immutable description of how to match column values against the filter
+     * value with a given case sensitivity. Safe to share between threads
+     * filtering concurrently.
+     */
+    private static final class Matcher implements Serializable {
+        private final MatchMode matchMode;
+        private final String matchString;
+        private final Pattern pattern;
+        private final boolean ignoreCase;
+
+        /**
+         * Determines how to match the value. Values with % only at the
+         * beginning and/or the end are matched using plain string comparisons,
+         * other values are compiled once to a regular expression in which
+         * everything except % is matched literally.
+         */
+        private Matcher(String value, boolean caseSensitive) {
+            ignoreCase = !caseSensitive;
+            int start = 0;
+            int end = value.length();
+            while (start < end && value.charAt(start) == '%') {
+                start++;
+            }
+            while (end > start && value.charAt(end - 1) == '%') {
+                end--;
+            }
+            boolean leadingWildcard = start > 0;
+            boolean trailingWildcard = end < value.length();
+            matchString = value.substring(start, end);
+
+            if (matchString.indexOf('%') != -1) {
+                StringBuilder regex = new StringBuilder();
+                int segmentStart = 0;
+                for (int i = 0; i <= value.length(); i++) {
+                    if (i == value.length() || value.charAt(i) == '%') {
+                        if (i > segmentStart) {
+                            regex.append(Pattern.quote(value.substring(
+                                    segmentStart, i)));
+                        }
+                        if (i < value.length()) {
+                            regex.append(".*");
+                        }
+                        segmentStart = i + 1;
+                    }
+                }
+                int flags = Pattern.DOTALL;
+                if (ignoreCase) {
+                    flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+                }
+                pattern = Pattern.compile(regex.toString(), flags);
+                matchMode = MatchMode.PATTERN;
+            } else {
+                pattern = null;
+                if (matchString.length() == 0 && leadingWildcard) {
+                    matchMode = MatchMode.ANY;
+                } else if (leadingWildcard && trailingWildcard) {
+                    matchMode = MatchMode.CONTAINS;
+                } else if (leadingWildcard) {
+                    matchMode = MatchMode.ENDS_WITH;
+                } else if (trailingWildcard) {
+                    matchMode = MatchMode.STARTS_WITH;
+                } else {
+                    matchMode = MatchMode.EQUALS;
+                }
+            }
+        }
+
+        private boolean matches(String colValue) {
+            int length = matchString.length();
+            switch (matchMode) {
+            case EQUALS:
+                return colValue.length() == length
+                        && colValue.regionMatches(ignoreCase, 0, matchString,
+                                0, length);
+            case STARTS_WITH:
+                return colValue.regionMatches(ignoreCase, 0, matchString, 0,
+                        length);
+            case ENDS_WITH:
+                return colValue.regionMatches(ignoreCase, colValue.length()
+                        - length, matchString, 0, length);
+            case CONTAINS:
+                if (!ignoreCase) {
+                    return colValue.indexOf(matchString) != -1;
+                }
+                for (int i = colValue.length() - length; i >= 0; i--) {
+                    if (colValue.regionMatches(true, i, matchString, 0,
+                            length)) {
+                        return true;
+                    }
+                }
+                return false;
+            case ANY:
+                return true;
+            default:
+                return pattern.matcher(colValue).matches();
+            }
+        }
+    }
+
     private final Object propertyId;
     private final String value;
     private boolean caseSensitive;
 
+    /*
+     * Prepared whenever the case sensitivity is set. Not serialized, so it is
+     * prepared again on the first in-memory match after deserialization.
+     */
+    private transient volatile Matcher matcher;
+
     public Like(String propertyId, String value) {
         this(propertyId, value, true);
     }
@@ -43,6 +161,8 @@ public class Like implements Filter {
 
     public void setCaseSensitive(boolean caseSensitive) {
         this.caseSensitive = caseSensitive;
+        matcher = getValue() != null ? new Matcher(getValue(),
+                caseSensitive) : null;
     }
 
     public boolean isCaseSensitive() {
@@ -59,12 +179,15 @@ public class Like implements Filter {
         }
         String colValue = (String) item.getItemProperty(getPropertyId())
                 .getValue();
-
-        String pattern = getValue().replace("%", ".*");
-        if (isCaseSensitive()) {
-            return colValue.matches(pattern);
+        if (colValue == null) {
+            return false;
+        }
+        Matcher m = matcher;
+        if (m == null) {
+            m = new Matcher(getValue(), isCaseSensitive());
+            matcher = m;
         }
-        return colValue.toUpperCase().matches(pattern.toUpperCase());
+        return m.matches(colValue);
     }
 
     @Override
@@ -74,7 +197,8 @@ public class Like implements Filter {
 
     @Override
     public int hashCode() {
-        return getPropertyId().hashCode() + getValue().hashCode();
+        return getPropertyId().hashCode() + getValue().hashCode()
+                + (isCaseSensitive() ? 1 : 0);
     }
 
     @Override
@@ -90,6 +214,7 @@ public class Like implements Filter {
                 .equals(o.getPropertyId()) : null == o.getPropertyId();
         boolean valueEqual = (null != getValue()) ? getValue().equals(
                 o.getValue()) : null == o.getValue();
-        return propertyIdEqual && valueEqual;
+        return propertyIdEqual && valueEqual
+                && isCaseSensitive() == o.isCaseSensitive();
     }
 }
@@ -21,6 +21,7 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.vaadin.data.util.sqlcontainer.cache.RowCache;
 import com.vaadin.data.util.sqlcontainer.query.FreeformQuery;
 import com.vaadin.data.util.sqlcontainer.query.QueryDelegate;
 import com.vaadin.data.util.sqlcontainer.query.TableQuery;
@@ -71,6 +72,7 @@ class CacheFlushNotifier implements Serializable {
      */
     public static void notifyOfCacheFlush(SQLContainer c) {
         removeDeadReferences();
+        invalidateRowCache(c.getQueryDelegate());
         for (WeakReference<SQLContainer> wr : allInstances) {
             if (wr.get() != null) {
                 SQLContainer wrc = wr.get();
@@ -91,6 +93,10 @@ class CacheFlushNotifier implements Serializable {
                         && qd instanceof TableQuery
                         && ((TableQuery) wrQd).getTableName().equals(
                                 ((TableQuery) qd).getTableName())) {
+                    if (((TableQuery) wrQd).getRowCache() != ((TableQuery) qd)
+                            .getRowCache()) {
+                        invalidateRowCache(wrQd);
+                    }
                     wrc.refresh();
                 } else if (wrQd instanceof FreeformQuery
                         && qd instanceof FreeformQuery
@@ -101,4 +107,22 @@ class CacheFlushNotifier implements Serializable {
             }
         }
     }
+
+    /**
+     * Invalidates the rows of the table in the row cache of the given query
+     * delegate, if it uses one.
+     * 
+     * @param qd
+     *            the query delegate
+     */
+    private static void invalidateRowCache(QueryDelegate qd) {
+        if (qd instanceof TableQuery) {
+            TableQuery query = (TableQuery) qd;
+            RowCache rowCache = query.getRowCache();
+            if (rowCache != null) {
+                rowCache.invalidate(query.getDatabaseId(),
+                        query.getTableName());
+            }
+        }
+    }
 }
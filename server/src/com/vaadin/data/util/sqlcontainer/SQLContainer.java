@@ -16,9 +16,11 @@
 package com.vaadin.data.util.sqlcontainer;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -26,9 +28,11 @@ import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.EventObject;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,6 +43,8 @@ import com.vaadin.data.Property;
 import com.vaadin.data.util.filter.Compare.Equal;
 import com.vaadin.data.util.filter.Like;
 import com.vaadin.data.util.filter.UnsupportedFilterException;
+import com.vaadin.data.util.sqlcontainer.cache.CachedRow;
+import com.vaadin.data.util.sqlcontainer.cache.RowCache;
 import com.vaadin.data.util.sqlcontainer.query.OrderBy;
 import com.vaadin.data.util.sqlcontainer.query.QueryDelegate;
 import com.vaadin.data.util.sqlcontainer.query.QueryDelegate.RowIdChangeListener;
@@ -63,6 +69,7 @@ public class SQLContainer implements Container, Container.Filterable,
 
     /** Item and index caches */
     private final Map<Integer, RowId> itemIndexes = new HashMap<Integer, RowId>();
+    private final Map<RowId, Integer> itemIdIndexes = new HashMap<RowId, Integer>();
     private final CacheMap<RowId, RowItem> cachedItems = new CacheMap<RowId, RowItem>();
 
     /** Container properties = column names, data types and statuses */
@@ -83,17 +90,31 @@ public class SQLContainer implements Container, Container.Filterable,
      */
     private int size;
 
+    /**
+     * Default time in milliseconds for which the size fetched from the data
+     * source is considered valid.
+     */
+    public static final int DEFAULT_SIZE_VALID_MILLISECONDS = 10000;
+
     /**
      * Size updating logic. Do not update size from data source if it has been
      * updated in the last sizeValidMilliSeconds milliseconds.
      */
-    private final int sizeValidMilliSeconds = 10000;
+    private int sizeValidMilliSeconds = DEFAULT_SIZE_VALID_MILLISECONDS;
     private boolean sizeDirty = true;
     private Date sizeUpdated = new Date();
 
     /** Starting row number of the currently fetched page */
     private int currentOffset;
 
+    /**
+     * Values of the keyset columns in the last row of the latest fetched page
+     * and the offset of the row following it, used for fetching the next page
+     * using keyset pagination. Null if not known.
+     */
+    private transient Object[] keysetValues;
+    private transient int keysetOffset;
+
     /** ItemSetChangeListeners */
     private LinkedList<Container.ItemSetChangeListener> itemSetChangeListeners;
 
@@ -314,9 +335,21 @@ public class SQLContainer implements Container, Container.Filterable,
     }
 
     /**
-     * NOTE! Do not use this method if in any way avoidable. This method doesn't
-     * (and cannot) use lazy loading, which means that all rows in the database
-     * will be loaded into memory.
+     * Returns a list view of the item ids that loads the ids lazily. Iterating
+     * over the list fetches the rows from the data source in chunks of
+     * {@link #getPageLength()} x {@link #CACHE_RATIO} rows, only keeping the
+     * ids of the current chunk in memory, while accessing an id by its index
+     * works like {@link #getIdByIndex(int)}. The size of the list is the size
+     * of the container.
+     * <p>
+     * The returned list reflects the current state of the container. Changing
+     * the container while iterating over the list can cause ids to be skipped
+     * or returned twice.
+     * </p>
+     * <p>
+     * NOTE! Iterating over all the ids still reads all the rows of the table
+     * from the database, so it should be avoided for large tables.
+     * </p>
      * 
      * {@inheritDoc}
      */
@@ -324,53 +357,158 @@ public class SQLContainer implements Container, Container.Filterable,
     @Override
     public Collection<?> getItemIds() {
         updateCount();
-        ArrayList<RowId> ids = new ArrayList<RowId>();
-        ResultSet rs = null;
-        try {
-            // Load ALL rows :(
-            delegate.beginTransaction();
-            rs = delegate.getResults(0, 0);
-            List<String> pKeys = delegate.getPrimaryKeyColumns();
-            while (rs.next()) {
-                RowId id = null;
-                if (pKeys.isEmpty()) {
-                    /* Create a read only itemId */
-                    id = new ReadOnlyRowId(rs.getRow());
-                } else {
-                    /* Generate itemId for the row based on primary key(s) */
-                    Object[] itemId = new Object[pKeys.size()];
-                    for (int i = 0; i < pKeys.size(); i++) {
-                        itemId[i] = rs.getObject(pKeys.get(i));
-                    }
-                    id = new RowId(itemId);
-                }
-                if (id != null && !removedItems.containsKey(id)) {
-                    ids.add(id);
-                }
+        return new ItemIdList();
+    }
+
+    /**
+     * A read-only list view of the item ids of the container.
+     */
+    private class ItemIdList extends AbstractList<Object> implements
+            Serializable {
+
+        @Override
+        public Object get(int index) {
+            if (index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index
+                        + ", Size: " + size());
             }
-            rs.getStatement().close();
-            rs.close();
-            delegate.commit();
-        } catch (SQLException e) {
-            getLogger().log(Level.WARNING,
-                    "getItemIds() failed, rolling back.", e);
-            try {
-                delegate.rollback();
-            } catch (SQLException e1) {
-                getLogger().log(Level.SEVERE, "Failed to roll back state", e1);
+            return getIdByIndex(index);
+        }
+
+        @Override
+        public int size() {
+            return SQLContainer.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsId(o);
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return indexOfId(o);
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            return indexOfId(o);
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return new ItemIdIterator();
+        }
+    }
+
+    /**
+     * Iterates over the item ids of the container, fetching them from the
+     * data source in chunks, followed by the ids of added items.
+     */
+    private class ItemIdIterator implements Iterator<Object>, Serializable {
+        private final int chunkSize = pageLength * CACHE_RATIO;
+        private final LinkedList<Object> fetchedIds = new LinkedList<Object>();
+        private int offset = 0;
+        private Object[] lastKeysetValues = null;
+        private boolean allRowsFetched = false;
+        private Iterator<RowItem> addedItemIterator = null;
+
+        @Override
+        public boolean hasNext() {
+            while (fetchedIds.isEmpty() && !allRowsFetched) {
+                fetchIds();
+            }
+            if (!fetchedIds.isEmpty()) {
+                return true;
+            }
+            if (addedItemIterator == null) {
+                addedItemIterator = getFilteredAddedItems().iterator();
+            }
+            return addedItemIterator.hasNext();
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (!fetchedIds.isEmpty()) {
+                return fetchedIds.removeFirst();
             }
+            return addedItemIterator.next().getId();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void fetchIds() {
+            ResultSet rs = null;
             try {
+                try {
+                    delegate.setOrderBy(sorters);
+                } catch (UnsupportedOperationException e) {
+                    getLogger().log(Level.FINE,
+                            "The query delegate doesn't support sorting", e);
+                }
+                List<OrderBy> keysetOrderBy = getKeysetOrderBy();
+                boolean paged = delegate.implementationRespectsPagingLimits();
+                delegate.beginTransaction();
+                if (!paged) {
+                    rs = delegate.getResults(0, 0);
+                } else if (keysetOrderBy != null && lastKeysetValues != null) {
+                    rs = ((TableQuery) delegate).getIdResultsAfter(
+                            lastKeysetValues, chunkSize);
+                } else if (delegate instanceof TableQuery) {
+                    // only the identifying columns are needed
+                    rs = ((TableQuery) delegate).getIdResults(offset,
+                            chunkSize);
+                } else {
+                    rs = delegate.getResults(offset, chunkSize);
+                }
+                lastKeysetValues = null;
+                List<String> pKeys = delegate.getPrimaryKeyColumns();
+                int rows = 0;
+                while (rs.next()) {
+                    rows++;
+                    RowId id = getRowId(rs, pKeys, offset + rs.getRow());
+                    if (!removedItems.containsKey(id)) {
+                        fetchedIds.add(id);
+                    }
+                    if (keysetOrderBy != null && rows == chunkSize) {
+                        lastKeysetValues = getKeysetValues(rs, keysetOrderBy);
+                    }
+                }
+                offset += rows;
+                allRowsFetched = !paged || rows < chunkSize;
                 rs.getStatement().close();
                 rs.close();
-            } catch (SQLException e1) {
-                getLogger().log(Level.WARNING, "Closing session failed", e1);
+                delegate.commit();
+                getLogger().log(Level.FINER,
+                        "Fetched {0} item ids starting from {1}",
+                        new Object[] { rows, offset - rows });
+            } catch (SQLException e) {
+                getLogger().log(Level.WARNING,
+                        "getItemIds() failed, rolling back.", e);
+                try {
+                    delegate.rollback();
+                } catch (SQLException e1) {
+                    getLogger().log(Level.SEVERE, "Failed to roll back state",
+                            e1);
+                }
+                try {
+                    if (rs != null) {
+                        rs.getStatement().close();
+                        rs.close();
+                    }
+                } catch (SQLException e1) {
+                    getLogger().log(Level.WARNING, "Closing session failed",
+                            e1);
+                }
+                throw new RuntimeException("Failed to fetch item ids.", e);
             }
-            throw new RuntimeException("Failed to fetch item indexes.", e);
-        }
-        for (RowItem item : getFilteredAddedItems()) {
-            ids.add(item.getId());
         }
-        return Collections.unmodifiableCollection(ids);
     }
 
     /*
@@ -638,10 +776,9 @@ public class SQLContainer implements Container, Container.Filterable,
         int size = size();
         boolean wrappedAround = false;
         while (!wrappedAround) {
-            for (Integer i : itemIndexes.keySet()) {
-                if (itemIndexes.get(i).equals(itemId)) {
-                    return i;
-                }
+            Integer index = itemIdIndexes.get(itemId);
+            if (index != null) {
+                return index;
             }
             // load in the next page.
             int nextIndex = (currentOffset / (pageLength * CACHE_RATIO) + 1)
@@ -704,6 +841,9 @@ public class SQLContainer implements Container, Container.Filterable,
 
     @Override
     public Object nextItemId(Object itemId) {
+        if (canSeekFrom(itemId)) {
+            return seekItemId((RowId) itemId, true);
+        }
         int index = indexOfId(itemId) + 1;
         try {
             return getIdByIndex(index);
@@ -720,6 +860,9 @@ public class SQLContainer implements Container, Container.Filterable,
 
     @Override
     public Object prevItemId(Object itemId) {
+        if (canSeekFrom(itemId)) {
+            return seekItemId((RowId) itemId, false);
+        }
         int prevIndex = indexOfId(itemId) - 1;
         try {
             return getIdByIndex(prevIndex);
@@ -728,6 +871,93 @@ public class SQLContainer implements Container, Container.Filterable,
         }
     }
 
+    /**
+     * Checks whether the item following or preceding the given item should be
+     * found by querying the rows next to it in the current sort order instead
+     * of first finding out the index of the item, which can require reading
+     * through all rows. This is done for rows that are not in the currently
+     * cached page if the sort order identifies each row.
+     */
+    private boolean canSeekFrom(Object itemId) {
+        if (!(itemId instanceof RowId) || itemId instanceof TemporaryRowId
+                || itemId instanceof ReadOnlyRowId
+                || itemIdIndexes.containsKey(itemId)
+                || removedItems.containsKey(itemId)
+                || !(delegate instanceof TableQuery)) {
+            return false;
+        }
+        return ((TableQuery) delegate).isIdentifyingOrderBy(sorters);
+    }
+
+    /**
+     * Finds the item following or preceding the given item by querying the
+     * rows next to it in the current sort order.
+     * 
+     * @param itemId
+     *            the id of the item
+     * @param next
+     *            true to find the following item, false to find the preceding
+     *            item
+     * @return the id of the following or preceding item, or null if there is
+     *         no such item or the item is not in the container
+     */
+    private Object seekItemId(RowId itemId, boolean next) {
+        TableQuery query = (TableQuery) delegate;
+        query.setFilters(filters);
+        query.setOrderBy(sorters);
+        RowId found = null;
+        ResultSet rs = null;
+        try {
+            Object[] values = query.getKeysetValues(itemId.getId());
+            if (values == null) {
+                return null;
+            }
+            query.beginTransaction();
+            // removed rows are skipped
+            int rows = removedItems.size() + 1;
+            if (next) {
+                rs = query.getResultsAfter(values, rows);
+            } else {
+                rs = query.getResultsBefore(values, rows);
+            }
+            List<String> pKeys = query.getPrimaryKeyColumns();
+            while (found == null && rs.next()) {
+                RowId id = getRowId(rs, pKeys, 0);
+                if (!removedItems.containsKey(id)) {
+                    found = id;
+                }
+            }
+            rs.getStatement().close();
+            rs.close();
+            query.commit();
+        } catch (SQLException e) {
+            getLogger().log(Level.WARNING,
+                    "Failed to fetch adjacent row, rolling back", e);
+            try {
+                query.rollback();
+            } catch (SQLException e1) {
+                getLogger().log(Level.SEVERE, "Failed to roll back", e1);
+            }
+            try {
+                if (rs != null) {
+                    rs.getStatement().close();
+                    rs.close();
+                }
+            } catch (SQLException e1) {
+                getLogger().log(Level.WARNING, "Failed to close session", e1);
+            }
+            throw new RuntimeException("Failed to fetch adjacent row.", e);
+        }
+        if (found == null && next) {
+            // added items follow the rows in the database
+            List<RowItem> added = getFilteredAddedItems();
+            if (!added.isEmpty()) {
+                return added.get(0).getId();
+            }
+        }
+        return found;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -877,8 +1107,10 @@ public class SQLContainer implements Container, Container.Filterable,
             sizeDirty = true;
         }
         currentOffset = 0;
+        keysetValues = null;
         cachedItems.clear();
         itemIndexes.clear();
+        itemIdIndexes.clear();
         fireContentsChange();
     }
 
@@ -913,6 +1145,37 @@ public class SQLContainer implements Container, Container.Filterable,
         return autoCommit;
     }
 
+    /**
+     * Sets the time for which the size fetched from the data source is
+     * considered valid. The size is fetched again when it is needed after
+     * this time has passed. Regardless of this setting, the size is fetched
+     * again after the container has been refreshed, e.g. when filters or
+     * sorting change, changes are committed or a cache flush notification is
+     * received. Defaults to {@link #DEFAULT_SIZE_VALID_MILLISECONDS}.
+     * 
+     * @param sizeValidMilliSeconds
+     *            the time in milliseconds, 0 to fetch the size every time it
+     *            is needed or a negative value to only fetch it again after
+     *            the container has been refreshed
+     * @since 7.1
+     */
+    public void setSizeValidMilliSeconds(int sizeValidMilliSeconds) {
+        this.sizeValidMilliSeconds = sizeValidMilliSeconds;
+    }
+
+    /**
+     * Returns the time for which the size fetched from the data source is
+     * considered valid.
+     * 
+     * @see #setSizeValidMilliSeconds(int)
+     * @return the time in milliseconds, or a negative value if the size is
+     *         valid until the container is refreshed
+     * @since 7.1
+     */
+    public int getSizeValidMilliSeconds() {
+        return sizeValidMilliSeconds;
+    }
+
     /**
      * Returns the currently set page length.
      * 
@@ -981,32 +1244,37 @@ public class SQLContainer implements Container, Container.Filterable,
             getLogger().log(Level.FINER,
                     "Commiting changes through delegate...");
             delegate.beginTransaction();
-            /* Perform buffered deletions */
-            for (RowItem item : removedItems.values()) {
-                if (!delegate.removeRow(item)) {
-                    throw new SQLException("Removal failed for row with ID: "
-                            + item.getId());
+            if (canCommitInBatches()) {
+                commitInBatches((TableQuery) delegate);
+            } else {
+                /* Perform buffered deletions */
+                for (RowItem item : removedItems.values()) {
+                    if (!delegate.removeRow(item)) {
+                        throw new SQLException(
+                                "Removal failed for row with ID: "
+                                        + item.getId());
+                    }
                 }
-            }
-            /* Perform buffered modifications */
-            for (RowItem item : modifiedItems) {
-                if (delegate.storeRow(item) > 0) {
-                    /*
-                     * Also reset the modified state in the item in case it is
-                     * reused e.g. in a form.
-                     */
-                    item.commit();
-                } else {
-                    delegate.rollback();
-                    refresh();
-                    throw new ConcurrentModificationException(
-                            "Item with the ID '" + item.getId()
-                                    + "' has been externally modified.");
+                /* Perform buffered modifications */
+                for (RowItem item : modifiedItems) {
+                    if (delegate.storeRow(item) > 0) {
+                        /*
+                         * Also reset the modified state in the item in case
+                         * it is reused e.g. in a form.
+                         */
+                        item.commit();
+                    } else {
+                        delegate.rollback();
+                        refresh();
+                        throw new ConcurrentModificationException(
+                                "Item with the ID '" + item.getId()
+                                        + "' has been externally modified.");
+                    }
+                }
+                /* Perform buffered additions */
+                for (RowItem item : addedItems) {
+                    delegate.storeRow(item);
                 }
-            }
-            /* Perform buffered additions */
-            for (RowItem item : addedItems) {
-                delegate.storeRow(item);
             }
             delegate.commit();
             removedItems.clear();
@@ -1025,6 +1293,52 @@ public class SQLContainer implements Container, Container.Filterable,
         }
     }
 
+    /**
+     * Checks whether the buffered changes can be committed using JDBC batches.
+     * Subclasses of {@link TableQuery} may override
+     * {@link TableQuery#storeRow(RowItem)} and
+     * {@link TableQuery#removeRow(RowItem)}, so batches are only used with
+     * {@link TableQuery} itself.
+     */
+    private boolean canCommitInBatches() {
+        return delegate != null && delegate.getClass() == TableQuery.class;
+    }
+
+    /**
+     * Performs the buffered removals, modifications and additions using JDBC
+     * batches, in the same way as they are performed one row at a time for
+     * other query delegates.
+     */
+    private void commitInBatches(TableQuery query) throws SQLException {
+        Collection<RowItem> removed = removedItems.values();
+        int[] removeResults = query.removeRows(removed);
+        int index = 0;
+        for (RowItem item : removed) {
+            if (removeResults[index++] == 0) {
+                throw new SQLException("Removal failed for row with ID: "
+                        + item.getId());
+            }
+        }
+        int[] storeResults = query.storeRows(modifiedItems);
+        for (int i = 0; i < storeResults.length; i++) {
+            if (storeResults[i] == 0) {
+                query.rollback();
+                refresh();
+                throw new ConcurrentModificationException("Item with the ID '"
+                        + modifiedItems.get(i).getId()
+                        + "' has been externally modified.");
+            }
+        }
+        /*
+         * Also reset the modified state in the items in case they are reused
+         * e.g. in a form.
+         */
+        for (RowItem item : modifiedItems) {
+            item.commit();
+        }
+        query.storeRows(addedItems);
+    }
+
     /**
      * Rolls back all the changes, additions and removals made to the items of
      * this container.
@@ -1108,8 +1422,8 @@ public class SQLContainer implements Container, Container.Filterable,
      */
     private void updateCount() {
         if (!sizeDirty
-                && new Date().getTime() < sizeUpdated.getTime()
-                        + sizeValidMilliSeconds) {
+                && (sizeValidMilliSeconds < 0 || new Date().getTime() < sizeUpdated
+                        .getTime() + sizeValidMilliSeconds)) {
             return;
         }
         try {
@@ -1243,9 +1557,9 @@ public class SQLContainer implements Container, Container.Filterable,
     private void getPage() {
         updateCount();
         ResultSet rs = null;
-        ResultSetMetaData rsmd = null;
         cachedItems.clear();
         itemIndexes.clear();
+        itemIdIndexes.clear();
         try {
             try {
                 delegate.setOrderBy(sorters);
@@ -1255,46 +1569,89 @@ public class SQLContainer implements Container, Container.Filterable,
                 getLogger().log(Level.FINE,
                         "The query delegate doesn't support sorting", e);
             }
-            delegate.beginTransaction();
             int fetchedRows = pageLength * CACHE_RATIO;
-            rs = delegate.getResults(currentOffset, fetchedRows);
-            rsmd = rs.getMetaData();
-            List<String> pKeys = delegate.getPrimaryKeyColumns();
-            // }
+            /*
+             * When fetching the page following the previous one, continue
+             * after the last row of the previous page if possible instead of
+             * making the database skip all the rows before the offset.
+             */
+            List<OrderBy> keysetOrderBy = getKeysetOrderBy();
+            boolean continueAfterKeyset = keysetOrderBy != null
+                    && keysetValues != null && keysetOffset == currentOffset;
+            /* Use rows fetched earlier by any query sharing the row cache */
+            RowCache rowCache = null;
+            String databaseId = null;
+            String tableName = null;
+            String cacheKey = null;
+            long cacheVersion = 0;
+            List<CachedRow> rows = null;
+            if (delegate instanceof TableQuery
+                    && ((TableQuery) delegate).getRowCache() != null) {
+                TableQuery query = (TableQuery) delegate;
+                rowCache = query.getRowCache();
+                databaseId = query.getDatabaseId();
+                tableName = query.getTableName();
+                if (continueAfterKeyset) {
+                    cacheKey = query.getResultsAfterCacheKey(keysetValues,
+                            fetchedRows);
+                } else {
+                    cacheKey = query.getResultsCacheKey(currentOffset,
+                            fetchedRows);
+                }
+                cacheVersion = rowCache.getVersion(databaseId, tableName);
+                rows = rowCache.get(databaseId, tableName, cacheKey);
+            }
+            if (rows == null) {
+                delegate.beginTransaction();
+                if (continueAfterKeyset) {
+                    rs = ((TableQuery) delegate).getResultsAfter(
+                            keysetValues, fetchedRows);
+                } else {
+                    rs = delegate.getResults(currentOffset, fetchedRows);
+                }
+                rows = readRows(rs, delegate.getPrimaryKeyColumns());
+                rs.getStatement().close();
+                rs.close();
+                delegate.commit();
+                getLogger().log(Level.FINER,
+                        "Fetched {0} rows starting from {1}",
+                        new Object[] { fetchedRows, currentOffset });
+                if (rowCache != null) {
+                    rowCache.put(databaseId, tableName, cacheKey, rows,
+                            cacheVersion);
+                }
+            }
+            keysetValues = null;
             /* Create new items and column properties */
             ColumnProperty cp = null;
             int rowCount = currentOffset;
+            int resultRows = 0;
             if (!delegate.implementationRespectsPagingLimits()) {
                 rowCount = currentOffset = 0;
                 setPageLengthInternal(size);
             }
-            while (rs.next()) {
-                List<ColumnProperty> itemProperties = new ArrayList<ColumnProperty>();
-                /* Generate row itemId based on primary key(s) */
-                Object[] itemId = new Object[pKeys.size()];
-                for (int i = 0; i < pKeys.size(); i++) {
-                    itemId[i] = rs.getObject(pKeys.get(i));
-                }
-                RowId id = null;
-                if (pKeys.isEmpty()) {
-                    id = new ReadOnlyRowId(rs.getRow());
-                } else {
-                    id = new RowId(itemId);
+            for (CachedRow row : rows) {
+                resultRows++;
+                if (keysetOrderBy != null && resultRows == fetchedRows) {
+                    keysetValues = getKeysetValues(row, keysetOrderBy);
+                    keysetOffset = currentOffset + fetchedRows;
                 }
+                List<ColumnProperty> itemProperties = new ArrayList<ColumnProperty>();
+                RowId id = row.getId();
                 List<String> propertiesToAdd = new ArrayList<String>(
                         propertyIds);
                 if (!removedItems.containsKey(id)) {
-                    for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-                        if (!isColumnIdentifierValid(rsmd.getColumnLabel(i))) {
+                    for (int i = 0; i < row.getColumnCount(); i++) {
+                        if (!isColumnIdentifierValid(row.getColumnLabel(i))) {
                             continue;
                         }
-                        String colName = rsmd.getColumnLabel(i);
-                        Object value = rs.getObject(i);
+                        String colName = row.getColumnLabel(i);
+                        Object value = row.getValue(i);
                         Class<?> type = value != null ? value.getClass()
                                 : Object.class;
                         if (value == null) {
                             for (String propName : propertyTypes.keySet()) {
-                                if (propName.equals(rsmd.getColumnLabel(i))) {
+                                if (propName.equals(colName)) {
                                     type = propertyTypes.get(propName);
                                     break;
                                 }
@@ -1320,6 +1677,7 @@ public class SQLContainer implements Container, Container.Filterable,
                     }
                     /* Cache item */
                     itemIndexes.put(rowCount, id);
+                    itemIdIndexes.put(id, rowCount);
 
                     // if an item with the id is contained in the modified
                     // cache, then use this record and add it to the cached
@@ -1335,11 +1693,10 @@ public class SQLContainer implements Container, Container.Filterable,
                     rowCount++;
                 }
             }
-            rs.getStatement().close();
-            rs.close();
-            delegate.commit();
-            getLogger().log(Level.FINER, "Fetched {0} rows starting from {1}",
-                    new Object[] { fetchedRows, currentOffset });
+            if (delegate instanceof TableQuery
+                    && ((TableQuery) delegate).isCountApproximate()) {
+                correctApproximateSize(resultRows, fetchedRows);
+            }
         } catch (SQLException e) {
             getLogger().log(Level.WARNING,
                     "Failed to fetch rows, rolling back", e);
@@ -1362,6 +1719,125 @@ public class SQLContainer implements Container, Container.Filterable,
         }
     }
 
+    /**
+     * Reads all rows of a result set.
+     * 
+     * @param rs
+     *            the result set
+     * @param pKeys
+     *            the primary key columns
+     * @return the values of the rows
+     * @throws SQLException
+     */
+    private static List<CachedRow> readRows(ResultSet rs, List<String> pKeys)
+            throws SQLException {
+        ResultSetMetaData rsmd = rs.getMetaData();
+        String[] columns = new String[rsmd.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = rsmd.getColumnLabel(i + 1);
+        }
+        List<CachedRow> rows = new ArrayList<CachedRow>();
+        while (rs.next()) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = rs.getObject(i + 1);
+            }
+            rows.add(new CachedRow(getRowId(rs, pKeys, rs.getRow()), columns,
+                    values));
+        }
+        return rows;
+    }
+
+    /**
+     * Creates the item id for the current row of a result set.
+     * 
+     * @param rs
+     *            the result set
+     * @param pKeys
+     *            the primary key columns
+     * @param rowNum
+     *            the row number to use if there are no primary key columns
+     * @return a RowId based on the primary key values, or a ReadOnlyRowId
+     *         based on the row number
+     * @throws SQLException
+     */
+    private static RowId getRowId(ResultSet rs, List<String> pKeys, int rowNum)
+            throws SQLException {
+        if (pKeys.isEmpty()) {
+            return new ReadOnlyRowId(rowNum);
+        }
+        /* Generate row itemId based on primary key(s) */
+        Object[] itemId = new Object[pKeys.size()];
+        for (int i = 0; i < pKeys.size(); i++) {
+            itemId[i] = rs.getObject(pKeys.get(i));
+        }
+        return new RowId(itemId);
+    }
+
+    /**
+     * Returns the columns to use for keyset pagination, or null if keyset
+     * pagination is not enabled or can not be used with the current sorting.
+     */
+    private List<OrderBy> getKeysetOrderBy() {
+        if (delegate instanceof TableQuery) {
+            return ((TableQuery) delegate).getKeysetOrderBy();
+        }
+        return null;
+    }
+
+    /**
+     * Reads the values of the keyset columns from a row, or returns null if
+     * any of them is null.
+     */
+    private static Object[] getKeysetValues(CachedRow row,
+            List<OrderBy> keysetOrderBy) {
+        Object[] values = new Object[keysetOrderBy.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = row.getValue(keysetOrderBy.get(i).getColumn());
+            if (values[i] == null) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads the values of the keyset columns from the current row, or returns
+     * null if any of them is null.
+     */
+    private static Object[] getKeysetValues(ResultSet rs,
+            List<OrderBy> keysetOrderBy) throws SQLException {
+        Object[] values = new Object[keysetOrderBy.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rs.getObject(keysetOrderBy.get(i).getColumn());
+            if (values[i] == null) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Corrects an estimated size based on the number of rows returned for the
+     * current page. If fewer rows than requested were returned, the end of
+     * the rows has been reached. If the page extends past the estimated size,
+     * the size is increased to make the following rows reachable.
+     */
+    private void correctApproximateSize(int resultRows, int fetchedRows) {
+        int newSize = size;
+        if (resultRows < fetchedRows) {
+            newSize = currentOffset + resultRows;
+        } else if (currentOffset + resultRows >= size) {
+            newSize = currentOffset + resultRows + 1;
+        }
+        if (newSize != size) {
+            getLogger().log(Level.FINER,
+                    "Corrected approximate row count from {0} to {1}",
+                    new Object[] { size, newSize });
+            size = newSize;
+        }
+    }
+
     /**
      * Returns the index of the item with the given itemId for the modified
      * cache.
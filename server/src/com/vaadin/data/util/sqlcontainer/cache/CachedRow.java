@@ -0,0 +1,130 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.data.util.sqlcontainer.cache;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import com.vaadin.data.util.sqlcontainer.RowId;
+
+/**
+ * The values of a database row stored in a {@link RowCache}. Instances are
+ * immutable and can be shared by several containers. Mutable values, i.e.
+ * dates and byte arrays, are copied when the row is created and whenever they
+ * are read.
+ * 
+ * @since 7.1
+ */
+public final class CachedRow implements Serializable {
+
+    private final RowId id;
+    private final String[] columns;
+    private final Object[] values;
+
+    /**
+     * Creates a cached row.
+     * 
+     * @param id
+     *            the id of the row
+     * @param columns
+     *            the column labels of the row, usually shared by all rows
+     *            returned by the same query
+     * @param values
+     *            the values of the columns, in the same order as the labels
+     */
+    public CachedRow(RowId id, String[] columns, Object[] values) {
+        if (columns.length != values.length) {
+            throw new IllegalArgumentException(
+                    "There must be a value for each column.");
+        }
+        this.id = id;
+        this.columns = columns;
+        this.values = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            this.values[i] = copy(values[i]);
+        }
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof Date) {
+            // also copies java.sql.Timestamp with its nanoseconds
+            return ((Date) value).clone();
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the id of the row.
+     * 
+     * @return the row id
+     */
+    public RowId getId() {
+        return id;
+    }
+
+    /**
+     * Returns the number of columns in the row.
+     * 
+     * @return the number of columns
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Returns the label of a column.
+     * 
+     * @param index
+     *            the index of the column, starting from 0
+     * @return the label of the column
+     */
+    public String getColumnLabel(int index) {
+        return columns[index];
+    }
+
+    /**
+     * Returns the value of a column.
+     * 
+     * @param index
+     *            the index of the column, starting from 0
+     * @return the value of the column
+     */
+    public Object getValue(int index) {
+        return copy(values[index]);
+    }
+
+    /**
+     * Returns the value of the column with the given label. Like column
+     * lookups in JDBC result sets, the label is case insensitive and the
+     * first matching column is used.
+     * 
+     * @param columnLabel
+     *            the label of the column
+     * @return the value of the column
+     * @throws IllegalArgumentException
+     *             if the row has no column with the label
+     */
+    public Object getValue(String columnLabel) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equalsIgnoreCase(columnLabel)) {
+                return copy(values[i]);
+            }
+        }
+        throw new IllegalArgumentException("No column named " + columnLabel);
+    }
+}
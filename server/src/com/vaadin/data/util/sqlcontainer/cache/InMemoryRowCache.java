@@ -0,0 +1,352 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.data.util.sqlcontainer.cache;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link RowCache} keeping the rows in memory, to be shared e.g. by all user
+ * sessions of an application.
+ * <p>
+ * The number of cached queries is limited, and the least recently used entries
+ * are evicted when the limit is reached. Entries also expire after a
+ * configurable time so that changes made to the database outside the
+ * application become visible. The entries are divided between a number of
+ * stripes, each with its own lock, so that concurrent requests seldom wait for
+ * each other. Invalidating a table only increments the version of the table;
+ * the entries of older versions are removed when they are accessed or evicted.
+ * </p>
+ * <p>
+ * The cache keeps count of cache hits, misses and evictions, which can be used
+ * for tuning its size.
+ * </p>
+ * <p>
+ * The cached rows are not serialized. A deserialized instance is empty and no
+ * longer shared with the original instance.
+ * </p>
+ * 
+ * @since 7.1
+ */
+public class InMemoryRowCache implements RowCache {
+
+    /** The default maximum number of cached queries */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /** The default time in milliseconds after which cached rows expire */
+    public static final long DEFAULT_TIME_TO_LIVE = 60000;
+
+    /** The default number of stripes */
+    public static final int DEFAULT_STRIPES = 16;
+
+    private final int maxEntries;
+    private final long timeToLive;
+    private final int stripeCount;
+
+    private transient Stripe[] stripes;
+    private transient ConcurrentMap<Table, AtomicLong> versions;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache with the default size, expiration time and number of
+     * stripes.
+     */
+    public InMemoryRowCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a cache.
+     * 
+     * @param maxEntries
+     *            the maximum number of cached queries, divided evenly between
+     *            the stripes
+     * @param timeToLive
+     *            the time in milliseconds after which cached rows expire, zero
+     *            or negative for no expiration
+     * @param stripes
+     *            the number of independently locked parts of the cache
+     */
+    public InMemoryRowCache(int maxEntries, long timeToLive, int stripes) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException(
+                    "The maximum number of entries must be positive.");
+        }
+        if (stripes < 1) {
+            throw new IllegalArgumentException(
+                    "The number of stripes must be positive.");
+        }
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        stripeCount = Math.min(stripes, maxEntries);
+        init();
+    }
+
+    private void init() {
+        stripes = new Stripe[stripeCount];
+        int capacity = (maxEntries + stripeCount - 1) / stripeCount;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+        versions = new ConcurrentHashMap<Table, AtomicLong>();
+    }
+
+    @Override
+    public List<CachedRow> get(String database, String tableName,
+            String queryKey) {
+        Table table = new Table(database, tableName);
+        Key key = new Key(table, queryKey);
+        long version = getVersionCounter(table).get();
+        Stripe stripe = getStripe(key);
+        Entry entry;
+        synchronized (stripe) {
+            entry = stripe.get(key);
+            if (entry != null
+                    && (entry.version != version || entry.isExpired())) {
+                stripe.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.rows;
+    }
+
+    @Override
+    public long getVersion(String database, String tableName) {
+        return getVersionCounter(new Table(database, tableName)).get();
+    }
+
+    @Override
+    public void put(String database, String tableName, String queryKey,
+            List<CachedRow> rows, long version) {
+        Table table = new Table(database, tableName);
+        if (version != getVersionCounter(table).get()) {
+            // the table has been modified while the rows were fetched
+            return;
+        }
+        Key key = new Key(table, queryKey);
+        Entry entry = new Entry(Collections
+                .unmodifiableList(new ArrayList<CachedRow>(rows)), version,
+                timeToLive > 0 ? System.currentTimeMillis() + timeToLive : 0);
+        Stripe stripe = getStripe(key);
+        synchronized (stripe) {
+            stripe.put(key, entry);
+        }
+    }
+
+    @Override
+    public void invalidate(String database, String tableName) {
+        getVersionCounter(new Table(database, tableName)).incrementAndGet();
+    }
+
+    @Override
+    public void clear() {
+        for (AtomicLong version : versions.values()) {
+            version.incrementAndGet();
+        }
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries currently in the cache, including
+     * invalidated and expired entries that have not yet been removed.
+     * 
+     * @return the number of cached queries
+     */
+    public int getSize() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of times cached rows were found for a query.
+     * 
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of times no valid rows were cached for a query.
+     * 
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries removed because the cache was full.
+     * 
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counts to zero.
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    private Stripe getStripe(Key key) {
+        int hash = key.hashCode();
+        // spread the bits as the low bits of string hashes vary little
+        hash ^= (hash >>> 16);
+        return stripes[(hash & 0x7fffffff) % stripes.length];
+    }
+
+    private AtomicLong getVersionCounter(Table table) {
+        AtomicLong version = versions.get(table);
+        if (version == null) {
+            AtomicLong newVersion = new AtomicLong();
+            version = versions.putIfAbsent(table, newVersion);
+            if (version == null) {
+                version = newVersion;
+            }
+        }
+        return version;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+    }
+
+    /**
+     * A part of the cache, guarded by its own lock. Keeps the entries in
+     * access order to evict the least recently used one.
+     */
+    private class Stripe extends LinkedHashMap<Key, Entry> {
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A table in a database, as tables with the same name can exist in
+     * several databases.
+     */
+    private static final class Table implements Serializable {
+        private final String database;
+        private final String tableName;
+
+        Table(String database, String tableName) {
+            this.database = database;
+            this.tableName = tableName;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (database == null ? 0 : database.hashCode())
+                    + tableName.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Table)) {
+                return false;
+            }
+            Table other = (Table) obj;
+            return (database == null ? other.database == null : database
+                    .equals(other.database))
+                    && tableName.equals(other.tableName);
+        }
+    }
+
+    private static final class Key implements Serializable {
+        private final Table table;
+        private final String queryKey;
+
+        Key(Table table, String queryKey) {
+            this.table = table;
+            this.queryKey = queryKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * table.hashCode() + queryKey.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return table.equals(other.table) && queryKey.equals(other.queryKey);
+        }
+    }
+
+    private static final class Entry implements Serializable {
+        private final List<CachedRow> rows;
+        private final long version;
+        private final long expires;
+
+        Entry(List<CachedRow> rows, long version, long expires) {
+            this.rows = rows;
+            this.version = version;
+            this.expires = expires;
+        }
+
+        private boolean isExpired() {
+            return expires != 0 && System.currentTimeMillis() > expires;
+        }
+    }
+}
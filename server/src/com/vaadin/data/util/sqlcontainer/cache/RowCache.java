@@ -0,0 +1,117 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.data.util.sqlcontainer.cache;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A cache for the rows fetched by {@link
+ * com.vaadin.data.util.sqlcontainer.query.TableQuery} that can be shared by
+ * several containers, e.g. by all user sessions, so that rows viewed by many
+ * users only need to be fetched from the database once.
+ * <p>
+ * The cached entries are the rows returned by a query, identified by the
+ * database, the table name and a key describing the query, including the
+ * filters, sorting and position of the rows. When rows of a table are modified
+ * through a <code>TableQuery</code> using the cache, or a
+ * {@link com.vaadin.data.util.sqlcontainer.SQLContainer} sends a cache flush
+ * notification, all entries of the table are invalidated by calling
+ * {@link #invalidate(String, String)}. Changes made to the database by other
+ * means are not detected, so implementations should also expire entries after
+ * some time.
+ * </p>
+ * <p>
+ * As a query may be running while the table is invalidated, the rows are
+ * stored together with the version of the table returned by
+ * {@link #getVersion(String, String)} before the query was started. Rows for
+ * an older version of the table must not be stored.
+ * </p>
+ * <p>
+ * Implementations must be thread-safe.
+ * </p>
+ * 
+ * @see com.vaadin.data.util.sqlcontainer.query.TableQuery#setRowCache(RowCache)
+ * @see InMemoryRowCache
+ * @since 7.1
+ */
+public interface RowCache extends Serializable {
+
+    /**
+     * Returns the cached rows of a query.
+     * 
+     * @param database
+     *            the identifier of the database, see
+     *            {@link com.vaadin.data.util.sqlcontainer.query.TableQuery#getDatabaseId()}
+     * @param tableName
+     *            the name of the table
+     * @param queryKey
+     *            the key identifying the query
+     * @return the rows returned by the query, or null if they are not cached
+     */
+    public List<CachedRow> get(String database, String tableName,
+            String queryKey);
+
+    /**
+     * Returns the current version of a table. The version changes whenever
+     * the table is invalidated.
+     * 
+     * @param database
+     *            the identifier of the database, see
+     *            {@link com.vaadin.data.util.sqlcontainer.query.TableQuery#getDatabaseId()}
+     * @param tableName
+     *            the name of the table
+     * @return the version of the table
+     */
+    public long getVersion(String database, String tableName);
+
+    /**
+     * Stores the rows returned by a query, unless the table has been
+     * invalidated after the version was read.
+     * 
+     * @param database
+     *            the identifier of the database, see
+     *            {@link com.vaadin.data.util.sqlcontainer.query.TableQuery#getDatabaseId()}
+     * @param tableName
+     *            the name of the table
+     * @param queryKey
+     *            the key identifying the query
+     * @param rows
+     *            the rows returned by the query
+     * @param version
+     *            the version of the table, read using
+     *            {@link #getVersion(String, String)} before running the query
+     */
+    public void put(String database, String tableName, String queryKey,
+            List<CachedRow> rows, long version);
+
+    /**
+     * Removes all cached rows of a table, making any queries running at the
+     * same time unable to store their results.
+     * 
+     * @param database
+     *            the identifier of the database, see
+     *            {@link com.vaadin.data.util.sqlcontainer.query.TableQuery#getDatabaseId()}
+     * @param tableName
+     *            the name of the table
+     */
+    public void invalidate(String database, String tableName);
+
+    /**
+     * Removes all cached rows of all tables.
+     */
+    public void clear();
+}
@@ -0,0 +1,1004 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.data.util.sqlcontainer.connection;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link JDBCConnectionPool} for production use with many concurrent users.
+ * <p>
+ * Unlike {@link SimpleJDBCConnectionPool}, this pool waits for a connection to
+ * be released when all connections are in use, up to a configurable time. The
+ * waiting threads get the released connections in the order they started
+ * waiting. Idle connections are validated before they are handed out and
+ * closed after they have been idle for too long.
+ * </p>
+ * <p>
+ * The pool also caches prepared statements per connection. As the queries
+ * generated by the SQL generators of SQLContainer use parameters for all
+ * values, the same SQL strings are prepared over and over again, and can be
+ * reused when the statement is closed instead of preparing them anew.
+ * </p>
+ * <p>
+ * The connections handed out by the pool are wrappers of the actual
+ * connections. Closing such a connection releases it back to the pool, and it
+ * must not be used after it has been released.
+ * </p>
+ * <p>
+ * The pool keeps statistics of its use, e.g. the time spent waiting for
+ * connections and the number of timeouts, that can be used for choosing the
+ * maximum number of connections. The connections are not serialized; a
+ * deserialized pool opens new connections when needed.
+ * </p>
+ * 
+ * @since 7.1
+ */
+public class ConcurrentJDBCConnectionPool implements JDBCConnectionPool {
+
+    /** The default maximum time to wait for a connection in milliseconds */
+    public static final long DEFAULT_MAX_WAIT = 10000;
+
+    /** The default time after which idle connections are closed */
+    public static final long DEFAULT_MAX_IDLE_TIME = 5 * 60 * 1000;
+
+    /** The default time after last use within which no validation is done */
+    public static final long DEFAULT_VALIDATION_INTERVAL = 5000;
+
+    /** The default number of statements cached per connection */
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 50;
+
+    private final String driverName;
+    private final String connectionUri;
+    private final String userName;
+    private final String password;
+    private final int maxConnections;
+
+    private long maxWait = DEFAULT_MAX_WAIT;
+    private int minIdle = 0;
+    private long maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+    private boolean testOnBorrow = true;
+    private long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+    private String validationQuery;
+    private int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+
+    private transient Semaphore permits;
+    private transient LinkedBlockingDeque<PooledConnection> idleConnections;
+    private transient AtomicInteger activeCount;
+    private transient AtomicLong lastEviction;
+    private transient volatile boolean destroyed;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    /**
+     * Creates a new connection pool. The JDBC driver is loaded immediately,
+     * but connections are only opened when needed.
+     * 
+     * @param driverName
+     *            the class name of the JDBC driver
+     * @param connectionUri
+     *            the JDBC URI of the database
+     * @param userName
+     *            the database user name
+     * @param password
+     *            the database password
+     * @param maxConnections
+     *            the maximum number of connections open at the same time
+     */
+    public ConcurrentJDBCConnectionPool(String driverName,
+            String connectionUri, String userName, String password,
+            int maxConnections) {
+        if (driverName == null) {
+            throw new IllegalArgumentException(
+                    "JDBC driver class name must be given.");
+        }
+        if (connectionUri == null) {
+            throw new IllegalArgumentException(
+                    "Database connection URI must be given.");
+        }
+        if (userName == null) {
+            throw new IllegalArgumentException(
+                    "Database username must be given.");
+        }
+        if (password == null) {
+            throw new IllegalArgumentException(
+                    "Database password must be given.");
+        }
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException(
+                    "Maximum number of connections must be at least 1.");
+        }
+        this.driverName = driverName;
+        this.connectionUri = connectionUri;
+        this.userName = userName;
+        this.password = password;
+        this.maxConnections = maxConnections;
+
+        /* Initialize JDBC driver */
+        try {
+            Class.forName(driverName).newInstance();
+        } catch (Exception ex) {
+            throw new RuntimeException("Specified JDBC Driver: " + driverName
+                    + " - initialization failed.", ex);
+        }
+        init();
+    }
+
+    private void init() {
+        permits = new Semaphore(maxConnections, true);
+        idleConnections = new LinkedBlockingDeque<PooledConnection>();
+        activeCount = new AtomicInteger();
+        lastEviction = new AtomicLong(System.currentTimeMillis());
+        destroyed = false;
+    }
+
+    @Override
+    public Connection reserveConnection() throws SQLException {
+        if (destroyed) {
+            throw new SQLException("The connection pool has been destroyed.");
+        }
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            if (maxWait < 0) {
+                permits.acquire();
+                acquired = true;
+            } else {
+                acquired = permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(
+                    "Interrupted while waiting for a database connection.");
+        }
+        recordWait(System.nanoTime() - start);
+        if (!acquired) {
+            timeoutCount.incrementAndGet();
+            throw new SQLException("No database connection available within "
+                    + maxWait + " ms.");
+        }
+        try {
+            PooledConnection pooled = takeIdleConnection();
+            if (pooled == null) {
+                pooled = new PooledConnection(createConnection());
+                createdCount.incrementAndGet();
+            }
+            activeCount.incrementAndGet();
+            borrowCount.incrementAndGet();
+            return pooled.borrow();
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void recordWait(long nanos) {
+        borrowWaitNanos.addAndGet(nanos);
+        long max = maxBorrowWaitNanos.get();
+        while (nanos > max && !maxBorrowWaitNanos.compareAndSet(max, nanos)) {
+            max = maxBorrowWaitNanos.get();
+        }
+    }
+
+    /**
+     * Takes the most recently used idle connection that is still valid, or
+     * returns null if there is none.
+     */
+    private PooledConnection takeIdleConnection() {
+        PooledConnection pooled = idleConnections.pollFirst();
+        while (pooled != null && !isValid(pooled)) {
+            validationFailureCount.incrementAndGet();
+            pooled.close();
+            pooled = idleConnections.pollFirst();
+        }
+        return pooled;
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        if (!testOnBorrow
+                || System.currentTimeMillis() - pooled.lastUsed < validationInterval) {
+            return true;
+        }
+        try {
+            if (validationQuery == null) {
+                return pooled.connection.isValid(5);
+            }
+            Statement statement = pooled.connection.createStatement();
+            try {
+                statement.execute(validationQuery);
+            } finally {
+                statement.close();
+            }
+            if (!pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+            }
+            return true;
+        } catch (SQLException e) {
+            getLogger().log(Level.FINE, "Connection validation failed", e);
+            return false;
+        } catch (AbstractMethodError e) {
+            // pre-JDBC 4 driver without isValid()
+            return true;
+        }
+    }
+
+    @Override
+    public void releaseConnection(Connection conn) {
+        PooledConnection pooled = getPooledConnection(conn);
+        if (pooled == null || !pooled.release()) {
+            return;
+        }
+        activeCount.decrementAndGet();
+        try {
+            /* Statements left open can't be reused by the next borrower */
+            pooled.closeStatementsInUse();
+            /* Try to roll back if necessary */
+            try {
+                if (!pooled.connection.getAutoCommit()) {
+                    pooled.connection.rollback();
+                }
+            } catch (SQLException e) {
+                /* Roll back failed, close and discard connection */
+                pooled.close();
+                return;
+            }
+            if (destroyed) {
+                pooled.close();
+            } else {
+                pooled.lastUsed = System.currentTimeMillis();
+                idleConnections.offerFirst(pooled);
+                // destroy() may have emptied the idle connections just
+                // before the connection was added
+                if (destroyed
+                        && idleConnections.removeFirstOccurrence(pooled)) {
+                    pooled.close();
+                }
+            }
+        } finally {
+            permits.release();
+        }
+        long now = System.currentTimeMillis();
+        long last = lastEviction.get();
+        if (now - last > maxIdleTime / 2
+                && lastEviction.compareAndSet(last, now)) {
+            evictIdleConnections();
+        }
+    }
+
+    private PooledConnection getPooledConnection(Connection conn) {
+        if (conn != null && Proxy.isProxyClass(conn.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(conn);
+            if (handler instanceof ConnectionHandler
+                    && ((ConnectionHandler) handler).getPool() == this) {
+                return ((ConnectionHandler) handler).getPooledConnection();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes the connections that have been idle for longer than the maximum
+     * idle time, keeping at least the minimum number of idle connections
+     * open. This is done automatically when connections are released, but can
+     * also be called e.g. from a scheduled task.
+     * 
+     * @return the number of connections closed
+     */
+    public int evictIdleConnections() {
+        long limit = System.currentTimeMillis() - maxIdleTime;
+        int evicted = 0;
+        /* The least recently used connections are at the end */
+        Iterator<PooledConnection> i = idleConnections.descendingIterator();
+        while (i.hasNext() && idleConnections.size() > minIdle) {
+            PooledConnection pooled = i.next();
+            if (pooled.lastUsed > limit) {
+                break;
+            }
+            if (idleConnections.removeLastOccurrence(pooled)) {
+                pooled.close();
+                evicted++;
+            }
+        }
+        evictionCount.addAndGet(evicted);
+        return evicted;
+    }
+
+    private Connection createConnection() throws SQLException {
+        Connection c = DriverManager.getConnection(connectionUri, userName,
+                password);
+        c.setAutoCommit(false);
+        if (driverName.toLowerCase().contains("mysql")) {
+            try {
+                Statement s = c.createStatement();
+                s.execute("SET SESSION sql_mode = 'ANSI'");
+                s.close();
+            } catch (Exception e) {
+                // Failed to set ansi mode; continue
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Closes all idle connections and makes the pool close the connections in
+     * use when they are released. No new connections can be reserved after
+     * this.
+     */
+    @Override
+    public void destroy() {
+        destroyed = true;
+        PooledConnection pooled = idleConnections.poll();
+        while (pooled != null) {
+            pooled.close();
+            pooled = idleConnections.poll();
+        }
+    }
+
+    /**
+     * Sets the maximum time to wait for a connection when all connections are
+     * in use. The default is {@value #DEFAULT_MAX_WAIT} milliseconds.
+     * 
+     * @param maxWait
+     *            the maximum time to wait in milliseconds, 0 to fail
+     *            immediately or a negative value to wait indefinitely
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Returns the maximum time to wait for a connection.
+     * 
+     * @return the maximum wait time in milliseconds
+     */
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Sets the number of idle connections that are kept open even if they
+     * have been idle for longer than the maximum idle time. The default is 0.
+     * 
+     * @param minIdle
+     *            the minimum number of idle connections
+     */
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * Returns the number of idle connections that are never closed for being
+     * idle.
+     * 
+     * @return the minimum number of idle connections
+     */
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    /**
+     * Sets the time after which idle connections are closed. The default is
+     * {@value #DEFAULT_MAX_IDLE_TIME} milliseconds.
+     * 
+     * @param maxIdleTime
+     *            the maximum idle time in milliseconds
+     */
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * Returns the time after which idle connections are closed.
+     * 
+     * @return the maximum idle time in milliseconds
+     */
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Sets whether idle connections are validated before they are reserved.
+     * Invalid connections are closed and another connection is reserved
+     * instead. The default is true.
+     * 
+     * @param testOnBorrow
+     *            true to validate connections before reserving them
+     * @see #setValidationInterval(long)
+     * @see #setValidationQuery(String)
+     */
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    /**
+     * Returns whether idle connections are validated before they are
+     * reserved.
+     * 
+     * @return true if connections are validated
+     */
+    public boolean isTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    /**
+     * Sets the time since a connection was last used within which it is not
+     * validated again. The default is {@value #DEFAULT_VALIDATION_INTERVAL}
+     * milliseconds.
+     * 
+     * @param validationInterval
+     *            the time in milliseconds, 0 to validate on every reservation
+     */
+    public void setValidationInterval(long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    /**
+     * Returns the time since a connection was last used within which it is
+     * not validated again.
+     * 
+     * @return the time in milliseconds
+     */
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    /**
+     * Sets the SQL query used for validating connections, e.g.
+     * <code>SELECT 1</code>. By default, {@link Connection#isValid(int)} is
+     * used.
+     * 
+     * @param validationQuery
+     *            the validation query, or null to use
+     *            {@link Connection#isValid(int)}
+     */
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    /**
+     * Returns the SQL query used for validating connections.
+     * 
+     * @return the validation query, or null if
+     *         {@link Connection#isValid(int)} is used
+     */
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+    /**
+     * Sets the number of prepared statements cached per connection. The
+     * default is {@value #DEFAULT_STATEMENT_CACHE_SIZE}. Only affects
+     * connections opened after this.
+     * 
+     * @param statementCacheSize
+     *            the maximum number of cached statements per connection, 0 to
+     *            disable caching
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Returns the number of prepared statements cached per connection.
+     * 
+     * @return the maximum number of cached statements per connection
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Returns the maximum number of connections open at the same time.
+     * 
+     * @return the maximum number of connections
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Returns the number of connections currently reserved.
+     * 
+     * @return the number of active connections
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * Returns the number of open connections currently not reserved.
+     * 
+     * @return the number of idle connections
+     */
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    /**
+     * Returns the number of threads currently waiting for a connection.
+     * 
+     * @return the number of waiting threads, an estimate
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * Returns the number of connections reserved since the pool was created.
+     * 
+     * @return the number of successful reservations
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * Returns the total time spent waiting for connections, including the
+     * reservations that timed out.
+     * 
+     * @return the total wait time in milliseconds
+     */
+    public long getTotalBorrowWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(borrowWaitNanos.get());
+    }
+
+    /**
+     * Returns the longest time spent waiting for a connection.
+     * 
+     * @return the maximum wait time in milliseconds
+     */
+    public long getMaxBorrowWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxBorrowWaitNanos.get());
+    }
+
+    /**
+     * Returns the number of reservations that failed because no connection
+     * was released within the maximum wait time.
+     * 
+     * @return the number of timeouts
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Returns the number of connections opened by the pool.
+     * 
+     * @return the number of created connections
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * Returns the number of idle connections closed because they failed
+     * validation.
+     * 
+     * @return the number of validation failures
+     */
+    public long getValidationFailureCount() {
+        return validationFailureCount.get();
+    }
+
+    /**
+     * Returns the number of connections closed because they were idle for too
+     * long.
+     * 
+     * @return the number of evicted connections
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns the number of times a cached prepared statement was reused.
+     * 
+     * @return the number of statement cache hits
+     */
+    public long getStatementCacheHitCount() {
+        return statementCacheHits.get();
+    }
+
+    /**
+     * Returns the number of times a statement was prepared because it was not
+     * in the statement cache.
+     * 
+     * @return the number of statement cache misses
+     */
+    public long getStatementCacheMissCount() {
+        return statementCacheMisses.get();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(ConcurrentJDBCConnectionPool.class.getName());
+    }
+
+    /**
+     * An open connection of the pool with its statement cache.
+     */
+    private class PooledConnection {
+        private final Connection connection;
+        private final Map<String, CachedStatement> statements;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private ConnectionHandler currentHandler;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            statements = new StatementCache(statementCacheSize);
+        }
+
+        synchronized Connection borrow() {
+            currentHandler = new ConnectionHandler(this);
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, currentHandler);
+        }
+
+        /**
+         * Marks the connection released, returning false if it already was.
+         */
+        synchronized boolean release() {
+            if (currentHandler == null) {
+                return false;
+            }
+            currentHandler.released = true;
+            currentHandler = null;
+            return true;
+        }
+
+        synchronized PreparedStatement prepareStatement(
+                Connection connectionProxy, Method method, Object[] args)
+                throws Throwable {
+            String key = getStatementKey(method, args);
+            CachedStatement cached = null;
+            PreparedStatement statement;
+            if (key != null && statementCacheSize > 0) {
+                cached = statements.get(key);
+                if (cached != null && !cached.inUse
+                        && cached.statement.isClosed()) {
+                    statements.remove(key);
+                    cached = null;
+                }
+            }
+            if (cached != null && !cached.inUse) {
+                statementCacheHits.incrementAndGet();
+                statement = cached.statement;
+            } else {
+                if (key != null && statementCacheSize > 0) {
+                    statementCacheMisses.incrementAndGet();
+                }
+                statement = (PreparedStatement) invoke(connection, method,
+                        args);
+                if (cached != null || key == null || statementCacheSize <= 0) {
+                    // not cacheable or the same SQL is already in use
+                    cached = null;
+                } else {
+                    cached = new CachedStatement(this, key, statement);
+                    statements.put(key, cached);
+                }
+            }
+            if (cached != null) {
+                cached.inUse = true;
+            }
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class },
+                    new StatementHandler(connectionProxy, statement, cached));
+        }
+
+        synchronized void returnStatement(CachedStatement cached)
+                throws SQLException {
+            cached.inUse = false;
+            if (statements.get(cached.key) == cached) {
+                try {
+                    cached.statement.clearParameters();
+                    cached.statement.clearBatch();
+                    return;
+                } catch (SQLException e) {
+                    // can't be reused, close below
+                    statements.remove(cached.key);
+                }
+            }
+            cached.statement.close();
+        }
+
+        /**
+         * Closes the cached statements that have not been closed by the
+         * previous borrower and removes them from the cache.
+         */
+        synchronized void closeStatementsInUse() {
+            for (Iterator<CachedStatement> i = statements.values().iterator(); i
+                    .hasNext();) {
+                CachedStatement cached = i.next();
+                if (cached.inUse) {
+                    i.remove();
+                    try {
+                        cached.statement.close();
+                    } catch (SQLException e) {
+                        // No need to do anything
+                    }
+                }
+            }
+        }
+
+        synchronized void close() {
+            for (CachedStatement cached : new ArrayList<CachedStatement>(
+                    statements.values())) {
+                try {
+                    cached.statement.close();
+                } catch (SQLException e) {
+                    // No need to do anything
+                }
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // No need to do anything
+            }
+        }
+    }
+
+    /**
+     * Returns the key used for caching a statement prepared using the given
+     * method, or null if statements prepared with the method are not cached.
+     */
+    private static String getStatementKey(Method method, Object[] args) {
+        Class<?>[] types = method.getParameterTypes();
+        if (types.length == 1) {
+            return (String) args[0];
+        } else if (types.length == 2 && types[1] == String[].class) {
+            return args[0] + "\u0000" + Arrays.toString((String[]) args[1]);
+        } else if (types.length == 2 && types[1] == int.class) {
+            return args[0] + "\u0000" + args[1];
+        }
+        return null;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * LRU map of the cached statements of a connection, closing the least
+     * recently used statement when full.
+     */
+    private static class StatementCache extends
+            LinkedHashMap<String, CachedStatement> {
+        private final int capacity;
+
+        StatementCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, CachedStatement> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+            CachedStatement cached = eldest.getValue();
+            if (!cached.inUse) {
+                try {
+                    cached.statement.close();
+                } catch (SQLException e) {
+                    // No need to do anything
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A prepared statement in the statement cache of a connection.
+     */
+    private static class CachedStatement {
+        private final PooledConnection owner;
+        private final String key;
+        private final PreparedStatement statement;
+        private boolean inUse;
+
+        CachedStatement(PooledConnection owner, String key,
+                PreparedStatement statement) {
+            this.owner = owner;
+            this.key = key;
+            this.statement = statement;
+        }
+    }
+
+    /**
+     * Handles the method calls of the connections handed out by the pool.
+     */
+    private class ConnectionHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private volatile boolean released = false;
+
+        ConnectionHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        ConcurrentJDBCConnectionPool getPool() {
+            return ConcurrentJDBCConnectionPool.this;
+        }
+
+        PooledConnection getPooledConnection() {
+            return pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString")) {
+                return "Pooled " + pooled.connection;
+            } else if (name.equals("isClosed")) {
+                return released || pooled.connection.isClosed();
+            } else if (name.equals("close")) {
+                if (!released) {
+                    releaseConnection((Connection) proxy);
+                }
+                return null;
+            }
+            if (released) {
+                throw new SQLException(
+                        "The connection has been released to the pool.");
+            }
+            if (name.equals("prepareStatement")) {
+                return pooled.prepareStatement((Connection) proxy, method,
+                        args);
+            }
+            return ConcurrentJDBCConnectionPool.invoke(pooled.connection,
+                    method, args);
+        }
+    }
+
+    /**
+     * Handles the method calls of the prepared statements handed out by the
+     * pool, returning cached statements to the cache instead of closing them.
+     * Result sets are wrapped so that their statement is the wrapper and not
+     * the actual statement.
+     */
+    private static class StatementHandler implements InvocationHandler {
+        private final Connection connectionProxy;
+        private final PreparedStatement statement;
+        private final CachedStatement cached;
+        private boolean closed = false;
+
+        StatementHandler(Connection connectionProxy,
+                PreparedStatement statement, CachedStatement cached) {
+            this.connectionProxy = connectionProxy;
+            this.statement = statement;
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("isClosed")) {
+                return closed || statement.isClosed();
+            } else if (name.equals("close")) {
+                if (!closed) {
+                    closed = true;
+                    if (cached != null) {
+                        cached.owner.returnStatement(cached);
+                    } else {
+                        statement.close();
+                    }
+                }
+                return null;
+            }
+            if (closed) {
+                throw new SQLException("The statement has been closed.");
+            }
+            if (name.equals("getConnection")) {
+                return connectionProxy;
+            }
+            Object result = ConcurrentJDBCConnectionPool.invoke(statement,
+                    method, args);
+            if (result instanceof ResultSet) {
+                return Proxy.newProxyInstance(
+                        ResultSet.class.getClassLoader(),
+                        new Class<?>[] { ResultSet.class },
+                        new ResultSetHandler((Statement) proxy,
+                                (ResultSet) result));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Handles the method calls of result sets of the prepared statements
+     * handed out by the pool.
+     */
+    private static class ResultSetHandler implements InvocationHandler {
+        private final Statement statementProxy;
+        private final ResultSet resultSet;
+
+        ResultSetHandler(Statement statementProxy, ResultSet resultSet) {
+            this.statementProxy = statementProxy;
+            this.resultSet = resultSet;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("getStatement")) {
+                return statementProxy;
+            }
+            return ConcurrentJDBCConnectionPool.invoke(resultSet, method,
+                    args);
+        }
+    }
+}
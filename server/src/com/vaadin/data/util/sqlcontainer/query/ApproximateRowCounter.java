@@ -0,0 +1,60 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.data.util.sqlcontainer.query;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import com.vaadin.data.Container.Filter;
+
+/**
+ * Estimates the number of rows in a table without running
+ * <code>SELECT COUNT(*)</code>, which can be slow for large tables. Most
+ * databases keep statistics that can be used for this, e.g.
+ * <code>SELECT reltuples FROM pg_class WHERE relname = ?</code> in PostgreSQL
+ * or the <code>TABLE_ROWS</code> column of
+ * <code>information_schema.TABLES</code> in MySQL.
+ * <p>
+ * As the estimate may differ from the actual number of rows, an
+ * {@link com.vaadin.data.util.sqlcontainer.SQLContainer} using an estimated
+ * size corrects its size when it reaches the actual end of the rows or finds
+ * rows beyond the estimate.
+ * 
+ * @see TableQuery#setApproximateRowCounter(ApproximateRowCounter)
+ * @since 7.1
+ */
+public interface ApproximateRowCounter extends Serializable {
+
+    /**
+     * Estimates the number of rows in the table that pass the given filters.
+     * 
+     * @param connection
+     *            the connection to use for querying the database, must not be
+     *            closed or released
+     * @param tableName
+     *            the name of the table
+     * @param filters
+     *            the filters in use, may be null or empty
+     * @return the estimated number of rows, or a negative value if no estimate
+     *         is available, in which case the rows are counted exactly
+     * @throws SQLException
+     *             if querying the database fails
+     */
+    public int getApproximateCount(Connection connection, String tableName,
+            List<Filter> filters) throws SQLException;
+}
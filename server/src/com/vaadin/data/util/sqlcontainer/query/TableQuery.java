@@ -22,34 +22,51 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EventObject;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.vaadin.data.Container.Filter;
+import com.vaadin.data.util.filter.And;
+import com.vaadin.data.util.filter.Compare;
 import com.vaadin.data.util.filter.Compare.Equal;
+import com.vaadin.data.util.filter.Or;
 import com.vaadin.data.util.sqlcontainer.ColumnProperty;
 import com.vaadin.data.util.sqlcontainer.OptimisticLockException;
 import com.vaadin.data.util.sqlcontainer.RowId;
 import com.vaadin.data.util.sqlcontainer.RowItem;
 import com.vaadin.data.util.sqlcontainer.SQLUtil;
 import com.vaadin.data.util.sqlcontainer.TemporaryRowId;
+import com.vaadin.data.util.sqlcontainer.cache.RowCache;
 import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
 import com.vaadin.data.util.sqlcontainer.query.generator.DefaultSQLGenerator;
 import com.vaadin.data.util.sqlcontainer.query.generator.MSSQLGenerator;
 import com.vaadin.data.util.sqlcontainer.query.generator.SQLGenerator;
 import com.vaadin.data.util.sqlcontainer.query.generator.StatementHelper;
+import com.vaadin.data.util.sqlcontainer.query.generator.filter.QueryBuilder;
 
 @SuppressWarnings("serial")
 public class TableQuery extends AbstractTransactionalQuery implements
         QueryDelegate, QueryDelegate.RowIdChangeNotifier {
 
+    /**
+     * The default maximum number of rows executed in one JDBC batch by
+     * {@link #storeRows(List)} and {@link #removeRows(Collection)}.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
     /** Table name, primary key column name(s) and version column name */
     private String tableName;
     private List<String> primaryKeyColumns;
@@ -67,6 +84,30 @@ public class TableQuery extends AbstractTransactionalQuery implements
     /** Row ID change events, stored until commit() is called */
     private final List<RowIdChangeEvent> bufferedEvents = new ArrayList<RowIdChangeEvent>();
 
+    /** Columns declared NOT NULL in the database, used for keyset paging */
+    private final Set<String> notNullColumns = new HashSet<String>();
+
+    /** Keyset pagination mode, default = false */
+    private boolean keysetPaginationEnabled = false;
+
+    /** Strategy for estimating the row count, null to always count exactly */
+    private ApproximateRowCounter approximateRowCounter;
+
+    /** True if the latest count was an estimate */
+    private boolean countApproximate = false;
+
+    /** Cache for the fetched rows, possibly shared with other queries */
+    private RowCache rowCache;
+
+    /** Identifies the database of the table in the row cache */
+    private String databaseId;
+
+    /** Maximum number of rows to execute in one JDBC batch */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** True if rows have been modified in the current transaction */
+    private boolean rowsModified = false;
+
     /** Set to true to output generated SQL Queries to System.out */
     private final boolean debug = false;
 
@@ -96,6 +137,9 @@ public class TableQuery extends AbstractTransactionalQuery implements
         }
         this.tableName = tableName;
         this.sqlGenerator = sqlGenerator;
+        // replaced with the database URL if the driver provides it
+        databaseId = connectionPool.getClass().getName() + "@"
+                + Integer.toHexString(System.identityHashCode(connectionPool));
         fetchMetaData();
     }
 
@@ -120,6 +164,14 @@ public class TableQuery extends AbstractTransactionalQuery implements
      */
     @Override
     public int getCount() throws SQLException {
+        if (approximateRowCounter != null) {
+            int estimate = getApproximateCount();
+            if (estimate >= 0) {
+                countApproximate = true;
+                return estimate;
+            }
+        }
+        countApproximate = false;
         getLogger().log(Level.FINE, "Fetching count...");
         StatementHelper sh = sqlGenerator.generateSelectQuery(tableName,
                 filters, null, 0, 0, "COUNT(*)");
@@ -149,6 +201,23 @@ public class TableQuery extends AbstractTransactionalQuery implements
         return count;
     }
 
+    private int getApproximateCount() throws SQLException {
+        getLogger().log(Level.FINE, "Estimating count...");
+        boolean shouldCloseTransaction = false;
+        if (!isInTransaction()) {
+            shouldCloseTransaction = true;
+            beginTransaction();
+        }
+        try {
+            return approximateRowCounter.getApproximateCount(getConnection(),
+                    tableName, filters);
+        } finally {
+            if (shouldCloseTransaction) {
+                commit();
+            }
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -157,23 +226,506 @@ public class TableQuery extends AbstractTransactionalQuery implements
      */
     @Override
     public ResultSet getResults(int offset, int pagelength) throws SQLException {
-        StatementHelper sh;
-        /*
-         * If no ordering is explicitly set, results will be ordered by the
-         * first primary key column.
-         */
+        return executeQuery(getResultsStatement(offset, pagelength));
+    }
+
+    private StatementHelper getResultsStatement(int offset, int pagelength) {
+        return sqlGenerator.generateSelectQuery(tableName, filters,
+                getEffectiveOrderBy(), offset, pagelength, null);
+    }
+
+    /**
+     * Fetches the same rows as {@link #getResults(int, int)}, but only selects
+     * the primary key columns and, if keyset pagination is enabled, the
+     * columns returned by {@link #getKeysetOrderBy()}. Use this instead of
+     * {@link #getResults(int, int)} when only the identifiers of the rows are
+     * needed.
+     * 
+     * @param offset
+     *            the offset of the first row
+     * @param pagelength
+     *            the maximum number of rows, 0 for all rows
+     * @return the identifying columns of the rows
+     * @throws SQLException
+     * @since 7.1
+     */
+    public ResultSet getIdResults(int offset, int pagelength)
+            throws SQLException {
+        return executeQuery(sqlGenerator.generateSelectQuery(tableName,
+                filters, getEffectiveOrderBy(), offset, pagelength,
+                getIdColumns()));
+    }
+
+    /**
+     * Fetches the same rows as {@link #getResultsAfter(Object[], int)}, but
+     * only selects the columns described in {@link #getIdResults(int, int)}.
+     * 
+     * @param keyValues
+     *            the values of the keyset columns in the row preceding the
+     *            rows to fetch, must not contain null values
+     * @param pagelength
+     *            the maximum number of rows to fetch
+     * @return the identifying columns of the rows following the given row
+     * @throws IllegalStateException
+     *             if the current ordering does not identify the rows
+     * @throws SQLException
+     * @since 7.1
+     */
+    public ResultSet getIdResultsAfter(Object[] keyValues, int pagelength)
+            throws SQLException {
+        return executeQuery(getKeysetStatement(keyValues, pagelength, true,
+                getIdColumns()));
+    }
+
+    /**
+     * Returns the quoted primary key columns followed by the other keyset
+     * columns, if any, as a select list.
+     */
+    private String getIdColumns() {
+        Set<String> columns = new LinkedHashSet<String>(primaryKeyColumns);
+        List<OrderBy> keysetOrderBy = getKeysetOrderBy();
+        if (keysetOrderBy != null) {
+            for (OrderBy orderBy : keysetOrderBy) {
+                columns.add(orderBy.getColumn());
+            }
+        }
+        StringBuilder select = new StringBuilder();
+        for (String column : columns) {
+            if (select.length() > 0) {
+                select.append(", ");
+            }
+            select.append(QueryBuilder.quote(column));
+        }
+        return select.toString();
+    }
+
+    /**
+     * Fetches the rows that follow the row with the given values in the
+     * current ordering, using keyset pagination. Instead of making the
+     * database skip all rows before the offset, the query only selects the
+     * rows after the given row, which the database can usually find directly
+     * using an index. The values must be given in the order of the columns
+     * returned by {@link #getIdentifyingOrderBy()}.
+     * 
+     * @param keyValues
+     *            the values of the keyset columns in the row preceding the
+     *            rows to fetch, must not contain null values
+     * @param pagelength
+     *            the maximum number of rows to fetch
+     * @return the rows following the given row
+     * @throws IllegalStateException
+     *             if the current ordering does not identify the rows
+     * @throws SQLException
+     * @since 7.1
+     */
+    public ResultSet getResultsAfter(Object[] keyValues, int pagelength)
+            throws SQLException {
+        return getKeysetResults(keyValues, pagelength, true);
+    }
+
+    /**
+     * Fetches the rows that precede the row with the given values in the
+     * current ordering, in reverse order. The first returned row is thus the
+     * one immediately before the given row. See
+     * {@link #getResultsAfter(Object[], int)} for more information.
+     * 
+     * @param keyValues
+     *            the values of the keyset columns in the row following the
+     *            rows to fetch, must not contain null values
+     * @param pagelength
+     *            the maximum number of rows to fetch
+     * @return the rows preceding the given row, in reverse order
+     * @throws IllegalStateException
+     *             if the current ordering does not identify the rows
+     * @throws SQLException
+     * @since 7.1
+     */
+    public ResultSet getResultsBefore(Object[] keyValues, int pagelength)
+            throws SQLException {
+        return getKeysetResults(keyValues, pagelength, false);
+    }
+
+    private ResultSet getKeysetResults(Object[] keyValues, int pagelength,
+            boolean after) throws SQLException {
+        return executeQuery(getKeysetStatement(keyValues, pagelength, after,
+                null));
+    }
+
+    private StatementHelper getKeysetStatement(Object[] keyValues,
+            int pagelength, boolean after, String toSelect) {
+        List<OrderBy> keysetOrderBy = getIdentifyingOrderBy();
+        if (keysetOrderBy == null) {
+            throw new IllegalStateException(
+                    "The current ordering does not identify the rows.");
+        }
+        if (keyValues == null || keyValues.length != keysetOrderBy.size()) {
+            throw new IllegalArgumentException("A value must be given for "
+                    + keysetOrderBy.size() + " keyset columns.");
+        }
+        List<OrderBy> orderBy = getEffectiveOrderBy();
+        if (!after) {
+            keysetOrderBy = reverse(keysetOrderBy);
+            orderBy = reverse(orderBy);
+        }
+        List<Filter> filtersAndPosition = new ArrayList<Filter>();
+        if (filters != null) {
+            filtersAndPosition.addAll(filters);
+        }
+        filtersAndPosition.add(getKeysetFilter(keysetOrderBy, keyValues));
+        return sqlGenerator.generateSelectQuery(tableName, filtersAndPosition,
+                orderBy, 0, pagelength, toSelect);
+    }
+
+    /**
+     * Returns a key identifying the rows that
+     * {@link #getResults(int, int)} would return with the current filters
+     * and ordering, for use with the {@link RowCache} of this query.
+     * 
+     * @param offset
+     *            the offset of the first row
+     * @param pagelength
+     *            the maximum number of rows
+     * @return the cache key
+     * @since 7.1
+     */
+    public String getResultsCacheKey(int offset, int pagelength) {
+        return getCacheKey(getResultsStatement(offset, pagelength));
+    }
+
+    /**
+     * Returns a key identifying the rows that
+     * {@link #getResultsAfter(Object[], int)} would return with the current
+     * filters and ordering, for use with the {@link RowCache} of this query.
+     * 
+     * @param keyValues
+     *            the values of the keyset columns in the row preceding the
+     *            rows
+     * @param pagelength
+     *            the maximum number of rows
+     * @return the cache key
+     * @throws IllegalStateException
+     *             if the current ordering does not identify the rows
+     * @since 7.1
+     */
+    public String getResultsAfterCacheKey(Object[] keyValues, int pagelength) {
+        return getCacheKey(getKeysetStatement(keyValues, pagelength, true,
+                null));
+    }
+
+    /**
+     * Builds a cache key from the query string and the parameter values,
+     * including their types to tell apart e.g. the number 1 and the string
+     * "1".
+     */
+    private static String getCacheKey(StatementHelper sh) {
+        StringBuilder key = new StringBuilder(sh.getQueryString());
+        for (Object value : sh.getParameterValues()) {
+            key.append('\u0000');
+            if (value != null) {
+                key.append(value.getClass().getName()).append(':');
+            }
+            key.append(value);
+        }
+        return key.toString();
+    }
+
+    private static List<OrderBy> reverse(List<OrderBy> orderBys) {
+        List<OrderBy> reversed = new ArrayList<OrderBy>(orderBys.size());
+        for (OrderBy orderBy : orderBys) {
+            reversed.add(new OrderBy(orderBy.getColumn(), !orderBy
+                    .isAscending()));
+        }
+        return reversed;
+    }
+
+    /**
+     * Returns the values of the columns returned by
+     * {@link #getIdentifyingOrderBy()} for the row with the given primary
+     * key, for use with {@link #getResultsAfter(Object[], int)} and
+     * {@link #getResultsBefore(Object[], int)}.
+     * 
+     * @param keys
+     *            the primary key values of the row
+     * @return the values of the keyset columns, or null if the current
+     *         ordering does not identify the rows, no
+     *         row with the keys passes the current filters or any of the
+     *         values is null
+     * @throws SQLException
+     * @since 7.1
+     */
+    public Object[] getKeysetValues(Object... keys) throws SQLException {
+        List<OrderBy> keysetOrderBy = getIdentifyingOrderBy();
+        if (keysetOrderBy == null) {
+            return null;
+        }
+        ArrayList<Filter> filtersAndKeys = new ArrayList<Filter>();
+        if (filters != null) {
+            filtersAndKeys.addAll(filters);
+        }
+        int ix = 0;
+        for (String colName : primaryKeyColumns) {
+            filtersAndKeys.add(new Equal(colName, keys[ix]));
+            ix++;
+        }
+        StatementHelper sh = sqlGenerator.generateSelectQuery(tableName,
+                filtersAndKeys, null, 0, 0, "*");
+
+        boolean shouldCloseTransaction = false;
+        if (!isInTransaction()) {
+            shouldCloseTransaction = true;
+            beginTransaction();
+        }
+        ResultSet rs = null;
+        try {
+            rs = executeQuery(sh);
+            if (!rs.next()) {
+                return null;
+            }
+            Object[] values = new Object[keysetOrderBy.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = rs.getObject(keysetOrderBy.get(i).getColumn());
+                if (values[i] == null) {
+                    return null;
+                }
+            }
+            return values;
+        } finally {
+            try {
+                if (rs != null) {
+                    releaseConnection(rs.getStatement().getConnection(),
+                            rs.getStatement(), rs);
+                }
+            } finally {
+                if (shouldCloseTransaction) {
+                    commit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a filter that only passes the rows that come after the row with
+     * the given values, i.e. (a > ?) OR (a = ? AND b > ?) OR ... for an
+     * ascending order.
+     */
+    private static Filter getKeysetFilter(List<OrderBy> keysetOrderBy,
+            Object[] keyValues) {
+        Filter[] alternatives = new Filter[keysetOrderBy.size()];
+        for (int i = 0; i < alternatives.length; i++) {
+            Filter[] conditions = new Filter[i + 1];
+            for (int j = 0; j < i; j++) {
+                conditions[j] = new Equal(keysetOrderBy.get(j).getColumn(),
+                        keyValues[j]);
+            }
+            OrderBy orderBy = keysetOrderBy.get(i);
+            if (orderBy.isAscending()) {
+                conditions[i] = new Compare.Greater(orderBy.getColumn(),
+                        keyValues[i]);
+            } else {
+                conditions[i] = new Compare.Less(orderBy.getColumn(),
+                        keyValues[i]);
+            }
+            alternatives[i] = i == 0 ? conditions[0] : new And(conditions);
+        }
+        return alternatives.length == 1 ? alternatives[0] : new Or(
+                alternatives);
+    }
+
+    /**
+     * Returns the ordering used for fetching rows. If no ordering is
+     * explicitly set, results will be ordered by the primary key columns.
+     */
+    private List<OrderBy> getEffectiveOrderBy() {
+        return getEffectiveOrderBy(orderBys);
+    }
+
+    private List<OrderBy> getEffectiveOrderBy(List<OrderBy> orderBys) {
         if (orderBys == null || orderBys.isEmpty()) {
             List<OrderBy> ob = new ArrayList<OrderBy>();
             for (int i = 0; i < primaryKeyColumns.size(); i++) {
                 ob.add(new OrderBy(primaryKeyColumns.get(i), true));
             }
-            sh = sqlGenerator.generateSelectQuery(tableName, filters, ob,
-                    offset, pagelength, null);
+            return ob;
         } else {
-            sh = sqlGenerator.generateSelectQuery(tableName, filters, orderBys,
-                    offset, pagelength, null);
+            return orderBys;
+        }
+    }
+
+    /**
+     * Returns the columns of the current ordering used for keyset pagination
+     * when fetching pages. These are the columns returned by
+     * {@link #getIdentifyingOrderBy()} if keyset pagination has been enabled.
+     * 
+     * @return the columns of the ordering up to and including the last
+     *         primary key column, or null if keyset pagination is not enabled
+     *         or can not be used with the current ordering
+     * @since 7.1
+     */
+    public List<OrderBy> getKeysetOrderBy() {
+        if (!keysetPaginationEnabled) {
+            return null;
+        }
+        return getIdentifyingOrderBy();
+    }
+
+    /**
+     * Returns the leading columns of the current ordering that identify a row
+     * and can thus be used for finding the rows next to a given row with
+     * {@link #getResultsAfter(Object[], int)} and
+     * {@link #getResultsBefore(Object[], int)}. This is the case if the
+     * ordering includes all primary key columns and no column before the last
+     * primary key column can contain null values.
+     * 
+     * @return the columns of the ordering up to and including the last
+     *         primary key column, or null if the current ordering does not
+     *         identify the rows
+     * @since 7.1
+     */
+    public List<OrderBy> getIdentifyingOrderBy() {
+        return getIdentifyingOrderBy(getEffectiveOrderBy());
+    }
+
+    /**
+     * Checks whether the given ordering identifies the rows, i.e. whether
+     * {@link #getIdentifyingOrderBy()} would return a non-null value if the
+     * ordering was set using {@link #setOrderBy(List)}. The ordering of this
+     * query is not changed.
+     * 
+     * @param orderBys
+     *            the ordering to check, null or empty for the default ordering
+     * @return true if the ordering identifies the rows, false otherwise
+     * @since 7.1
+     */
+    public boolean isIdentifyingOrderBy(List<OrderBy> orderBys) {
+        return getIdentifyingOrderBy(getEffectiveOrderBy(orderBys)) != null;
+    }
+
+    private List<OrderBy> getIdentifyingOrderBy(List<OrderBy> orderBys) {
+        Set<String> missingKeyColumns = new HashSet<String>(primaryKeyColumns);
+        List<OrderBy> keysetOrderBy = new ArrayList<OrderBy>();
+        for (OrderBy orderBy : orderBys) {
+            String column = orderBy.getColumn();
+            if (!primaryKeyColumns.contains(column)
+                    && !notNullColumns.contains(column)) {
+                return null;
+            }
+            keysetOrderBy.add(orderBy);
+            missingKeyColumns.remove(column);
+            if (missingKeyColumns.isEmpty()) {
+                return Collections.unmodifiableList(keysetOrderBy);
+            }
         }
-        return executeQuery(sh);
+        return null;
+    }
+
+    /**
+     * Enables or disables keyset pagination. When enabled, an
+     * {@link com.vaadin.data.util.sqlcontainer.SQLContainer} fetches the page
+     * following the previously fetched one by selecting the rows after the
+     * last fetched row instead of using an offset, if the ordering allows it
+     * (see {@link #getKeysetOrderBy()}). This avoids scanning all the
+     * preceding rows when scrolling far into a large table. Other pages are
+     * still fetched using an offset. Disabled by default.
+     * <p>
+     * This setting does not affect {@code nextItemId()} and
+     * {@code prevItemId()} of the container, which always query the rows next
+     * to an item outside the cached page if the ordering identifies the rows
+     * (see {@link #getIdentifyingOrderBy()}).
+     * 
+     * @param keysetPaginationEnabled
+     *            true to enable keyset pagination, false to always use offsets
+     * @since 7.1
+     */
+    public void setKeysetPaginationEnabled(boolean keysetPaginationEnabled) {
+        this.keysetPaginationEnabled = keysetPaginationEnabled;
+    }
+
+    /**
+     * Returns whether keyset pagination is enabled.
+     * 
+     * @see #setKeysetPaginationEnabled(boolean)
+     * @return true if keyset pagination is enabled
+     * @since 7.1
+     */
+    public boolean isKeysetPaginationEnabled() {
+        return keysetPaginationEnabled;
+    }
+
+    /**
+     * Sets the strategy used for estimating the number of rows instead of
+     * counting them exactly. When an estimate is available, it is returned by
+     * {@link #getCount()}. By default, the rows are always counted.
+     * 
+     * @param approximateRowCounter
+     *            the strategy to use, or null to always count the rows
+     * @since 7.1
+     */
+    public void setApproximateRowCounter(
+            ApproximateRowCounter approximateRowCounter) {
+        this.approximateRowCounter = approximateRowCounter;
+    }
+
+    /**
+     * Returns the strategy used for estimating the number of rows.
+     * 
+     * @return the strategy, or null if the rows are always counted
+     * @since 7.1
+     */
+    public ApproximateRowCounter getApproximateRowCounter() {
+        return approximateRowCounter;
+    }
+
+    /**
+     * Returns whether the value last returned by {@link #getCount()} was an
+     * estimate.
+     * 
+     * @return true if the latest count was estimated, false if it was exact
+     * @since 7.1
+     */
+    public boolean isCountApproximate() {
+        return countApproximate;
+    }
+
+    /**
+     * Sets the cache used by
+     * {@link com.vaadin.data.util.sqlcontainer.SQLContainer} for the rows
+     * fetched using this query. The same cache can be shared by
+     * many queries, e.g. by all user sessions, to avoid fetching the same rows
+     * repeatedly. The rows of the table are invalidated in the cache when rows
+     * are modified through this query and the transaction is committed. By
+     * default, no cache is used.
+     * 
+     * @param rowCache
+     *            the row cache to use, or null to always fetch the rows from
+     *            the database
+     * @since 7.1
+     */
+    public void setRowCache(RowCache rowCache) {
+        this.rowCache = rowCache;
+    }
+
+    /**
+     * Returns the cache used for the rows fetched using this query.
+     * 
+     * @return the row cache, or null if none is used
+     * @since 7.1
+     */
+    public RowCache getRowCache() {
+        return rowCache;
+    }
+
+    /**
+     * Returns a string identifying the database accessed by this query, used
+     * in the {@link RowCache} to tell apart tables with the same name in
+     * different databases. This is the JDBC URL and user name of the database
+     * if the driver provides them, otherwise the identity of the connection
+     * pool.
+     * 
+     * @return the database identifier
+     * @since 7.1
+     */
+    public String getDatabaseId() {
+        return databaseId;
     }
 
     /*
@@ -202,6 +754,7 @@ public class TableQuery extends AbstractTransactionalQuery implements
         }
         StatementHelper sh;
         int result = 0;
+        rowsModified = true;
         if (row.getId() instanceof TemporaryRowId) {
             setVersionColumnFlagInProperty(row);
             sh = sqlGenerator.generateInsertQuery(tableName, row);
@@ -219,6 +772,67 @@ public class TableQuery extends AbstractTransactionalQuery implements
         return result;
     }
 
+    /**
+     * Stores the given rows like {@link #storeRow(RowItem)} does, but executes
+     * the statements of rows with identical SQL as JDBC batches, preparing
+     * the statement only once. The rows are grouped by the SQL generated for
+     * them, so the statements of different groups may be executed in a
+     * different order than the rows are given in. Generated keys of inserted
+     * rows are reported to {@link RowIdChangeListener}s on commit if the
+     * driver returns them for batches.
+     * <p>
+     * If the driver does not report the number of rows affected by a batched
+     * statement, the count is returned as {@link Statement#SUCCESS_NO_INFO}
+     * and a failed optimistic lock check can not be detected for the row.
+     * </p>
+     * 
+     * @param rows
+     *            the rows to store
+     * @return the number of database rows affected for each row, in the
+     *         order of the given rows
+     * @throws OptimisticLockException
+     *             if a version column is set and an updated row has been
+     *             changed by someone else
+     * @throws SQLException
+     * @see #setBatchSize(int)
+     * @since 7.1
+     */
+    public int[] storeRows(List<RowItem> rows) throws SQLException {
+        List<StatementHelper> inserts = new ArrayList<StatementHelper>();
+        List<RowItem> insertedRows = new ArrayList<RowItem>();
+        List<StatementHelper> updates = new ArrayList<StatementHelper>();
+        List<Integer> updateIndexes = new ArrayList<Integer>();
+        List<Integer> insertIndexes = new ArrayList<Integer>();
+        for (int i = 0; i < rows.size(); i++) {
+            RowItem row = rows.get(i);
+            setVersionColumnFlagInProperty(row);
+            if (row.getId() instanceof TemporaryRowId) {
+                inserts.add(sqlGenerator.generateInsertQuery(tableName, row));
+                insertedRows.add(row);
+                insertIndexes.add(i);
+            } else {
+                updates.add(sqlGenerator.generateUpdateQuery(tableName, row));
+                updateIndexes.add(i);
+            }
+        }
+        rowsModified = true;
+        int[] results = new int[rows.size()];
+        int[] updateResults = executeBatches(updates, null);
+        for (int i = 0; i < updateResults.length; i++) {
+            if (versionColumn != null && updateResults[i] == 0) {
+                throw new OptimisticLockException(
+                        "Someone else changed the row that was being updated.",
+                        rows.get(updateIndexes.get(i)).getId());
+            }
+            results[updateIndexes.get(i)] = updateResults[i];
+        }
+        int[] insertResults = executeBatches(inserts, insertedRows);
+        for (int i = 0; i < insertResults.length; i++) {
+            results[insertIndexes.get(i)] = insertResults[i];
+        }
+        return results;
+    }
+
     private void setVersionColumnFlagInProperty(RowItem row) {
         ColumnProperty versionProperty = (ColumnProperty) row
                 .getItemProperty(versionColumn);
@@ -241,6 +855,7 @@ public class TableQuery extends AbstractTransactionalQuery implements
      */
     public RowId storeRowImmediately(RowItem row) throws SQLException {
         beginTransaction();
+        rowsModified = true;
         /* Set version column, if one is provided */
         setVersionColumnFlagInProperty(row);
         /* Generate query */
@@ -327,6 +942,12 @@ public class TableQuery extends AbstractTransactionalQuery implements
     public void commit() throws UnsupportedOperationException, SQLException {
         getLogger().log(Level.FINE, "DB -> commit");
         super.commit();
+        if (rowsModified) {
+            rowsModified = false;
+            if (rowCache != null) {
+                rowCache.invalidate(databaseId, tableName);
+            }
+        }
 
         /* Handle firing row ID change events */
         RowIdChangeEvent[] unFiredEvents = bufferedEvents
@@ -350,6 +971,7 @@ public class TableQuery extends AbstractTransactionalQuery implements
     public void rollback() throws UnsupportedOperationException, SQLException {
         getLogger().log(Level.FINE, "DB -> rollback");
         super.rollback();
+        rowsModified = false;
     }
 
     /*
@@ -480,6 +1102,9 @@ public class TableQuery extends AbstractTransactionalQuery implements
             connection = getConnection();
             DatabaseMetaData dbmd = connection.getMetaData();
             if (dbmd != null) {
+                if (dbmd.getURL() != null) {
+                    databaseId = dbmd.getURL() + " " + dbmd.getUserName();
+                }
                 tableName = SQLUtil.escapeSQL(tableName);
                 tables = dbmd.getTables(null, null, tableName, null);
                 if (!tables.next()) {
@@ -510,6 +1135,7 @@ public class TableQuery extends AbstractTransactionalQuery implements
                                     + tableName
                                     + "\". Use FreeFormQuery to access this table.");
                 }
+                fetchNotNullColumns(dbmd);
                 for (String colName : primaryKeyColumns) {
                     if (colName.equalsIgnoreCase("rownum")) {
                         if (getSqlGenerator() instanceof MSSQLGenerator
@@ -536,17 +1162,71 @@ public class TableQuery extends AbstractTransactionalQuery implements
         }
     }
 
+    /**
+     * Finds the columns that are declared NOT NULL. Failures are ignored as
+     * this is only needed for keyset pagination.
+     */
+    private void fetchNotNullColumns(DatabaseMetaData dbmd) {
+        ResultSet columns = null;
+        try {
+            columns = dbmd.getColumns(null, null, tableName, null);
+            while (columns.next()) {
+                if (columns.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls) {
+                    notNullColumns.add(columns.getString("COLUMN_NAME"));
+                }
+            }
+        } catch (SQLException e) {
+            getLogger().log(Level.FINE,
+                    "Failed to fetch the nullability of columns", e);
+        } finally {
+            try {
+                if (columns != null) {
+                    columns.close();
+                }
+            } catch (SQLException ignore) {
+            }
+        }
+    }
+
     private RowId getNewRowId(RowItem row, ResultSet genKeys) {
         try {
             /* Fetch primary key values and generate a map out of them. */
-            Map<String, Object> values = new HashMap<String, Object>();
-            ResultSetMetaData rsmd = genKeys.getMetaData();
-            int colCount = rsmd.getColumnCount();
-            if (genKeys.next()) {
-                for (int i = 1; i <= colCount; i++) {
-                    values.put(rsmd.getColumnName(i), genKeys.getObject(i));
-                }
+            Map<String, Object> values = readGeneratedKeys(genKeys);
+            if (values == null) {
+                values = new HashMap<String, Object>();
             }
+            return createNewRowId(row, values);
+        } catch (Exception e) {
+            getLogger()
+                    .log(Level.FINE,
+                            "Failed to fetch key values on insert: {0}",
+                            e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the next row of generated keys into a map from column names to
+     * values.
+     * 
+     * @return the key values, or null if there are no more rows
+     */
+    private Map<String, Object> readGeneratedKeys(ResultSet genKeys)
+            throws SQLException {
+        if (!genKeys.next()) {
+            return null;
+        }
+        Map<String, Object> values = new HashMap<String, Object>();
+        ResultSetMetaData rsmd = genKeys.getMetaData();
+        int colCount = rsmd.getColumnCount();
+        for (int i = 1; i <= colCount; i++) {
+            values.put(rsmd.getColumnName(i), genKeys.getObject(i));
+        }
+        return values;
+    }
+
+    private RowId createNewRowId(RowItem row, Map<String, Object> values) {
+        try {
             /* Generate new RowId */
             List<Object> newRowId = new ArrayList<Object>();
             if (values.size() == 1) {
@@ -592,6 +1272,7 @@ public class TableQuery extends AbstractTransactionalQuery implements
             getLogger().log(Level.FINE, "Removing row with id: {0}",
                     row.getId().getId()[0]);
         }
+        rowsModified = true;
         if (executeUpdate(sqlGenerator.generateDeleteQuery(getTableName(),
                 primaryKeyColumns, versionColumn, row)) == 1) {
             return true;
@@ -604,6 +1285,206 @@ public class TableQuery extends AbstractTransactionalQuery implements
         return false;
     }
 
+    /**
+     * Removes the given rows like {@link #removeRow(RowItem)} does, but
+     * executes the delete statements as JDBC batches. See
+     * {@link #storeRows(List)} for more information.
+     * 
+     * @param rows
+     *            the rows to remove
+     * @return the number of database rows removed for each row, in the
+     *         iteration order of the given rows
+     * @throws OptimisticLockException
+     *             if a version column is set and a row has been changed by
+     *             someone else
+     * @throws SQLException
+     * @since 7.1
+     */
+    public int[] removeRows(Collection<RowItem> rows) throws SQLException {
+        List<StatementHelper> deletes = new ArrayList<StatementHelper>();
+        List<RowItem> rowList = new ArrayList<RowItem>(rows);
+        for (RowItem row : rowList) {
+            deletes.add(sqlGenerator.generateDeleteQuery(getTableName(),
+                    primaryKeyColumns, versionColumn, row));
+        }
+        rowsModified = true;
+        int[] results = executeBatches(deletes, null);
+        if (versionColumn != null) {
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == 0) {
+                    throw new OptimisticLockException(
+                            "Someone else changed the row that was being deleted.",
+                            rowList.get(i).getId());
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Sets the maximum number of rows executed in one JDBC batch by
+     * {@link #storeRows(List)} and {@link #removeRows(Collection)}. The
+     * default is {@value #DEFAULT_BATCH_SIZE}.
+     * 
+     * @param batchSize
+     *            the maximum number of rows in a batch, 1 to execute each row
+     *            separately while still reusing the prepared statement
+     * @since 7.1
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(
+                    "Batch size must be at least 1.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the maximum number of rows executed in one JDBC batch.
+     * 
+     * @return the batch size
+     * @since 7.1
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Executes the given statements, grouping the statements with identical
+     * SQL into batches of at most {@link #getBatchSize()} rows that share a
+     * prepared statement.
+     * 
+     * @param statements
+     *            the statements to execute
+     * @param insertedRows
+     *            the rows inserted by the statements, to fire row id change
+     *            events for on commit, or null if the statements are not
+     *            inserts
+     * @return the update counts of the statements, in the order of the
+     *         statements
+     * @throws SQLException
+     */
+    private int[] executeBatches(List<StatementHelper> statements,
+            List<RowItem> insertedRows) throws SQLException {
+        int[] results = new int[statements.size()];
+        if (statements.isEmpty()) {
+            return results;
+        }
+        /* Group by SQL, keeping the order of the first occurrences */
+        Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < statements.size(); i++) {
+            String query = statements.get(i).getQueryString();
+            List<Integer> group = groups.get(query);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(query, group);
+            }
+            group.add(i);
+        }
+        Connection connection = getConnection();
+        try {
+            boolean batchesSupported = batchSize > 1
+                    && connection.getMetaData().supportsBatchUpdates();
+            for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+                PreparedStatement pstmt;
+                if (insertedRows != null) {
+                    pstmt = connection.prepareStatement(group.getKey(),
+                            primaryKeyColumns.toArray(new String[0]));
+                } else {
+                    pstmt = connection.prepareStatement(group.getKey());
+                }
+                try {
+                    getLogger().log(Level.FINE, "DB -> {0} ({1} rows)",
+                            new Object[] { group.getKey(),
+                                    group.getValue().size() });
+                    List<Integer> indexes = group.getValue();
+                    int step = batchesSupported ? batchSize : 1;
+                    for (int start = 0; start < indexes.size(); start += step) {
+                        List<Integer> batch = indexes.subList(start,
+                                Math.min(start + step, indexes.size()));
+                        executeBatch(pstmt, batch, statements, insertedRows,
+                                results, batchesSupported);
+                    }
+                } finally {
+                    releaseConnection(null, pstmt, null);
+                }
+            }
+        } finally {
+            releaseConnection(connection, null, null);
+        }
+        return results;
+    }
+
+    private void executeBatch(PreparedStatement pstmt, List<Integer> batch,
+            List<StatementHelper> statements, List<RowItem> insertedRows,
+            int[] results, boolean batchesSupported) throws SQLException {
+        if (batchesSupported) {
+            for (int index : batch) {
+                statements.get(index).setParameterValuesToStatement(pstmt);
+                pstmt.addBatch();
+            }
+            int[] counts = pstmt.executeBatch();
+            for (int i = 0; i < batch.size(); i++) {
+                results[batch.get(i)] = i < counts.length ? counts[i]
+                        : Statement.SUCCESS_NO_INFO;
+            }
+            if (insertedRows != null) {
+                addRowIdChangeEvents(pstmt, batch, insertedRows);
+            }
+        } else {
+            for (int index : batch) {
+                statements.get(index).setParameterValuesToStatement(pstmt);
+                results[index] = pstmt.executeUpdate();
+                if (insertedRows != null) {
+                    addRowIdChangeEvents(pstmt,
+                            Collections.singletonList(index), insertedRows);
+                }
+            }
+        }
+    }
+
+    /**
+     * Buffers row id change events for inserted rows, reading the generated
+     * keys of the rows in the order the rows were inserted. Some drivers
+     * return no keys or only the last key for a batch. The keys can then not
+     * be matched to the rows, so no events are buffered for the batch.
+     */
+    private void addRowIdChangeEvents(PreparedStatement pstmt,
+            List<Integer> batch, List<RowItem> insertedRows)
+            throws SQLException {
+        List<Map<String, Object>> keys = new ArrayList<Map<String, Object>>();
+        ResultSet genKeys = null;
+        try {
+            genKeys = pstmt.getGeneratedKeys();
+            Map<String, Object> values;
+            while (genKeys != null && keys.size() < batch.size()
+                    && (values = readGeneratedKeys(genKeys)) != null) {
+                keys.add(values);
+            }
+        } catch (SQLException e) {
+            getLogger().log(Level.FINE,
+                    "Failed to fetch key values on insert: {0}",
+                    e.getMessage());
+        } finally {
+            if (genKeys != null) {
+                genKeys.close();
+            }
+        }
+        if (keys.size() < batch.size()) {
+            getLogger().log(
+                    Level.FINE,
+                    "Got generated keys for {0} of {1} inserted rows,"
+                            + " new row ids are not reported",
+                    new Object[] { keys.size(), batch.size() });
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            RowItem row = insertedRows.get(batch.get(i));
+            bufferedEvents.add(new RowIdChangeEvent(row.getId(),
+                    createNewRowId(row, keys.get(i))));
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
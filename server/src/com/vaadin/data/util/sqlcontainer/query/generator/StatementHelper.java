@@ -24,6 +24,7 @@ import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -55,6 +56,17 @@ public class StatementHelper implements Serializable {
         return queryString;
     }
 
+    /**
+     * Returns the parameter values added to this statement helper.
+     * 
+     * @return an unmodifiable list of the parameter values, in the order in
+     *         which they were added
+     * @since 7.1
+     */
+    public List<Object> getParameterValues() {
+        return Collections.unmodifiableList(parameters);
+    }
+
     public void addParameterValue(Object parameter) {
         if (parameter != null) {
             parameters.add(parameter);
@@ -17,6 +17,7 @@ package com.vaadin.server;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
@@ -30,6 +31,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 import org.json.JSONException;
@@ -55,6 +58,11 @@ import com.vaadin.ui.UI;
  */
 public abstract class AbstractClientConnector implements ClientConnector,
         MethodEventSource {
+    /**
+     * Cache of whether connector classes override {@link #encodeState()}.
+     */
+    private static final ConcurrentMap<Class<?>, Boolean> encodeStateOverridden = new ConcurrentHashMap<Class<?>, Boolean>();
+
     /**
      * A map from client to server RPC interface class name to the RPC call
      * manager that handles incoming RPC calls for that interface.
@@ -239,6 +247,55 @@ public abstract class AbstractClientConnector implements ClientConnector,
         return LegacyCommunicationManager.encodeState(this, getState());
     }
 
+    /**
+     * Writes the pending changes of the shared state of this connector as a
+     * JSON object directly to the given writer. If a subclass overrides
+     * {@link #encodeState()}, the state returned by it is written instead.
+     * <p>
+     * This is meant for framework internal use.
+     * 
+     * @param prefix
+     *            the text to write before the JSON object if anything is
+     *            written
+     * @param writer
+     *            the writer to write to
+     * @return <code>true</code> if something was written, <code>false</code>
+     *         if the state has not changed
+     * @throws IOException
+     *             if writing fails
+     * @throws JSONException
+     *             if the state can not be encoded
+     * @since 7.1
+     */
+    public boolean writeState(String prefix, Writer writer)
+            throws IOException, JSONException {
+        if (overridesEncodeState(getClass())) {
+            JSONObject stateJson = encodeState();
+            if (stateJson == null || stateJson.length() == 0) {
+                return false;
+            }
+            writer.write(prefix);
+            JsonCodec.writeJson(stateJson, writer);
+            return true;
+        }
+        return LegacyCommunicationManager.writeState(this, getState(), prefix,
+                writer);
+    }
+
+    private static boolean overridesEncodeState(Class<?> type) {
+        Boolean overrides = encodeStateOverridden.get(type);
+        if (overrides == null) {
+            try {
+                overrides = Boolean.valueOf(type.getMethod("encodeState")
+                        .getDeclaringClass() != AbstractClientConnector.class);
+            } catch (NoSuchMethodException e) {
+                overrides = Boolean.FALSE;
+            }
+            encodeStateOverridden.put(type, overrides);
+        }
+        return overrides.booleanValue();
+    }
+
     /**
      * Creates the shared state bean to be used in server to client
      * communication.
@@ -648,14 +705,26 @@ public abstract class AbstractClientConnector implements ClientConnector,
         String[] parts = path.split("/", 2);
         String key = parts[0];
 
-        ConnectorResource resource = (ConnectorResource) getResource(key);
-        if (resource != null) {
-            DownloadStream stream = resource.getStream();
-            stream.writeResponse(request, response);
-            return true;
-        } else {
+        DownloadStream stream;
+        VaadinSession session = getSession();
+        if (session == null) {
+            // Detached after the connector was looked up
             return false;
         }
+        session.lock();
+        try {
+            ConnectorResource resource = (ConnectorResource) getResource(key);
+            if (resource == null) {
+                return false;
+            }
+            stream = resource.getStream();
+        } finally {
+            session.unlock();
+        }
+
+        // Send the data without holding the lock
+        stream.writeResponse(request, response);
+        return true;
     }
 
     /**
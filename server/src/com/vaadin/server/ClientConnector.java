@@ -320,6 +320,13 @@ public interface ClientConnector extends Connector {
      * <p>
      * {@link DynamicConnectorResource} can be used to easily make an
      * appropriate URL available to the client-side code.
+     * <p>
+     * This method is called without holding the session lock, so that
+     * writing a large response does not prevent other requests to the same
+     * session from being handled. Implementations must lock the session using
+     * {@link VaadinSession#lock()} while accessing the connector or any other
+     * session data, and should write the response only after releasing the
+     * lock.
      * 
      * @param request
      *            the request that should be handled
@@ -30,6 +30,15 @@ public interface ConnectorResource extends Resource {
 
     /**
      * Gets resource as stream.
+     * <p>
+     * This method is called while the session is locked, but the data of the
+     * returned stream is read and sent to the client only after the lock has
+     * been released. The returned stream must thus not access the UI or
+     * session without locking the session, and should preferably read its
+     * data from a source that can safely be used by another thread.
+     * 
+     * @return a download stream for the resource, or <code>null</code> if the
+     *         resource has no data to send
      */
     public DownloadStream getStream();
 
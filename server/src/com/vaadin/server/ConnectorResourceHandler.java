@@ -50,22 +50,35 @@ public class ConnectorResourceHandler implements RequestHandler {
             String uiId = matcher.group(1);
             String cid = matcher.group(2);
             String key = matcher.group(3);
-            UI ui = session.getUIById(Integer.parseInt(uiId));
-            if (ui == null) {
-                return error(request, response,
-                        "Ignoring connector request for no-existent root "
-                                + uiId);
-            }
 
-            UI.setCurrent(ui);
-            VaadinSession.setCurrent(ui.getSession());
+            // Only look up the connector while holding the lock. The
+            // connector locks the session itself if needed, so that sending
+            // a large resource or an error does not block other requests to
+            // the session.
+            ClientConnector connector = null;
+            String errorMessage = null;
+            session.lock();
+            try {
+                UI ui = session.getUIById(Integer.parseInt(uiId));
+                if (ui == null) {
+                    errorMessage = "Ignoring connector request for no-existent root "
+                            + uiId;
+                } else {
+                    UI.setCurrent(ui);
+                    VaadinSession.setCurrent(ui.getSession());
+
+                    connector = ui.getConnectorTracker().getConnector(cid);
+                    if (connector == null) {
+                        errorMessage = "Ignoring connector request for no-existent connector "
+                                + cid + " in root " + uiId;
+                    }
+                }
+            } finally {
+                session.unlock();
+            }
 
-            ClientConnector connector = ui.getConnectorTracker().getConnector(
-                    cid);
-            if (connector == null) {
-                return error(request, response,
-                        "Ignoring connector request for no-existent connector "
-                                + cid + " in root " + uiId);
+            if (errorMessage != null) {
+                return error(request, response, errorMessage);
             }
 
             if (!connector.handleConnectorRequest(request, response, key)) {
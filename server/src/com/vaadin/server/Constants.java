@@ -63,6 +63,12 @@ public interface Constants {
     static final String SERVLET_PARAMETER_RESOURCE_CACHE_TIME = "resourceCacheTime";
     static final String SERVLET_PARAMETER_HEARTBEAT_INTERVAL = "heartbeatInterval";
     static final String SERVLET_PARAMETER_CLOSE_IDLE_SESSIONS = "closeIdleSessions";
+    static final String SERVLET_PARAMETER_LONG_POLL_TIMEOUT = "longPollTimeout";
+    static final String SERVLET_PARAMETER_COMPRESSION_THRESHOLD = "compressionThreshold";
+    static final String SERVLET_PARAMETER_STATIC_RESOURCE_CACHE_SIZE = "staticResourceCacheSize";
+    static final String SERVLET_PARAMETER_COMPILE_SCSS_IN_PRODUCTION_MODE = "compileScssInProductionMode";
+    static final String SERVLET_PARAMETER_UPLOAD_PROGRESS_INTERVAL = "uploadProgressInterval";
+    static final String SERVLET_PARAMETER_UPLOAD_PROGRESS_BYTES = "uploadProgressBytes";
     static final String SERVLET_PARAMETER_UI_PROVIDER = "UIProvider";
 
     // Configurable parameter names
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.server;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.Iterator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.vaadin.shared.communication.SharedState;
+
+/**
+ * The values of a {@link SharedState} that were last sent to the client,
+ * stored per property so that the next state update only needs to include the
+ * changed properties.
+ * <p>
+ * The values are kept in an array indexed in the same order as the properties
+ * found by {@link JsonCodec} for the state type. Simple values (primitives,
+ * their wrappers, strings and enum names) are stored as such and can thus be
+ * shared with the state object itself. Other values are stored as their JSON
+ * representation. The property names are shared by all instances for the same
+ * state type, so an instance only needs memory for the value array.
+ * </p>
+ * <p>
+ * Instances are created and updated by
+ * {@link JsonCodec#encodeDiff(Object, Class, DiffState, com.vaadin.ui.ConnectorTracker)}
+ * .
+ * </p>
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class DiffState implements Serializable {
+
+    /**
+     * Marker for properties that have no value in a diff state, e.g. after it
+     * has been remapped. Such properties are always sent to the client.
+     */
+    static final Object MISSING_VALUE = Missing.INSTANCE;
+
+    /**
+     * Serializable singleton type for {@link #MISSING_VALUE}, so that a diff
+     * state containing the marker can still be serialized with the session.
+     */
+    private enum Missing {
+        INSTANCE
+    }
+
+    private String[] names;
+    private Object[] values;
+
+    DiffState(String[] names, Object[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    /**
+     * Updates the value that the client is known to have for the given
+     * property. This is needed when the client changes its own state before
+     * informing the server so that setting the property back to the previous
+     * value is still sent to the client.
+     * 
+     * @param propertyName
+     *            the name of the property
+     * @param encodedValue
+     *            the value known by the client, in the same format as
+     *            produced by {@link JsonCodec}
+     * @throws JSONException
+     *             if the value can not be represented as JSON
+     * @throws IllegalArgumentException
+     *             if the state has no property with the given name
+     */
+    public void put(String propertyName, Object encodedValue)
+            throws JSONException {
+        int index = indexOf(propertyName);
+        if (index == -1) {
+            throw new IllegalArgumentException("State has no property named "
+                    + propertyName);
+        }
+        if (encodedValue == JSONObject.NULL) {
+            encodedValue = null;
+        } else if (encodedValue instanceof JSONObject
+                || encodedValue instanceof JSONArray) {
+            StringWriter writer = new StringWriter();
+            try {
+                JsonCodec.writeJson(encodedValue, writer);
+            } catch (IOException e) {
+                // StringWriter does not throw
+                throw new JSONException(e);
+            }
+            encodedValue = writer.toString();
+        }
+        values[index] = encodedValue;
+    }
+
+    /**
+     * Returns the values of this diff state as a JSON object. Values put in or
+     * removed from the returned object are written through to this diff
+     * state. A removed property is sent to the client in the next update.
+     * 
+     * @param valueType
+     *            the type of the shared state
+     * @return a JSON object backed by this diff state
+     * @throws JSONException
+     *             if the values can not be represented as JSON
+     * @since 7.1
+     */
+    public JSONObject toJson(Class<?> valueType) throws JSONException {
+        return new WriteThroughJson(this,
+                JsonCodec.diffStateToJson(this, valueType));
+    }
+
+    /**
+     * A JSON object that writes changes through to a diff state, for the
+     * deprecated JSON based diff state API.
+     */
+    private static class WriteThroughJson extends JSONObject {
+        private final DiffState diffState;
+
+        private WriteThroughJson(DiffState diffState, JSONObject values)
+                throws JSONException {
+            this.diffState = diffState;
+            Iterator<?> keys = values.keys();
+            while (keys.hasNext()) {
+                String key = (String) keys.next();
+                super.put(key, values.get(key));
+            }
+        }
+
+        @Override
+        public JSONObject put(String key, Object value) throws JSONException {
+            if (value == null) {
+                remove(key);
+            } else {
+                super.put(key, value);
+                diffState.put(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public Object remove(String key) {
+            int index = diffState.indexOf(key);
+            if (index != -1) {
+                diffState.values[index] = MISSING_VALUE;
+            }
+            return super.remove(key);
+        }
+    }
+
+    /**
+     * Creates a copy of this diff state, sharing the property names and all
+     * the (immutable) values but not the value array itself.
+     * 
+     * @return a new diff state with the same values
+     */
+    DiffState copy() {
+        return new DiffState(names, values.clone());
+    }
+
+    String[] getNames() {
+        return names;
+    }
+
+    Object[] getValues() {
+        return values;
+    }
+
+    /**
+     * Rearranges the values to match the given property names. Needed when
+     * the property order of the state type is not the same as when this
+     * instance was created, e.g. after deserialization in another JVM.
+     * Properties without a previous value get the given marker value.
+     */
+    void remap(String[] newNames, Object missingValue) {
+        Object[] newValues = new Object[newNames.length];
+        for (int i = 0; i < newNames.length; i++) {
+            int oldIndex = indexOf(newNames[i]);
+            newValues[i] = oldIndex == -1 ? missingValue : values[oldIndex];
+        }
+        names = newNames;
+        values = newValues;
+    }
+
+    private int indexOf(String propertyName) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(propertyName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -16,13 +16,25 @@
 
 package com.vaadin.server;
 
+import java.io.EOFException;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -57,6 +69,13 @@ public class DownloadStream implements Serializable {
 
     private int bufferSize = 0;
 
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    /**
+     * The maximum number of ranges to serve for a single request
+     */
+    private static final int MAX_RANGES = 32;
+
     /**
      * Creates a new instance of DownloadStream.
      */
@@ -229,6 +248,16 @@ public class DownloadStream implements Serializable {
      * response. If there's is a parameter named <code>Location</code>, a
      * redirect (302 Moved temporarily) is sent instead of the contents of this
      * stream.
+     * <p>
+     * If the length of the content is known, either because the stream is a
+     * {@link FileInputStream} or because there is a <code>Content-Length</code>
+     * parameter, HTTP range requests for one or more byte ranges are
+     * supported. A range request with an <code>If-Range</code> header is only
+     * served partially if the header matches the <code>ETag</code> or
+     * <code>Last-Modified</code> parameter. Content from a
+     * {@link FileInputStream} is transferred using {@link FileChannel} instead
+     * of copying it through a buffer.
+     * </p>
      * 
      * @param request
      *            the request for which the response should be written
@@ -266,12 +295,15 @@ public class DownloadStream implements Serializable {
                 response.setCacheTime(getCacheTime());
 
                 // Copy download stream parameters directly
-                // to HTTP headers.
+                // to HTTP headers. The length is set depending on the ranges
+                // that are sent.
                 final Iterator<String> i = getParameterNames();
                 if (i != null) {
                     while (i.hasNext()) {
                         final String param = i.next();
-                        response.setHeader(param, getParameter(param));
+                        if (!CONTENT_LENGTH.equalsIgnoreCase(param)) {
+                            response.setHeader(param, getParameter(param));
+                        }
                     }
                 }
 
@@ -286,24 +318,39 @@ public class DownloadStream implements Serializable {
                             contentDispositionValue);
                 }
 
-                int bufferSize = getBufferSize();
-                if (bufferSize <= 0 || bufferSize > Constants.MAX_BUFFER_SIZE) {
-                    bufferSize = Constants.DEFAULT_BUFFER_SIZE;
+                long length = getContentLength(data);
+                List<long[]> ranges = null;
+                if (length >= 0) {
+                    response.setHeader("Accept-Ranges", "bytes");
+                    ranges = getRequestedRanges(request, length,
+                            data instanceof FileInputStream);
                 }
-                final byte[] buffer = new byte[bufferSize];
-                int bytesRead = 0;
 
-                out = response.getOutputStream();
-
-                long totalWritten = 0;
-                while ((bytesRead = data.read(buffer)) > 0) {
-                    out.write(buffer, 0, bytesRead);
+                if (ranges != null && ranges.isEmpty()) {
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    response.setHeader("Content-Range", "bytes */" + length);
+                    return;
+                }
 
-                    totalWritten += bytesRead;
-                    if (totalWritten >= buffer.length) {
-                        // Avoid chunked encoding for small resources
-                        out.flush();
+                if (ranges == null) {
+                    if (length >= 0) {
+                        response.setHeader(CONTENT_LENGTH,
+                                String.valueOf(length));
                     }
+                    out = response.getOutputStream();
+                    writeRange(data, 0, 0, length, out);
+                } else if (ranges.size() == 1) {
+                    long[] range = ranges.get(0);
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader("Content-Range",
+                            getContentRange(range, length));
+                    response.setHeader(CONTENT_LENGTH,
+                            String.valueOf(range[1] - range[0] + 1));
+                    out = response.getOutputStream();
+                    writeRange(data, 0, range[0], range[1] - range[0] + 1,
+                            out);
+                } else {
+                    writeMultipleRanges(data, ranges, length, response);
                 }
             } finally {
                 tryToCloseStream(out);
@@ -312,6 +359,314 @@ public class DownloadStream implements Serializable {
         }
     }
 
+    /**
+     * Writes the given ranges as a multipart/byteranges response.
+     */
+    private void writeMultipleRanges(InputStream data, List<long[]> ranges,
+            long length, VaadinResponse response) throws IOException {
+        String boundary = Long.toHexString(System.nanoTime())
+                + Long.toHexString(Double.doubleToLongBits(Math.random()));
+        List<byte[]> partHeaders = new ArrayList<byte[]>();
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            StringBuilder header = new StringBuilder();
+            header.append("\r\n--").append(boundary).append("\r\n");
+            if (getContentType() != null) {
+                header.append("Content-Type: ").append(getContentType())
+                        .append("\r\n");
+            }
+            header.append("Content-Range: ")
+                    .append(getContentRange(range, length)).append("\r\n\r\n");
+            byte[] headerBytes = header.toString().getBytes("ISO-8859-1");
+            partHeaders.add(headerBytes);
+            contentLength += headerBytes.length + range[1] - range[0] + 1;
+        }
+        byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes("ISO-8859-1");
+        contentLength += end.length;
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setHeader(CONTENT_LENGTH, String.valueOf(contentLength));
+
+        OutputStream out = response.getOutputStream();
+        try {
+            long position = 0;
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] range = ranges.get(i);
+                out.write(partHeaders.get(i));
+                position = writeRange(data, position, range[0], range[1]
+                        - range[0] + 1, out);
+            }
+            out.write(end);
+        } finally {
+            tryToCloseStream(out);
+        }
+    }
+
+    private static String getContentRange(long[] range, long length) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + length;
+    }
+
+    /**
+     * Gets the length of the content of this stream.
+     * 
+     * @return the length in bytes, or -1 if not known
+     */
+    private long getContentLength(InputStream data) throws IOException {
+        if (data instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) data).getChannel();
+            return channel.size() - channel.position();
+        }
+        String contentLength = getParameter(CONTENT_LENGTH);
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                // Length not known
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the byte ranges requested using the Range header.
+     * 
+     * @param request
+     *            the request
+     * @param length
+     *            the length of the content
+     * @param seekable
+     *            <code>true</code> if the ranges can be read in any order,
+     *            <code>false</code> if the content can only be read forward
+     * @return <code>null</code> if the whole content should be sent, an empty
+     *         list if none of the ranges can be satisfied, otherwise the
+     *         ranges to send as {start, end} pairs with inclusive end
+     */
+    private List<long[]> getRequestedRanges(VaadinRequest request,
+            long length, boolean seekable) {
+        if (request == null) {
+            return null;
+        }
+        String rangeHeader = request.getHeader("Range");
+        if (rangeHeader == null) {
+            return null;
+        }
+        rangeHeader = rangeHeader.trim();
+        if (!rangeHeader.toLowerCase().startsWith("bytes=")
+                || !isRangeApplicable(request.getHeader("If-Range"))) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<long[]>();
+        String[] specs = rangeHeader.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            // Serving many small ranges is more expensive than the content
+            return null;
+        }
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                // Invalid syntax, ignore the whole header
+                return null;
+            }
+            long start;
+            long end;
+            try {
+                if (dash == 0) {
+                    // Suffix range, the last n bytes
+                    long suffixLength = Long.parseLong(spec.substring(1));
+                    if (suffixLength <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffixLength);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    if (dash == spec.length() - 1) {
+                        end = length - 1;
+                    } else {
+                        end = Long.parseLong(spec.substring(dash + 1));
+                        if (end < start) {
+                            return null;
+                        }
+                        end = Math.min(end, length - 1);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < 0) {
+                return null;
+            }
+            if (start >= length) {
+                // Not satisfiable
+                continue;
+            }
+            if (!seekable && !ranges.isEmpty()
+                    && start <= ranges.get(ranges.size() - 1)[1]) {
+                // A stream can only be read forward
+                return null;
+            }
+            ranges.add(new long[] { start, end });
+        }
+        return ranges;
+    }
+
+    /**
+     * Checks whether a range request with the given If-Range header value
+     * should be served partially. Only strong validators can be used.
+     */
+    private boolean isRangeApplicable(String ifRange) {
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("W/")) {
+            return false;
+        } else if (ifRange.startsWith("\"")) {
+            return ifRange.equals(getParameter("ETag"));
+        } else {
+            long date = parseHttpDate(ifRange);
+            return date != -1
+                    && date == parseHttpDate(getParameter("Last-Modified"));
+        }
+    }
+
+    /**
+     * Writes a part of the stream to the given output stream.
+     * 
+     * @param data
+     *            the stream to write
+     * @param position
+     *            the number of bytes already read from the stream
+     * @param start
+     *            the first byte to write
+     * @param length
+     *            the number of bytes to write, or -1 to write until the end of
+     *            the stream
+     * @param out
+     *            the stream to write to
+     * @return the number of bytes read from the stream after writing
+     * @throws IOException
+     *             if reading or writing fails
+     */
+    private long writeRange(InputStream data, long position, long start,
+            long length, OutputStream out) throws IOException {
+        if (data instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) data).getChannel();
+            transferRange(channel, channel.position() + start, length, out);
+            return start + length;
+        }
+
+        skipFully(data, start - position);
+
+        int bufferSize = getBufferSize();
+        if (bufferSize <= 0 || bufferSize > Constants.MAX_BUFFER_SIZE) {
+            bufferSize = Constants.DEFAULT_BUFFER_SIZE;
+        }
+        final byte[] buffer = new byte[bufferSize];
+        long remaining = length;
+        long totalWritten = 0;
+        while (remaining != 0) {
+            int toRead = buffer.length;
+            if (remaining > 0 && remaining < toRead) {
+                toRead = (int) remaining;
+            }
+            int bytesRead = data.read(buffer, 0, toRead);
+            if (bytesRead <= 0) {
+                break;
+            }
+            out.write(buffer, 0, bytesRead);
+
+            totalWritten += bytesRead;
+            if (remaining > 0) {
+                remaining -= bytesRead;
+            }
+            if (totalWritten >= buffer.length) {
+                // Avoid chunked encoding for small resources
+                out.flush();
+            }
+        }
+        return start + totalWritten;
+    }
+
+    private static void skipFully(InputStream data, long count)
+            throws IOException {
+        while (count > 0) {
+            long skipped = data.skip(count);
+            if (skipped <= 0) {
+                // skip() may skip nothing also before the end of the stream
+                if (data.read() == -1) {
+                    throw new EOFException("Range beyond the end of stream");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * Transfers a part of a file channel to an output stream without copying
+     * the data through a Java buffer when the platform supports it.
+     * 
+     * @param channel
+     *            the channel to read from
+     * @param position
+     *            the position in the channel of the first byte to transfer
+     * @param length
+     *            the number of bytes to transfer
+     * @param out
+     *            the stream to write to
+     * @throws IOException
+     *             if reading or writing fails
+     */
+    static void transferRange(FileChannel channel, long position,
+            long length, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long end = position + length;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position,
+                    target);
+            if (transferred <= 0) {
+                // The file has been truncated
+                break;
+            }
+            position += transferred;
+        }
+    }
+
+    /**
+     * Formats a timestamp as a HTTP date, e.g. for a
+     * <code>Last-Modified</code> parameter.
+     * 
+     * @param timestamp
+     *            the timestamp in milliseconds
+     * @return the formatted date
+     */
+    static String formatHttpDate(long timestamp) {
+        return createHttpDateFormat().format(new Date(timestamp));
+    }
+
+    private static long parseHttpDate(String date) {
+        if (date == null) {
+            return -1;
+        }
+        try {
+            return createHttpDateFormat().parse(date.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private static SimpleDateFormat createHttpDateFormat() {
+        // SimpleDateFormat is not thread safe
+        SimpleDateFormat format = new SimpleDateFormat(
+                "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
     /**
      * Helper method that tries to close an output stream and ignores any
      * exceptions.
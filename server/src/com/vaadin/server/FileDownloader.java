@@ -130,9 +130,19 @@ public class FileDownloader extends AbstractExtension {
             return false;
         }
 
-        Resource resource = getFileDownloadResource();
-        if (resource instanceof ConnectorResource) {
-            DownloadStream stream = ((ConnectorResource) resource).getStream();
+        DownloadStream stream;
+        VaadinSession session = getSession();
+        if (session == null) {
+            // Detached after the connector was looked up
+            return false;
+        }
+        session.lock();
+        try {
+            Resource resource = getFileDownloadResource();
+            if (!(resource instanceof ConnectorResource)) {
+                return false;
+            }
+            stream = ((ConnectorResource) resource).getStream();
 
             if (stream.getParameter("Content-Disposition") == null) {
                 // Content-Disposition: attachment generally forces download
@@ -145,10 +155,11 @@ public class FileDownloader extends AbstractExtension {
             if (isOverrideContentType()) {
                 stream.setContentType("application/octet-stream;charset=UTF-8");
             }
-            stream.writeResponse(request, response);
-            return true;
-        } else {
-            return false;
+        } finally {
+            session.unlock();
         }
+
+        stream.writeResponse(request, response);
+        return true;
     }
 }
@@ -65,8 +65,14 @@ public class FileResource implements ConnectorResource {
         try {
             final DownloadStream ds = new DownloadStream(new FileInputStream(
                     sourceFile), getMIMEType(), getFilename());
-            ds.setParameter("Content-Length",
-                    String.valueOf(sourceFile.length()));
+            long length = sourceFile.length();
+            long lastModified = sourceFile.lastModified();
+            ds.setParameter("Content-Length", String.valueOf(length));
+            // Validators for resuming downloads using range requests
+            ds.setParameter("ETag", "\"" + Long.toHexString(length) + "-"
+                    + Long.toHexString(lastModified) + "\"");
+            ds.setParameter("Last-Modified",
+                    DownloadStream.formatHttpDate(lastModified));
 
             ds.setCacheTime(cacheTime);
             return ds;
@@ -86,31 +86,38 @@ public class GlobalResourceHandler implements RequestHandler {
                     + " is not a valid global resource path");
         }
 
-        UI ui = session.getUIById(Integer.parseInt(uiid));
-        if (ui == null) {
-            return error(request, response, "No UI found for id  " + uiid);
-        }
-        UI.setCurrent(ui);
-
-        ConnectorResource resource;
-        if (LEGACY_TYPE.equals(type)) {
-            resource = legacyResources.get(key);
-        } else {
-            return error(request, response, "Unknown global resource type "
-                    + type + " in requested path " + pathInfo);
-        }
-
-        if (resource == null) {
-            return error(request, response, "Global resource " + key
-                    + " not found");
+        DownloadStream stream = null;
+        String errorMessage = null;
+        session.lock();
+        try {
+            UI ui = session.getUIById(Integer.parseInt(uiid));
+            if (ui == null) {
+                errorMessage = "No UI found for id  " + uiid;
+            } else if (!LEGACY_TYPE.equals(type)) {
+                errorMessage = "Unknown global resource type " + type
+                        + " in requested path " + pathInfo;
+            } else {
+                UI.setCurrent(ui);
+
+                ConnectorResource resource = legacyResources.get(key);
+                if (resource == null) {
+                    errorMessage = "Global resource " + key + " not found";
+                } else {
+                    stream = resource.getStream();
+                    if (stream == null) {
+                        errorMessage = "Resource " + resource
+                                + " didn't produce any stream.";
+                    }
+                }
+            }
+        } finally {
+            session.unlock();
         }
 
-        DownloadStream stream = resource.getStream();
-        if (stream == null) {
-            return error(request, response, "Resource " + resource
-                    + " didn't produce any stream.");
+        // Send the error or the data without holding the lock
+        if (errorMessage != null) {
+            return error(request, response, errorMessage);
         }
-
         stream.writeResponse(request, response);
         return true;
     }
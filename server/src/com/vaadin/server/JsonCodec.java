@@ -19,7 +19,10 @@ package com.vaadin.server;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.GenericArrayType;
@@ -44,6 +47,7 @@ import java.util.concurrent.ConcurrentMap;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import com.vaadin.shared.Connector;
 import com.vaadin.shared.JsonConstants;
@@ -115,27 +119,40 @@ public class JsonCodec implements Serializable {
     private static class MethodProperty implements BeanProperty {
         private final PropertyDescriptor pd;
 
+        /*
+         * The methods and name are resolved once as they are needed for every
+         * encoded or decoded value of this property.
+         */
+        private transient Method readMethod;
+        private transient Method writeMethod;
+        private final String name;
+
         public MethodProperty(PropertyDescriptor pd) {
             this.pd = pd;
+            String fieldName = pd.getWriteMethod().getName().substring(3);
+            name = Character.toLowerCase(fieldName.charAt(0))
+                    + fieldName.substring(1);
         }
 
         @Override
         public Object getValue(Object bean) throws Exception {
-            Method readMethod = pd.getReadMethod();
+            if (readMethod == null) {
+                readMethod = pd.getReadMethod();
+            }
             return readMethod.invoke(bean);
         }
 
         @Override
         public void setValue(Object bean, Object value) throws Exception {
-            pd.getWriteMethod().invoke(bean, value);
+            if (writeMethod == null) {
+                writeMethod = pd.getWriteMethod();
+            }
+            writeMethod.invoke(bean, value);
         }
 
         @Override
         public String getName() {
-            String fieldName = pd.getWriteMethod().getName().substring(3);
-            fieldName = Character.toLowerCase(fieldName.charAt(0))
-                    + fieldName.substring(1);
-            return fieldName;
+            return name;
         }
 
         public static Collection<MethodProperty> find(Class<?> type)
@@ -160,6 +177,89 @@ public class JsonCodec implements Serializable {
 
     }
 
+    /**
+     * Encoding information for one bean type, collected once from
+     * {@link JsonCodec#getProperties(Class)} so that encoding an instance only
+     * needs to loop over arrays. Properties with a simple type (primitives,
+     * their wrappers, strings and enums) are encoded and compared to the
+     * reference value without creating any intermediate objects.
+     */
+    private static class ObjectEncoder implements Serializable {
+        private final Class<?> type;
+        private final BeanProperty[] properties;
+        private final String[] names;
+        private final String[] quotedNames;
+        private final Type[] types;
+        private final boolean[] simple;
+        private final String duplicateName;
+
+        public ObjectEncoder(Class<?> type) throws IntrospectionException {
+            this.type = type;
+            Collection<BeanProperty> beanProperties = getProperties(type);
+            int count = beanProperties.size();
+            properties = beanProperties.toArray(new BeanProperty[count]);
+            names = new String[count];
+            quotedNames = new String[count];
+            types = new Type[count];
+            simple = new boolean[count];
+
+            Set<String> seenNames = new HashSet<String>();
+            String duplicate = null;
+            for (int i = 0; i < count; i++) {
+                names[i] = properties[i].getName();
+                quotedNames[i] = JSONObject.quote(names[i]);
+                types[i] = properties[i].getType();
+                simple[i] = isSimpleType(types[i]);
+                if (!seenNames.add(names[i]) && duplicate == null) {
+                    duplicate = names[i];
+                }
+            }
+            duplicateName = duplicate;
+        }
+
+        /**
+         * Checks that the type can be encoded, i.e. that there are no two
+         * properties with the same name.
+         */
+        public void checkNames() {
+            if (duplicateName != null) {
+                throw new RuntimeException(
+                        "Can't encode "
+                                + type.getName()
+                                + " as it has multiple properties with the name "
+                                + duplicateName.toLowerCase()
+                                + ". This can happen if there are getters and setters for a public field (the framework can't know which to ignore) or if there are properties with only casing distinguishing between the names (e.g. getFoo() and getFOO())");
+            }
+        }
+
+        private static boolean isSimpleType(Type type) {
+            if (!(type instanceof Class<?>)) {
+                return false;
+            }
+            Class<?> cls = (Class<?>) type;
+            return cls.isPrimitive() || cls == String.class
+                    || cls == Boolean.class || cls == Character.class
+                    || cls == Integer.class || cls == Long.class
+                    || cls == Float.class || cls == Double.class
+                    || cls == Short.class || cls == Byte.class
+                    || cls.isEnum();
+        }
+
+        /**
+         * Returns the encoded form of a simple property value, which is the
+         * value itself except for enums and <code>null</code>.
+         */
+        private static Object encodeSimple(Object value) {
+            if (value == null) {
+                return JSONObject.NULL;
+            } else if (value instanceof Enum) {
+                return ((Enum<?>) value).name();
+            } else {
+                return value;
+            }
+        }
+    }
+
     /**
      * Cache the collection of bean properties for a given type to avoid doing a
      * quite expensive lookup multiple times. Will be used from any thread that
@@ -168,6 +268,13 @@ public class JsonCodec implements Serializable {
      */
     private static ConcurrentMap<Class<?>, Collection<BeanProperty>> typePropertyCache = new ConcurrentHashMap<Class<?>, Collection<BeanProperty>>();
 
+    /**
+     * Cache of {@link ObjectEncoder}s for types that are encoded by looping
+     * through their properties. Will be used from any thread that happens to
+     * process Vaadin requests.
+     */
+    private static ConcurrentMap<Class<?>, ObjectEncoder> typeEncoderCache = new ConcurrentHashMap<Class<?>, ObjectEncoder>();
+
     private static Map<Class<?>, String> typeToTransportType = new HashMap<Class<?>, String>();
 
     /**
@@ -686,6 +793,277 @@ public class JsonCodec implements Serializable {
         }
     }
 
+    /**
+     * Encodes a value and writes the resulting JSON directly to the given
+     * writer.
+     * <p>
+     * Produces the same JSON as {@link #encode(Object, Object, Type,
+     * ConnectorTracker)} without any reference value, but streams the tokens
+     * to the writer instead of first building a tree of {@link JSONObject} and
+     * {@link JSONArray} instances.
+     * </p>
+     * 
+     * @param value
+     *            the value to encode
+     * @param valueType
+     *            the declared type of the value
+     * @param connectorTracker
+     *            the connector tracker used for resolving connectors
+     * @param writer
+     *            the writer to write the JSON to
+     * @throws IOException
+     *             if writing fails
+     * @throws JSONException
+     *             if the value can not be encoded
+     * @since 7.1
+     */
+    public static void encode(Object value, Type valueType,
+            ConnectorTracker connectorTracker, Writer writer)
+            throws IOException, JSONException {
+
+        if (valueType == null) {
+            throw new IllegalArgumentException("type must be defined");
+        }
+
+        if (valueType instanceof WildcardType) {
+            throw new IllegalStateException(
+                    "Can not serialize type with wildcard: " + valueType);
+        }
+
+        if (null == value) {
+            writer.write("null");
+        } else if (value instanceof String[]) {
+            String[] array = (String[]) value;
+            writer.write('[');
+            for (int i = 0; i < array.length; ++i) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeJson(array[i], writer);
+            }
+            writer.write(']');
+        } else if (value instanceof String || value instanceof Boolean
+                || value instanceof Number || value instanceof Character) {
+            writeJson(value, writer);
+        } else if (value instanceof Collection) {
+            writer.write('[');
+            boolean first = true;
+            for (Object o : (Collection<?>) value) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                encode(o, getChildType(valueType, 0), connectorTracker,
+                        writer);
+            }
+            writer.write(']');
+        } else if (valueType instanceof Class<?>
+                && ((Class<?>) valueType).isArray()) {
+            writeArrayContents(((Class<?>) valueType).getComponentType(),
+                    value, connectorTracker, writer);
+        } else if (valueType instanceof GenericArrayType) {
+            writeArrayContents(
+                    ((GenericArrayType) valueType).getGenericComponentType(),
+                    value, connectorTracker, writer);
+        } else if (value instanceof Map) {
+            writeMap(valueType, (Map<?, ?>) value, connectorTracker, writer);
+        } else if (value instanceof Connector) {
+            if (value instanceof Component
+                    && !(LegacyCommunicationManager
+                            .isComponentVisibleToClient((Component) value))) {
+                writer.write("null");
+            } else {
+                writeJson(((Connector) value).getConnectorId(), writer);
+            }
+        } else if (value instanceof Enum) {
+            writeJson(((Enum<?>) value).name(), writer);
+        } else if (value instanceof JSONArray || value instanceof JSONObject) {
+            writeJson(value, writer);
+        } else if (valueType instanceof Class<?>) {
+            // Any object that we do not know how to encode we encode by looping
+            // through fields
+            writeObject(value, (Class<?>) valueType, connectorTracker, writer);
+        } else {
+            throw new JSONException("Can not encode " + valueType);
+        }
+    }
+
+    /**
+     * Writes an already encoded JSON value to the given writer. Nested
+     * {@link JSONObject} and {@link JSONArray} instances are written
+     * recursively, so the string representation of the whole tree is never
+     * materialized.
+     * 
+     * @param json
+     *            the encoded value, may be a {@link JSONObject}, a
+     *            {@link JSONArray}, a primitive wrapper, a string or
+     *            <code>null</code>
+     * @param writer
+     *            the writer to write the JSON to
+     * @throws IOException
+     *             if writing fails
+     * @throws JSONException
+     *             if the value contains a non-finite number
+     * @since 7.1
+     */
+    public static void writeJson(Object json, Writer writer)
+            throws IOException, JSONException {
+        if (json == null || json == JSONObject.NULL) {
+            writer.write("null");
+        } else if (json instanceof JSONObject) {
+            JSONObject object = (JSONObject) json;
+            writer.write('{');
+            boolean first = true;
+            for (Iterator<?> keys = object.keys(); keys.hasNext();) {
+                String key = keys.next().toString();
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writer.write(JSONObject.quote(key));
+                writer.write(':');
+                writeJson(object.opt(key), writer);
+            }
+            writer.write('}');
+        } else if (json instanceof JSONArray) {
+            JSONArray array = (JSONArray) json;
+            writer.write('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeJson(array.opt(i), writer);
+            }
+            writer.write(']');
+        } else if (json instanceof Number) {
+            writer.write(JSONObject.numberToString((Number) json));
+        } else if (json instanceof Boolean) {
+            writer.write(json.toString());
+        } else {
+            writer.write(JSONObject.quote(json.toString()));
+        }
+    }
+
+    private static Type getChildType(Type targetType, int typeIndex)
+            throws JSONException {
+        if (targetType instanceof ParameterizedType) {
+            return ((ParameterizedType) targetType).getActualTypeArguments()[typeIndex];
+        } else {
+            throw new JSONException("Collection is missing generics");
+        }
+    }
+
+    private static void writeArrayContents(Type componentType, Object array,
+            ConnectorTracker connectorTracker, Writer writer)
+            throws IOException, JSONException {
+        writer.write('[');
+        for (int i = 0; i < Array.getLength(array); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            encode(Array.get(array, i), componentType, connectorTracker,
+                    writer);
+        }
+        writer.write(']');
+    }
+
+    private static void writeMap(Type mapType, Map<?, ?> map,
+            ConnectorTracker connectorTracker, Writer writer)
+            throws IOException, JSONException {
+        Type keyType, valueType;
+
+        if (mapType instanceof ParameterizedType) {
+            keyType = ((ParameterizedType) mapType).getActualTypeArguments()[0];
+            valueType = ((ParameterizedType) mapType).getActualTypeArguments()[1];
+        } else {
+            throw new JSONException("Map is missing generics");
+        }
+
+        if (map.isEmpty()) {
+            // Same as encodeMap, see #8906
+            writer.write("[]");
+        } else if (keyType == String.class || keyType == Connector.class) {
+            writer.write('{');
+            boolean first = true;
+            for (Entry<?, ?> entry : map.entrySet()) {
+                String key;
+                if (keyType == String.class) {
+                    key = (String) entry.getKey();
+                } else {
+                    ClientConnector connector = (ClientConnector) entry
+                            .getKey();
+                    if (!LegacyCommunicationManager
+                            .isConnectorVisibleToClient(connector)) {
+                        continue;
+                    }
+                    key = connector.getConnectorId();
+                }
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writer.write(JSONObject.quote(key));
+                writer.write(':');
+                encode(entry.getValue(), valueType, connectorTracker, writer);
+            }
+            writer.write('}');
+        } else {
+            // Keys and values in two separate arrays, see encodeObjectMap
+            writer.write("[[");
+            boolean first = true;
+            for (Object key : map.keySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                encode(key, keyType, connectorTracker, writer);
+            }
+            writer.write("],[");
+            first = true;
+            for (Object mapValue : map.values()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                encode(mapValue, valueType, connectorTracker, writer);
+            }
+            writer.write("]]");
+        }
+    }
+
+    private static void writeObject(Object value, Class<?> valueType,
+            ConnectorTracker connectorTracker, Writer writer)
+            throws IOException, JSONException {
+        writer.write('{');
+        try {
+            ObjectEncoder encoder = getEncoder(valueType);
+            encoder.checkNames();
+
+            BeanProperty[] properties = encoder.properties;
+            for (int i = 0; i < properties.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(encoder.quotedNames[i]);
+                writer.write(':');
+                Object fieldValue = properties[i].getValue(value);
+                if (encoder.simple[i]) {
+                    writeJson(ObjectEncoder.encodeSimple(fieldValue), writer);
+                } else {
+                    encode(fieldValue, encoder.types[i], connectorTracker,
+                            writer);
+                }
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (JSONException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JSONException(e);
+        }
+        writer.write('}');
+    }
+
     private static EncodeResult encodeNull() {
         return new EncodeResult(JSONObject.NULL);
     }
@@ -707,6 +1085,17 @@ public class JsonCodec implements Serializable {
         return properties;
     }
 
+    private static ObjectEncoder getEncoder(Class<?> type)
+            throws IntrospectionException {
+        ObjectEncoder encoder = typeEncoderCache.get(type);
+        if (encoder == null) {
+            // Same as for typePropertyCache, no need for putIfAbsent
+            encoder = new ObjectEncoder(type);
+            typeEncoderCache.put(type, encoder);
+        }
+        return encoder;
+    }
+
     private static EncodeResult encodeObject(Object value, Class<?> valueType,
             JSONObject referenceValue, ConnectorTracker connectorTracker)
             throws JSONException {
@@ -714,25 +1103,17 @@ public class JsonCodec implements Serializable {
         JSONObject diff = new JSONObject();
 
         try {
-            for (BeanProperty property : getProperties(valueType)) {
-                String fieldName = property.getName();
-                // We can't use PropertyDescriptor.getPropertyType() as it does
-                // not support generics
-                Type fieldType = property.getType();
-                Object fieldValue = property.getValue(value);
-
-                if (encoded.has(fieldName)) {
-                    throw new RuntimeException(
-                            "Can't encode "
-                                    + valueType.getName()
-                                    + " as it has multiple properties with the name "
-                                    + fieldName.toLowerCase()
-                                    + ". This can happen if there are getters and setters for a public field (the framework can't know which to ignore) or if there are properties with only casing distinguishing between the names (e.g. getFoo() and getFOO())");
-                }
+            ObjectEncoder encoder = getEncoder(valueType);
+            encoder.checkNames();
+
+            BeanProperty[] properties = encoder.properties;
+            for (int i = 0; i < properties.length; i++) {
+                String fieldName = encoder.names[i];
+                Object fieldValue = properties[i].getValue(value);
 
                 Object fieldReference;
                 if (referenceValue != null) {
-                    fieldReference = referenceValue.get(fieldName);
+                    fieldReference = referenceValue.opt(fieldName);
                     if (JSONObject.NULL.equals(fieldReference)) {
                         fieldReference = null;
                     }
@@ -740,12 +1121,26 @@ public class JsonCodec implements Serializable {
                     fieldReference = null;
                 }
 
-                EncodeResult encodeResult = encode(fieldValue, fieldReference,
-                        fieldType, connectorTracker);
-                encoded.put(fieldName, encodeResult.getEncodedValue());
-
-                if (!jsonEquals(encodeResult.getEncodedValue(), fieldReference)) {
-                    diff.put(fieldName, encodeResult.getDiffOrValue());
+                if (encoder.simple[i]) {
+                    // Compare the value directly against the reference
+                    Object encodedValue = ObjectEncoder
+                            .encodeSimple(fieldValue);
+                    encoded.put(fieldName, encodedValue);
+                    if (!jsonEquals(encodedValue, fieldReference)) {
+                        diff.put(fieldName, encodedValue);
+                    }
+                } else {
+                    // We can't use PropertyDescriptor.getPropertyType() as it
+                    // does not support generics
+                    EncodeResult encodeResult = encode(fieldValue,
+                            fieldReference, encoder.types[i],
+                            connectorTracker);
+                    encoded.put(fieldName, encodeResult.getEncodedValue());
+
+                    if (!jsonEquals(encodeResult.getEncodedValue(),
+                            fieldReference)) {
+                        diff.put(fieldName, encodeResult.getDiffOrValue());
+                    }
                 }
             }
         } catch (Exception e) {
@@ -755,8 +1150,323 @@ public class JsonCodec implements Serializable {
         return new EncodeResult(encoded, diff);
     }
 
+    /**
+     * Creates a diff state containing the encoded property values of the given
+     * bean.
+     * 
+     * @param value
+     *            the bean to encode
+     * @param valueType
+     *            the type of the bean
+     * @param connectorTracker
+     *            the connector tracker used for resolving connectors
+     * @return a new diff state for the bean
+     * @throws JSONException
+     *             if the bean can not be encoded
+     * @since 7.1
+     */
+    public static DiffState createDiffState(Object value, Class<?> valueType,
+            ConnectorTracker connectorTracker) throws JSONException {
+        try {
+            ObjectEncoder encoder = getEncoder(valueType);
+            encoder.checkNames();
+
+            BeanProperty[] properties = encoder.properties;
+            Object[] values = new Object[properties.length];
+            StringWriter buffer = new StringWriter();
+            for (int i = 0; i < properties.length; i++) {
+                Object fieldValue = properties[i].getValue(value);
+                if (encoder.simple[i]) {
+                    values[i] = encodeSimpleDiffValue(fieldValue);
+                } else {
+                    buffer.getBuffer().setLength(0);
+                    encode(fieldValue, encoder.types[i], connectorTracker,
+                            buffer);
+                    values[i] = buffer.toString();
+                }
+            }
+            return new DiffState(encoder.names, values);
+        } catch (JSONException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * Encodes the properties of the given bean that have changed compared to
+     * the diff state and updates the diff state to contain the new values.
+     * <p>
+     * Simple property values are compared directly to the values in the diff
+     * state. Other properties are encoded to JSON and compared to the JSON
+     * stored in the diff state, so no JSON object tree is created for
+     * properties that have not changed.
+     * </p>
+     * 
+     * @param value
+     *            the bean to encode
+     * @param valueType
+     *            the type of the bean
+     * @param diffState
+     *            the values last sent to the client, updated by this method
+     * @param connectorTracker
+     *            the connector tracker used for resolving connectors
+     * @return a JSON object with the changed properties
+     * @throws JSONException
+     *             if the bean can not be encoded
+     * @since 7.1
+     */
+    public static JSONObject encodeDiff(Object value, Class<?> valueType,
+            DiffState diffState, ConnectorTracker connectorTracker)
+            throws JSONException {
+        JSONObject diff = new JSONObject();
+        try {
+            encodeDiff(value, valueType, diffState, connectorTracker, diff,
+                    null, null);
+        } catch (IOException e) {
+            // Nothing is written to a writer
+            throw new JSONException(e);
+        }
+        return diff;
+    }
+
+    /**
+     * Writes the properties of the given bean that have changed compared to
+     * the diff state as a JSON object to the writer and updates the diff
+     * state to contain the new values.
+     * <p>
+     * Works like
+     * {@link #encodeDiff(Object, Class, DiffState, ConnectorTracker)} but
+     * writes the changed values directly to the writer without creating any
+     * JSON object tree. Nothing is written if no property has changed, so the
+     * caller can use the prefix to write e.g. the key of the object only when
+     * needed.
+     * </p>
+     * 
+     * @param value
+     *            the bean to encode
+     * @param valueType
+     *            the type of the bean
+     * @param diffState
+     *            the values last sent to the client, updated by this method
+     * @param connectorTracker
+     *            the connector tracker used for resolving connectors
+     * @param prefix
+     *            the text to write before the JSON object if any property
+     *            has changed
+     * @param writer
+     *            the writer to write the JSON to
+     * @return <code>true</code> if something was written, <code>false</code>
+     *         if no property has changed
+     * @throws IOException
+     *             if writing fails
+     * @throws JSONException
+     *             if the bean can not be encoded
+     * @since 7.1
+     */
+    public static boolean writeDiff(Object value, Class<?> valueType,
+            DiffState diffState, ConnectorTracker connectorTracker,
+            String prefix, Writer writer) throws IOException, JSONException {
+        return encodeDiff(value, valueType, diffState, connectorTracker, null,
+                prefix, writer);
+    }
+
+    /**
+     * Compares the properties of the bean to the diff state and puts the
+     * changed ones to the given JSON object if it is not <code>null</code>,
+     * otherwise writes them to the writer.
+     */
+    private static boolean encodeDiff(Object value, Class<?> valueType,
+            DiffState diffState, ConnectorTracker connectorTracker,
+            JSONObject diff, String prefix, Writer writer)
+            throws IOException, JSONException {
+        boolean changes = false;
+        try {
+            ObjectEncoder encoder = getEncoder(valueType);
+            encoder.checkNames();
+
+            if (diffState.getNames() != encoder.names) {
+                // Created using another property order, e.g. before
+                // deserialization. Properties without a value will be sent.
+                diffState.remap(encoder.names, DiffState.MISSING_VALUE);
+            }
+
+            BeanProperty[] properties = encoder.properties;
+            Object[] values = diffState.getValues();
+            StringWriter buffer = null;
+            for (int i = 0; i < properties.length; i++) {
+                Object fieldValue = properties[i].getValue(value);
+                if (encoder.simple[i]) {
+                    Object encodedValue = encodeSimpleDiffValue(fieldValue);
+                    if (values[i] == DiffState.MISSING_VALUE
+                            || !jsonEquals(encodedValue, values[i])) {
+                        values[i] = encodedValue;
+                        Object json = ObjectEncoder.encodeSimple(fieldValue);
+                        if (diff != null) {
+                            diff.put(encoder.names[i], json);
+                        } else {
+                            writeDiffKey(encoder, i, changes, prefix, writer);
+                            writeJson(json, writer);
+                        }
+                        changes = true;
+                    }
+                } else {
+                    if (buffer == null) {
+                        buffer = new StringWriter();
+                    } else {
+                        buffer.getBuffer().setLength(0);
+                    }
+                    encode(fieldValue, encoder.types[i], connectorTracker,
+                            buffer);
+                    Object previous = values[i];
+                    if (!(previous instanceof String && ((String) previous)
+                            .contentEquals(buffer.getBuffer()))) {
+                        // Reuse the JSON written for the comparison
+                        String json = buffer.toString();
+                        values[i] = json;
+                        if (diff != null) {
+                            diff.put(encoder.names[i],
+                                    new JSONTokener(json).nextValue());
+                        } else {
+                            writeDiffKey(encoder, i, changes, prefix, writer);
+                            writer.write(json);
+                        }
+                        changes = true;
+                    }
+                }
+            }
+        } catch (JSONException e) {
+            throw e;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JSONException(e);
+        }
+        if (changes && diff == null) {
+            writer.write('}');
+        }
+        return changes;
+    }
+
+    private static void writeDiffKey(ObjectEncoder encoder, int index,
+            boolean changes, String prefix, Writer writer) throws IOException {
+        if (changes) {
+            writer.write(',');
+        } else {
+            if (prefix != null) {
+                writer.write(prefix);
+            }
+            writer.write('{');
+        }
+        writer.write(encoder.quotedNames[index]);
+        writer.write(':');
+    }
+
+    /**
+     * Converts a diff state to a JSON object containing the property values
+     * last sent to the client. Properties without a known value are left out.
+     * 
+     * @param diffState
+     *            the diff state to convert
+     * @param valueType
+     *            the type of the bean the diff state was created for
+     * @return a new JSON object with the values of the diff state
+     * @throws JSONException
+     *             if the diff state can not be converted
+     * @since 7.1
+     */
+    public static JSONObject diffStateToJson(DiffState diffState,
+            Class<?> valueType) throws JSONException {
+        JSONObject json = new JSONObject();
+        try {
+            ObjectEncoder encoder = getEncoder(valueType);
+            if (diffState.getNames() != encoder.names) {
+                diffState.remap(encoder.names, DiffState.MISSING_VALUE);
+            }
+
+            Object[] values = diffState.getValues();
+            for (int i = 0; i < values.length; i++) {
+                Object value = values[i];
+                if (value == DiffState.MISSING_VALUE) {
+                    continue;
+                } else if (encoder.simple[i]) {
+                    json.put(encoder.names[i], value == null ? JSONObject.NULL
+                            : value);
+                } else if (value == null) {
+                    json.put(encoder.names[i], JSONObject.NULL);
+                } else {
+                    json.put(encoder.names[i],
+                            new JSONTokener((String) value).nextValue());
+                }
+            }
+        } catch (IntrospectionException e) {
+            throw new JSONException(e);
+        }
+        return json;
+    }
+
+    /**
+     * Creates a diff state from a JSON object containing the property values
+     * last sent to the client. Properties missing from the JSON object will
+     * be sent to the client in the next update.
+     * 
+     * @param json
+     *            the property values known by the client
+     * @param valueType
+     *            the type of the bean
+     * @return a new diff state with the values of the JSON object
+     * @throws JSONException
+     *             if the JSON object can not be converted
+     * @since 7.1
+     */
+    public static DiffState jsonToDiffState(JSONObject json, Class<?> valueType)
+            throws JSONException {
+        try {
+            ObjectEncoder encoder = getEncoder(valueType);
+            Object[] values = new Object[encoder.names.length];
+            for (int i = 0; i < values.length; i++) {
+                String name = encoder.names[i];
+                if (!json.has(name)) {
+                    values[i] = DiffState.MISSING_VALUE;
+                    continue;
+                }
+                Object value = json.get(name);
+                if (encoder.simple[i]) {
+                    values[i] = value == JSONObject.NULL ? null : value;
+                } else {
+                    // Stored as JSON, so null is "null" like in createDiffState
+                    StringWriter writer = new StringWriter();
+                    writeJson(value, writer);
+                    values[i] = writer.toString();
+                }
+            }
+            return new DiffState(encoder.names, values);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        } catch (IntrospectionException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * Returns the value stored in a {@link DiffState} for a simple property
+     * value. Same as {@link ObjectEncoder#encodeSimple(Object)} except that
+     * <code>null</code> is kept as is.
+     */
+    private static Object encodeSimpleDiffValue(Object value) {
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        } else {
+            return value;
+        }
+    }
+
     /**
      * Compares the value with the reference. If they match, returns true.
+     * <p>
+     * Objects and arrays are compared structurally. Values of different types
+     * (e.g. a Float encoded on the server and a Double parsed from JSON) are
+     * compared using their JSON representation.
      * 
      * @param fieldValue
      * @param referenceValue
@@ -774,6 +1484,45 @@ public class JsonCodec implements Serializable {
             return true;
         } else if (fieldValue == null || referenceValue == null) {
             return false;
+        } else if (fieldValue instanceof JSONObject
+                && referenceValue instanceof JSONObject) {
+            JSONObject object = (JSONObject) fieldValue;
+            JSONObject reference = (JSONObject) referenceValue;
+            if (object.length() != reference.length()) {
+                return false;
+            }
+            for (Iterator<?> keys = object.keys(); keys.hasNext();) {
+                String key = (String) keys.next();
+                if (!reference.has(key)
+                        || !jsonEquals(object.opt(key), reference.opt(key))) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (fieldValue instanceof JSONArray
+                && referenceValue instanceof JSONArray) {
+            JSONArray array = (JSONArray) fieldValue;
+            JSONArray reference = (JSONArray) referenceValue;
+            if (array.length() != reference.length()) {
+                return false;
+            }
+            for (int i = 0; i < array.length(); i++) {
+                if (!jsonEquals(array.opt(i), reference.opt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (fieldValue.getClass() == referenceValue.getClass()) {
+            return fieldValue.equals(referenceValue);
+        } else if (fieldValue instanceof Number
+                && referenceValue instanceof Number) {
+            try {
+                return JSONObject.numberToString((Number) fieldValue).equals(
+                        JSONObject.numberToString((Number) referenceValue));
+            } catch (JSONException e) {
+                // Non-finite numbers can't be sent to the client anyway
+                return false;
+            }
         } else {
             return fieldValue.toString().equals(referenceValue.toString());
         }
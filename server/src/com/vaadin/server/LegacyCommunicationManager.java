@@ -31,6 +31,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -69,6 +71,14 @@ public class LegacyCommunicationManager implements Serializable {
 
     private static final RequestHandler CONNECTOR_RESOURCE_HANDLER = new ConnectorResourceHandler();
 
+    /**
+     * Diff states with the default values of each state type, copied when the
+     * state of a connector is sent for the first time. The diff states
+     * themselves are never updated, so they can be shared between all
+     * sessions.
+     */
+    private static final ConcurrentMap<Class<? extends SharedState>, DiffState> referenceDiffStates = new ConcurrentHashMap<Class<? extends SharedState>, DiffState>();
+
     /**
      * TODO Document me!
      * 
@@ -168,18 +178,94 @@ public class LegacyCommunicationManager implements Serializable {
         UI uI = connector.getUI();
         ConnectorTracker connectorTracker = uI.getConnectorTracker();
         Class<? extends SharedState> stateType = connector.getStateType();
-        Object diffState = connectorTracker.getDiffState(connector);
         boolean supportsDiffState = !JavaScriptConnectorState.class
                 .isAssignableFrom(stateType);
-        if (diffState == null && supportsDiffState) {
+        if (!supportsDiffState) {
+            EncodeResult encodeResult = JsonCodec.encode(state, null,
+                    stateType, connectorTracker);
+            return (JSONObject) encodeResult.getDiff();
+        }
+
+        DiffState diffState = getDiffState(connector, stateType,
+                connectorTracker);
+        return JsonCodec.encodeDiff(state, stateType, diffState,
+                connectorTracker);
+    }
+
+    /**
+     * Writes the changes in the shared state of a connector as a JSON object
+     * directly to the writer. Works like
+     * {@link #encodeState(ClientConnector, SharedState)} but without creating
+     * any JSON object tree.
+     * 
+     * @param connector
+     *            the connector whose state to write
+     * @param state
+     *            the shared state of the connector
+     * @param prefix
+     *            the text to write before the JSON object if anything is
+     *            written
+     * @param writer
+     *            the writer to write to
+     * @return <code>true</code> if something was written, <code>false</code>
+     *         if the state has not changed
+     * @throws IOException
+     *             if writing fails
+     * @throws JSONException
+     *             if the state can not be encoded
+     * @deprecated As of 7.1. See #11411.
+     */
+    @Deprecated
+    public static boolean writeState(ClientConnector connector,
+            SharedState state, String prefix, Writer writer)
+            throws IOException, JSONException {
+        UI uI = connector.getUI();
+        ConnectorTracker connectorTracker = uI.getConnectorTracker();
+        Class<? extends SharedState> stateType = connector.getStateType();
+        if (JavaScriptConnectorState.class.isAssignableFrom(stateType)) {
+            // No diff state support, always write everything
+            writer.write(prefix);
+            JsonCodec.encode(state, stateType, connectorTracker, writer);
+            return true;
+        }
+
+        DiffState diffState = getDiffState(connector, stateType,
+                connectorTracker);
+        return JsonCodec.writeDiff(state, stateType, diffState,
+                connectorTracker, prefix, writer);
+    }
+
+    private static DiffState getDiffState(ClientConnector connector,
+            Class<? extends SharedState> stateType,
+            ConnectorTracker connectorTracker) throws JSONException {
+        DiffState diffState = connectorTracker.getConnectorDiffState(connector);
+        if (diffState == null) {
             // Use an empty state object as reference for full
             // repaints
+            DiffState referenceState = getReferenceDiffState(stateType,
+                    connectorTracker);
+            if (referenceState != null) {
+                diffState = referenceState.copy();
+            } else {
+                // Send everything and use the current values as reference
+                // for the next time
+                diffState = JsonCodec.jsonToDiffState(new JSONObject(),
+                        stateType);
+            }
+            connectorTracker.setConnectorDiffState(connector, diffState);
+        }
+        return diffState;
+    }
 
+    private static DiffState getReferenceDiffState(
+            Class<? extends SharedState> stateType,
+            ConnectorTracker connectorTracker) {
+        DiffState referenceState = referenceDiffStates.get(stateType);
+        if (referenceState == null) {
             try {
-                SharedState referenceState = stateType.newInstance();
-                EncodeResult encodeResult = JsonCodec.encode(referenceState,
-                        null, stateType, uI.getConnectorTracker());
-                diffState = encodeResult.getEncodedValue();
+                referenceState = JsonCodec.createDiffState(
+                        stateType.newInstance(), stateType, connectorTracker);
+                referenceDiffStates.put(stateType, referenceState);
             } catch (Exception e) {
                 getLogger()
                         .log(Level.WARNING,
@@ -187,13 +273,7 @@ public class LegacyCommunicationManager implements Serializable {
                                 stateType.getName());
             }
         }
-        EncodeResult encodeResult = JsonCodec.encode(state, diffState,
-                stateType, uI.getConnectorTracker());
-        if (supportsDiffState) {
-            connectorTracker.setDiffState(connector,
-                    (JSONObject) encodeResult.getEncodedValue());
-        }
-        return (JSONObject) encodeResult.getDiff();
+        return referenceState;
     }
 
     /**
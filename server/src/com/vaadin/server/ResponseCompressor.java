@@ -0,0 +1,516 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.server;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses responses using the gzip or deflate content encoding when the
+ * client accepts it and the response is large enough for compression to be
+ * worthwhile.
+ * <p>
+ * {@link Deflater} instances allocate native memory that is only released when
+ * they are explicitly ended or garbage collected, so the instances are pooled
+ * and reused instead of creating a new one for each response.
+ * </p>
+ * <p>
+ * Counters for the number of bytes before and after compression are kept to
+ * allow monitoring the compression ratio.
+ * </p>
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class ResponseCompressor implements Serializable {
+
+    /**
+     * The gzip content encoding.
+     */
+    public static final String GZIP = "gzip";
+
+    /**
+     * The deflate (zlib) content encoding.
+     */
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * The default minimum size in bytes of a response to compress.
+     */
+    public static final int DEFAULT_THRESHOLD = 2048;
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b,
+            Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private final int threshold;
+
+    private final int level;
+
+    private final int maxPooledDeflaters;
+
+    private transient BlockingDeque<PooledDeflater> gzipPool;
+
+    private transient BlockingDeque<PooledDeflater> deflatePool;
+
+    private volatile boolean destroyed = false;
+
+    private final AtomicLong rawBytes = new AtomicLong();
+
+    private final AtomicLong compressedBytes = new AtomicLong();
+
+    private final AtomicLong compressedResponses = new AtomicLong();
+
+    /**
+     * Creates a compressor that compresses responses of at least the given
+     * size using the default compression level.
+     * 
+     * @param threshold
+     *            the minimum size in bytes of a response to compress, or a
+     *            negative number to disable compression
+     */
+    public ResponseCompressor(int threshold) {
+        this(threshold, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a compressor that compresses responses of at least the given
+     * size using the given compression level.
+     * 
+     * @param threshold
+     *            the minimum size in bytes of a response to compress, or a
+     *            negative number to disable compression
+     * @param level
+     *            the compression level (0-9), or
+     *            {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public ResponseCompressor(int threshold, int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException("Invalid compression level "
+                    + level);
+        }
+        this.threshold = threshold;
+        this.level = level;
+        maxPooledDeflaters = Runtime.getRuntime().availableProcessors() * 2;
+        initPools();
+    }
+
+    /**
+     * Creates a compressor using the threshold configured for the given
+     * deployment using {@link Constants#SERVLET_PARAMETER_COMPRESSION_THRESHOLD}.
+     * 
+     * @param deploymentConfiguration
+     *            the deployment configuration
+     * @return a new response compressor
+     */
+    public static ResponseCompressor create(
+            DeploymentConfiguration deploymentConfiguration) {
+        String value = deploymentConfiguration.getApplicationOrSystemProperty(
+                Constants.SERVLET_PARAMETER_COMPRESSION_THRESHOLD,
+                Integer.toString(DEFAULT_THRESHOLD));
+        int threshold;
+        try {
+            threshold = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            getLogger().warning(
+                    "Invalid "
+                            + Constants.SERVLET_PARAMETER_COMPRESSION_THRESHOLD
+                            + " value: " + value);
+            threshold = DEFAULT_THRESHOLD;
+        }
+        return new ResponseCompressor(threshold);
+    }
+
+    private void initPools() {
+        gzipPool = new LinkedBlockingDeque<PooledDeflater>(maxPooledDeflaters);
+        deflatePool = new LinkedBlockingDeque<PooledDeflater>(
+                maxPooledDeflaters);
+    }
+
+    /**
+     * Gets the minimum size of a response to compress.
+     * 
+     * @return the threshold in bytes, or a negative number if compression is
+     *         disabled
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Selects the content encoding to use for a response of the given length.
+     * 
+     * @param request
+     *            the request to respond to
+     * @param length
+     *            the length of the uncompressed response in bytes
+     * @return {@link #GZIP}, {@link #DEFLATE} or <code>null</code> if the
+     *         response should not be compressed
+     */
+    public String getEncoding(VaadinRequest request, long length) {
+        if (threshold < 0 || length < threshold) {
+            return null;
+        }
+        return selectEncoding(request.getHeader("Accept-Encoding"));
+    }
+
+    /**
+     * Selects a supported encoding from the value of an Accept-Encoding
+     * header. Gzip is preferred over deflate unless the client gives deflate a
+     * higher quality value. Encodings with a zero quality value are not used.
+     * 
+     * @param acceptEncoding
+     *            the value of the Accept-Encoding header, may be
+     *            <code>null</code>
+     * @return {@link #GZIP}, {@link #DEFLATE} or <code>null</code> if neither
+     *         is accepted
+     */
+    public static String selectEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase();
+            float quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                gzip = quality;
+            } else if (coding.equals(DEFLATE)) {
+                deflate = quality;
+            } else if (coding.equals("*")) {
+                any = quality;
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        } else if (deflate > 0) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    /**
+     * Writes a response, compressing it if the client accepts compression and
+     * the response is large enough. Sets the Content-Encoding header when the
+     * response is compressed. Must be called before anything has been written
+     * to the response.
+     * 
+     * @param request
+     *            the request to respond to
+     * @param response
+     *            the response to write to
+     * @param data
+     *            an array containing the response data
+     * @param offset
+     *            the offset of the response data in the array
+     * @param length
+     *            the length of the response data
+     * @throws IOException
+     *             if writing the response fails
+     */
+    public void writeResponse(VaadinRequest request, VaadinResponse response,
+            byte[] data, int offset, int length) throws IOException {
+        if (threshold >= 0) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        String encoding = getEncoding(request, length);
+        if (encoding != null) {
+            response.setHeader("Content-Encoding", encoding);
+            OutputStream out = compress(response.getOutputStream(), encoding);
+            try {
+                out.write(data, offset, length);
+            } finally {
+                out.close();
+            }
+        } else {
+            OutputStream out = response.getOutputStream();
+            try {
+                out.write(data, offset, length);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Creates a stream that compresses the data written to it using the given
+     * encoding and writes the compressed data to the given stream. Closing the
+     * returned stream finishes the compressed data and closes the given
+     * stream.
+     * 
+     * @param out
+     *            the stream to write the compressed data to
+     * @param encoding
+     *            {@link #GZIP} or {@link #DEFLATE}
+     * @return a compressing output stream
+     * @throws IOException
+     *             if writing to the given stream fails
+     */
+    public OutputStream compress(OutputStream out, String encoding)
+            throws IOException {
+        boolean gzip;
+        if (GZIP.equals(encoding)) {
+            gzip = true;
+        } else if (DEFLATE.equals(encoding)) {
+            gzip = false;
+        } else {
+            throw new IllegalArgumentException("Unsupported encoding "
+                    + encoding);
+        }
+        CompressingOutputStream stream = new CompressingOutputStream(this,
+                out, acquire(gzip), gzip);
+        if (gzip) {
+            stream.writeCompressed(GZIP_HEADER, 0, GZIP_HEADER.length);
+        }
+        return stream;
+    }
+
+    /**
+     * Gets the total number of bytes that have been compressed.
+     * 
+     * @return the number of bytes before compression
+     */
+    public long getRawByteCount() {
+        return rawBytes.get();
+    }
+
+    /**
+     * Gets the total number of compressed bytes that have been written.
+     * 
+     * @return the number of bytes after compression
+     */
+    public long getCompressedByteCount() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * Gets the number of responses that have been compressed.
+     * 
+     * @return the number of compressed responses
+     */
+    public long getCompressedResponseCount() {
+        return compressedResponses.get();
+    }
+
+    /**
+     * Gets the number of idle deflaters in the pools.
+     * 
+     * @return the number of pooled deflaters
+     */
+    int getPooledDeflaterCount() {
+        return gzipPool.size() + deflatePool.size();
+    }
+
+    private PooledDeflater acquire(boolean gzip) {
+        PooledDeflater deflater = (gzip ? gzipPool : deflatePool).pollFirst();
+        if (deflater == null) {
+            deflater = new PooledDeflater(level, gzip);
+        }
+        return deflater;
+    }
+
+    private void release(PooledDeflater deflater, boolean gzip) {
+        deflater.reset();
+        BlockingDeque<PooledDeflater> pool = gzip ? gzipPool : deflatePool;
+        if (destroyed || !pool.offerFirst(deflater)) {
+            // Destroyed or the pool is full, free the native memory right away
+            deflater.end();
+        } else if (destroyed && pool.remove(deflater)) {
+            // destroy() drained the pool before the deflater was added
+            deflater.end();
+        }
+    }
+
+    /**
+     * Frees the native memory of all pooled deflaters. Deflaters used by
+     * responses that are still being written are freed when the responses
+     * are finished. The compressor can still be used after this, but
+     * deflaters are no longer pooled. Called when the service using the
+     * compressor is destroyed.
+     */
+    public void destroy() {
+        destroyed = true;
+        drain(gzipPool);
+        drain(deflatePool);
+    }
+
+    private static void drain(BlockingDeque<PooledDeflater> pool) {
+        PooledDeflater deflater;
+        while ((deflater = pool.pollFirst()) != null) {
+            deflater.end();
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        initPools();
+    }
+
+    private static final Logger getLogger() {
+        return Logger.getLogger(ResponseCompressor.class.getName());
+    }
+
+    /**
+     * A deflater together with the checksum and the output buffer used with
+     * it.
+     */
+    private static class PooledDeflater {
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+
+        PooledDeflater(int level, boolean nowrap) {
+            deflater = new Deflater(level, nowrap);
+        }
+
+        void reset() {
+            deflater.reset();
+            crc.reset();
+        }
+
+        void end() {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compresses the data written to it using a pooled deflater, which is
+     * returned to the pool when the stream is closed.
+     */
+    private static class CompressingOutputStream extends OutputStream {
+        private final ResponseCompressor compressor;
+        private final OutputStream out;
+        private final boolean gzip;
+        private PooledDeflater pooled;
+        private long raw = 0;
+        private long compressed = 0;
+
+        CompressingOutputStream(ResponseCompressor compressor,
+                OutputStream out, PooledDeflater pooled, boolean gzip) {
+            this.compressor = compressor;
+            this.out = out;
+            this.pooled = pooled;
+            this.gzip = gzip;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (pooled == null) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return;
+            }
+            Deflater deflater = pooled.deflater;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+            if (gzip) {
+                pooled.crc.update(b, off, len);
+            }
+            raw += len;
+        }
+
+        private void deflate() throws IOException {
+            int count = pooled.deflater.deflate(pooled.chunk, 0,
+                    pooled.chunk.length);
+            if (count > 0) {
+                writeCompressed(pooled.chunk, 0, count);
+            }
+        }
+
+        void writeCompressed(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            compressed += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (pooled == null) {
+                return;
+            }
+            try {
+                Deflater deflater = pooled.deflater;
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate();
+                }
+                if (gzip) {
+                    byte[] trailer = new byte[8];
+                    writeInt(trailer, 0, pooled.crc.getValue());
+                    writeInt(trailer, 4, raw);
+                    writeCompressed(trailer, 0, trailer.length);
+                }
+                compressor.rawBytes.addAndGet(raw);
+                compressor.compressedBytes.addAndGet(compressed);
+                compressor.compressedResponses.incrementAndGet();
+            } finally {
+                compressor.release(pooled, gzip);
+                pooled = null;
+                out.close();
+            }
+        }
+
+        private static void writeInt(byte[] b, int offset, long value) {
+            // Little endian as required by the gzip format
+            b[offset] = (byte) value;
+            b[offset + 1] = (byte) (value >> 8);
+            b[offset + 2] = (byte) (value >> 16);
+            b[offset + 3] = (byte) (value >> 24);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.server;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vaadin.sass.internal.ParseCache;
+import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.server.StaticResourceCache.CachedResource;
+
+/**
+ * Keeps the CSS compiled on the fly from SCSS themes. A compiled stylesheet
+ * is kept together with the last modification times of all the files in its
+ * import graph and is only compiled again when one of them has changed. The
+ * compiled CSS is served with a strong ETag so browsers can revalidate it
+ * cheaply.
+ * <p>
+ * When modification checks are disabled (typically in production mode), a
+ * stylesheet is compiled only once.
+ * </p>
+ * <p>
+ * The cache also keeps the parsed source files, see {@link #getParseCache()},
+ * so that only the modified files need to be parsed again when a stylesheet
+ * is recompiled.
+ * </p>
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class ScssCompilationCache implements Serializable {
+
+    private final ResponseCompressor compressor;
+
+    private final boolean checkModified;
+
+    private transient ConcurrentHashMap<String, CompiledStylesheet> stylesheets;
+
+    private transient ConcurrentHashMap<String, Object> compileLocks;
+
+    private transient ParseCache parseCache;
+
+    /**
+     * Creates a new cache.
+     * 
+     * @param compressor
+     *            the compressor used for creating gzip variants of the
+     *            compiled CSS, or <code>null</code> to not keep compressed
+     *            variants
+     * @param checkModified
+     *            <code>true</code> to check whether any of the source files has
+     *            been modified each time a compiled stylesheet is used,
+     *            <code>false</code> to assume the sources never change
+     */
+    public ScssCompilationCache(ResponseCompressor compressor,
+            boolean checkModified) {
+        this.compressor = compressor;
+        this.checkModified = checkModified;
+        initStylesheets();
+    }
+
+    private void initStylesheets() {
+        stylesheets = new ConcurrentHashMap<String, CompiledStylesheet>();
+        compileLocks = new ConcurrentHashMap<String, Object>();
+        parseCache = new ParseCache();
+    }
+
+    /**
+     * Gets the number of compiled stylesheets in the cache.
+     * 
+     * @return the number of cached stylesheets
+     */
+    public int getStylesheetCount() {
+        return stylesheets.size();
+    }
+
+    /**
+     * Gets the cache of parsed source files to use when compiling stylesheets
+     * for this cache.
+     * 
+     * @return the parse cache
+     */
+    public ParseCache getParseCache() {
+        return parseCache;
+    }
+
+    /**
+     * Removes all compiled stylesheets and parsed source files from the
+     * cache.
+     */
+    public void clear() {
+        stylesheets.clear();
+        parseCache.clear();
+    }
+
+    /**
+     * Gets the object to synchronize on while compiling the given stylesheet,
+     * to avoid compiling the same stylesheet in several threads at once.
+     * 
+     * @param scssFilename
+     *            the filename of the SCSS stylesheet
+     * @return the lock object for the stylesheet
+     */
+    Object getCompileLock(String scssFilename) {
+        Object lock = compileLocks.get(scssFilename);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = compileLocks.putIfAbsent(scssFilename, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Gets a compiled stylesheet. If modification checks are enabled and any
+     * of the source files of the stylesheet has been modified, it is removed
+     * from the cache.
+     * 
+     * @param scssFilename
+     *            the filename of the SCSS stylesheet
+     * @return the compiled stylesheet, or <code>null</code> if it has not been
+     *         compiled or needs to be compiled again
+     */
+    CachedResource get(String scssFilename) {
+        CompiledStylesheet compiled = stylesheets.get(scssFilename);
+        if (compiled == null) {
+            return null;
+        }
+        if (checkModified && compiled.isModified()) {
+            stylesheets.remove(scssFilename, compiled);
+            return null;
+        }
+        return compiled.resource;
+    }
+
+    /**
+     * Adds a compiled stylesheet to the cache.
+     * 
+     * @param scssFilename
+     *            the filename of the SCSS stylesheet
+     * @param scss
+     *            the compiled stylesheet
+     * @param mimeType
+     *            the mime type to serve the CSS with
+     * @param cacheControl
+     *            the value of the Cache-Control header to send with the CSS,
+     *            or <code>null</code> to not send the header
+     * @return the cached CSS
+     */
+    CachedResource put(String scssFilename, ScssStylesheet scss,
+            String mimeType, String cacheControl) {
+        byte[] data;
+        try {
+            data = scss.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new RuntimeException(e);
+        }
+
+        List<String> sourceUris = scss.getSourceUris();
+        Map<String, Long> sources = new LinkedHashMap<String, Long>();
+        long lastModified = 0;
+        for (String uri : sourceUris) {
+            long sourceModified = ScssStylesheet.getLastModified(uri);
+            sources.put(uri, sourceModified);
+            lastModified = Math.max(lastModified, sourceModified);
+        }
+        // Same precision as the If-Modified-Since header
+        lastModified -= lastModified % 1000;
+
+        CachedResource resource = new CachedResource(null, data,
+                StaticResourceCache.createGzipVariant(compressor, data),
+                lastModified, mimeType, cacheControl);
+        stylesheets.put(scssFilename, new CompiledStylesheet(resource,
+                sources));
+        return resource;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        initStylesheets();
+    }
+
+    /**
+     * Compiled CSS together with the modification times of its sources.
+     */
+    private static class CompiledStylesheet implements Serializable {
+        private final CachedResource resource;
+        private final Map<String, Long> sources;
+
+        CompiledStylesheet(CachedResource resource, Map<String, Long> sources) {
+            this.resource = resource;
+            this.sources = sources;
+        }
+
+        boolean isModified() {
+            for (Map.Entry<String, Long> source : sources.entrySet()) {
+                if (ScssStylesheet.getLastModified(source.getKey()) != source
+                        .getValue().longValue()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,584 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Keeps the contents of static resources served from the VAADIN directory in
+ * memory together with a precompressed gzip variant, a strong ETag and the
+ * last modification time. Conditional requests for cached resources are
+ * answered without opening the resource again.
+ * <p>
+ * The cache has a memory budget, counting both the plain and the compressed
+ * bytes. When the budget is exceeded, the least recently used resources are
+ * evicted. Resources larger than a quarter of the budget are never cached.
+ * </p>
+ * <p>
+ * When modification checks are enabled (outside production mode), the last
+ * modification time of a cached resource is checked on each request and the
+ * resource is reloaded if it has changed.
+ * </p>
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class StaticResourceCache implements Serializable {
+
+    /**
+     * The default memory budget in bytes.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 16 * 1024 * 1024;
+
+    private final long memoryBudget;
+
+    private final long maxResourceSize;
+
+    private final ResponseCompressor compressor;
+
+    private final boolean checkModified;
+
+    /**
+     * Cached resources by filename in access order. All access is synchronized
+     * on the map itself.
+     */
+    private transient LinkedHashMap<String, CachedResource> resources;
+
+    private long size = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a new cache.
+     * 
+     * @param memoryBudget
+     *            the maximum number of bytes to keep in memory
+     * @param compressor
+     *            the compressor used for creating gzip variants of the
+     *            resources, or <code>null</code> to not keep compressed
+     *            variants
+     * @param checkModified
+     *            <code>true</code> to check whether a cached resource has been
+     *            modified each time it is used, <code>false</code> to assume
+     *            resources never change
+     */
+    public StaticResourceCache(long memoryBudget,
+            ResponseCompressor compressor, boolean checkModified) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException(
+                    "Memory budget must be positive");
+        }
+        this.memoryBudget = memoryBudget;
+        maxResourceSize = memoryBudget / 4;
+        this.compressor = compressor;
+        this.checkModified = checkModified;
+        initResources();
+    }
+
+    /**
+     * Creates a cache using the memory budget configured for the given
+     * deployment using
+     * {@link Constants#SERVLET_PARAMETER_STATIC_RESOURCE_CACHE_SIZE}.
+     * Modification checks are enabled when not in production mode.
+     * 
+     * @param deploymentConfiguration
+     *            the deployment configuration
+     * @param compressor
+     *            the compressor used for creating gzip variants, or
+     *            <code>null</code>
+     * @return a new cache, or <code>null</code> if caching has been disabled
+     *         by setting the budget to zero
+     */
+    public static StaticResourceCache create(
+            DeploymentConfiguration deploymentConfiguration,
+            ResponseCompressor compressor) {
+        String value = deploymentConfiguration.getApplicationOrSystemProperty(
+                Constants.SERVLET_PARAMETER_STATIC_RESOURCE_CACHE_SIZE,
+                Long.toString(DEFAULT_MEMORY_BUDGET));
+        long budget;
+        try {
+            budget = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            getLogger().warning(
+                    "Invalid "
+                            + Constants.SERVLET_PARAMETER_STATIC_RESOURCE_CACHE_SIZE
+                            + " value: " + value);
+            budget = DEFAULT_MEMORY_BUDGET;
+        }
+        if (budget <= 0) {
+            return null;
+        }
+        return new StaticResourceCache(budget, compressor,
+                !deploymentConfiguration.isProductionMode());
+    }
+
+    private void initResources() {
+        resources = new LinkedHashMap<String, CachedResource>(16, 0.75f, true);
+    }
+
+    /**
+     * Gets the memory budget of this cache.
+     * 
+     * @return the maximum number of bytes kept in memory
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Gets the number of bytes currently used by cached resources.
+     * 
+     * @return the number of cached bytes, including compressed variants
+     */
+    public long getSize() {
+        synchronized (resources) {
+            return size;
+        }
+    }
+
+    /**
+     * Gets the number of resources currently in the cache.
+     * 
+     * @return the number of cached resources
+     */
+    public int getResourceCount() {
+        synchronized (resources) {
+            return resources.size();
+        }
+    }
+
+    /**
+     * Gets the number of requests that have been served from the cache.
+     * 
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of requests for which the resource was not found in the
+     * cache.
+     * 
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Removes all resources from the cache.
+     */
+    public void clear() {
+        synchronized (resources) {
+            resources.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Gets a cached resource. If modification checks are enabled and the
+     * resource has been modified, it is removed from the cache.
+     * 
+     * @param filename
+     *            the requested filename
+     * @return the cached resource, or <code>null</code> if the resource is not
+     *         in the cache
+     */
+    CachedResource get(String filename) {
+        CachedResource resource;
+        synchronized (resources) {
+            resource = resources.get(filename);
+        }
+        if (resource != null && checkModified
+                && getLastModified(resource.url) != resource.lastModified) {
+            remove(filename, resource);
+            resource = null;
+        }
+        if (resource == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return resource;
+    }
+
+    /**
+     * Reads a resource and adds it to the cache.
+     * 
+     * @param filename
+     *            the requested filename
+     * @param url
+     *            the URL to read the resource from
+     * @param mimeType
+     *            the mime type of the resource, or <code>null</code> if not
+     *            known
+     * @param cacheControl
+     *            the value of the Cache-Control header to send with the
+     *            resource, or <code>null</code> to not send the header
+     * @return the cached resource, or <code>null</code> if the resource is too
+     *         large to be cached or could not be read
+     */
+    CachedResource load(String filename, URL url, String mimeType,
+            String cacheControl) {
+        byte[] data;
+        long lastModified;
+        try {
+            URLConnection connection = url.openConnection();
+            InputStream is = connection.getInputStream();
+            try {
+                if (connection.getContentLength() > maxResourceSize) {
+                    return null;
+                }
+                lastModified = roundLastModified(connection.getLastModified());
+                data = read(is);
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            getLogger().log(Level.FINEST,
+                    "Could not read " + url + " into the cache", e);
+            return null;
+        }
+        if (data == null) {
+            return null;
+        }
+
+        CachedResource resource = new CachedResource(url, data,
+                createGzipVariant(compressor, data), lastModified, mimeType,
+                cacheControl);
+        put(filename, resource);
+        return resource;
+    }
+
+    /**
+     * Writes a cached resource as the response to a request. The gzip variant
+     * is used if the client accepts it. If the request contains an
+     * If-None-Match or If-Modified-Since header matching the resource, only a
+     * 304 Not Modified status is sent.
+     * 
+     * @param resource
+     *            the cached resource
+     * @param request
+     *            the request for the resource
+     * @param response
+     *            the response to write to
+     * @throws IOException
+     *             if writing the response fails
+     */
+    static void writeResponse(CachedResource resource,
+            HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        boolean gzip = resource.gzipData != null
+                && ResponseCompressor.GZIP.equals(ResponseCompressor
+                        .selectEncoding(request.getHeader("Accept-Encoding")));
+
+        response.setHeader("ETag", gzip ? resource.gzipETag : resource.eTag);
+        if (resource.lastModified > 0) {
+            response.setDateHeader("Last-Modified", resource.lastModified);
+        }
+        if (resource.cacheControl != null) {
+            response.setHeader("Cache-Control", resource.cacheControl);
+        }
+        if (resource.gzipData != null) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+
+        if (isNotModified(resource, request)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        if (resource.mimeType != null) {
+            response.setContentType(resource.mimeType);
+        }
+        byte[] data;
+        if (gzip) {
+            response.setHeader("Content-Encoding", ResponseCompressor.GZIP);
+            data = resource.gzipData;
+        } else {
+            data = resource.data;
+        }
+        response.setContentLength(data.length);
+        OutputStream out = response.getOutputStream();
+        out.write(data);
+        out.flush();
+    }
+
+    /**
+     * Checks whether the client already has the current version of the
+     * resource. If-None-Match takes precedence over If-Modified-Since as
+     * required by the HTTP specification.
+     */
+    private static boolean isNotModified(CachedResource resource,
+            HttpServletRequest request) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    // Weak comparison is allowed for GET requests
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(resource.eTag)
+                        || tag.equals(resource.gzipETag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (resource.lastModified > 0) {
+            try {
+                long ifModifiedSince = request
+                        .getDateHeader("If-Modified-Since");
+                return ifModifiedSince >= resource.lastModified;
+            } catch (IllegalArgumentException e) {
+                // Invalid date, send the resource
+            }
+        }
+        return false;
+    }
+
+    private void put(String filename, CachedResource resource) {
+        synchronized (resources) {
+            CachedResource old = resources.put(filename, resource);
+            if (old != null) {
+                size -= old.getSize();
+            }
+            size += resource.getSize();
+
+            Iterator<Map.Entry<String, CachedResource>> iterator = resources
+                    .entrySet().iterator();
+            while (size > memoryBudget && iterator.hasNext()) {
+                Map.Entry<String, CachedResource> eldest = iterator.next();
+                if (eldest.getValue() != resource) {
+                    size -= eldest.getValue().getSize();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private void remove(String filename, CachedResource resource) {
+        synchronized (resources) {
+            // Only remove if not already replaced by a reloaded version
+            if (resources.get(filename) == resource) {
+                resources.remove(filename);
+                size -= resource.getSize();
+            }
+        }
+    }
+
+    /**
+     * Reads all data from the stream, giving up if there is more than what
+     * may be cached.
+     * 
+     * @return the data or <code>null</code> if the resource is too large
+     */
+    private byte[] read(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[Constants.DEFAULT_BUFFER_SIZE];
+        int bytes;
+        while ((bytes = is.read(buffer)) >= 0) {
+            out.write(buffer, 0, bytes);
+            if (out.size() > maxResourceSize) {
+                return null;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Compresses data to be kept as the gzip variant of a resource.
+     * 
+     * @param compressor
+     *            the compressor to use, or <code>null</code>
+     * @param data
+     *            the uncompressed data
+     * @return the compressed data, or <code>null</code> if the data should
+     *         not be compressed or does not get smaller by compressing
+     */
+    static byte[] createGzipVariant(ResponseCompressor compressor,
+            byte[] data) {
+        if (compressor == null || compressor.getThreshold() < 0
+                || data.length < compressor.getThreshold()) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                data.length / 2);
+        try {
+            OutputStream out = compressor.compress(bytes,
+                    ResponseCompressor.GZIP);
+            out.write(data);
+            out.close();
+        } catch (IOException e) {
+            // Not possible when writing to memory
+            throw new RuntimeException(e);
+        }
+        if (bytes.size() >= data.length) {
+            // Not worth it, e.g. an image that is already compressed
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Gets the last modification time of the resource at the given URL.
+     * 
+     * @param url
+     *            the URL of the resource
+     * @return the modification time rounded down to seconds, 0 if not known
+     *         or -1 if the resource could not be opened
+     */
+    static long getLastModified(URL url) {
+        if ("file".equals(url.getProtocol())) {
+            // Avoid opening the file
+            try {
+                File file = new File(url.toURI());
+                return file.exists() ? roundLastModified(file.lastModified())
+                        : -1;
+            } catch (URISyntaxException e) {
+                // Try using a connection
+            } catch (IllegalArgumentException e) {
+                // Try using a connection
+            }
+        }
+        try {
+            URLConnection connection = url.openConnection();
+            long lastModified = connection.getLastModified();
+            // Close the stream to not leave the file open, see
+            // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4257700
+            connection.getInputStream().close();
+            return roundLastModified(lastModified);
+        } catch (IOException e) {
+            // Most likely removed
+            return -1;
+        }
+    }
+
+    /**
+     * Removes milliseconds as they are not included in the If-Modified-Since
+     * header sent by the browser.
+     */
+    private static long roundLastModified(long lastModified) {
+        return lastModified - lastModified % 1000;
+    }
+
+    static String createETag(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(data);
+            StringBuilder tag = new StringBuilder(digest.length * 2 + 2);
+            tag.append('"');
+            for (byte b : digest) {
+                tag.append(Character.forDigit((b >> 4) & 0xf, 16));
+                tag.append(Character.forDigit(b & 0xf, 16));
+            }
+            return tag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is always available
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        initResources();
+        size = 0;
+    }
+
+    private static final Logger getLogger() {
+        return Logger.getLogger(StaticResourceCache.class.getName());
+    }
+
+    /**
+     * A resource kept in the cache.
+     */
+    static class CachedResource implements Serializable {
+        private final URL url;
+        private final byte[] data;
+        private final byte[] gzipData;
+        private final String eTag;
+        private final String gzipETag;
+        private final long lastModified;
+        private final String mimeType;
+        private final String cacheControl;
+
+        /**
+         * @param url
+         *            the URL used for checking whether the resource has been
+         *            modified, or <code>null</code> if not checked by this
+         *            cache
+         */
+        CachedResource(URL url, byte[] data, byte[] gzipData,
+                long lastModified, String mimeType, String cacheControl) {
+            this.url = url;
+            this.data = data;
+            this.gzipData = gzipData;
+            this.lastModified = lastModified;
+            this.mimeType = mimeType;
+            this.cacheControl = cacheControl;
+            eTag = createETag(data);
+            // A strong ETag must be different for each representation
+            gzipETag = gzipData != null ? eTag.substring(0,
+                    eTag.length() - 1) + "-gzip\"" : null;
+        }
+
+        long getSize() {
+            return data.length + (gzipData != null ? gzipData.length : 0);
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        String getETag() {
+            return eTag;
+        }
+
+        byte[] getGzipData() {
+            return gzipData;
+        }
+
+        long getLastModified() {
+            return lastModified;
+        }
+    }
+}
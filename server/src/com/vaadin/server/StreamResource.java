@@ -155,6 +155,12 @@ public class StreamResource implements ConnectorResource {
 
         /**
          * Returns new input stream that is used for reading the resource.
+         * <p>
+         * This method is called with the session locked, but the returned
+         * stream is read after the lock has been released, possibly while
+         * other requests to the same session are being handled. Reading the
+         * stream must therefore not access the UI or other session data
+         * without locking the session.
          */
         public InputStream getStream();
     }
@@ -59,6 +59,12 @@ public interface StreamVariable extends Serializable {
      * calling that method only if requested. The value is requested after the
      * {@link #uploadStarted(StreamingStartEvent)} event, but not after reading
      * each buffer.
+     * <p>
+     * Progress events are not sent for each buffer read, but at most once
+     * every {@link Constants#SERVLET_PARAMETER_UPLOAD_PROGRESS_INTERVAL}
+     * milliseconds or {@link Constants#SERVLET_PARAMETER_UPLOAD_PROGRESS_BYTES}
+     * bytes. The session is not locked for the progress events if the stream
+     * variable implements {@link ThreadSafeProgress}.
      * 
      * @return true if this {@link StreamVariable} wants to by notified during
      *         the upload of the progress of streaming.
@@ -96,6 +102,22 @@ public interface StreamVariable extends Serializable {
      */
     public boolean isInterrupted();
 
+    /**
+     * Marker interface for stream variables whose
+     * {@link StreamVariable#onProgress(StreamingProgressEvent)} method is
+     * thread safe. Progress events are delivered to such stream variables
+     * without locking the session, so that the upload does not compete for
+     * the session lock with other requests.
+     * <p>
+     * The implementation must not modify the UI or access the session from
+     * {@link StreamVariable#onProgress(StreamingProgressEvent)} without
+     * locking the session itself.
+     * 
+     * @since 7.1
+     */
+    public interface ThreadSafeProgress extends Serializable {
+    }
+
     public interface StreamingEvent extends Serializable {
 
         /**
@@ -293,6 +293,14 @@ public class VaadinPortlet extends GenericPortlet implements Constants,
 
     }
 
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (vaadinService != null) {
+            vaadinService.destroy();
+        }
+    }
+
     protected DeploymentConfiguration createDeploymentConfiguration(
             Properties initParameters) {
         return new DefaultDeploymentConfiguration(getClass(), initParameters);
@@ -420,6 +428,18 @@ public class VaadinPortlet extends GenericPortlet implements Constants,
                 VaadinPortletSession vaadinSession = null;
 
                 try {
+                    if (requestType == RequestType.HEARTBEAT) {
+                        // Heartbeats don't lock the session and skip the
+                        // cleanup at the end of the request
+                        VaadinSession heartbeatSession = getService()
+                                .findVaadinSessionForHeartbeat(request);
+                        if (heartbeatSession != null) {
+                            new HeartbeatHandler().handleRequest(
+                                    heartbeatSession, request, response);
+                        }
+                        return;
+                    }
+
                     vaadinSession = (VaadinPortletSession) getService()
                             .findVaadinSession(request);
                     if (vaadinSession == null) {
@@ -430,10 +450,6 @@ public class VaadinPortlet extends GenericPortlet implements Constants,
                         new PublishedFileHandler().handleRequest(vaadinSession,
                                 request, response);
                         return;
-                    } else if (requestType == RequestType.HEARTBEAT) {
-                        new HeartbeatHandler().handleRequest(vaadinSession,
-                                request, response);
-                        return;
                     }
 
                     // Notify listeners
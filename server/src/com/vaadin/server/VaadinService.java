@@ -24,8 +24,16 @@ import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
@@ -81,6 +89,14 @@ public abstract class VaadinService implements Serializable {
 
     private ClassLoader classLoader;
 
+    /**
+     * The sessions checked for inactive UIs by the UI sweeper, or
+     * <code>null</code> if the sweeper has not been started.
+     */
+    private transient volatile Set<VaadinSession> sweptSessions;
+
+    private transient ScheduledExecutorService uiSweeper;
+
     /**
      * Creates a new vaadin service based on a deployment configuration
      * 
@@ -108,6 +124,24 @@ public abstract class VaadinService implements Serializable {
         }
     }
 
+    /**
+     * Gets the compressor used for compressing responses sent by this service.
+     * The minimum size of compressed responses is configured using
+     * {@link Constants#SERVLET_PARAMETER_COMPRESSION_THRESHOLD}.
+     * <p>
+     * Returns <code>null</code> by default, in which case responses are not
+     * compressed.
+     * </p>
+     * 
+     * @return the response compressor, or <code>null</code> if responses
+     *         should not be compressed
+     * 
+     * @since 7.1
+     */
+    public ResponseCompressor getResponseCompressor() {
+        return null;
+    }
+
     /**
      * Return the URL from where static files, e.g. the widgetset and the theme,
      * are served. In a standard configuration the VAADIN folder inside the
@@ -339,6 +373,10 @@ public abstract class VaadinService implements Serializable {
     }
 
     public void fireSessionDestroy(VaadinSession vaadinSession) {
+        if (!vaadinSession.markDestroyed()) {
+            // Already destroyed when unbound from the underlying session
+            return;
+        }
         for (UI ui : new ArrayList<UI>(vaadinSession.getUIs())) {
             // close() called here for consistency so that it is always called
             // before a UI is removed. UI.isClosing() is thus always true in
@@ -349,6 +387,8 @@ public abstract class VaadinService implements Serializable {
             vaadinSession.removeUI(ui);
         }
 
+        unregisterSession(vaadinSession);
+
         eventRouter.fireEvent(new SessionDestroyEvent(this, vaadinSession));
     }
 
@@ -394,6 +434,46 @@ public abstract class VaadinService implements Serializable {
         return vaadinSession;
     }
 
+    /**
+     * Attempts to find a Vaadin service session associated with a heartbeat
+     * request without locking the session. Heartbeat requests only update
+     * state that is safe to access without locking, so they should not have to
+     * wait for other requests to the same session to complete.
+     * <p>
+     * If the session has not yet been used by this service instance, e.g.
+     * because it has just been deserialized, the session is looked up using
+     * {@link #findVaadinSession(VaadinRequest)} instead.
+     * </p>
+     * 
+     * @param request
+     *            the heartbeat request to get a vaadin service session for.
+     * @return the vaadin service session for the request, or <code>null</code>
+     *         if no session was found
+     * 
+     * @throws ServiceException
+     * @throws SessionExpiredException
+     * 
+     * @since 7.1
+     */
+    public VaadinSession findVaadinSessionForHeartbeat(VaadinRequest request)
+            throws ServiceException, SessionExpiredException {
+        WrappedSession wrappedSession = request.getWrappedSession(false);
+        if (wrappedSession == null) {
+            throw new SessionExpiredException();
+        }
+
+        VaadinSession vaadinSession = VaadinSession.getInitializedForSession(
+                this, wrappedSession);
+        if (vaadinSession == null) {
+            return findVaadinSession(request);
+        }
+
+        VaadinSession.setCurrent(vaadinSession);
+        request.setAttribute(VaadinSession.class.getName(), vaadinSession);
+
+        return vaadinSession;
+    }
+
     /**
      * Associates the given lock with this service and the given wrapped
      * session. This method should not be called more than once when the lock is
@@ -480,16 +560,24 @@ public abstract class VaadinService implements Serializable {
     /**
      * Releases the lock for the given session for this service instance.
      * Typically you want to call {@link VaadinSession#unlock()} instead of this
-     * method.
+     * method. If the session already contains a Vaadin session using the same
+     * lock, the lock is released through {@link VaadinSession#unlock()} so
+     * that tasks enqueued while the lock was held are run.
      * 
      * @param wrappedSession
      *            The session to unlock
      */
     protected void unlockSession(WrappedSession wrappedSession) {
-        assert getSessionLock(wrappedSession) != null;
-        assert ((ReentrantLock) getSessionLock(wrappedSession))
-                .isHeldByCurrentThread() : "Trying to unlock the session but it has not been locked by this thread";
-        getSessionLock(wrappedSession).unlock();
+        Lock lock = getSessionLock(wrappedSession);
+        assert lock != null;
+        assert ((ReentrantLock) lock).isHeldByCurrentThread() : "Trying to unlock the session but it has not been locked by this thread";
+        VaadinSession session = VaadinSession.getInitializedForSession(this,
+                wrappedSession);
+        if (session != null && session.getLockInstance() == lock) {
+            session.unlock();
+        } else {
+            lock.unlock();
+        }
     }
 
     private VaadinSession findOrCreateVaadinSession(VaadinRequest request)
@@ -500,7 +588,12 @@ public abstract class VaadinService implements Serializable {
 
         lockSession(wrappedSession);
         try {
-            return doFindOrCreateVaadinSession(request, requestCanCreateSession);
+            VaadinSession session = doFindOrCreateVaadinSession(request,
+                    requestCanCreateSession);
+            if (session != null) {
+                registerSession(session);
+            }
+            return session;
         } finally {
             unlockSession(wrappedSession);
         }
@@ -959,38 +1052,185 @@ public abstract class VaadinService implements Serializable {
     }
 
     /**
-     * Called at the end of a request, after sending the response. Closes
-     * inactive UIs in the given session, removes closed UIs from the session,
-     * and closes the session if it is itself inactive.
+     * Called at the end of a request, after sending the response. Removes
+     * closed UIs from the session, and closes the session if it is itself
+     * inactive. Inactive UIs are closed in the background, see
+     * {@link #closeInactiveUIs()}.
      * 
      * @param session
      */
     void cleanupSession(VaadinSession session) {
         if (isSessionActive(session)) {
-            closeInactiveUIs(session);
             removeClosedUIs(session);
         } else {
-            if (!session.isClosing()) {
-                closeSession(session);
-                if (session.getSession() != null) {
-                    getLogger().log(Level.FINE, "Closing inactive session {0}",
-                            session.getSession().getId());
-                }
-            }
+            closeInactiveSession(session);
+        }
+    }
+
+    /**
+     * Closes the given inactive session and removes it from the underlying
+     * session.
+     * 
+     * @param session
+     */
+    private void closeInactiveSession(VaadinSession session) {
+        if (!session.isClosing()) {
+            closeSession(session);
             if (session.getSession() != null) {
-                /*
-                 * If the VaadinSession has no WrappedSession then it has
-                 * already been removed from the HttpSession and we do not have
-                 * to do it again
-                 */
-                session.removeFromSession(this);
+                getLogger().log(Level.FINE, "Closing inactive session {0}",
+                        session.getSession().getId());
             }
-
+        }
+        if (session.getSession() != null) {
             /*
-             * The session was destroyed during this request and therefore no
-             * destroy event has yet been sent
+             * If the VaadinSession has no WrappedSession then it has already
+             * been removed from the HttpSession and we do not have to do it
+             * again
              */
-            fireSessionDestroy(session);
+            session.removeFromSession(this);
+        }
+
+        /*
+         * If the session was destroyed during this request, no destroy event
+         * has yet been sent. If it was unbound outside a request, e.g. by the
+         * UI sweeper, the event has already been sent and is not sent again.
+         */
+        fireSessionDestroy(session);
+    }
+
+    /**
+     * Registers a session to be checked for inactive UIs by the UI sweeper.
+     * The sweeper is started when the first session is registered. Nothing is
+     * done if heartbeats are disabled as UIs then never become inactive.
+     * 
+     * @param session
+     *            the session to register
+     */
+    void registerSession(VaadinSession session) {
+        if (getHeartbeatTimeout() < 0) {
+            return;
+        }
+        Set<VaadinSession> sessions = sweptSessions;
+        if (sessions == null) {
+            sessions = startUISweeper();
+        }
+        if (!sessions.contains(session)) {
+            sessions.add(session);
+        }
+    }
+
+    /**
+     * Stops checking a session for inactive UIs. Called when the session is
+     * destroyed or unbound from the underlying session, so that the UI
+     * sweeper does not keep references to sessions that are no longer used.
+     * 
+     * @param session
+     *            the session to unregister
+     */
+    void unregisterSession(VaadinSession session) {
+        Set<VaadinSession> sessions = sweptSessions;
+        if (sessions != null) {
+            sessions.remove(session);
+        }
+    }
+
+    private synchronized Set<VaadinSession> startUISweeper() {
+        if (sweptSessions == null) {
+            int interval = Math.max(1, getDeploymentConfiguration()
+                    .getHeartbeatInterval());
+            uiSweeper = Executors
+                    .newSingleThreadScheduledExecutor(new UISweeperThreadFactory());
+            uiSweeper.scheduleWithFixedDelay(new UISweeper(this), interval,
+                    interval, TimeUnit.SECONDS);
+            sweptSessions = Collections
+                    .newSetFromMap(new ConcurrentHashMap<VaadinSession, Boolean>());
+        }
+        return sweptSessions;
+    }
+
+    /**
+     * Closes inactive UIs and sessions of this service. This is done
+     * periodically in a background thread instead of at the end of each
+     * request, so that requests (in particular heartbeat requests) do not need
+     * to do it while holding the session lock. Sessions that are locked by
+     * other threads are skipped and checked again on the next run.
+     */
+    void closeInactiveUIs() {
+        Set<VaadinSession> sessions = sweptSessions;
+        if (sessions == null) {
+            return;
+        }
+        for (VaadinSession session : sessions) {
+            Lock lock = session.getLockInstance();
+            if (lock == null || !lock.tryLock()) {
+                continue;
+            }
+            try {
+                setCurrentInstances(null, null);
+                VaadinSession.setCurrent(session);
+                if (isSessionActive(session)) {
+                    closeInactiveUIs(session);
+                    removeClosedUIs(session);
+                } else {
+                    closeInactiveSession(session);
+                }
+            } catch (RuntimeException e) {
+                getLogger().log(Level.WARNING,
+                        "Error while closing inactive UIs", e);
+            } finally {
+                // Runs tasks enqueued while swept and wakes up long polls
+                session.unlock();
+                CurrentInstance.clearAll();
+            }
+        }
+    }
+
+    /**
+     * Stops the background tasks of this service. Called when the servlet or
+     * portlet using this service is taken out of service.
+     * 
+     * @since 7.1
+     */
+    public synchronized void destroy() {
+        if (uiSweeper != null) {
+            uiSweeper.shutdownNow();
+            uiSweeper = null;
+        }
+        sweptSessions = null;
+    }
+
+    /**
+     * Periodic task closing inactive UIs, see
+     * {@link VaadinService#closeInactiveUIs()}.
+     */
+    private static class UISweeper implements Runnable, Serializable {
+        private final VaadinService service;
+
+        UISweeper(VaadinService service) {
+            this.service = service;
+        }
+
+        @Override
+        public void run() {
+            // Don't keep the instances inherited from the creating thread
+            CurrentInstance.clearAll();
+            service.closeInactiveUIs();
+        }
+    }
+
+    /**
+     * Creates daemon threads for the UI sweeper.
+     */
+    private static class UISweeperThreadFactory implements ThreadFactory,
+            Serializable {
+        private static final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Vaadin UI sweeper "
+                    + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 
@@ -16,6 +16,8 @@
 package com.vaadin.server;
 
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -23,6 +25,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URISyntaxException;
 import java.net.URLConnection;
 import java.util.Arrays;
 import java.util.Collection;
@@ -38,6 +41,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.vaadin.sass.internal.ParseCache;
 import com.vaadin.sass.internal.ScssStylesheet;
 import com.vaadin.server.LegacyCommunicationManager.Callback;
 import com.vaadin.server.communication.FileUploadHandler;
@@ -75,6 +79,10 @@ public class VaadinServlet extends HttpServlet implements Constants {
 
     private VaadinServletService servletService;
 
+    private transient StaticResourceCache staticResourceCache;
+
+    private transient ScssCompilationCache scssCompilationCache;
+
     /**
      * Called by the servlet container to indicate to a servlet that the servlet
      * is being placed into service.
@@ -115,6 +123,17 @@ public class VaadinServlet extends HttpServlet implements Constants {
         // Sets current service even though there are no request and response
         servletService.setCurrentInstances(null, null);
 
+        if (!isStaticResourceResponseOverridden()) {
+            staticResourceCache = StaticResourceCache.create(
+                    deploymentConfiguration,
+                    servletService.getResponseCompressor());
+        }
+        if (isScssCompilationEnabled()) {
+            scssCompilationCache = new ScssCompilationCache(
+                    servletService.getResponseCompressor(),
+                    !deploymentConfiguration.isProductionMode());
+        }
+
         servletInitialized();
 
         CurrentInstance.clearAll();
@@ -124,6 +143,74 @@ public class VaadinServlet extends HttpServlet implements Constants {
         // Empty by default
     }
 
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (servletService != null) {
+            servletService.destroy();
+        }
+        if (staticResourceCache != null) {
+            staticResourceCache.clear();
+        }
+        if (scssCompilationCache != null) {
+            scssCompilationCache.clear();
+        }
+    }
+
+    /**
+     * Checks whether themes are compiled from SCSS on the fly when a CSS file
+     * is requested but only the corresponding SCSS file exists. This is
+     * always done in development mode and can be enabled in production mode
+     * using the
+     * {@value Constants#SERVLET_PARAMETER_COMPILE_SCSS_IN_PRODUCTION_MODE}
+     * parameter.
+     * 
+     * @return true if SCSS is compiled on the fly, false otherwise
+     */
+    protected boolean isScssCompilationEnabled() {
+        DeploymentConfiguration deploymentConfiguration = getService()
+                .getDeploymentConfiguration();
+        return !deploymentConfiguration.isProductionMode()
+                || deploymentConfiguration.getApplicationOrSystemProperty(
+                        SERVLET_PARAMETER_COMPILE_SCSS_IN_PRODUCTION_MODE,
+                        "false").equals("true");
+    }
+
+    /**
+     * Gets the cache used for serving static resources from the VAADIN
+     * directory. The cache is not used if
+     * {@link #writeStaticResourceResponse(HttpServletRequest, HttpServletResponse, URL)}
+     * has been overridden or if the cache size has been set to 0 using the
+     * {@value Constants#SERVLET_PARAMETER_STATIC_RESOURCE_CACHE_SIZE}
+     * parameter.
+     * 
+     * @return the static resource cache, or <code>null</code> if static
+     *         resources are not cached
+     */
+    protected StaticResourceCache getStaticResourceCache() {
+        return staticResourceCache;
+    }
+
+    /**
+     * Checks whether a subclass has overridden the method for writing static
+     * resources, in which case the contents should not be served from the
+     * cache.
+     */
+    private boolean isStaticResourceResponseOverridden() {
+        for (Class<?> c = getClass(); c != VaadinServlet.class; c = c
+                .getSuperclass()) {
+            try {
+                c.getDeclaredMethod("writeStaticResourceResponse",
+                        HttpServletRequest.class, HttpServletResponse.class,
+                        URL.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Not overridden in this class
+            }
+        }
+        return false;
+    }
+
     /**
      * Gets the currently used Vaadin servlet. The current servlet is
      * automatically defined when initializing the servlet and when processing
@@ -259,6 +346,11 @@ public class VaadinServlet extends HttpServlet implements Constants {
             return;
         }
 
+        if (requestType == RequestType.HEARTBEAT) {
+            serveHeartbeat(request, response);
+            return;
+        }
+
         VaadinSession vaadinSession = null;
 
         try {
@@ -272,10 +364,6 @@ public class VaadinServlet extends HttpServlet implements Constants {
                 new PublishedFileHandler().handleRequest(vaadinSession,
                         request, response);
                 return;
-            } else if (requestType == RequestType.HEARTBEAT) {
-                new HeartbeatHandler().handleRequest(vaadinSession, request,
-                        response);
-                return;
             } else if (requestType == RequestType.FILE_UPLOAD) {
                 new FileUploadHandler().handleRequest(vaadinSession, request,
                         response);
@@ -311,6 +399,31 @@ public class VaadinServlet extends HttpServlet implements Constants {
         }
     }
 
+    /**
+     * Handles a heartbeat request. Heartbeats are handled without locking the
+     * session and without the cleanup done at the end of other requests, so
+     * that they are not delayed by long-running requests to the same session.
+     */
+    private void serveHeartbeat(VaadinServletRequest request,
+            VaadinServletResponse response) throws ServletException,
+            IOException {
+        VaadinSession vaadinSession = null;
+        try {
+            vaadinSession = getService().findVaadinSessionForHeartbeat(request);
+            if (vaadinSession != null) {
+                new HeartbeatHandler().handleRequest(vaadinSession, request,
+                        response);
+            }
+        } catch (final SessionExpiredException e) {
+            // Session has expired, notify user
+            handleServiceSessionExpired(request, response);
+        } catch (final Throwable e) {
+            handleServiceException(request, response, vaadinSession, e);
+        } finally {
+            CurrentInstance.clearAll();
+        }
+    }
+
     private VaadinServletResponse createVaadinResponse(
             HttpServletResponse response) {
         return new VaadinServletResponse(response, getService());
@@ -569,13 +682,6 @@ public class VaadinServlet extends HttpServlet implements Constants {
             Arrays.asList(new Character[] { '&', '"', '\'', '<', '>', '(', ')',
                     ';' }));
 
-    /**
-     * Mutex for preventing to scss compilations to take place simultaneously.
-     * This is a workaround needed as the scss compiler currently is not thread
-     * safe (#10292).
-     */
-    private static final Object SCSS_MUTEX = new Object();
-
     /**
      * Returns the default theme. Must never return null.
      * 
@@ -720,6 +826,16 @@ public class VaadinServlet extends HttpServlet implements Constants {
             throws IOException, ServletException {
 
         final ServletContext sc = getServletContext();
+
+        StaticResourceCache cache = getStaticResourceCache();
+        if (cache != null) {
+            StaticResourceCache.CachedResource cached = cache.get(filename);
+            if (cached != null) {
+                StaticResourceCache.writeResponse(cached, request, response);
+                return;
+            }
+        }
+
         URL resourceUrl = findResourceURL(filename, sc);
 
         if (resourceUrl == null) {
@@ -750,6 +866,17 @@ public class VaadinServlet extends HttpServlet implements Constants {
             return;
         }
 
+        if (cache != null) {
+            StaticResourceCache.CachedResource cached = cache.load(filename,
+                    resourceUrl, sc.getMimeType(filename),
+                    getStaticResourceCacheControl(filename));
+            if (cached != null) {
+                StaticResourceCache.writeResponse(cached, request, response);
+                return;
+            }
+            // Too large to cache, serve it directly
+        }
+
         // Find the modification timestamp
         long lastModifiedTime = 0;
         URLConnection connection = null;
@@ -797,31 +924,38 @@ public class VaadinServlet extends HttpServlet implements Constants {
         // Provide modification timestamp to the browser if it is known.
         if (lastModifiedTime > 0) {
             response.setDateHeader("Last-Modified", lastModifiedTime);
-            /*
-             * The browser is allowed to cache for 1 hour without checking if
-             * the file has changed. This forces browsers to fetch a new version
-             * when the Vaadin version is updated. This will cause more requests
-             * to the servlet than without this but for high volume sites the
-             * static files should never be served through the servlet. The
-             * cache timeout can be configured by setting the resourceCacheTime
-             * parameter in web.xml
-             */
-            int resourceCacheTime = getService().getDeploymentConfiguration()
-                    .getResourceCacheTime();
-            String cacheControl = "max-age="
-                    + String.valueOf(resourceCacheTime);
-            if (filename.contains("nocache")) {
-                cacheControl = "public, max-age=0, must-revalidate";
-            }
-            response.setHeader("Cache-Control", cacheControl);
+            response.setHeader("Cache-Control",
+                    getStaticResourceCacheControl(filename));
         }
 
         writeStaticResourceResponse(request, response, resourceUrl);
     }
 
+    private String getStaticResourceCacheControl(String filename) {
+        /*
+         * The browser is allowed to cache for 1 hour without checking if the
+         * file has changed. This forces browsers to fetch a new version when
+         * the Vaadin version is updated. This will cause more requests to the
+         * servlet than without this but for high volume sites the static files
+         * should never be served through the servlet. The cache timeout can be
+         * configured by setting the resourceCacheTime parameter in web.xml
+         */
+        int resourceCacheTime = getService().getDeploymentConfiguration()
+                .getResourceCacheTime();
+        String cacheControl = "max-age=" + String.valueOf(resourceCacheTime);
+        if (filename.contains("nocache")) {
+            cacheControl = "public, max-age=0, must-revalidate";
+        }
+        return cacheControl;
+    }
+
     /**
      * Writes the contents of the given resourceUrl in the response. Can be
-     * overridden to add/modify response headers and similar.
+     * overridden to add/modify response headers and similar. Files in the file
+     * system are transferred without copying them through the heap. Resources
+     * small enough to be kept in the {@link #getStaticResourceCache() static
+     * resource cache} are only written using this method if it has been
+     * overridden.
      * 
      * @param request
      *            The request for the resource
@@ -833,6 +967,14 @@ public class VaadinServlet extends HttpServlet implements Constants {
      */
     protected void writeStaticResourceResponse(HttpServletRequest request,
             HttpServletResponse response, URL resourceUrl) throws IOException {
+        if ("file".equals(resourceUrl.getProtocol())) {
+            File file = toFile(resourceUrl);
+            if (file != null && file.isFile()) {
+                writeFileResponse(request, response, file);
+                return;
+            }
+        }
+
         // Write the resource to the client.
         final OutputStream os = response.getOutputStream();
         final byte buffer[] = new byte[DEFAULT_BUFFER_SIZE];
@@ -844,6 +986,47 @@ public class VaadinServlet extends HttpServlet implements Constants {
         is.close();
     }
 
+    private static File toFile(URL url) {
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a file in the response without copying its contents through the
+     * JVM heap. If the container supports sending files directly (e.g. Tomcat
+     * with sendfile enabled), the file is handed over to the container.
+     * Otherwise the file channel is transferred to the response stream.
+     */
+    private void writeFileResponse(HttpServletRequest request,
+            HttpServletResponse response, File file) throws IOException {
+        long length = file.length();
+        response.setContentLength((int) length);
+
+        if (Boolean.TRUE.equals(request
+                .getAttribute("org.apache.tomcat.sendfile.support"))) {
+            request.setAttribute("org.apache.tomcat.sendfile.filename",
+                    file.getCanonicalPath());
+            request.setAttribute("org.apache.tomcat.sendfile.start",
+                    Long.valueOf(0));
+            request.setAttribute("org.apache.tomcat.sendfile.end",
+                    Long.valueOf(length));
+            return;
+        }
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            DownloadStream.transferRange(in.getChannel(), 0, length,
+                    response.getOutputStream());
+        } finally {
+            in.close();
+        }
+    }
+
     private URL findResourceURL(String filename, ServletContext sc)
             throws MalformedURLException {
         URL resourceUrl = sc.getResource(filename);
@@ -863,8 +1046,8 @@ public class VaadinServlet extends HttpServlet implements Constants {
     private boolean serveOnTheFlyCompiledScss(String filename,
             HttpServletRequest request, HttpServletResponse response,
             ServletContext sc) throws IOException {
-        if (getService().getDeploymentConfiguration().isProductionMode()) {
-            // This is not meant for production mode.
+        if (scssCompilationCache == null) {
+            // This is not meant for production mode unless enabled.
             return false;
         }
 
@@ -890,45 +1073,75 @@ public class VaadinServlet extends HttpServlet implements Constants {
             // Handled, return true so no further processing is done
             return true;
         }
-        synchronized (SCSS_MUTEX) {
-            String realFilename = sc.getRealPath(scssFilename);
-            ScssStylesheet scss = ScssStylesheet.get(realFilename);
-            if (scss == null) {
-                // Not a file in the file system (WebContent directory). Use the
-                // identifier directly (VAADIN/themes/.../styles.css) so
-                // ScssStylesheet will try using the class loader.
-                if (scssFilename.startsWith("/")) {
-                    scssFilename = scssFilename.substring(1);
-                }
 
-                scss = ScssStylesheet.get(scssFilename);
+        StaticResourceCache.CachedResource css = scssCompilationCache
+                .get(scssFilename);
+        if (css == null) {
+            // Different themes can be compiled concurrently but the same
+            // theme is only compiled once
+            synchronized (scssCompilationCache.getCompileLock(scssFilename)) {
+                // Might have been compiled while waiting for the lock
+                css = scssCompilationCache.get(scssFilename);
+                if (css == null) {
+                    css = compileScss(filename, scssFilename, sc);
+                    if (css == null) {
+                        return false;
+                    }
+                }
             }
+        }
 
-            if (scss == null) {
-                getLogger()
-                        .log(Level.WARNING,
-                                "Scss file {0} exists but ScssStylesheet was not able to find it",
-                                scssFilename);
-                return false;
-            }
-            try {
-                getLogger().log(Level.FINE, "Compiling {0} for request to {1}",
-                        new Object[] { realFilename, filename });
-                scss.compile();
-            } catch (Exception e) {
-                e.printStackTrace();
-                return false;
+        StaticResourceCache.writeResponse(css, request, response);
+        return true;
+    }
+
+    private StaticResourceCache.CachedResource compileScss(String filename,
+            String scssFilename, ServletContext sc) throws IOException {
+        String realFilename = sc.getRealPath(scssFilename);
+        // Only reparse the files that have been modified
+        ParseCache parseCache = scssCompilationCache.getParseCache();
+        ScssStylesheet scss = ScssStylesheet.get(realFilename, null,
+                parseCache);
+        if (scss == null) {
+            // Not a file in the file system (WebContent directory). Use the
+            // identifier directly (VAADIN/themes/.../styles.css) so
+            // ScssStylesheet will try using the class loader.
+            String identifier = scssFilename;
+            if (identifier.startsWith("/")) {
+                identifier = identifier.substring(1);
             }
 
-            // This is for development mode only so instruct the browser to
-            // never
-            // cache it
-            response.setHeader("Cache-Control", "no-cache");
-            final String mimetype = getService().getMimeType(filename);
-            writeResponse(response, mimetype, scss.toString());
+            scss = ScssStylesheet.get(identifier, null, parseCache);
+        }
 
-            return true;
+        if (scss == null) {
+            getLogger()
+                    .log(Level.WARNING,
+                            "Scss file {0} exists but ScssStylesheet was not able to find it",
+                            scssFilename);
+            return null;
+        }
+        try {
+            getLogger().log(Level.FINE, "Compiling {0} for request to {1}",
+                    new Object[] { realFilename, filename });
+            scss.compile();
+        } catch (Exception e) {
+            getLogger().log(Level.WARNING, "Failed to compile " + scssFilename,
+                    e);
+            return null;
+        }
+
+        String cacheControl;
+        if (getService().getDeploymentConfiguration().isProductionMode()) {
+            cacheControl = getStaticResourceCacheControl(filename);
+        } else {
+            // Make the browser check for changes on each load. An unchanged
+            // stylesheet is not compiled again and only results in a 304
+            // response because of the ETag.
+            cacheControl = "no-cache";
         }
+        return scssCompilationCache.put(scssFilename, scss, getService()
+                .getMimeType(filename), cacheControl);
     }
 
     /**
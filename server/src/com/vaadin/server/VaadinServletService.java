@@ -31,10 +31,14 @@ import com.vaadin.ui.UI;
 public class VaadinServletService extends VaadinService {
     private final VaadinServlet servlet;
 
+    private final ResponseCompressor responseCompressor;
+
     public VaadinServletService(VaadinServlet servlet,
             DeploymentConfiguration deploymentConfiguration) {
         super(deploymentConfiguration);
         this.servlet = servlet;
+        responseCompressor = ResponseCompressor
+                .create(deploymentConfiguration);
 
         // Set default class loader if not already set
         if (getClassLoader() == null) {
@@ -56,6 +60,17 @@ public class VaadinServletService extends VaadinService {
         return servlet;
     }
 
+    @Override
+    public ResponseCompressor getResponseCompressor() {
+        return responseCompressor;
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        responseCompressor.destroy();
+    }
+
     @Override
     public String getStaticFileLocation(VaadinRequest request) {
         VaadinServletRequest servletRequest = (VaadinServletRequest) request;
@@ -16,6 +16,8 @@
 
 package com.vaadin.server;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.Collection;
@@ -25,8 +27,17 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.portlet.PortletSession;
@@ -98,7 +109,11 @@ public class VaadinSession implements HttpSessionBindingListener, Serializable {
     private LinkedList<RequestHandler> requestHandlers = new LinkedList<RequestHandler>();
 
     private int nextUIId = 0;
-    private Map<Integer, UI> uIs = new HashMap<Integer, UI>();
+    /**
+     * UIs by id. A concurrent map so that UIs can be looked up for heartbeat
+     * requests without locking the session.
+     */
+    private Map<Integer, UI> uIs = new ConcurrentHashMap<Integer, UI>();
 
     private final Map<String, Integer> retainOnRefreshUIs = new HashMap<String, Integer>();
 
@@ -118,6 +133,12 @@ public class VaadinSession implements HttpSessionBindingListener, Serializable {
 
     private boolean closing = false;
 
+    /**
+     * Set when the session destroy event has been fired, as the session can
+     * be destroyed both when it is unbound and when it is closed.
+     */
+    private final AtomicBoolean destroyed = new AtomicBoolean(false);
+
     private transient WrappedSession session;
 
     private final Map<String, Object> attributes = new HashMap<String, Object>();
@@ -128,6 +149,18 @@ public class VaadinSession implements HttpSessionBindingListener, Serializable {
 
     private transient Lock lock;
 
+    /**
+     * Tasks enqueued using {@link #access(Runnable)} that have not yet been
+     * run.
+     */
+    private transient Queue<FutureTask<Void>> pendingAccessQueue = new ConcurrentLinkedQueue<FutureTask<Void>>();
+
+    /**
+     * Signaled when the lock is released, see {@link #awaitUnlock(long)}.
+     * Only accessed while holding the lock.
+     */
+    private transient Condition unlockCondition;
+
     /**
      * Create a new service session tied to a Vaadin service
      * 
@@ -168,6 +201,8 @@ public class VaadinSession implements HttpSessionBindingListener, Serializable {
             if (getAttribute(VaadinService.REINITIALIZING_SESSION_MARKER) == Boolean.TRUE) {
                 return;
             }
+            // Closed at the end of the request, not by the UI sweeper
+            service.unregisterSession(this);
 
             // There is still a request in progress for this session. The
             // session will be destroyed after the response has been written.
@@ -309,6 +344,32 @@ public class VaadinSession implements HttpSessionBindingListener, Serializable {
         return vaadinSession;
     }
 
+    /**
+     * Gets the Vaadin service session stored in the given wrapped session
+     * without locking, provided that it has already been initialized for the
+     * given service by {@link #getForSession(VaadinService, WrappedSession)} or
+     * {@link #storeInSession(VaadinService, WrappedSession)}.
+     * 
+     * @param service
+     *            the vaadin service for which the session is looked up
+     * @param underlyingSession
+     *            the wrapped session to look in
+     * @return the initialized Vaadin service session, or <code>null</code> if
+     *         no session is stored or it has not yet been initialized
+     */
+    static VaadinSession getInitializedForSession(VaadinService service,
+            WrappedSession underlyingSession) {
+        Object attribute = underlyingSession
+                .getAttribute(getSessionAttributeName(service));
+        if (attribute instanceof VaadinSession) {
+            VaadinSession vaadinSession = (VaadinSession) attribute;
+            if (vaadinSession.service == service && vaadinSession.lock != null) {
+                return vaadinSession;
+            }
+        }
+        return null;
+    }
+
     /**
      * Removes this VaadinSession from the HTTP session.
      * 
@@ -609,7 +670,9 @@ public class VaadinSession implements HttpSessionBindingListener, Serializable {
     /**
      * Returns a UI with the given id.
      * <p>
-     * This is meant for framework internal use.
+     * This is meant for framework internal use. The UI can be looked up
+     * without locking the session, but the session must be locked before
+     * accessing the state of the returned UI.
      * </p>
      * 
      * @param uiId
@@ -617,7 +680,6 @@ public class VaadinSession implements HttpSessionBindingListener, Serializable {
      * @return The UI with the given id or null if not found
      */
     public UI getUIById(int uiId) {
-        assert hasLock();
         return uIs.get(uiId);
     }
 
@@ -789,11 +851,142 @@ public class VaadinSession implements HttpSessionBindingListener, Serializable {
     /**
      * Unlocks this session. This method should always be used in a finally
      * block after {@link #lock()} to ensure that the lock is always released.
+     * <p>
+     * Tasks enqueued using {@link #access(Runnable)} are run before the lock
+     * is released.
+     * </p>
      * 
      * @see #unlock()
      */
     public void unlock() {
-        getLockInstance().unlock();
+        ReentrantLock lock = (ReentrantLock) getLockInstance();
+        boolean ultimateRelease = false;
+        try {
+            if (lock.getHoldCount() == 1) {
+                ultimateRelease = true;
+                runPendingAccessTasks();
+                if (unlockCondition != null) {
+                    unlockCondition.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        /*
+         * A task might have been enqueued after the queue was run but before
+         * the lock was released, in which case the enqueuing thread could not
+         * run it. Run it now unless some other thread has taken the lock.
+         */
+        if (ultimateRelease && !pendingAccessQueue.isEmpty()
+                && lock.tryLock()) {
+            unlock();
+        }
+    }
+
+    /**
+     * Provides exclusive access to this session from outside a request
+     * handling thread without blocking the calling thread.
+     * <p>
+     * The given runnable is run while holding the session lock. If the session
+     * is not locked, the runnable is run immediately in the calling thread.
+     * Otherwise it is enqueued and run by the thread holding the lock just
+     * before the lock is released. The thread locals are set for this session
+     * while running the runnable.
+     * </p>
+     * <p>
+     * If push is enabled for a UI of this session, changes made by the
+     * runnable are sent to the client as soon as the lock is released.
+     * </p>
+     * 
+     * @param runnable
+     *            the runnable which accesses the session
+     * @return a future that can be used to check the execution status of the
+     *         runnable, or to wait for it to complete
+     * 
+     * @see #runSafely(Runnable)
+     * @see UI#access(Runnable)
+     * 
+     * @since 7.1
+     */
+    public Future<Void> access(Runnable runnable) {
+        AccessTask task = new AccessTask(runnable);
+        pendingAccessQueue.add(task);
+
+        if (!hasLock() && getLockInstance().tryLock()) {
+            // Runs the queue
+            unlock();
+        }
+        return task;
+    }
+
+    /**
+     * Runs the tasks enqueued using {@link #access(Runnable)}. Must be called
+     * while holding the lock.
+     */
+    private void runPendingAccessTasks() {
+        if (pendingAccessQueue.isEmpty()) {
+            return;
+        }
+        Map<Class<?>, CurrentInstance> old = CurrentInstance
+                .setThreadLocals(this);
+        try {
+            FutureTask<Void> task;
+            while ((task = pendingAccessQueue.poll()) != null) {
+                task.run();
+            }
+        } finally {
+            CurrentInstance.restoreThreadLocals(old);
+        }
+    }
+
+    /**
+     * Waits until some other thread has released the lock of this session or
+     * until the timeout elapses. The lock must be held when calling this
+     * method. It is released while waiting and acquired again before
+     * returning.
+     * <p>
+     * This is meant for framework internal use.
+     * </p>
+     * 
+     * @param timeoutMillis
+     *            the maximum time to wait, in milliseconds
+     * @return <code>false</code> if the timeout elapsed, <code>true</code>
+     *         otherwise
+     * @throws InterruptedException
+     *             if the waiting thread is interrupted
+     * 
+     * @since 7.1
+     */
+    public boolean awaitUnlock(long timeoutMillis) throws InterruptedException {
+        assert hasLock();
+        if (unlockCondition == null) {
+            unlockCondition = getLockInstance().newCondition();
+        }
+        return unlockCondition.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A task enqueued using {@link VaadinSession#access(Runnable)}.
+     */
+    private static class AccessTask extends FutureTask<Void> implements
+            Serializable {
+        AccessTask(Runnable runnable) {
+            super(runnable, null);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            super.setException(t);
+            getLogger().log(Level.SEVERE,
+                    "Exception while running a session access task", t);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        pendingAccessQueue = new ConcurrentLinkedQueue<FutureTask<Void>>();
     }
 
     /**
@@ -1020,6 +1213,16 @@ public class VaadinSession implements HttpSessionBindingListener, Serializable {
         return closing;
     }
 
+    /**
+     * Marks this session destroyed.
+     * 
+     * @return true if the session was marked destroyed, false if it already
+     *         was destroyed
+     */
+    boolean markDestroyed() {
+        return destroyed.compareAndSet(false, true);
+    }
+
     private static final Logger getLogger() {
         return Logger.getLogger(VaadinSession.class.getName());
     }
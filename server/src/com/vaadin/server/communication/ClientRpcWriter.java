@@ -24,12 +24,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
-import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 import com.vaadin.server.ClientConnector;
 import com.vaadin.server.ClientMethodInvocation;
-import com.vaadin.server.EncodeResult;
 import com.vaadin.server.JsonCodec;
 import com.vaadin.server.PaintException;
 import com.vaadin.shared.communication.ClientRpc;
@@ -59,18 +58,25 @@ public class ClientRpcWriter implements Serializable {
         Collection<ClientMethodInvocation> pendingInvocations = collectPendingRpcCalls(ui
                 .getConnectorTracker().getDirtyVisibleConnectors());
 
-        JSONArray rpcCalls = new JSONArray();
+        writer.write('[');
+        boolean first = true;
         for (ClientMethodInvocation invocation : pendingInvocations) {
-            // add invocation to rpcCalls
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            // write invocation directly to the response
             try {
-                JSONArray invocationJson = new JSONArray();
-                invocationJson.put(invocation.getConnector().getConnectorId());
-                invocationJson.put(invocation.getInterfaceName());
-                invocationJson.put(invocation.getMethodName());
-                JSONArray paramJson = new JSONArray();
+                writer.write('[');
+                writer.write(JSONObject.quote(invocation.getConnector()
+                        .getConnectorId()));
+                writer.write(',');
+                writer.write(JSONObject.quote(invocation.getInterfaceName()));
+                writer.write(',');
+                writer.write(JSONObject.quote(invocation.getMethodName()));
+                writer.write(",[");
                 for (int i = 0; i < invocation.getParameterTypes().length; ++i) {
                     Type parameterType = invocation.getParameterTypes()[i];
-                    Object referenceParameter = null;
                     // TODO Use default values for RPC parameter types
                     // if (!JsonCodec.isInternalType(parameterType)) {
                     // try {
@@ -81,13 +87,13 @@ public class ClientRpcWriter implements Serializable {
                     // + parameterType.getName());
                     // }
                     // }
-                    EncodeResult encodeResult = JsonCodec.encode(
-                            invocation.getParameters()[i], referenceParameter,
-                            parameterType, ui.getConnectorTracker());
-                    paramJson.put(encodeResult.getEncodedValue());
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    JsonCodec.encode(invocation.getParameters()[i],
+                            parameterType, ui.getConnectorTracker(), writer);
                 }
-                invocationJson.put(paramJson);
-                rpcCalls.put(invocationJson);
+                writer.write("]]");
             } catch (JSONException e) {
                 throw new PaintException(
                         "Failed to serialize RPC method call parameters for connector "
@@ -97,7 +103,7 @@ public class ClientRpcWriter implements Serializable {
                                 + e.getMessage(), e);
             }
         }
-        writer.write(rpcCalls.toString());
+        writer.write(']');
     }
 
     /**
@@ -21,14 +21,11 @@ import java.io.Serializable;
 import java.io.Writer;
 import java.util.Collection;
 
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.vaadin.server.AbstractClientConnector;
 import com.vaadin.server.LegacyCommunicationManager;
 import com.vaadin.server.ClientConnector;
-import com.vaadin.server.PaintException;
 import com.vaadin.ui.UI;
 
 /**
@@ -55,27 +52,32 @@ public class ConnectorHierarchyWriter implements Serializable {
         Collection<ClientConnector> dirtyVisibleConnectors = ui
                 .getConnectorTracker().getDirtyVisibleConnectors();
 
-        JSONObject hierarchyInfo = new JSONObject();
+        // Written directly as the structure is flat and only contains
+        // connector ids, no need to build JSONObjects and JSONArrays first
+        writer.write('{');
+        boolean firstConnector = true;
         for (ClientConnector connector : dirtyVisibleConnectors) {
-            String connectorId = connector.getConnectorId();
-            JSONArray children = new JSONArray();
+            if (!firstConnector) {
+                writer.write(',');
+            }
+            firstConnector = false;
+            writer.write(JSONObject.quote(connector.getConnectorId()));
+            writer.write(":[");
 
+            boolean firstChild = true;
             for (ClientConnector child : AbstractClientConnector
                     .getAllChildrenIterable(connector)) {
                 if (LegacyCommunicationManager
                         .isConnectorVisibleToClient(child)) {
-                    children.put(child.getConnectorId());
+                    if (!firstChild) {
+                        writer.write(',');
+                    }
+                    firstChild = false;
+                    writer.write(JSONObject.quote(child.getConnectorId()));
                 }
             }
-            try {
-                hierarchyInfo.put(connectorId, children);
-            } catch (JSONException e) {
-                throw new PaintException(
-                        "Failed to send hierarchy information about "
-                                + connectorId + " to the client: "
-                                + e.getMessage(), e);
-            }
+            writer.write(']');
         }
-        writer.write(hierarchyInfo.toString());
+        writer.write('}');
     }
 }
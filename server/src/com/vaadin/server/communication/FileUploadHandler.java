@@ -16,6 +16,7 @@
 
 package com.vaadin.server.communication;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -23,8 +24,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.logging.Logger;
 
 import com.vaadin.server.ClientConnector;
+import com.vaadin.server.Constants;
+import com.vaadin.server.DeploymentConfiguration;
 import com.vaadin.server.NoInputStreamException;
 import com.vaadin.server.NoOutputStreamException;
 import com.vaadin.server.RequestHandler;
@@ -32,6 +38,7 @@ import com.vaadin.server.ServletPortletHelper;
 import com.vaadin.server.StreamVariable;
 import com.vaadin.server.StreamVariable.StreamingEndEvent;
 import com.vaadin.server.StreamVariable.StreamingErrorEvent;
+import com.vaadin.server.StreamVariable.StreamingProgressEvent;
 import com.vaadin.server.UploadException;
 import com.vaadin.server.VaadinRequest;
 import com.vaadin.server.VaadinResponse;
@@ -47,153 +54,183 @@ import com.vaadin.ui.UI;
  */
 public class FileUploadHandler implements RequestHandler {
 
+    /**
+     * The default maximum time in milliseconds between two progress events
+     * during an upload.
+     * 
+     * @see Constants#SERVLET_PARAMETER_UPLOAD_PROGRESS_INTERVAL
+     */
+    public static final long DEFAULT_PROGRESS_INTERVAL = 500;
+
+    /**
+     * The default maximum number of bytes received between two progress
+     * events during an upload.
+     * 
+     * @see Constants#SERVLET_PARAMETER_UPLOAD_PROGRESS_BYTES
+     */
+    public static final long DEFAULT_PROGRESS_BYTES = 4 * 1024 * 1024;
+
     /**
      * Stream that extracts content from another stream until the boundary
      * string is encountered.
      * 
+     * The content is read from the other stream in large chunks and the
+     * boundary is searched for in the buffered data using the Boyer-Moore-
+     * Horspool algorithm, so reading the content in blocks using
+     * {@link #read(byte[], int, int)} is efficient also for large uploads.
+     * 
      * Public only for unit tests, should be considered private for all other
      * purposes.
      */
     public static class SimpleMultiPartInputStream extends InputStream {
 
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final byte[] boundary;
+
         /**
-         * Counter of how many characters have been matched to boundary string
-         * from the stream
+         * How far the search can be moved forward based on the byte aligned
+         * with the last byte of the boundary
          */
-        int matchedCount = -1;
+        private final int[] skip = new int[256];
+
+        private final byte[] buffer;
+
+        /**
+         * Position of the next byte to return from the buffer
+         */
+        private int position = 0;
+
+        /**
+         * End of the valid data in the buffer
+         */
+        private int limit = 0;
 
         /**
-         * Used as pointer when returning bytes after partly matched boundary
-         * string.
+         * Position in the buffer from which to continue searching for the
+         * boundary. The bytes before this position are known not to start the
+         * boundary.
          */
-        int curBoundaryIndex = 0;
+        private int searchPosition = 0;
+
         /**
-         * The byte found after a "promising start for boundary"
+         * Position of the boundary in the buffer or -1 if not yet found
          */
-        private int bufferedByte = -1;
-        private boolean atTheEnd = false;
+        private int boundaryPosition = -1;
 
-        private final char[] boundary;
+        private boolean endOfStream = false;
 
         private final InputStream realInputStream;
 
         public SimpleMultiPartInputStream(InputStream realInputStream,
                 String boundaryString) {
-            boundary = (CRLF + DASHDASH + boundaryString).toCharArray();
+            try {
+                boundary = (CRLF + DASHDASH + boundaryString)
+                        .getBytes("ISO-8859-1");
+            } catch (UnsupportedEncodingException e) {
+                // Every JVM supports ISO-8859-1
+                throw new RuntimeException(e);
+            }
             this.realInputStream = realInputStream;
+            buffer = new byte[Math.max(BUFFER_SIZE, 2 * boundary.length)];
+
+            Arrays.fill(skip, boundary.length);
+            for (int i = 0; i < boundary.length - 1; i++) {
+                skip[boundary[i] & 0xff] = boundary.length - 1 - i;
+            }
         }
 
         @Override
         public int read() throws IOException {
-            if (atTheEnd) {
+            if (fillBuffer() == 0) {
                 // End boundary reached, nothing more to read
                 return -1;
-            } else if (bufferedByte >= 0) {
-                /* Purge partially matched boundary if there was such */
-                return getBuffered();
-            } else if (matchedCount != -1) {
-                /*
-                 * Special case where last "failed" matching ended with first
-                 * character from boundary string
-                 */
-                return matchForBoundary();
-            } else {
-                int fromActualStream = realInputStream.read();
-                if (fromActualStream == -1) {
-                    // unexpected end of stream
-                    throw new IOException(
-                            "The multipart stream ended unexpectedly");
-                }
-                if (boundary[0] == fromActualStream) {
-                    /*
-                     * If matches the first character in boundary string, start
-                     * checking if the boundary is fetched.
-                     */
-                    return matchForBoundary();
-                }
-                return fromActualStream;
             }
+            return buffer[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            } else if (len == 0) {
+                return 0;
+            }
+            int available = fillBuffer();
+            if (available == 0) {
+                return -1;
+            }
+            int count = Math.min(len, available);
+            System.arraycopy(buffer, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            int end = boundaryPosition != -1 ? boundaryPosition
+                    : searchPosition;
+            return end - position;
         }
 
         /**
-         * Reads the input to expect a boundary string. Expects that the first
-         * character has already been matched.
+         * Reads more data from the real stream until there are bytes that are
+         * known to come before the boundary or the boundary is found.
          * 
-         * @return -1 if the boundary was matched, else returns the first byte
-         *         from boundary
+         * @return the number of bytes that can be returned from the buffer, 0
+         *         if the boundary has been reached
          * @throws IOException
+         *             if the real stream ends before the boundary is found
          */
-        private int matchForBoundary() throws IOException {
-            matchedCount = 0;
-            /*
-             * Going to "buffered mode". Read until full boundary match or a
-             * different character.
-             */
-            while (true) {
-                matchedCount++;
-                if (matchedCount == boundary.length) {
-                    /*
-                     * The whole boundary matched so we have reached the end of
-                     * file
-                     */
-                    atTheEnd = true;
-                    return -1;
+        private int fillBuffer() throws IOException {
+            while (boundaryPosition == -1 && position >= searchPosition) {
+                if (endOfStream) {
+                    throw new IOException(
+                            "The multipart stream ended unexpectedly");
                 }
-                int fromActualStream = realInputStream.read();
-                if (fromActualStream != boundary[matchedCount]) {
-                    /*
-                     * Did not find full boundary, cache the mismatching byte
-                     * and start returning the partially matched boundary.
-                     */
-                    bufferedByte = fromActualStream;
-                    return getBuffered();
+                if (position > 0) {
+                    // Keep the possible start of the boundary
+                    System.arraycopy(buffer, position, buffer, 0, limit
+                            - position);
+                    limit -= position;
+                    searchPosition -= position;
+                    position = 0;
                 }
+                int read = realInputStream.read(buffer, limit, buffer.length
+                        - limit);
+                if (read == -1) {
+                    endOfStream = true;
+                } else {
+                    limit += read;
+                    findBoundary();
+                }
+            }
+            if (boundaryPosition != -1) {
+                return boundaryPosition - position;
             }
+            return searchPosition - position;
         }
 
         /**
-         * Returns the partly matched boundary string and the byte following
-         * that.
-         * 
-         * @return
-         * @throws IOException
+         * Searches for the boundary in the buffered data, starting from
+         * {@link #searchPosition}.
          */
-        private int getBuffered() throws IOException {
-            int b;
-            if (matchedCount == 0) {
-                // The boundary has been returned, return the buffered byte.
-                b = bufferedByte;
-                bufferedByte = -1;
-                matchedCount = -1;
-            } else {
-                b = boundary[curBoundaryIndex++];
-                if (curBoundaryIndex == matchedCount) {
-                    // The full boundary has been returned, remaining is the
-                    // char that did not match the boundary.
-
-                    curBoundaryIndex = 0;
-                    if (bufferedByte != boundary[0]) {
-                        /*
-                         * next call for getBuffered will return the
-                         * bufferedByte that came after the partial boundary
-                         * match
-                         */
-                        matchedCount = 0;
-                    } else {
-                        /*
-                         * Special case where buffered byte again matches the
-                         * boundaryString. This could be the start of the real
-                         * end boundary.
-                         */
-                        matchedCount = 0;
-                        bufferedByte = -1;
+        private void findBoundary() {
+            int last = boundary.length - 1;
+            int i = searchPosition;
+            while (i + last < limit) {
+                int j = last;
+                while (buffer[i + j] == boundary[j]) {
+                    if (j == 0) {
+                        boundaryPosition = i;
+                        searchPosition = i;
+                        return;
                     }
+                    j--;
                 }
+                i += skip[buffer[i + last] & 0xff];
             }
-            if (b == -1) {
-                throw new IOException("The multipart stream ended unexpectedly");
-            }
-            return b;
+            searchPosition = i;
         }
     }
 
@@ -211,8 +248,13 @@ public class FileUploadHandler implements RequestHandler {
 
     private static final String DASHDASH = "--";
 
-    /* Same as in apache commons file upload library that was previously used. */
-    private static final int MAX_UPLOAD_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_UPLOAD_BUFFER_SIZE = 64 * 1024;
+
+    /*
+     * Same as in apache commons file upload library that was previously used.
+     * Only used for reading the multipart headers.
+     */
+    private static final int HEADER_BUFFER_SIZE = 4 * 1024;
 
     @Override
     public boolean handleRequest(VaadinSession session, VaadinRequest request,
@@ -254,7 +296,7 @@ public class FileUploadHandler implements RequestHandler {
                 // if boundary string does not exist, the posted file is from
                 // XHR2.post(File)
                 doHandleXhrFilePost(session, request, response, streamVariable,
-                        variableName, source, request.getContentLength());
+                        variableName, source, getContentLength(request));
             }
         } else {
             // TODO Should rethink error handling
@@ -263,10 +305,35 @@ public class FileUploadHandler implements RequestHandler {
         return true;
     }
 
+    /**
+     * Returns the length of the request body. Unlike
+     * {@link VaadinRequest#getContentLength()}, also works for requests larger
+     * than 2 GB.
+     * 
+     * @param request
+     *            the request
+     * @return the content length in bytes, or -1 if not known
+     */
+    private static long getContentLength(VaadinRequest request) {
+        String header = request.getHeader("Content-Length");
+        if (header != null) {
+            try {
+                return Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                // Use the value from the request instead
+            }
+        }
+        return request.getContentLength();
+    }
+
     private static String readLine(InputStream stream) throws IOException {
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
         int readByte = stream.read();
         while (readByte != LF) {
+            if (readByte == -1) {
+                throw new IOException(
+                        "The multipart stream ended unexpectedly");
+            }
             bout.write(readByte);
             readByte = stream.read();
         }
@@ -293,9 +360,12 @@ public class FileUploadHandler implements RequestHandler {
         // multipart parsing, supports only one file for request, but that is
         // fine for our current terminal
 
-        final InputStream inputStream = request.getInputStream();
+        // The headers are read one byte at a time, buffer to avoid reading
+        // the underlying stream byte by byte
+        final InputStream inputStream = new BufferedInputStream(
+                request.getInputStream(), HEADER_BUFFER_SIZE);
 
-        int contentLength = request.getContentLength();
+        long contentLength = getContentLength(request);
 
         boolean atStart = false;
         boolean firstFileFieldFound = false;
@@ -394,7 +464,7 @@ public class FileUploadHandler implements RequestHandler {
     protected void doHandleXhrFilePost(VaadinSession session,
             VaadinRequest request, VaadinResponse response,
             StreamVariable streamVariable, String variableName,
-            ClientConnector owner, int contentLength) throws IOException {
+            ClientConnector owner, long contentLength) throws IOException {
 
         // These are unknown in filexhr ATM, maybe add to Accept header that
         // is accessible in portlets
@@ -440,7 +510,7 @@ public class FileUploadHandler implements RequestHandler {
      */
     protected final boolean streamToReceiver(VaadinSession session,
             final InputStream in, StreamVariable streamVariable,
-            String filename, String type, int contentLength)
+            String filename, String type, long contentLength)
             throws UploadException {
         if (streamVariable == null) {
             throw new IllegalStateException(
@@ -448,16 +518,27 @@ public class FileUploadHandler implements RequestHandler {
         }
 
         OutputStream out = null;
-        int totalBytes = 0;
+        long totalBytes = 0;
         StreamingStartEventImpl startedEvent = new StreamingStartEventImpl(
                 filename, type, contentLength);
         try {
             boolean listenProgress;
+            long progressInterval;
+            long progressBytes;
             session.lock();
             try {
                 streamVariable.streamingStarted(startedEvent);
                 out = streamVariable.getOutputStream();
                 listenProgress = streamVariable.listenProgress();
+
+                DeploymentConfiguration configuration = session
+                        .getConfiguration();
+                progressInterval = getProgressSetting(configuration,
+                        Constants.SERVLET_PARAMETER_UPLOAD_PROGRESS_INTERVAL,
+                        DEFAULT_PROGRESS_INTERVAL);
+                progressBytes = getProgressSetting(configuration,
+                        Constants.SERVLET_PARAMETER_UPLOAD_PROGRESS_BYTES,
+                        DEFAULT_PROGRESS_BYTES);
             } finally {
                 session.unlock();
             }
@@ -474,25 +555,34 @@ public class FileUploadHandler implements RequestHandler {
 
             final byte buffer[] = new byte[MAX_UPLOAD_BUFFER_SIZE];
             int bytesReadToBuffer = 0;
+            long lastProgressBytes = 0;
+            long lastProgressTime = System.currentTimeMillis();
             while ((bytesReadToBuffer = in.read(buffer)) > 0) {
                 out.write(buffer, 0, bytesReadToBuffer);
                 totalBytes += bytesReadToBuffer;
                 if (listenProgress) {
-                    // update progress if listener set and contentLength
-                    // received
-                    session.lock();
-                    try {
-                        StreamingProgressEventImpl progressEvent = new StreamingProgressEventImpl(
-                                filename, type, contentLength, totalBytes);
-                        streamVariable.onProgress(progressEvent);
-                    } finally {
-                        session.unlock();
+                    // update progress if listener set, but only when enough
+                    // time has passed or data received since the last update
+                    long now = System.currentTimeMillis();
+                    if (totalBytes - lastProgressBytes >= progressBytes
+                            || now - lastProgressTime >= progressInterval) {
+                        sendProgress(session, streamVariable,
+                                new StreamingProgressEventImpl(filename, type,
+                                        contentLength, totalBytes));
+                        lastProgressTime = now;
+                        lastProgressBytes = totalBytes;
                     }
                 }
                 if (streamVariable.isInterrupted()) {
                     throw new UploadInterruptedException();
                 }
             }
+            if (listenProgress && totalBytes > lastProgressBytes) {
+                // Always report the final progress
+                sendProgress(session, streamVariable,
+                        new StreamingProgressEventImpl(filename, type,
+                                contentLength, totalBytes));
+            }
 
             // upload successful
             out.close();
@@ -535,6 +625,49 @@ public class FileUploadHandler implements RequestHandler {
         return startedEvent.isDisposed();
     }
 
+    /**
+     * Delivers a progress event to the stream variable, locking the session
+     * unless the stream variable handles progress events in a thread safe
+     * way.
+     * 
+     * @param session
+     *            the session the upload belongs to
+     * @param streamVariable
+     *            the stream variable to notify
+     * @param event
+     *            the progress event
+     */
+    private static void sendProgress(VaadinSession session,
+            StreamVariable streamVariable, StreamingProgressEvent event) {
+        if (streamVariable instanceof StreamVariable.ThreadSafeProgress) {
+            streamVariable.onProgress(event);
+        } else {
+            session.lock();
+            try {
+                streamVariable.onProgress(event);
+            } finally {
+                session.unlock();
+            }
+        }
+    }
+
+    private static long getProgressSetting(
+            DeploymentConfiguration configuration, String parameterName,
+            long defaultValue) {
+        if (configuration == null) {
+            return defaultValue;
+        }
+        String value = configuration.getApplicationOrSystemProperty(
+                parameterName, Long.toString(defaultValue));
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            getLogger().warning(
+                    "Invalid " + parameterName + " value: " + value);
+            return defaultValue;
+        }
+    }
+
     static void tryToCloseStream(OutputStream out) {
         try {
             // try to close output stream (e.g. file handle)
@@ -583,4 +716,8 @@ public class FileUploadHandler implements RequestHandler {
         owner.getUI().getConnectorTracker()
                 .cleanStreamVariable(owner.getConnectorId(), name);
     }
+
+    private static final Logger getLogger() {
+        return Logger.getLogger(FileUploadHandler.class.getName());
+    }
 }
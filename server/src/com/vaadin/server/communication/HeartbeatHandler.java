@@ -46,6 +46,10 @@ public class HeartbeatHandler implements RequestHandler {
      * If the UI is found in the session, sets it
      * {@link UI#getLastHeartbeatTimestamp() heartbeat timestamp} to the current
      * time. Otherwise, writes a HTTP Not Found error to the response.
+     * <p>
+     * The session is not locked while handling a heartbeat, so heartbeats are
+     * not delayed by other requests to the same session.
+     * </p>
      */
     @Override
     public boolean handleRequest(VaadinSession session, VaadinRequest request,
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.server.communication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import com.vaadin.server.ResponseCompressor;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+
+/**
+ * A byte buffer that a response is rendered into before it is written to the
+ * client. Rendering into a buffer allows releasing the session lock before the
+ * response is sent, so that a slow client does not block other requests to the
+ * same session.
+ * <p>
+ * Buffers are recycled to avoid reallocating and growing a new array for every
+ * request. Get a buffer using {@link #acquire()} and give it back using
+ * {@link #release()} when the response has been written. Buffers that have
+ * grown larger than {@link #MAX_POOLED_CAPACITY} are not kept in the pool.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class ResponseBuffer extends ByteArrayOutputStream {
+
+    /**
+     * The initial capacity of new buffers.
+     */
+    public static final int INITIAL_CAPACITY = 8 * 1024;
+
+    /**
+     * The largest capacity of a buffer that is returned to the pool.
+     */
+    public static final int MAX_POOLED_CAPACITY = 256 * 1024;
+
+    /**
+     * The maximum number of idle buffers kept in the pool.
+     */
+    public static final int MAX_POOLED_BUFFERS = 16;
+
+    /**
+     * Idle buffers, most recently used first so that the buffers in use tend
+     * to stay in the CPU caches.
+     */
+    private static final BlockingDeque<ResponseBuffer> pool = new LinkedBlockingDeque<ResponseBuffer>(
+            MAX_POOLED_BUFFERS);
+
+    /**
+     * True if this buffer has been released and not acquired again.
+     */
+    private boolean released = false;
+
+    ResponseBuffer() {
+        super(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Gets an empty buffer, reusing a previously released one if available.
+     * 
+     * @return an empty buffer, not <code>null</code>
+     */
+    public static ResponseBuffer acquire() {
+        ResponseBuffer buffer = pool.pollFirst();
+        if (buffer == null) {
+            buffer = new ResponseBuffer();
+        } else {
+            buffer.setReleased(false);
+        }
+        return buffer;
+    }
+
+    /**
+     * Gives this buffer back to the pool. The buffer must not be used after it
+     * has been released. Releasing the buffer again has no effect.
+     */
+    public void release() {
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            released = true;
+            reset();
+        }
+        if (getCapacity() <= MAX_POOLED_CAPACITY) {
+            // Dropped if the pool is already full
+            pool.offerFirst(this);
+        }
+    }
+
+    private synchronized void setReleased(boolean released) {
+        this.released = released;
+    }
+
+    /**
+     * Writes the contents of this buffer to a response, compressed using the
+     * given compressor if the client accepts compression and the response is
+     * large enough.
+     * 
+     * @param request
+     *            the request to respond to
+     * @param response
+     *            the response to write to
+     * @param compressor
+     *            the compressor to use
+     * @throws IOException
+     *             if writing the response fails
+     */
+    public synchronized void writeTo(VaadinRequest request,
+            VaadinResponse response, ResponseCompressor compressor)
+            throws IOException {
+        compressor.writeResponse(request, response, buf, 0, count);
+    }
+
+    /**
+     * Gets the current capacity of this buffer.
+     * 
+     * @return the number of bytes that can be written without growing the
+     *         buffer
+     */
+    public synchronized int getCapacity() {
+        return buf.length;
+    }
+}
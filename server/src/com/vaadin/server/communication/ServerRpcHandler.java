@@ -134,23 +134,53 @@ public class ServerRpcHandler implements Serializable {
                         true);
                 return;
             } else {
-                // ApplicationServlet has stored the security token in the
-                // session; check that it matched the one sent in the UIDL
-                String sessId = (String) uI
-                        .getSession()
-                        .getSession()
-                        .getAttribute(
-                                ApplicationConstants.UIDL_SECURITY_TOKEN_ID);
-
-                if (sessId == null || !sessId.equals(bursts[0])) {
-                    throw new InvalidUIDLSecurityKeyException("");
-                }
+                checkSecurityKey(uI, bursts[0]);
             }
 
         }
         handleBurst(uI, unescapeBurst(bursts[1]));
     }
 
+    /**
+     * Verifies the security key sent in a request that contains no RPC calls,
+     * such as a long-polling push request. The message consists of only the
+     * security key followed by a burst separator.
+     * 
+     * @param ui
+     *            The {@link UI} the request is for.
+     * @param reader
+     *            The {@link Reader} used to read the message.
+     * @throws IOException
+     *             If reading the message fails.
+     * @throws InvalidUIDLSecurityKeyException
+     *             If the received security key does not match the one stored in
+     *             the session.
+     */
+    public void checkSecurityKey(UI ui, Reader reader) throws IOException,
+            InvalidUIDLSecurityKeyException {
+        if (ui == null
+                || !ui.getSession().getConfiguration()
+                        .isXsrfProtectionEnabled()) {
+            return;
+        }
+        String message = getMessage(reader);
+        int separator = message.indexOf(VAR_BURST_SEPARATOR);
+        checkSecurityKey(ui, separator != -1 ? message.substring(0, separator)
+                : message);
+    }
+
+    private void checkSecurityKey(UI ui, String securityKey)
+            throws InvalidUIDLSecurityKeyException {
+        // ApplicationServlet has stored the security token in the
+        // session; check that it matched the one sent in the UIDL
+        String sessId = (String) ui.getSession().getSession()
+                .getAttribute(ApplicationConstants.UIDL_SECURITY_TOKEN_ID);
+
+        if (sessId == null || !sessId.equals(securityKey)) {
+            throw new InvalidUIDLSecurityKeyException("");
+        }
+    }
+
     /**
      * Processes a message burst received from the client.
      * 
@@ -24,7 +24,9 @@ import java.util.Collection;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.vaadin.server.AbstractClientConnector;
 import com.vaadin.server.ClientConnector;
+import com.vaadin.server.JsonCodec;
 import com.vaadin.server.PaintException;
 import com.vaadin.shared.communication.SharedState;
 import com.vaadin.ui.UI;
@@ -53,14 +55,28 @@ public class SharedStateWriter implements Serializable {
         Collection<ClientConnector> dirtyVisibleConnectors = ui
                 .getConnectorTracker().getDirtyVisibleConnectors();
 
-        JSONObject sharedStates = new JSONObject();
+        // Stream the states one by one instead of collecting them into one
+        // big JSONObject, which would then have to be converted to a String
+        writer.write('{');
+        boolean first = true;
         for (ClientConnector connector : dirtyVisibleConnectors) {
             // encode and send shared state
             try {
-                JSONObject stateJson = connector.encodeState();
-
-                if (stateJson != null && stateJson.length() != 0) {
-                    sharedStates.put(connector.getConnectorId(), stateJson);
+                String prefix = (first ? "" : ",")
+                        + JSONObject.quote(connector.getConnectorId()) + ':';
+                if (connector instanceof AbstractClientConnector) {
+                    // Write the changes directly without a JSONObject tree
+                    if (((AbstractClientConnector) connector).writeState(
+                            prefix, writer)) {
+                        first = false;
+                    }
+                } else {
+                    JSONObject stateJson = connector.encodeState();
+                    if (stateJson != null && stateJson.length() != 0) {
+                        writer.write(prefix);
+                        JsonCodec.writeJson(stateJson, writer);
+                        first = false;
+                    }
                 }
             } catch (JSONException e) {
                 throw new PaintException(
@@ -70,6 +86,6 @@ public class SharedStateWriter implements Serializable {
                                 + e.getMessage(), e);
             }
         }
-        writer.write(sharedStates.toString());
+        writer.write('}');
     }
 }
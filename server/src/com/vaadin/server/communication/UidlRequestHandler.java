@@ -33,8 +33,10 @@ import com.vaadin.server.LegacyCommunicationManager;
 import com.vaadin.server.LegacyCommunicationManager.Callback;
 import com.vaadin.server.LegacyCommunicationManager.InvalidUIDLSecurityKeyException;
 import com.vaadin.server.RequestHandler;
+import com.vaadin.server.ResponseCompressor;
 import com.vaadin.server.VaadinRequest;
 import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinService;
 import com.vaadin.server.VaadinSession;
 import com.vaadin.shared.ApplicationConstants;
 import com.vaadin.shared.Version;
@@ -47,12 +49,25 @@ import com.vaadin.ui.UI;
  * Uses {@link ServerRpcHandler} to execute client-to-server RPC invocations and
  * {@link UidlWriter} to write state changes and client RPC calls back to the
  * client.
+ * <p>
+ * Long-polling push requests, identified by the
+ * {@link ApplicationConstants#PARAM_LONG_POLL} parameter, do not contain any
+ * RPC calls. They are kept open until there are changes in the UI to send to
+ * the client.
+ * </p>
  * 
  * @author Vaadin Ltd
  * @since 7.1
  */
 public class UidlRequestHandler implements RequestHandler {
 
+    /**
+     * The default number of seconds a long-polling request is kept open when
+     * there are no changes to send, see
+     * {@link Constants#SERVLET_PARAMETER_LONG_POLL_TIMEOUT}.
+     */
+    public static final int DEFAULT_LONG_POLL_TIMEOUT = 30;
+
     private Callback criticalNotifier;
 
     private ServerRpcHandler rpcHandler = new ServerRpcHandler();
@@ -72,8 +87,6 @@ public class UidlRequestHandler implements RequestHandler {
         ClientConnector highlightedConnector;
         // repaint requested or session has timed out and new one is created
         boolean repaintAll;
-        final OutputStream out = response.getOutputStream();
-
         // TODO PUSH repaintAll, analyzeLayouts, highlightConnector should be
         // part of the message payload to make the functionality transport
         // agnostic
@@ -81,6 +94,10 @@ public class UidlRequestHandler implements RequestHandler {
         repaintAll = (request
                 .getParameter(ApplicationConstants.URL_PARAMETER_REPAINT_ALL) != null);
 
+        // A long-polling push request does not contain any RPC calls
+        boolean longPoll = (request
+                .getParameter(ApplicationConstants.PARAM_LONG_POLL) != null);
+
         boolean analyzeLayouts = false;
         if (repaintAll) {
             // analyzing can be done only with repaintAll
@@ -96,48 +113,123 @@ public class UidlRequestHandler implements RequestHandler {
             }
         }
 
-        final Writer outWriter = new BufferedWriter(new OutputStreamWriter(out,
-                "UTF-8"));
-
-        // The rest of the process is synchronized with the session
-        // in order to guarantee that no parallel variable handling is
-        // made
-        session.lock();
+        // The response is rendered into a buffer while holding the lock and
+        // written to the client only after the lock has been released so that
+        // a slow connection does not block other requests to the session
+        ResponseBuffer buffer = ResponseBuffer.acquire();
         try {
-            rpcHandler.handleRpc(uI, request.getReader(), request);
-
-            if (repaintAll) {
-                session.getCommunicationManager().repaintAll(uI);
+            final Writer outWriter = new BufferedWriter(new OutputStreamWriter(
+                    buffer, "UTF-8"));
+            boolean responseRendered = false;
+
+            // The rest of the process is synchronized with the session
+            // in order to guarantee that no parallel variable handling is
+            // made
+            session.lock();
+            try {
+                if (longPoll) {
+                    rpcHandler.checkSecurityKey(uI, request.getReader());
+                    waitForChanges(session, uI);
+                } else {
+                    rpcHandler.handleRpc(uI, request.getReader(), request);
+                }
+
+                if (repaintAll) {
+                    session.getCommunicationManager().repaintAll(uI);
+                }
+
+                writeUidl(request, response, uI, outWriter, repaintAll,
+                        analyzeLayouts, longPoll);
+                postHandleRequest(uI);
+                outWriter.flush();
+                responseRendered = true;
+            } catch (JSONException e) {
+                getLogger().log(Level.SEVERE, "Error writing JSON to response",
+                        e);
+                // Refresh on client side
+                criticalNotifier.criticalNotification(request, response, null,
+                        null, null, null);
+            } catch (InvalidUIDLSecurityKeyException e) {
+                getLogger().log(Level.WARNING,
+                        "Invalid security key received from {}",
+                        request.getRemoteHost());
+                // Refresh on client side
+                criticalNotifier.criticalNotification(request, response, null,
+                        null, null, null);
+            } finally {
+                session.unlock();
+                requestThemeName = null;
             }
 
-            writeUidl(request, response, uI, outWriter, repaintAll,
-                    analyzeLayouts);
-            postHandleRequest(uI);
-        } catch (JSONException e) {
-            getLogger().log(Level.SEVERE, "Error writing JSON to response", e);
-            // Refresh on client side
-            criticalNotifier.criticalNotification(request, response, null,
-                    null, null, null);
-        } catch (InvalidUIDLSecurityKeyException e) {
-            getLogger().log(Level.WARNING,
-                    "Invalid security key received from {}",
-                    request.getRemoteHost());
-            // Refresh on client side
-            criticalNotifier.criticalNotification(request, response, null,
-                    null, null, null);
+            if (responseRendered) {
+                // Ensure that the browser does not cache UIDL responses.
+                // iOS 6 Safari requires this (#9732)
+                response.setHeader("Cache-Control", "no-cache");
+
+                writeResponse(request, response, buffer);
+            }
         } finally {
-            session.unlock();
-            outWriter.close();
-            requestThemeName = null;
+            buffer.release();
         }
 
-        // Ensure that the browser does not cache UIDL responses.
-        // iOS 6 Safari requires this (#9732)
-        response.setHeader("Cache-Control", "no-cache");
-
         return true;
     }
 
+    /**
+     * Waits until there are changes in the given UI to send to the client, the
+     * UI is closed or the long-polling timeout elapses. Must be called while
+     * holding the session lock. The lock is released while waiting so that
+     * other threads can make changes to the UI.
+     * 
+     * @param session
+     *            the locked session
+     * @param ui
+     *            the UI to wait for changes in
+     */
+    private void waitForChanges(VaadinSession session, UI ui) {
+        if (ui == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis()
+                + getLongPollTimeout(session);
+        try {
+            while (ui.getConnectorTracker().getDirtyConnectors().isEmpty()
+                    && !ui.isClosing() && ui.getSession() == session) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                session.awaitUnlock(remaining);
+            }
+        } catch (InterruptedException e) {
+            // Respond with the current changes
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of milliseconds to keep a long-polling request open
+     * when there are no changes to send to the client.
+     * 
+     * @param session
+     *            the session of the request
+     * @return the long-polling timeout in milliseconds
+     */
+    private long getLongPollTimeout(VaadinSession session) {
+        String timeout = session.getConfiguration()
+                .getApplicationOrSystemProperty(
+                        Constants.SERVLET_PARAMETER_LONG_POLL_TIMEOUT,
+                        Integer.toString(DEFAULT_LONG_POLL_TIMEOUT));
+        try {
+            return Integer.parseInt(timeout) * 1000L;
+        } catch (NumberFormatException e) {
+            getLogger().warning(
+                    "Invalid " + Constants.SERVLET_PARAMETER_LONG_POLL_TIMEOUT
+                            + " value: " + timeout);
+            return DEFAULT_LONG_POLL_TIMEOUT * 1000L;
+        }
+    }
+
     /**
      * Checks that the version reported by the client (widgetset) matches that
      * of the server.
@@ -161,10 +253,16 @@ public class UidlRequestHandler implements RequestHandler {
     }
 
     private void writeUidl(VaadinRequest request, VaadinResponse response,
-            UI ui, Writer writer, boolean repaintAll, boolean analyzeLayouts)
-            throws IOException, JSONException {
+            UI ui, Writer writer, boolean repaintAll, boolean analyzeLayouts,
+            boolean async) throws IOException, JSONException {
         openJsonMessage(writer, response);
 
+        if (async) {
+            // Pushed changes, not a response to a client request
+            writer.write("\"" + ApplicationConstants.SERVER_ASYNC
+                    + "\": true, ");
+        }
+
         // security key
         Object writeSecurityTokenFlag = request
                 .getAttribute(LegacyCommunicationManager.WRITE_SECURITY_TOKEN_FLAG);
@@ -179,6 +277,40 @@ public class UidlRequestHandler implements RequestHandler {
         closeJsonMessage(writer);
     }
 
+    /**
+     * Writes a rendered UIDL response to the client, compressing it if the
+     * client accepts compression and the response is large enough. This
+     * method is called after the session lock has been released and should
+     * not access the session.
+     * 
+     * @param request
+     *            the request to respond to
+     * @param response
+     *            the response to write to
+     * @param buffer
+     *            the buffer containing the rendered response
+     * @throws IOException
+     *             if writing the response fails
+     * 
+     * @see VaadinService#getResponseCompressor()
+     */
+    protected void writeResponse(VaadinRequest request,
+            VaadinResponse response, ResponseBuffer buffer) throws IOException {
+        VaadinService service = response.getService();
+        ResponseCompressor compressor = service != null ? service
+                .getResponseCompressor() : null;
+        if (compressor != null) {
+            buffer.writeTo(request, response, compressor);
+        } else {
+            final OutputStream out = response.getOutputStream();
+            try {
+                buffer.writeTo(out);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
     /**
      * Method called after the paint phase while still being synchronized on the
      * session
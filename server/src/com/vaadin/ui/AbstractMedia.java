@@ -25,10 +25,12 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.vaadin.server.ConnectorResource;
+import com.vaadin.server.DownloadStream;
 import com.vaadin.server.Resource;
 import com.vaadin.server.ResourceReference;
 import com.vaadin.server.VaadinRequest;
 import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinSession;
 import com.vaadin.shared.communication.URLReference;
 import com.vaadin.shared.ui.AbstractMediaState;
 import com.vaadin.shared.ui.MediaControl;
@@ -84,21 +86,34 @@ public abstract class AbstractMedia extends AbstractComponent {
             VaadinResponse response, String path) throws IOException {
         Matcher matcher = Pattern.compile("(\\d+)(/.*)?").matcher(path);
         if (matcher.matches()) {
-            List<URLReference> sources = getState().sources;
+            DownloadStream stream;
+            VaadinSession session = getSession();
+            if (session == null) {
+                // Detached after the connector was looked up
+                return false;
+            }
+            session.lock();
+            try {
+                List<URLReference> sources = getState().sources;
 
-            int sourceIndex = Integer.parseInt(matcher.group(1));
+                int sourceIndex = Integer.parseInt(matcher.group(1));
 
-            if (sourceIndex < 0 || sourceIndex >= sources.size()) {
-                getLogger().log(Level.WARNING,
-                        "Requested source index {0} is out of bounds",
-                        sourceIndex);
-                return false;
+                if (sourceIndex < 0 || sourceIndex >= sources.size()) {
+                    getLogger().log(Level.WARNING,
+                            "Requested source index {0} is out of bounds",
+                            sourceIndex);
+                    return false;
+                }
+
+                URLReference reference = sources.get(sourceIndex);
+                ConnectorResource resource = (ConnectorResource) ResourceReference
+                        .getResource(reference);
+                stream = resource.getStream();
+            } finally {
+                session.unlock();
             }
 
-            URLReference reference = sources.get(sourceIndex);
-            ConnectorResource resource = (ConnectorResource) ResourceReference
-                    .getResource(reference);
-            resource.getStream().writeResponse(request, response);
+            stream.writeResponse(request, response);
             return true;
         } else {
             return super.handleConnectorRequest(request, response, path);
@@ -64,7 +64,7 @@ public class Button extends AbstractComponent implements
             // a following setEnabled(true) call might have no effect. see
             // ticket #10030
             try {
-                getUI().getConnectorTracker().getDiffState(Button.this)
+                getUI().getConnectorTracker().getConnectorDiffState(Button.this)
                         .put("enabled", false);
             } catch (JSONException e) {
                 throw new RuntimeException(e);
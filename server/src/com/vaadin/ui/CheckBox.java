@@ -48,7 +48,8 @@ public class CheckBox extends AbstractField<Boolean> {
              * See #11028, #10030.
              */
             try {
-                getUI().getConnectorTracker().getDiffState(CheckBox.this)
+                getUI().getConnectorTracker()
+                        .getConnectorDiffState(CheckBox.this)
                         .put("checked", checked);
             } catch (JSONException e) {
                 throw new RuntimeException(e);
@@ -15,7 +15,6 @@
  */
 package com.vaadin.ui;
 
-import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -34,7 +33,9 @@ import org.json.JSONObject;
 import com.vaadin.server.AbstractClientConnector;
 import com.vaadin.server.LegacyCommunicationManager;
 import com.vaadin.server.ClientConnector;
+import com.vaadin.server.DiffState;
 import com.vaadin.server.GlobalResourceHandler;
+import com.vaadin.server.JsonCodec;
 import com.vaadin.server.StreamVariable;
 
 /**
@@ -72,8 +73,10 @@ public class ConnectorTracker implements Serializable {
 
     private boolean writingResponse = false;
 
+    private int currentSyncId = 0;
+
     private UI uI;
-    private transient Map<ClientConnector, JSONObject> diffStates = new HashMap<ClientConnector, JSONObject>();
+    private Map<ClientConnector, DiffState> diffStates = new HashMap<ClientConnector, DiffState>();
 
     /** Maps connectorIds to a map of named StreamVariables */
     private Map<String, Map<String, StreamVariable>> pidToNameToStreamVariable;
@@ -480,16 +483,75 @@ public class ConnectorTracker implements Serializable {
         return dirtyConnectors;
     }
 
-    public JSONObject getDiffState(ClientConnector connector) {
+    /**
+     * Gets the values of the shared state of the given connector that were
+     * last sent to the client.
+     * 
+     * @param connector
+     *            the connector to get the diff state for
+     * @return the diff state, or <code>null</code> if the state has not been
+     *         sent to the client
+     * @since 7.1
+     */
+    public DiffState getConnectorDiffState(ClientConnector connector) {
         assert getConnector(connector.getConnectorId()) == connector;
         return diffStates.get(connector);
     }
 
-    public void setDiffState(ClientConnector connector, JSONObject diffState) {
+    /**
+     * Sets the values of the shared state of the given connector that have
+     * been sent to the client.
+     * 
+     * @param connector
+     *            the connector to set the diff state for
+     * @param diffState
+     *            the new diff state
+     * @since 7.1
+     */
+    public void setConnectorDiffState(ClientConnector connector,
+            DiffState diffState) {
         assert getConnector(connector.getConnectorId()) == connector;
         diffStates.put(connector, diffState);
     }
 
+    /**
+     * Gets the shared state values last sent to the client as a JSON object.
+     * Changes to the returned object are written through to the stored
+     * values.
+     * 
+     * @deprecated As of 7.1, use
+     *             {@link #getConnectorDiffState(ClientConnector)} instead
+     */
+    @Deprecated
+    public JSONObject getDiffState(ClientConnector connector) {
+        DiffState diffState = getConnectorDiffState(connector);
+        if (diffState == null) {
+            return null;
+        }
+        try {
+            return diffState.toJson(connector.getStateType());
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sets the shared state values that have been sent to the client.
+     * 
+     * @deprecated As of 7.1, use
+     *             {@link #setConnectorDiffState(ClientConnector, DiffState)}
+     *             instead
+     */
+    @Deprecated
+    public void setDiffState(ClientConnector connector, JSONObject diffState) {
+        try {
+            setConnectorDiffState(connector, JsonCodec.jsonToDiffState(
+                    diffState, connector.getStateType()));
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public boolean isDirty(ClientConnector connector) {
         return dirtyConnectors.contains(connector);
     }
@@ -529,41 +591,24 @@ public class ConnectorTracker implements Serializable {
                     "The old value is same as the new value");
         }
         this.writingResponse = writingResponse;
-    }
-
-    /* Special serialization to JSONObjects which are not serializable */
-    private void writeObject(java.io.ObjectOutputStream out) throws IOException {
-        out.defaultWriteObject();
-        // Convert JSONObjects in diff state to String representation as
-        // JSONObject is not serializable
-        HashMap<ClientConnector, String> stringDiffStates = new HashMap<ClientConnector, String>(
-                diffStates.size());
-        for (ClientConnector key : diffStates.keySet()) {
-            stringDiffStates.put(key, diffStates.get(key).toString());
-        }
-        out.writeObject(stringDiffStates);
-    };
-
-    /* Special serialization to JSONObjects which are not serializable */
-    private void readObject(java.io.ObjectInputStream in) throws IOException,
-            ClassNotFoundException {
-        in.defaultReadObject();
-
-        // Read String versions of JSONObjects and parse into JSONObjects as
-        // JSONObject is not serializable
-        diffStates = new HashMap<ClientConnector, JSONObject>();
-        @SuppressWarnings("unchecked")
-        HashMap<ClientConnector, String> stringDiffStates = (HashMap<ClientConnector, String>) in
-                .readObject();
-        diffStates = new HashMap<ClientConnector, JSONObject>();
-        for (ClientConnector key : stringDiffStates.keySet()) {
-            try {
-                diffStates.put(key, new JSONObject(stringDiffStates.get(key)));
-            } catch (JSONException e) {
-                throw new IOException(e);
-            }
+        if (!writingResponse) {
+            currentSyncId++;
         }
+    }
 
+    /**
+     * Gets the sequence number of the response that is currently being
+     * written, or of the next response if no response is being written. The
+     * number is incremented each time a response has been written, and it is
+     * sent to the client so that it can handle the responses in the order they
+     * were rendered.
+     * 
+     * @see #setWritingResponse(boolean)
+     * 
+     * @return the current sync id
+     */
+    public int getCurrentSyncId() {
+        return currentSyncId;
     }
 
     /**
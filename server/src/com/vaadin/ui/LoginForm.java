@@ -28,6 +28,7 @@ import com.vaadin.server.VaadinRequest;
 import com.vaadin.server.VaadinResponse;
 import com.vaadin.server.VaadinService;
 import com.vaadin.server.VaadinServletService;
+import com.vaadin.server.VaadinSession;
 import com.vaadin.shared.ApplicationConstants;
 
 /**
@@ -69,10 +70,20 @@ public class LoginForm extends CustomComponent {
             return super.handleConnectorRequest(request, response, path);
         }
         String responseString = null;
-        if (method.equalsIgnoreCase("post")) {
-            responseString = handleLogin(request);
-        } else {
-            responseString = getLoginHTML();
+        VaadinSession session = getSession();
+        if (session == null) {
+            // Detached after the connector was looked up
+            return false;
+        }
+        session.lock();
+        try {
+            if (method.equalsIgnoreCase("post")) {
+                responseString = handleLogin(request);
+            } else {
+                responseString = getLoginHTML();
+            }
+        } finally {
+            session.unlock();
         }
 
         if (responseString != null) {
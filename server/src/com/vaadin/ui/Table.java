@@ -538,6 +538,8 @@ public class Table extends AbstractSelect implements Action.Container,
 
     private double cacheRate = CACHE_RATE_DEFAULT;
 
+    private boolean rowRecyclingEnabled = false;
+
     private TableDragMode dragMode = TableDragMode.NONE;
 
     private DropHandler dropHandler;
@@ -1067,6 +1069,44 @@ public class Table extends AbstractSelect implements Action.Container,
         return cacheRate;
     }
 
+    /**
+     * Enables or disables row recycling on the client side.
+     * <p>
+     * When row recycling is enabled, the client reuses the DOM elements of
+     * rows that are scrolled out of the cache window for the rows that are
+     * scrolled into view, instead of creating new elements for them. This
+     * considerably reduces the DOM operations needed for scrolling large
+     * tables. Only rows containing plain text cells are recycled, rows with
+     * component cells or generated rows are always created from scratch.
+     * <p>
+     * Row recycling does not affect the rows sent to the client. It is disabled
+     * by default.
+     * 
+     * @param rowRecyclingEnabled
+     *            <code>true</code> to reuse rows on the client side,
+     *            <code>false</code> to always create new rows
+     * @since 7.1
+     */
+    public void setRowRecyclingEnabled(boolean rowRecyclingEnabled) {
+        if (this.rowRecyclingEnabled != rowRecyclingEnabled) {
+            this.rowRecyclingEnabled = rowRecyclingEnabled;
+            markAsDirty();
+        }
+    }
+
+    /**
+     * Checks whether row recycling is enabled on the client side.
+     * 
+     * @see #setRowRecyclingEnabled(boolean)
+     * 
+     * @return <code>true</code> if rows are recycled on the client side,
+     *         otherwise <code>false</code>
+     * @since 7.1
+     */
+    public boolean isRowRecyclingEnabled() {
+        return rowRecyclingEnabled;
+    }
+
     /**
      * Getter for property currentPageFirstItem.
      * 
@@ -3410,6 +3450,9 @@ public class Table extends AbstractSelect implements Action.Container,
         if (cacheRate != CACHE_RATE_DEFAULT) {
             target.addAttribute("cr", cacheRate);
         }
+        if (rowRecyclingEnabled) {
+            target.addAttribute(TableConstants.ATTRIBUTE_RECYCLE_ROWS, true);
+        }
 
         target.addAttribute("cols", getVisibleColumns().length);
         target.addAttribute("rows", rows);
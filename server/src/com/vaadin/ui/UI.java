@@ -16,12 +16,14 @@
 
 package com.vaadin.ui;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import com.vaadin.event.Action;
 import com.vaadin.event.Action.Handler;
@@ -151,7 +153,7 @@ public abstract class UI extends AbstractSingleComponentContainer implements
      * current time whenever the application receives a heartbeat or UIDL
      * request from the client for this UI.
      */
-    private long lastHeartbeatTimestamp = System.currentTimeMillis();
+    private volatile long lastHeartbeatTimestamp = System.currentTimeMillis();
 
     private boolean closing = false;
 
@@ -948,7 +950,7 @@ public abstract class UI extends AbstractSingleComponentContainer implements
     /**
      * Sets the last heartbeat request timestamp for this UI. Called by the
      * framework whenever the application receives a valid heartbeat request for
-     * this UI.
+     * this UI. This method can be called without locking the session.
      * 
      * @param lastHeartbeat
      *            The time the last heartbeat request occurred, in milliseconds
@@ -1055,6 +1057,96 @@ public abstract class UI extends AbstractSingleComponentContainer implements
         return getState(false).tabIndex;
     }
 
+    /**
+     * Provides exclusive access to this UI from outside a request handling
+     * thread without blocking the calling thread. The runnable is run while
+     * holding the session lock, either immediately in the calling thread or
+     * later by the thread currently holding the lock. The thread locals are
+     * set for this UI while running the runnable.
+     * <p>
+     * If push is enabled for this UI, changes made by the runnable are sent to
+     * the client without waiting for the next client request.
+     * </p>
+     * 
+     * @param runnable
+     *            the runnable which accesses the UI
+     * @return a future that can be used to check the execution status of the
+     *         runnable, or to wait for it to complete
+     * @throws IllegalStateException
+     *             if this UI is not attached to a session
+     * 
+     * @see VaadinSession#access(Runnable)
+     * @see #setPushEnabled(boolean)
+     * 
+     * @since 7.1
+     */
+    public Future<Void> access(Runnable runnable) {
+        VaadinSession session = getSession();
+        if (session == null) {
+            throw new IllegalStateException("UI is not attached to a session");
+        }
+        return session.access(new UIAccess(this, runnable));
+    }
+
+    /**
+     * Runs a runnable with the thread locals set for a UI.
+     */
+    private static class UIAccess implements Runnable, Serializable {
+        private final UI ui;
+        private final Runnable runnable;
+
+        UIAccess(UI ui, Runnable runnable) {
+            this.ui = ui;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            Map<Class<?>, CurrentInstance> old = CurrentInstance
+                    .setThreadLocals(ui);
+            try {
+                runnable.run();
+            } finally {
+                CurrentInstance.restoreThreadLocals(old);
+            }
+        }
+    }
+
+    /**
+     * Sets whether changes made to this UI outside client requests, e.g. using
+     * {@link #access(Runnable)} from a background thread, are pushed to the
+     * client. When enabled, the client keeps a long-polling request open that
+     * the server responds to as soon as there are changes.
+     * <p>
+     * Note that each open long-polling request occupies a request handling
+     * thread of the servlet container.
+     * </p>
+     * 
+     * @param pushEnabled
+     *            <code>true</code> to push changes to the client,
+     *            <code>false</code> to only send changes in response to client
+     *            requests
+     * 
+     * @since 7.1
+     */
+    public void setPushEnabled(boolean pushEnabled) {
+        getState().pushEnabled = pushEnabled;
+    }
+
+    /**
+     * Returns whether changes to this UI are pushed to the client.
+     * 
+     * @see #setPushEnabled(boolean)
+     * 
+     * @return <code>true</code> if push is enabled, otherwise
+     *         <code>false</code>
+     * 
+     * @since 7.1
+     */
+    public boolean isPushEnabled() {
+        return getState(false).pushEnabled;
+    }
+
     /**
      * Performs a safe update of this UI.
      * <p>
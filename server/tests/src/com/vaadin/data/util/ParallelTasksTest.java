@@ -0,0 +1,113 @@
+package com.vaadin.data.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import com.vaadin.data.util.ParallelTasks.RangeTask;
+
+public class ParallelTasksTest extends TestCase {
+
+    private static final Comparator<int[]> FIRST_VALUE_COMPARATOR = new Comparator<int[]>() {
+        @Override
+        public int compare(int[] o1, int[] o2) {
+            return o1[0] - o2[0];
+        }
+    };
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    public void testRangeBounds() {
+        int[] bounds = ParallelTasks.getRangeBounds(123456);
+        assertEquals(0, bounds[0]);
+        assertEquals(123456, bounds[bounds.length - 1]);
+        for (int i = 1; i < bounds.length; i++) {
+            assertTrue(bounds[i] - bounds[i - 1] >= ParallelTasks.MIN_RANGE_SIZE);
+        }
+
+        bounds = ParallelTasks.getRangeBounds(10);
+        assertTrue(Arrays.equals(new int[] { 0, 10 }, bounds));
+        bounds = ParallelTasks.getRangeBounds(0);
+        assertTrue(Arrays.equals(new int[] { 0, 0 }, bounds));
+    }
+
+    public void testSortIsStable() {
+        Random random = new Random(42);
+        for (int size : new int[] { 0, 1, 100, 10001, 54321 }) {
+            int[][] array = new int[size][];
+            for (int i = 0; i < size; i++) {
+                // second value keeps track of the original order
+                array[i] = new int[] { random.nextInt(1000), i };
+            }
+            int[][] expected = array.clone();
+            Arrays.sort(expected, FIRST_VALUE_COMPARATOR);
+
+            ParallelTasks.sort(array, FIRST_VALUE_COMPARATOR, executor);
+            for (int i = 0; i < size; i++) {
+                assertSame("Difference at " + i + " of " + size, expected[i],
+                        array[i]);
+            }
+        }
+    }
+
+    public void testRunInRangesCoversAll() {
+        final int[] counts = new int[50000];
+        ParallelTasks.runInRanges(executor, counts.length, new RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    counts[i]++;
+                }
+            }
+        });
+        for (int count : counts) {
+            assertEquals(1, count);
+        }
+    }
+
+    public void testRejectingExecutorRunsInCallingThread() {
+        executor.shutdown();
+        final int[] counts = new int[50000];
+        ParallelTasks.runInRanges(executor, counts.length, new RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    counts[i]++;
+                }
+            }
+        });
+        for (int count : counts) {
+            assertEquals(1, count);
+        }
+    }
+
+    public void testExceptionFromTask() {
+        try {
+            ParallelTasks.runInRanges(executor, 50000, new RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    if (from == 0) {
+                        throw new IllegalStateException("failed");
+                    }
+                }
+            });
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+}
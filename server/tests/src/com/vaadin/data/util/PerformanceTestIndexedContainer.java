@@ -9,6 +9,8 @@ import java.util.TreeSet;
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
+import com.vaadin.data.Item;
+
 public class PerformanceTestIndexedContainer extends TestCase {
 
     private static final int REPEATS = 10;
@@ -19,6 +21,8 @@ public class PerformanceTestIndexedContainer extends TestCase {
     private static final long ADD_ITEM_AFTER_FAIL_THRESHOLD = 5000;
     private static final long ADD_ITEM_AFTER_LAST_FAIL_THRESHOLD = 5000;
     private static final long ADD_ITEMS_CONSTRUCTOR_FAIL_THRESHOLD = 200;
+    private static final long INDEXED_FILTER_FAIL_THRESHOLD = 50;
+    private static final long SORT_FAIL_THRESHOLD = 200;
 
     public void testAddItemPerformance() {
         Collection<Long> times = new ArrayList<Long>();
@@ -96,6 +100,51 @@ public class PerformanceTestIndexedContainer extends TestCase {
                 ADD_ITEMS_CONSTRUCTOR_FAIL_THRESHOLD);
     }
 
+    public void testIndexedPrefixFilterPerformance() {
+        IndexedContainer c = new IndexedContainer();
+        c.addContainerProperty("name", String.class, null);
+        for (int i = 0; i < ITEMS; i++) {
+            c.addItem(i).getItemProperty("name").setValue("Name " + i);
+        }
+        c.addPropertyIndex("name");
+
+        Collection<Long> times = new ArrayList<Long>();
+        for (int j = 0; j < REPEATS; ++j) {
+            long start = System.currentTimeMillis();
+            // simulate typing "4242" into a filter field with a fixed prefix
+            String typed = "name 4242";
+            for (int k = 6; k <= typed.length(); k++) {
+                c.removeAllContainerFilters();
+                c.addContainerFilter("name", typed.substring(0, k), true, true);
+            }
+            Assert.assertEquals(11, c.size());
+            times.add(System.currentTimeMillis() - start);
+        }
+        checkMedian(ITEMS, times, "IndexedContainer filtering with index",
+                INDEXED_FILTER_FAIL_THRESHOLD);
+    }
+
+    public void testSortPerformance() {
+        IndexedContainer c = new IndexedContainer();
+        c.addContainerProperty("name", String.class, null);
+        c.addContainerProperty("number", Integer.class, null);
+        for (int i = 0; i < ITEMS; i++) {
+            Item item = c.addItem(i);
+            item.getItemProperty("name").setValue("Name " + (i * 7919 % ITEMS));
+            item.getItemProperty("number").setValue(i % 10);
+        }
+
+        Collection<Long> times = new ArrayList<Long>();
+        for (int j = 0; j < REPEATS; ++j) {
+            long start = System.currentTimeMillis();
+            c.sort(new Object[] { "number", "name" }, new boolean[] {
+                    j % 2 == 0, true });
+            times.add(System.currentTimeMillis() - start);
+        }
+        checkMedian(ITEMS, times, "IndexedContainer.sort()",
+                SORT_FAIL_THRESHOLD);
+    }
+
     private void checkMedian(int items, Collection<Long> times,
             String methodName, long threshold) {
         long median = median(times);
@@ -0,0 +1,266 @@
+package com.vaadin.data.util;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.Item;
+import com.vaadin.data.util.filter.And;
+import com.vaadin.data.util.filter.Between;
+import com.vaadin.data.util.filter.Compare;
+import com.vaadin.data.util.filter.IsNull;
+import com.vaadin.data.util.filter.Like;
+import com.vaadin.data.util.filter.Not;
+import com.vaadin.data.util.filter.Or;
+import com.vaadin.data.util.filter.SimpleStringFilter;
+
+public class PropertyValueIndexTest extends TestCase {
+
+    private static final String NAME = "name";
+    private static final String AGE = "age";
+    private static final String AMOUNT = "amount";
+    private static final String MIXED = "mixed";
+
+    private static final String[] NAMES = { "Alice", "alice", "Bob", "bobby",
+            "Carol", "Dave", null, "Eve", "" };
+
+    private IndexedContainer indexed;
+    private IndexedContainer plain;
+
+    @Override
+    protected void setUp() throws Exception {
+        indexed = createContainer();
+        plain = createContainer();
+        for (int i = 0; i < 200; i++) {
+            addItem(indexed, i);
+            addItem(plain, i);
+        }
+        assertTrue(indexed.addPropertyIndex(NAME));
+        assertTrue(indexed.addPropertyIndex(AGE));
+        assertTrue(indexed.addPropertyIndex(AMOUNT));
+        assertTrue(indexed.addPropertyIndex(MIXED));
+    }
+
+    private IndexedContainer createContainer() {
+        IndexedContainer container = new IndexedContainer();
+        container.addContainerProperty(NAME, String.class, null);
+        container.addContainerProperty(AGE, Integer.class, null);
+        container.addContainerProperty(AMOUNT, BigDecimal.class, null);
+        container.addContainerProperty(MIXED, Object.class, null);
+        return container;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addItem(IndexedContainer container, int i) {
+        Item item = container.addItem(Integer.valueOf(i));
+        item.getItemProperty(NAME).setValue(NAMES[i % NAMES.length]);
+        item.getItemProperty(AGE).setValue(i % 13 == 0 ? null : i % 50);
+        // 1.0 and 1.00 are equal according to compareTo but not equals
+        item.getItemProperty(AMOUNT).setValue(
+                new BigDecimal(i % 2 == 0 ? "1.0" : "1.00").add(BigDecimal
+                        .valueOf(i % 3)));
+        item.getItemProperty(MIXED).setValue(
+                i % 3 == 0 ? Integer.valueOf(i % 5) : "text" + i % 5);
+    }
+
+    private void assertSameResult(Filter... filters) {
+        for (Filter filter : filters) {
+            indexed.addContainerFilter(filter);
+            plain.addContainerFilter(filter);
+        }
+        assertEquals(plain.getItemIds(), indexed.getItemIds());
+        indexed.removeAllContainerFilters();
+        plain.removeAllContainerFilters();
+        assertEquals(plain.getItemIds(), indexed.getItemIds());
+    }
+
+    public void testIndexedPropertyIds() {
+        assertFalse(indexed.addPropertyIndex(NAME));
+        assertFalse(indexed.addPropertyIndex("nonexisting"));
+        assertEquals(4, indexed.getIndexedPropertyIds().size());
+        assertTrue(indexed.removePropertyIndex(MIXED));
+        assertFalse(indexed.removePropertyIndex(MIXED));
+        assertFalse(indexed.getIndexedPropertyIds().contains(MIXED));
+    }
+
+    public void testEqualAndNull() {
+        assertSameResult(new Compare.Equal(NAME, "Bob"));
+        assertSameResult(new Compare.Equal(NAME, "nobody"));
+        assertSameResult(new Compare.Equal(NAME, null));
+        assertSameResult(new IsNull(NAME));
+        assertSameResult(new Compare.Equal(AGE, 7));
+        assertSameResult(new IsNull(AGE));
+        assertSameResult(new Compare.Equal(AMOUNT, new BigDecimal("2")));
+        assertSameResult(new Compare.Equal(MIXED, "text1"));
+        assertSameResult(new Compare.Equal(MIXED, 3));
+    }
+
+    public void testRanges() {
+        assertSameResult(new Compare.Greater(AGE, 30));
+        assertSameResult(new Compare.GreaterOrEqual(AGE, 30));
+        assertSameResult(new Compare.Less(AGE, 30));
+        assertSameResult(new Compare.LessOrEqual(AGE, 30));
+        assertSameResult(new Compare.Greater(AMOUNT, new BigDecimal("1.5")));
+        assertSameResult(new Compare.LessOrEqual(NAME, "Carol"));
+        assertSameResult(new Between(AGE, 10, 20));
+        assertSameResult(new Between(AGE, 20, 10));
+        assertSameResult(new Between(AMOUNT, new BigDecimal("2"),
+                new BigDecimal("3")));
+    }
+
+    public void testPrefix() {
+        assertSameResult(new SimpleStringFilter(NAME, "Bo", false, true));
+        assertSameResult(new SimpleStringFilter(NAME, "Bo", true, true));
+        assertSameResult(new SimpleStringFilter(NAME, "ALI", true, true));
+        assertSameResult(new SimpleStringFilter(NAME, "", false, true));
+        assertSameResult(new SimpleStringFilter(NAME, "ob", false, false));
+        assertSameResult(new SimpleStringFilter(AGE, "1", false, true));
+        assertSameResult(new SimpleStringFilter(MIXED, "TEXT", true, true));
+    }
+
+    public void testCompositeFilters() {
+        assertSameResult(new Compare.Equal(NAME, "Bob"), new Compare.Less(AGE,
+                20));
+        assertSameResult(new And(new SimpleStringFilter(NAME, "b", true, true),
+                new Compare.Greater(AGE, 10)));
+        assertSameResult(new Or(new Compare.Equal(NAME, "Bob"), new IsNull(
+                AGE)));
+        assertSameResult(new Or(new Compare.Equal(NAME, "Bob"), new Like(NAME,
+                "%ve")));
+        assertSameResult(new Not(new Compare.Equal(NAME, "Bob")));
+        assertSameResult(new Like(NAME, "A%"), new Compare.Equal(AGE, 9));
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testUpdates() {
+        Filter filter = new SimpleStringFilter(NAME, "bo", true, true);
+        indexed.addContainerFilter(filter);
+        plain.addContainerFilter(filter);
+
+        for (IndexedContainer container : new IndexedContainer[] { indexed,
+                plain }) {
+            container.getContainerProperty(12, NAME).setValue("Boris");
+            container.getContainerProperty(2, NAME).setValue("Zed");
+            container.getContainerProperty(3, NAME).setValue(null);
+            container.removeItem(4);
+            container.addItem(1000).getItemProperty(NAME).setValue("bob");
+            container.addItemAt(0, 1001).getItemProperty(NAME)
+                    .setValue("Bo");
+            container.addItemAfter(11, 1002).getItemProperty(NAME)
+                    .setValue("Bolt");
+            container.sort(new Object[] { AGE }, new boolean[] { false });
+        }
+        assertEquals(plain.getItemIds(), indexed.getItemIds());
+
+        // the index must be up to date after changes done while unfiltered
+        indexed.removeAllContainerFilters();
+        plain.removeAllContainerFilters();
+        for (IndexedContainer container : new IndexedContainer[] { indexed,
+                plain }) {
+            container.getContainerProperty(5, NAME).setValue("Bonnie");
+            container.removeItem(1000);
+        }
+        assertSameResult(filter);
+
+        indexed.removeAllItems();
+        plain.removeAllItems();
+        for (int i = 0; i < 50; i++) {
+            addItem(indexed, i);
+            addItem(plain, i);
+        }
+        assertSameResult(filter);
+        assertSameResult(new Compare.Equal(AMOUNT, new BigDecimal("1")));
+    }
+
+    public void testRemoveIndexedProperty() {
+        indexed.removeContainerProperty(NAME);
+        assertFalse(indexed.getIndexedPropertyIds().contains(NAME));
+        indexed.addContainerProperty(NAME, String.class, "x");
+        indexed.addContainerFilter(new Compare.Equal(NAME, "x"));
+        assertEquals(200, indexed.size());
+    }
+
+    public void testHierarchicalContainerIncludingParents() {
+        HierarchicalContainer container = new HierarchicalContainer();
+        container.addContainerProperty(NAME, String.class, null);
+        container.addItem("parent").getItemProperty(NAME).setValue("parent");
+        container.addItem("child").getItemProperty(NAME).setValue("child");
+        container.setParent("child", "parent");
+        container.setIncludeParentsWhenFiltering(true);
+        container.addPropertyIndex(NAME);
+
+        container.addContainerFilter(new Compare.Equal(NAME, "child"));
+        assertEquals(2, container.size());
+    }
+
+    public static class Person {
+        private String name;
+        private int age;
+
+        public Person(String name, int age) {
+            this.name = name;
+            this.age = age;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getAge() {
+            return age;
+        }
+
+        public void setAge(int age) {
+            this.age = age;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testBeanItemContainer() {
+        BeanItemContainer<Person> container = new BeanItemContainer<Person>(
+                Person.class);
+        List<Person> persons = new ArrayList<Person>();
+        for (int i = 0; i < 100; i++) {
+            persons.add(new Person(NAMES[i % NAMES.length], i));
+        }
+        container.addAll(persons);
+        container.addContainerFilter(new SimpleStringFilter(NAME, "bo", true,
+                true));
+        // index added after the filter, taking over re-filtering
+        assertTrue(container.addPropertyIndex(NAME));
+        assertTrue(container.addPropertyIndex(AGE));
+        assertEquals(22, container.size());
+
+        Person added = new Person("Bonnie", 1000);
+        container.addBean(added);
+        assertEquals(23, container.size());
+        assertTrue(container.containsId(added));
+
+        container.getItem(persons.get(0)).getItemProperty(NAME)
+                .setValue("Bob");
+        assertEquals(24, container.size());
+        assertEquals(persons.get(0), container.firstItemId());
+
+        container.getItem(added).getItemProperty(NAME).setValue("Zed");
+        assertEquals(23, container.size());
+
+        container.removeItem(persons.get(2));
+        assertEquals(22, container.size());
+
+        container.addContainerFilter(new Compare.Less(AGE, 50));
+        assertEquals(12, container.size());
+
+        // changes are still tracked after removing the index
+        assertTrue(container.removePropertyIndex(NAME));
+        container.getItem(persons.get(4)).getItemProperty(NAME)
+                .setValue("Bo");
+        assertEquals(13, container.size());
+    }
+}
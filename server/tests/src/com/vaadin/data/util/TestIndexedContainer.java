@@ -1,10 +1,14 @@
 package com.vaadin.data.util;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import junit.framework.Assert;
 
+import com.vaadin.data.Container.Filter;
 import com.vaadin.data.Item;
+import com.vaadin.data.util.filter.Compare;
 
 public class TestIndexedContainer extends AbstractInMemoryContainerTest {
 
@@ -392,4 +396,199 @@ public class TestIndexedContainer extends AbstractInMemoryContainerTest {
         assertNull(ic.getContainerProperty(object1, null));
     }
 
+    private static class FilterCountingContainer extends IndexedContainer {
+        private int evaluations = 0;
+
+        @Override
+        protected boolean passesFilters(Object itemId) {
+            evaluations++;
+            return super.passesFilters(itemId);
+        }
+
+        private int getEvaluationsAndReset() {
+            int result = evaluations;
+            evaluations = 0;
+            return result;
+        }
+    }
+
+    public void testNarrowingFilterChecksOnlyVisibleItems() {
+        FilterCountingContainer container = new FilterCountingContainer();
+        initializeContainer(container);
+        int allItems = container.size();
+
+        container.addContainerFilter(FULLY_QUALIFIED_NAME, "com.vaadin.",
+                false, true);
+        assertEquals(allItems, container.getEvaluationsAndReset());
+        int vaadinItems = container.size();
+        assertTrue(vaadinItems < allItems);
+
+        // a longer prefix only needs to check the visible items
+        container.removeContainerFilters(FULLY_QUALIFIED_NAME);
+        container.getEvaluationsAndReset();
+        container.addContainerFilter(FULLY_QUALIFIED_NAME, "com.vaadin.data.",
+                false, true);
+        assertEquals(vaadinItems, container.getEvaluationsAndReset());
+        int dataItems = container.size();
+        assertTrue(dataItems < vaadinItems);
+
+        // so does an additional filter
+        container.addContainerFilter(new Compare.Equal(SIMPLE_NAME,
+                "BeanItem"));
+        assertEquals(dataItems, container.getEvaluationsAndReset());
+        assertEquals(1, container.size());
+
+        // relaxing the filters again only checks the items that did not pass
+        // the stricter filters
+        container.removeContainerFilters(SIMPLE_NAME);
+        assertEquals(0, container.getEvaluationsAndReset());
+        assertEquals(dataItems, container.size());
+        container.removeContainerFilters(FULLY_QUALIFIED_NAME);
+        container.addContainerFilter(FULLY_QUALIFIED_NAME, "com.vaadin.",
+                false, true);
+        assertEquals(0, container.getEvaluationsAndReset());
+        assertEquals(vaadinItems, container.size());
+        container.removeContainerFilters(FULLY_QUALIFIED_NAME);
+        container.addContainerFilter(FULLY_QUALIFIED_NAME, "com.vaadin",
+                false, true);
+        assertEquals(allItems - vaadinItems,
+                container.getEvaluationsAndReset());
+        assertEquals(vaadinItems, container.size());
+    }
+
+    public void testFilteringAfterChanges() {
+        FilterCountingContainer container = new FilterCountingContainer();
+        initializeContainer(container);
+        int allItems = container.size();
+
+        container.addContainerFilter(FULLY_QUALIFIED_NAME, "com.vaadin.",
+                false, true);
+        int vaadinItems = container.size();
+        container.removeContainerFilters(FULLY_QUALIFIED_NAME);
+
+        // changing an item invalidates earlier results
+        Object itemId = null;
+        for (Object id : container.getItemIds()) {
+            if (container.getContainerProperty(id, FULLY_QUALIFIED_NAME)
+                    .getValue().toString().startsWith("org.")) {
+                itemId = id;
+                break;
+            }
+        }
+        container.getContainerProperty(itemId, FULLY_QUALIFIED_NAME).setValue(
+                "com.vaadin.Changed");
+        container.getEvaluationsAndReset();
+        container.addContainerFilter(FULLY_QUALIFIED_NAME, "com.vaadin.",
+                false, true);
+        assertEquals(allItems, container.getEvaluationsAndReset());
+        assertEquals(vaadinItems + 1, container.size());
+
+        container.removeContainerFilters(FULLY_QUALIFIED_NAME);
+        container.addItem("newItem").getItemProperty(FULLY_QUALIFIED_NAME)
+                .setValue("com.vaadin.New");
+        container.getEvaluationsAndReset();
+        container.addContainerFilter(FULLY_QUALIFIED_NAME, "com.vaadin.",
+                false, true);
+        assertEquals(allItems + 1, container.getEvaluationsAndReset());
+        assertEquals(vaadinItems + 2, container.size());
+
+        // removing all filters also forgets earlier results
+        container.removeAllContainerFilters();
+        container.addContainerFilter(FULLY_QUALIFIED_NAME, "com.vaadin.",
+                false, true);
+        assertEquals(allItems + 1, container.getEvaluationsAndReset());
+        // so does removing a property
+        container.removeAllContainerFilters();
+        container.removeContainerProperty(FULLY_QUALIFIED_NAME);
+        container.addContainerProperty(FULLY_QUALIFIED_NAME, String.class,
+                "org.vaadin.Default");
+        container.addContainerFilter(FULLY_QUALIFIED_NAME, "com.vaadin.",
+                false, true);
+        assertEquals(0, container.size());
+    }
+
+    private static class PrefixFilter implements Filter {
+        private String prefix;
+
+        private PrefixFilter(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public boolean passesFilter(Object itemId, Item item) {
+            return item.getItemProperty(FULLY_QUALIFIED_NAME).getValue()
+                    .toString().startsWith(prefix);
+        }
+
+        @Override
+        public boolean appliesToProperty(Object propertyId) {
+            return FULLY_QUALIFIED_NAME.equals(propertyId);
+        }
+    }
+
+    public void testChangedCustomFilterIsEvaluated() {
+        FilterCountingContainer container = new FilterCountingContainer();
+        initializeContainer(container);
+        int allItems = container.size();
+
+        PrefixFilter filter = new PrefixFilter("com.vaadin.");
+        container.addContainerFilter(filter);
+        int vaadinItems = container.size();
+        assertTrue(vaadinItems < allItems);
+
+        container.removeContainerFilter(filter);
+        filter.prefix = "";
+        container.getEvaluationsAndReset();
+        container.addContainerFilter(filter);
+        assertEquals(allItems, container.getEvaluationsAndReset());
+        assertEquals(allItems, container.size());
+    }
+
+    public void testParallelSortingAndFiltering() {
+        IndexedContainer sequential = new IndexedContainer();
+        IndexedContainer parallel = new IndexedContainer();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            parallel.setParallelExecutor(executor);
+            for (IndexedContainer container : new IndexedContainer[] {
+                    sequential, parallel }) {
+                container.addContainerProperty(FULLY_QUALIFIED_NAME,
+                        String.class, null);
+                container.addContainerProperty(ID_NUMBER, Integer.class, null);
+                for (int i = 0; i < 30000; i++) {
+                    Item item = container.addItem(i);
+                    item.getItemProperty(FULLY_QUALIFIED_NAME).setValue(
+                            sampleData[i % sampleData.length]);
+                    item.getItemProperty(ID_NUMBER).setValue(
+                            i % 7 == 0 ? null : i % 100);
+                }
+            }
+
+            for (IndexedContainer container : new IndexedContainer[] {
+                    sequential, parallel }) {
+                container.sort(new Object[] { FULLY_QUALIFIED_NAME, ID_NUMBER },
+                        new boolean[] { true, false });
+            }
+            assertEquals(sequential.getItemIds(), parallel.getItemIds());
+
+            for (IndexedContainer container : new IndexedContainer[] {
+                    sequential, parallel }) {
+                container.addContainerFilter(FULLY_QUALIFIED_NAME, "data",
+                        true, false);
+            }
+            assertEquals(sequential.getItemIds(), parallel.getItemIds());
+            assertTrue(parallel.size() > 0);
+
+            // sorting with filters applied
+            for (IndexedContainer container : new IndexedContainer[] {
+                    sequential, parallel }) {
+                container.sort(new Object[] { ID_NUMBER },
+                        new boolean[] { true });
+            }
+            assertEquals(sequential.getItemIds(), parallel.getItemIds());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
 }
@@ -0,0 +1,91 @@
+package com.vaadin.data.util.filter;
+
+import junit.framework.Assert;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+
+public class LikeFilterTest extends AbstractFilterTest<Like> {
+
+    protected Item item1 = new PropertysetItem();
+    protected Item item2 = new PropertysetItem();
+    protected Item item3 = new PropertysetItem();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        item1.addItemProperty("value", new ObjectProperty<String>("abc",
+                String.class));
+        item2.addItemProperty("value", new ObjectProperty<String>("a.c",
+                String.class));
+        item3.addItemProperty("value", new ObjectProperty<String>(null,
+                String.class));
+    }
+
+    public void testLikeWithNulls() {
+        Like filter = new Like("value", "a%");
+
+        Assert.assertTrue(filter.passesFilter(null, item1));
+        Assert.assertTrue(filter.passesFilter(null, item2));
+        Assert.assertFalse(filter.passesFilter(null, item3));
+    }
+
+    public void testWildcardPositions() {
+        Assert.assertTrue(passes("abc", "abc", true));
+        Assert.assertFalse(passes("abc", "ab", true));
+        Assert.assertTrue(passes("ab%", "abc", true));
+        Assert.assertFalse(passes("bc%", "abc", true));
+        Assert.assertTrue(passes("%bc", "abc", true));
+        Assert.assertFalse(passes("%ab", "abc", true));
+        Assert.assertTrue(passes("%b%", "abc", true));
+        Assert.assertFalse(passes("%d%", "abc", true));
+        Assert.assertTrue(passes("%", "abc", true));
+        Assert.assertTrue(passes("%%", "", true));
+        Assert.assertTrue(passes("a%c", "abc", true));
+        Assert.assertTrue(passes("a%c", "ac", true));
+        Assert.assertFalse(passes("a%c", "abd", true));
+        Assert.assertTrue(passes("%a%c%", "xaybcz", true));
+    }
+
+    public void testCaseInsensitive() {
+        Assert.assertTrue(passes("ABC", "abc", false));
+        Assert.assertTrue(passes("AB%", "abc", false));
+        Assert.assertTrue(passes("%BC", "abc", false));
+        Assert.assertTrue(passes("%B%", "abc", false));
+        Assert.assertTrue(passes("A%C", "abc", false));
+        Assert.assertFalse(passes("A%C", "abc", true));
+    }
+
+    public void testChangeCaseSensitivity() {
+        Like filter = new Like("value", "%B%");
+        Assert.assertFalse(filter.passesFilter(null, item1));
+        filter.setCaseSensitive(false);
+        Assert.assertTrue(filter.passesFilter(null, item1));
+    }
+
+    public void testRegexMetacharactersAreLiteral() {
+        Like filter = new Like("value", "a.c");
+        Assert.assertFalse(filter.passesFilter(null, item1));
+        Assert.assertTrue(filter.passesFilter(null, item2));
+
+        Assert.assertTrue(passes("a.%", "a.c", true));
+        Assert.assertFalse(passes("a.%", "abc", true));
+        Assert.assertTrue(passes("(%)[%]", "(x)[y]", true));
+        Assert.assertTrue(passes("%\\E.*%", "x\\E.*y", true));
+        Assert.assertTrue(passes("$^%?+", "$^ab?+", true));
+    }
+
+    public void testMultilineValue() {
+        Assert.assertTrue(passes("a%c", "a\nb\nc", true));
+        Assert.assertTrue(passes("%b%", "a\nb\nc", true));
+    }
+
+    private boolean passes(String pattern, String value, boolean caseSensitive) {
+        Item item = new PropertysetItem();
+        item.addItemProperty("value", new ObjectProperty<String>(value,
+                String.class));
+        return new Like("value", pattern, caseSensitive).passesFilter(null,
+                item);
+    }
+}
@@ -5,6 +5,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -14,15 +15,21 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.vaadin.data.Container.Filter;
 import com.vaadin.data.Container.ItemSetChangeEvent;
 import com.vaadin.data.Container.ItemSetChangeListener;
 import com.vaadin.data.Item;
 import com.vaadin.data.util.filter.Like;
 import com.vaadin.data.util.sqlcontainer.SQLTestsConstants.DB;
+import com.vaadin.data.util.sqlcontainer.cache.InMemoryRowCache;
 import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
 import com.vaadin.data.util.sqlcontainer.connection.SimpleJDBCConnectionPool;
+import com.vaadin.data.util.sqlcontainer.query.ApproximateRowCounter;
 import com.vaadin.data.util.sqlcontainer.query.OrderBy;
 import com.vaadin.data.util.sqlcontainer.query.TableQuery;
+import com.vaadin.data.util.sqlcontainer.query.generator.DefaultSQLGenerator;
+import com.vaadin.data.util.sqlcontainer.query.generator.StatementHelper;
+import com.vaadin.data.util.sqlcontainer.query.generator.filter.QueryBuilder;
 
 public class SQLContainerTableQueryTest {
 
@@ -1525,4 +1532,299 @@ public class SQLContainerTableQueryTest {
                         .getValue());
     }
 
+    /**
+     * Records the offsets of the generated select queries.
+     */
+    private static class OffsetRecordingGenerator extends DefaultSQLGenerator {
+        private final List<Integer> offsets = new ArrayList<Integer>();
+        private final List<String> pagedSelects = new ArrayList<String>();
+        private int unpagedQueries = 0;
+
+        @Override
+        public StatementHelper generateSelectQuery(String tableName,
+                List<Filter> filters, List<OrderBy> orderBys, int offset,
+                int pagelength, String toSelect) {
+            if (pagelength > 0) {
+                offsets.add(offset);
+                pagedSelects.add(toSelect);
+            } else if ((filters == null || filters.isEmpty())
+                    && (toSelect == null || toSelect.equals("*"))) {
+                unpagedQueries++;
+            }
+            return super.generateSelectQuery(tableName, filters, orderBys,
+                    offset, pagelength, toSelect);
+        }
+    }
+
+    @Test
+    public void getIdByIndex_keysetPagination_returnsSameIdsWithoutOffsets()
+            throws SQLException {
+        DataGenerator.addFiveThousandPeople(connectionPool);
+        SQLContainer offsetContainer = new SQLContainer(new TableQuery(
+                "people", connectionPool, SQLTestsConstants.sqlGen));
+        OffsetRecordingGenerator generator = new OffsetRecordingGenerator();
+        TableQuery query = new TableQuery("people", connectionPool, generator);
+        query.setKeysetPaginationEnabled(true);
+        SQLContainer keysetContainer = new SQLContainer(query);
+        for (SQLContainer container : new SQLContainer[] { offsetContainer,
+                keysetContainer }) {
+            container.setPageLength(50);
+            container.sort(new Object[] { "ID" }, new boolean[] { false });
+        }
+
+        generator.offsets.clear();
+        Assert.assertEquals(5000, keysetContainer.size());
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertEquals(offsetContainer.getIdByIndex(i),
+                    keysetContainer.getIdByIndex(i));
+        }
+        // all pages after the first one continue after the previous page
+        Assert.assertEquals(50, generator.offsets.size());
+        for (Integer offset : generator.offsets) {
+            Assert.assertEquals(0, offset.intValue());
+        }
+
+        // jumping to an arbitrary page uses an offset
+        generator.offsets.clear();
+        Assert.assertEquals(offsetContainer.getIdByIndex(1234),
+                keysetContainer.getIdByIndex(1234));
+        Assert.assertEquals(Arrays.asList(1200), generator.offsets);
+    }
+
+    @Test
+    public void size_tooLargeEstimate_correctedAtEnd() throws SQLException {
+        DataGenerator.addFiveThousandPeople(connectionPool);
+        TableQuery query = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        query.setApproximateRowCounter(new FixedRowCounter(10000));
+        SQLContainer container = new SQLContainer(query);
+        Assert.assertEquals(10000, container.size());
+
+        Assert.assertNotNull(container.getIdByIndex(4999));
+        Assert.assertEquals(10000, container.size());
+        Assert.assertNull(container.getIdByIndex(5000));
+        Assert.assertEquals(5000, container.size());
+    }
+
+    @Test
+    public void size_tooSmallEstimate_growsWhenRowsFound() throws SQLException {
+        DataGenerator.addFiveThousandPeople(connectionPool);
+        TableQuery query = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        query.setApproximateRowCounter(new FixedRowCounter(100));
+        SQLContainer container = new SQLContainer(query);
+        Assert.assertEquals(100, container.size());
+
+        Assert.assertNotNull(container.getIdByIndex(99));
+        Assert.assertEquals(201, container.size());
+        while (container.getIdByIndex(container.size() - 1) != null) {
+            // scroll down until the end is found
+        }
+        Assert.assertEquals(5000, container.size());
+    }
+
+    private static class FixedRowCounter implements ApproximateRowCounter {
+        private final int count;
+
+        private FixedRowCounter(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public int getApproximateCount(Connection connection,
+                String tableName, List<Filter> filters) {
+            return count;
+        }
+    }
+
+    @Test
+    public void size_negativeSizeValidTime_fetchedOnlyAfterRefresh()
+            throws SQLException {
+        SQLContainer container = new SQLContainer(new TableQuery("people",
+                connectionPool, SQLTestsConstants.sqlGen));
+        container.setSizeValidMilliSeconds(-1);
+        Assert.assertEquals(-1, container.getSizeValidMilliSeconds());
+        Assert.assertEquals(4, container.size());
+
+        DataGenerator.addFiveThousandPeople(connectionPool);
+        Assert.assertEquals(4, container.size());
+        container.refresh();
+        Assert.assertEquals(5000, container.size());
+    }
+
+    @Test
+    public void getItemIds_iterate_fetchesIdsInChunks() throws SQLException {
+        DataGenerator.addFiveThousandPeople(connectionPool);
+        OffsetRecordingGenerator generator = new OffsetRecordingGenerator();
+        TableQuery query = new TableQuery("people", connectionPool, generator);
+        query.setKeysetPaginationEnabled(true);
+        SQLContainer container = new SQLContainer(query);
+        container.setPageLength(50);
+        container.sort(new Object[] { "ID" }, new boolean[] { false });
+
+        generator.offsets.clear();
+        generator.pagedSelects.clear();
+        Collection<?> itemIds = container.getItemIds();
+        Assert.assertEquals(5000, itemIds.size());
+        int expectedId = 4999 + offset;
+        for (Object itemId : itemIds) {
+            Assert.assertEquals(new RowId(new Object[] { expectedId-- }),
+                    itemId);
+        }
+        Assert.assertEquals(offset - 1, expectedId);
+        // chunks of 100 rows, continuing after the previous chunk
+        Assert.assertEquals(51, generator.offsets.size());
+        for (Integer offset : generator.offsets) {
+            Assert.assertEquals(0, offset.intValue());
+        }
+        Assert.assertEquals(0, generator.unpagedQueries);
+        // only the primary key is selected
+        for (String select : generator.pagedSelects) {
+            Assert.assertEquals(QueryBuilder.quote("ID"), select);
+        }
+    }
+
+    @Test
+    public void getItemIds_removedAndAddedItems_skipsRemovedAndAppendsAdded()
+            throws SQLException {
+        SQLContainer container = new SQLContainer(new TableQuery("people",
+                connectionPool, SQLTestsConstants.sqlGen));
+        container.setPageLength(1);
+        Object removed = container.getIdByIndex(1);
+        container.removeItem(removed);
+        Object added = container.addItem();
+
+        List<Object> itemIds = new ArrayList<Object>(container.getItemIds());
+        Assert.assertEquals(4, itemIds.size());
+        Assert.assertEquals(4, container.getItemIds().size());
+        Assert.assertFalse(itemIds.contains(removed));
+        Assert.assertEquals(added, itemIds.get(3));
+        Assert.assertEquals(itemIds.get(2), container.getItemIds()
+                .toArray()[2]);
+    }
+
+    @Test
+    public void nextItemId_prevItemId_uncachedItem_noOffsetQueries()
+            throws SQLException {
+        DataGenerator.addFiveThousandPeople(connectionPool);
+        OffsetRecordingGenerator generator = new OffsetRecordingGenerator();
+        TableQuery query = new TableQuery("people", connectionPool, generator);
+        query.setKeysetPaginationEnabled(true);
+        SQLContainer container = new SQLContainer(query);
+        container.setPageLength(10);
+        container.sort(new Object[] { "ID" }, new boolean[] { true });
+        Assert.assertNotNull(container.getIdByIndex(0));
+
+        generator.offsets.clear();
+        RowId itemId = new RowId(new Object[] { 3000 + offset });
+        Assert.assertEquals(new RowId(new Object[] { 3001 + offset }),
+                container.nextItemId(itemId));
+        Assert.assertEquals(new RowId(new Object[] { 2999 + offset }),
+                container.prevItemId(itemId));
+        for (Integer offset : generator.offsets) {
+            Assert.assertEquals(0, offset.intValue());
+        }
+        Assert.assertEquals(0, generator.unpagedQueries);
+
+        container.removeItem(new RowId(new Object[] { 3001 + offset }));
+        Assert.assertEquals(new RowId(new Object[] { 3002 + offset }),
+                container.nextItemId(itemId));
+
+        RowId lastId = new RowId(new Object[] { 4999 + offset });
+        Assert.assertNull(container.nextItemId(lastId));
+        Object added = container.addItem();
+        Assert.assertEquals(added, container.nextItemId(lastId));
+        Assert.assertNull(container.prevItemId(new RowId(
+                new Object[] { offset })));
+    }
+
+    @Test
+    public void nextItemId_keysetPaginationDisabled_noOffsetQueries()
+            throws SQLException {
+        DataGenerator.addFiveThousandPeople(connectionPool);
+        OffsetRecordingGenerator generator = new OffsetRecordingGenerator();
+        TableQuery query = new TableQuery("people", connectionPool, generator);
+        SQLContainer container = new SQLContainer(query);
+        container.setPageLength(10);
+        Assert.assertNotNull(container.getIdByIndex(0));
+
+        generator.offsets.clear();
+        RowId itemId = new RowId(new Object[] { 3000 + offset });
+        Assert.assertEquals(new RowId(new Object[] { 3001 + offset }),
+                container.nextItemId(itemId));
+        Assert.assertEquals(new RowId(new Object[] { 2999 + offset }),
+                container.prevItemId(itemId));
+        for (Integer offset : generator.offsets) {
+            Assert.assertEquals(0, offset.intValue());
+        }
+        Assert.assertEquals(0, generator.unpagedQueries);
+        Assert.assertNull(query.getKeysetOrderBy());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void rowCache_sharedByContainers_rowsFetchedOnceUntilModified()
+            throws SQLException {
+        InMemoryRowCache cache = new InMemoryRowCache();
+        TableQuery query1 = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        query1.setRowCache(cache);
+        SQLContainer container1 = new SQLContainer(query1);
+        Object id = container1.firstItemId();
+        Assert.assertEquals("Ville", container1.getContainerProperty(id,
+                "NAME").getValue());
+
+        TableQuery query2 = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        query2.setRowCache(cache);
+        SQLContainer container2 = new SQLContainer(query2);
+        cache.resetStatistics();
+        Assert.assertEquals("Ville", container2.getContainerProperty(id,
+                "NAME").getValue());
+        Assert.assertEquals(4, container2.size());
+        Assert.assertEquals(0, cache.getMissCount());
+        Assert.assertTrue(cache.getHitCount() > 0);
+
+        // committing a modification invalidates the cached rows
+        container1.getContainerProperty(id, "NAME").setValue("Viljami");
+        container1.commit();
+        cache.resetStatistics();
+        container2.refresh();
+        Assert.assertEquals("Viljami", container2.getContainerProperty(id,
+                "NAME").getValue());
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void rowCache_cacheFlushNotification_invalidatesOtherCaches()
+            throws SQLException {
+        InMemoryRowCache cache1 = new InMemoryRowCache();
+        InMemoryRowCache cache2 = new InMemoryRowCache();
+        TableQuery query1 = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        query1.setRowCache(cache1);
+        TableQuery query2 = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        query2.setRowCache(cache2);
+        SQLContainer container1 = new SQLContainer(query1);
+        SQLContainer container2 = new SQLContainer(query2);
+        container1.enableCacheFlushNotifications();
+        container2.enableCacheFlushNotifications();
+        Object id = container2.firstItemId();
+        Assert.assertEquals("Ville", container2.getContainerProperty(id,
+                "NAME").getValue());
+        String databaseId = query2.getDatabaseId();
+        Assert.assertEquals(query1.getDatabaseId(), databaseId);
+        String tableName = query2.getTableName();
+        long version = cache2.getVersion(databaseId, tableName);
+
+        container1.getContainerProperty(id, "NAME").setValue("Viljami");
+        container1.commit();
+        Assert.assertTrue(cache2.getVersion(databaseId, tableName) > version);
+        Assert.assertEquals("Viljami", container2.getContainerProperty(id,
+                "NAME").getValue());
+    }
+
 }
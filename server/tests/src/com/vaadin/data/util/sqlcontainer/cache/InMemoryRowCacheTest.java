@@ -0,0 +1,201 @@
+package com.vaadin.data.util.sqlcontainer.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.vaadin.data.util.sqlcontainer.RowId;
+
+public class InMemoryRowCacheTest {
+
+    private static final String DB = "jdbc:test:db1";
+
+    private static List<CachedRow> createRows(int... ids) {
+        String[] columns = new String[] { "ID", "NAME" };
+        List<CachedRow> rows = new ArrayList<CachedRow>();
+        for (int id : ids) {
+            rows.add(new CachedRow(new RowId(new Object[] { id }), columns,
+                    new Object[] { id, "Person " + id }));
+        }
+        return rows;
+    }
+
+    @Test
+    public void get_afterPut_returnsRowsAndCountsHits() {
+        InMemoryRowCache cache = new InMemoryRowCache();
+        Assert.assertNull(cache.get(DB, "people", "q1"));
+        cache.put(DB, "people", "q1", createRows(1, 2),
+                cache.getVersion(DB, "people"));
+
+        List<CachedRow> rows = cache.get(DB, "people", "q1");
+        Assert.assertEquals(2, rows.size());
+        Assert.assertEquals("Person 2", rows.get(1).getValue("name"));
+        Assert.assertNull(cache.get(DB, "people", "q2"));
+        Assert.assertNull(cache.get(DB, "other", "q1"));
+
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+        cache.resetStatistics();
+        Assert.assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void invalidate_removesRowsOfTableOnly() {
+        InMemoryRowCache cache = new InMemoryRowCache();
+        cache.put(DB, "people", "q1", createRows(1),
+                cache.getVersion(DB, "people"));
+        cache.put(DB, "other", "q1", createRows(1),
+                cache.getVersion(DB, "other"));
+
+        cache.invalidate(DB, "people");
+        Assert.assertNull(cache.get(DB, "people", "q1"));
+        Assert.assertNotNull(cache.get(DB, "other", "q1"));
+
+        cache.clear();
+        Assert.assertNull(cache.get(DB, "other", "q1"));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void sameTableInOtherDatabase_cachedAndInvalidatedSeparately() {
+        InMemoryRowCache cache = new InMemoryRowCache();
+        String otherDb = "jdbc:test:db2";
+        cache.put(DB, "people", "q1", createRows(1), cache.getVersion(DB,
+                "people"));
+        Assert.assertNull(cache.get(otherDb, "people", "q1"));
+
+        cache.put(otherDb, "people", "q1", createRows(2), cache.getVersion(
+                otherDb, "people"));
+        cache.invalidate(otherDb, "people");
+        Assert.assertNull(cache.get(otherDb, "people", "q1"));
+        Assert.assertEquals(new RowId(new Object[] { 1 }),
+                cache.get(DB, "people", "q1").get(0).getId());
+    }
+
+    @Test
+    public void put_tableInvalidatedDuringQuery_rowsNotStored() {
+        InMemoryRowCache cache = new InMemoryRowCache();
+        long version = cache.getVersion(DB, "people");
+        cache.invalidate(DB, "people");
+        cache.put(DB, "people", "q1", createRows(1), version);
+        Assert.assertNull(cache.get(DB, "people", "q1"));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void get_expiredRows_returnsNull() throws InterruptedException {
+        InMemoryRowCache cache = new InMemoryRowCache(10, 50, 1);
+        cache.put(DB, "people", "q1", createRows(1),
+                cache.getVersion(DB, "people"));
+        Assert.assertNotNull(cache.get(DB, "people", "q1"));
+        Thread.sleep(100);
+        Assert.assertNull(cache.get(DB, "people", "q1"));
+    }
+
+    @Test
+    public void put_cacheFull_evictsLeastRecentlyUsed() {
+        InMemoryRowCache cache = new InMemoryRowCache(2, 0, 1);
+        cache.put(DB, "people", "q1", createRows(1), 0);
+        cache.put(DB, "people", "q2", createRows(2), 0);
+        cache.get(DB, "people", "q1");
+        cache.put(DB, "people", "q3", createRows(3), 0);
+
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertNotNull(cache.get(DB, "people", "q1"));
+        Assert.assertNull(cache.get(DB, "people", "q2"));
+        Assert.assertNotNull(cache.get(DB, "people", "q3"));
+    }
+
+    @Test
+    public void cachedRows_cannotBeModified() {
+        InMemoryRowCache cache = new InMemoryRowCache();
+        List<CachedRow> rows = createRows(1);
+        cache.put(DB, "people", "q1", rows, 0);
+        rows.clear();
+        List<CachedRow> cached = cache.get(DB, "people", "q1");
+        Assert.assertEquals(1, cached.size());
+        try {
+            cached.clear();
+            Assert.fail("Cached rows should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void concurrentAccess_countsAllRequests() throws Exception {
+        final InMemoryRowCache cache = new InMemoryRowCache(100, 0, 4);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        String key = "q" + (i % 200);
+                        List<CachedRow> rows = cache.get(DB, "people", key);
+                        if (rows == null) {
+                            cache.put(DB, "people", key, createRows(i % 200),
+                                    cache.getVersion(DB, "people"));
+                        } else if (!rows.get(0).getId().equals(
+                                new RowId(new Object[] { i % 200 }))) {
+                            failures.incrementAndGet();
+                        }
+                        if (i % 250 == 0) {
+                            cache.invalidate(DB, "people");
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(8000,
+                cache.getHitCount() + cache.getMissCount());
+        Assert.assertTrue(cache.getSize() <= 100);
+    }
+
+    @Test
+    public void cachedRow_valueByLabel() {
+        CachedRow row = createRows(5).get(0);
+        Assert.assertEquals(Arrays.asList("ID", "NAME"), Arrays.asList(
+                row.getColumnLabel(0), row.getColumnLabel(1)));
+        Assert.assertEquals(5, row.getValue("id"));
+        try {
+            row.getValue("AGE");
+            Assert.fail("Unknown column should not be found");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void cachedRow_mutableValuesCopied() {
+        Date date = new Date(1000);
+        byte[] bytes = new byte[] { 1, 2 };
+        CachedRow row = new CachedRow(new RowId(new Object[] { 1 }),
+                new String[] { "DATE", "DATA" }, new Object[] { date, bytes });
+        date.setTime(2000);
+        bytes[0] = 3;
+
+        Date cachedDate = (Date) row.getValue(0);
+        Assert.assertEquals(1000, cachedDate.getTime());
+        cachedDate.setTime(3000);
+        Assert.assertEquals(new Date(1000), row.getValue("date"));
+
+        byte[] cachedBytes = (byte[]) row.getValue("data");
+        Assert.assertArrayEquals(new byte[] { 1, 2 }, cachedBytes);
+        cachedBytes[1] = 4;
+        Assert.assertArrayEquals(new byte[] { 1, 2 },
+                (byte[]) row.getValue(1));
+    }
+}
@@ -0,0 +1,285 @@
+package com.vaadin.data.util.sqlcontainer.connection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.data.util.sqlcontainer.DataGenerator;
+import com.vaadin.data.util.sqlcontainer.SQLContainer;
+import com.vaadin.data.util.sqlcontainer.SQLTestsConstants;
+import com.vaadin.data.util.sqlcontainer.query.TableQuery;
+
+public class ConcurrentJDBCConnectionPoolTest {
+
+    private static final String QUERY = "SELECT * FROM PEOPLE WHERE \"ID\" = ?";
+
+    private ConcurrentJDBCConnectionPool connectionPool;
+
+    @Before
+    public void setUp() throws SQLException {
+        connectionPool = new ConcurrentJDBCConnectionPool(
+                SQLTestsConstants.dbDriver, SQLTestsConstants.dbURL,
+                SQLTestsConstants.dbUser, SQLTestsConstants.dbPwd, 2);
+        DataGenerator.addPeopleToDatabase(connectionPool);
+    }
+
+    @After
+    public void tearDown() {
+        connectionPool.destroy();
+    }
+
+    @Test
+    public void reserveConnection_afterRelease_reusesConnection()
+            throws SQLException {
+        long created = connectionPool.getCreatedCount();
+        Connection conn = connectionPool.reserveConnection();
+        Assert.assertEquals(1, connectionPool.getActiveCount());
+        connectionPool.releaseConnection(conn);
+        Assert.assertEquals(0, connectionPool.getActiveCount());
+        Assert.assertEquals(1, connectionPool.getIdleCount());
+
+        conn = connectionPool.reserveConnection();
+        Assert.assertFalse(conn.isClosed());
+        Assert.assertEquals(created, connectionPool.getCreatedCount());
+        connectionPool.releaseConnection(conn);
+    }
+
+    @Test
+    public void releaseConnection_connectionUsedAfterRelease_shouldFail()
+            throws SQLException {
+        Connection conn = connectionPool.reserveConnection();
+        connectionPool.releaseConnection(conn);
+        Assert.assertTrue(conn.isClosed());
+        // releasing twice is ignored
+        connectionPool.releaseConnection(conn);
+        Assert.assertEquals(0, connectionPool.getActiveCount());
+        try {
+            conn.createStatement();
+            Assert.fail("Released connection should not be usable");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void close_releasesConnection() throws SQLException {
+        Connection conn = connectionPool.reserveConnection();
+        conn.close();
+        Assert.assertEquals(0, connectionPool.getActiveCount());
+        Assert.assertEquals(1, connectionPool.getIdleCount());
+    }
+
+    @Test
+    public void reserveConnection_noConnectionsLeft_timesOut()
+            throws SQLException {
+        connectionPool.setMaxWait(100);
+        connectionPool.reserveConnection();
+        connectionPool.reserveConnection();
+        long start = System.currentTimeMillis();
+        try {
+            connectionPool.reserveConnection();
+            Assert.fail("Reserving should time out when no connections are available");
+        } catch (SQLException e) {
+            // expected
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 90);
+        Assert.assertEquals(1, connectionPool.getTimeoutCount());
+        Assert.assertTrue(connectionPool.getMaxBorrowWaitTime() >= 90);
+    }
+
+    @Test
+    public void reserveConnection_connectionReleasedWhileWaiting_returnsConnection()
+            throws Exception {
+        final Connection conn = connectionPool.reserveConnection();
+        connectionPool.reserveConnection();
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // release anyway
+                }
+                connectionPool.releaseConnection(conn);
+            }
+        };
+        releaser.start();
+        Connection waited = connectionPool.reserveConnection();
+        Assert.assertNotNull(waited);
+        Assert.assertEquals(0, connectionPool.getTimeoutCount());
+        Assert.assertTrue(connectionPool.getMaxBorrowWaitTime() >= 50);
+        releaser.join();
+    }
+
+    @Test
+    public void prepareStatement_sameSql_reusesStatement() throws SQLException {
+        Connection conn = connectionPool.reserveConnection();
+        long misses = connectionPool.getStatementCacheMissCount();
+        for (int i = 0; i < 3; i++) {
+            PreparedStatement statement = conn.prepareStatement(QUERY);
+            statement.setInt(1, i + SQLTestsConstants.offset);
+            ResultSet rs = statement.executeQuery();
+            Assert.assertTrue(rs.next());
+            rs.close();
+            statement.close();
+            Assert.assertTrue(statement.isClosed());
+        }
+        Assert.assertEquals(misses + 1,
+                connectionPool.getStatementCacheMissCount());
+        Assert.assertEquals(2, connectionPool.getStatementCacheHitCount());
+
+        // the same statement used twice at the same time
+        PreparedStatement first = conn.prepareStatement(QUERY);
+        PreparedStatement second = conn.prepareStatement(QUERY);
+        first.setInt(1, SQLTestsConstants.offset);
+        second.setInt(1, 1 + SQLTestsConstants.offset);
+        ResultSet rs1 = first.executeQuery();
+        ResultSet rs2 = second.executeQuery();
+        Assert.assertTrue(rs1.next());
+        Assert.assertTrue(rs2.next());
+        Assert.assertEquals("Ville", rs1.getString("NAME"));
+        Assert.assertEquals("Kalle", rs2.getString("NAME"));
+        rs1.close();
+        rs2.close();
+        first.close();
+        second.close();
+        connectionPool.releaseConnection(conn);
+    }
+
+    @Test
+    public void releaseConnection_statementLeftOpen_closesStatement()
+            throws SQLException {
+        Connection conn = connectionPool.reserveConnection();
+        PreparedStatement statement = conn.prepareStatement(QUERY);
+        connectionPool.releaseConnection(conn);
+        Assert.assertTrue(statement.isClosed());
+
+        // the next borrower of the connection prepares the statement again
+        long misses = connectionPool.getStatementCacheMissCount();
+        conn = connectionPool.reserveConnection();
+        statement = conn.prepareStatement(QUERY);
+        Assert.assertEquals(misses + 1,
+                connectionPool.getStatementCacheMissCount());
+        statement.setInt(1, SQLTestsConstants.offset);
+        ResultSet rs = statement.executeQuery();
+        Assert.assertTrue(rs.next());
+        rs.close();
+        statement.close();
+        connectionPool.releaseConnection(conn);
+    }
+
+    @Test
+    public void releaseConnection_poolDestroyed_closesConnection()
+            throws SQLException {
+        Connection conn = connectionPool.reserveConnection();
+        connectionPool.destroy();
+        connectionPool.releaseConnection(conn);
+        Assert.assertEquals(0, connectionPool.getIdleCount());
+        Assert.assertEquals(0, connectionPool.getActiveCount());
+    }
+
+    @Test
+    public void reserveConnection_validationFails_opensNewConnection()
+            throws SQLException {
+        connectionPool.releaseConnection(connectionPool.reserveConnection());
+        long created = connectionPool.getCreatedCount();
+        connectionPool.setValidationInterval(0);
+        connectionPool.setValidationQuery("SELECT * FROM NONEXISTENT");
+
+        Connection conn = connectionPool.reserveConnection();
+        Assert.assertEquals(1, connectionPool.getValidationFailureCount());
+        Assert.assertEquals(created + 1, connectionPool.getCreatedCount());
+        connectionPool.releaseConnection(conn);
+
+        connectionPool.setValidationQuery(null);
+        conn = connectionPool.reserveConnection();
+        Assert.assertEquals(1, connectionPool.getValidationFailureCount());
+        connectionPool.releaseConnection(conn);
+    }
+
+    @Test
+    public void evictIdleConnections_keepsMinIdle() throws Exception {
+        Connection conn1 = connectionPool.reserveConnection();
+        Connection conn2 = connectionPool.reserveConnection();
+        connectionPool.releaseConnection(conn1);
+        connectionPool.releaseConnection(conn2);
+        Assert.assertEquals(2, connectionPool.getIdleCount());
+
+        connectionPool.setMaxIdleTime(10);
+        connectionPool.setMinIdle(1);
+        Thread.sleep(50);
+        Assert.assertEquals(1, connectionPool.evictIdleConnections());
+        Assert.assertEquals(1, connectionPool.getIdleCount());
+        Assert.assertEquals(1, connectionPool.getEvictionCount());
+    }
+
+    @Test(expected = SQLException.class)
+    public void reserveConnection_poolDestroyed_shouldFail()
+            throws SQLException {
+        connectionPool.destroy();
+        connectionPool.reserveConnection();
+    }
+
+    @Test
+    public void sqlContainer_usingPool_reusesStatements() throws SQLException {
+        SQLContainer container = new SQLContainer(new TableQuery("people",
+                connectionPool, SQLTestsConstants.sqlGen));
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(4, container.size());
+            container.refresh();
+        }
+        Assert.assertTrue(connectionPool.getStatementCacheHitCount() > 0);
+        Assert.assertEquals(0, connectionPool.getActiveCount());
+    }
+
+    @Test
+    public void concurrentUse_neverMoreThanMaxConnections() throws Exception {
+        connectionPool.setValidationInterval(0);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        try {
+                            Connection conn = connectionPool
+                                    .reserveConnection();
+                            try {
+                                PreparedStatement statement = conn
+                                        .prepareStatement(QUERY);
+                                statement.setInt(1, i % 4
+                                        + SQLTestsConstants.offset);
+                                ResultSet rs = statement.executeQuery();
+                                if (!rs.next()) {
+                                    failures.incrementAndGet();
+                                }
+                                rs.close();
+                                statement.close();
+                            } finally {
+                                connectionPool.releaseConnection(conn);
+                            }
+                        } catch (SQLException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, failures.get());
+        Assert.assertTrue(connectionPool.getCreatedCount() <= 2);
+        Assert.assertEquals(0, connectionPool.getActiveCount());
+        Assert.assertEquals(0, connectionPool.getTimeoutCount());
+    }
+}
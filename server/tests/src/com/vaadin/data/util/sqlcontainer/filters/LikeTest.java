@@ -213,6 +213,16 @@ public class LikeTest {
         Assert.assertFalse(like1.equals(like2));
     }
 
+    @Test
+    public void equals_differentCaseSensitivity_shouldBeFalse() {
+        Like like1 = new Like("foo", "bar", true);
+        Like like2 = new Like("foo", "bar", false);
+        Assert.assertFalse(like1.equals(like2));
+        like2.setCaseSensitive(true);
+        Assert.assertTrue(like1.equals(like2));
+        Assert.assertEquals(like1.hashCode(), like2.hashCode());
+    }
+
     @Test
     public void hashCode_equalInstances_shouldBeEqual() {
         Like like1 = new Like("test", "foo");
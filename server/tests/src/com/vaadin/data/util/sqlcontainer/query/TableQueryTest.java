@@ -1,5 +1,9 @@
 package com.vaadin.data.util.sqlcontainer.query;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -7,7 +11,9 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -19,12 +25,15 @@ import com.vaadin.data.util.filter.Compare.Equal;
 import com.vaadin.data.util.filter.Like;
 import com.vaadin.data.util.sqlcontainer.DataGenerator;
 import com.vaadin.data.util.sqlcontainer.OptimisticLockException;
+import com.vaadin.data.util.sqlcontainer.RowId;
 import com.vaadin.data.util.sqlcontainer.RowItem;
 import com.vaadin.data.util.sqlcontainer.SQLContainer;
 import com.vaadin.data.util.sqlcontainer.SQLTestsConstants;
 import com.vaadin.data.util.sqlcontainer.SQLTestsConstants.DB;
 import com.vaadin.data.util.sqlcontainer.connection.JDBCConnectionPool;
 import com.vaadin.data.util.sqlcontainer.connection.SimpleJDBCConnectionPool;
+import com.vaadin.data.util.sqlcontainer.query.QueryDelegate.RowIdChangeEvent;
+import com.vaadin.data.util.sqlcontainer.query.QueryDelegate.RowIdChangeListener;
 import com.vaadin.data.util.sqlcontainer.query.generator.DefaultSQLGenerator;
 
 public class TableQueryTest {
@@ -661,4 +670,401 @@ public class TableQueryTest {
         container.commit();
     }
 
-}
\ No newline at end of file
+    /**********************************************************************
+     * TableQuery keyset pagination and row count estimation tests
+     **********************************************************************/
+    @Test
+    public void getKeysetOrderBy_notEnabled_returnsNull() {
+        TableQuery tQuery = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        Assert.assertFalse(tQuery.isKeysetPaginationEnabled());
+        Assert.assertNull(tQuery.getKeysetOrderBy());
+    }
+
+    @Test
+    public void getIdentifyingOrderBy_notEnabled_returnsKeyColumns() {
+        TableQuery tQuery = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        List<OrderBy> orderBy = tQuery.getIdentifyingOrderBy();
+        Assert.assertEquals(1, orderBy.size());
+        Assert.assertEquals("ID", orderBy.get(0).getColumn());
+
+        List<OrderBy> byName = Arrays.asList(new OrderBy("NAME", true));
+        Assert.assertFalse(tQuery.isIdentifyingOrderBy(byName));
+        Assert.assertTrue(tQuery.isIdentifyingOrderBy(null));
+        // checking does not change the ordering
+        Assert.assertNotNull(tQuery.getIdentifyingOrderBy());
+    }
+
+    @Test
+    public void getKeysetOrderBy_orderCoversPrimaryKey_returnsKeyColumns() {
+        TableQuery tQuery = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        tQuery.setKeysetPaginationEnabled(true);
+        // ordered by the primary key by default
+        List<OrderBy> keysetOrderBy = tQuery.getKeysetOrderBy();
+        Assert.assertEquals(1, keysetOrderBy.size());
+        Assert.assertEquals("ID", keysetOrderBy.get(0).getColumn());
+        Assert.assertTrue(keysetOrderBy.get(0).isAscending());
+
+        tQuery.setOrderBy(Arrays.asList(new OrderBy("ID", false),
+                new OrderBy("NAME", true)));
+        keysetOrderBy = tQuery.getKeysetOrderBy();
+        Assert.assertEquals(1, keysetOrderBy.size());
+        Assert.assertEquals("ID", keysetOrderBy.get(0).getColumn());
+        Assert.assertFalse(keysetOrderBy.get(0).isAscending());
+    }
+
+    @Test
+    public void getKeysetOrderBy_nullableOrNonUniqueOrder_returnsNull() {
+        TableQuery tQuery = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        tQuery.setKeysetPaginationEnabled(true);
+        tQuery.setOrderBy(Arrays.asList(new OrderBy("NAME", true),
+                new OrderBy("ID", true)));
+        Assert.assertNull(tQuery.getKeysetOrderBy());
+        tQuery.setOrderBy(Arrays.asList(new OrderBy("AGE", true)));
+        Assert.assertNull(tQuery.getKeysetOrderBy());
+    }
+
+    @Test
+    public void getResultsAfter_descendingOrderAndFilter_returnsFollowingRows()
+            throws SQLException {
+        DataGenerator.addFiveThousandPeople(connectionPool);
+
+        TableQuery tQuery = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        tQuery.setKeysetPaginationEnabled(true);
+        tQuery.setOrderBy(Arrays.asList(new OrderBy("ID", false)));
+        List<Filter> filters = new ArrayList<Filter>();
+        filters.add(new Like("NAME", "%5"));
+        tQuery.setFilters(filters);
+
+        tQuery.beginTransaction();
+        ResultSet rs = tQuery.getResultsAfter(new Object[] { 1000 + offset },
+                3);
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(995 + offset, rs.getInt("ID"));
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(985 + offset, rs.getInt("ID"));
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(975 + offset, rs.getInt("ID"));
+        Assert.assertFalse(rs.next());
+        tQuery.commit();
+    }
+
+    @Test
+    public void getResultsBefore_withKeysetValues_returnsPrecedingRows()
+            throws SQLException {
+        DataGenerator.addFiveThousandPeople(connectionPool);
+
+        TableQuery tQuery = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        tQuery.setKeysetPaginationEnabled(true);
+        tQuery.setOrderBy(Arrays.asList(new OrderBy("ID", false)));
+        Object[] values = tQuery.getKeysetValues(1000 + offset);
+        Assert.assertArrayEquals(new Object[] { 1000 + offset }, values);
+
+        tQuery.beginTransaction();
+        ResultSet rs = tQuery.getResultsBefore(values, 2);
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(1001 + offset, rs.getInt("ID"));
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(1002 + offset, rs.getInt("ID"));
+        Assert.assertFalse(rs.next());
+        tQuery.commit();
+
+        Assert.assertNull(tQuery.getKeysetValues(1337000));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getResultsAfter_nullableOrder_shouldFail() throws SQLException {
+        TableQuery tQuery = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        tQuery.setOrderBy(Arrays.asList(new OrderBy("NAME", true)));
+        tQuery.getResultsAfter(new Object[] { "Ville" }, 10);
+    }
+
+    @Test
+    public void getCount_withApproximateRowCounter_returnsEstimate()
+            throws SQLException {
+        TableQuery tQuery = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        tQuery.setApproximateRowCounter(new ApproximateRowCounter() {
+            @Override
+            public int getApproximateCount(Connection connection,
+                    String tableName, List<Filter> filters) {
+                Assert.assertNotNull(connection);
+                return filters == null ? 1000 : -1;
+            }
+        });
+        Assert.assertEquals(1000, tQuery.getCount());
+        Assert.assertTrue(tQuery.isCountApproximate());
+
+        // no estimate available for filtered rows
+        List<Filter> filters = new ArrayList<Filter>();
+        filters.add(new Like("NAME", "%lle"));
+        tQuery.setFilters(filters);
+        Assert.assertEquals(3, tQuery.getCount());
+        Assert.assertFalse(tQuery.isCountApproximate());
+    }
+
+    /**
+     * Connection pool counting the statements prepared using its connections.
+     */
+    private static class StatementCountingPool implements JDBCConnectionPool {
+        private final JDBCConnectionPool pool;
+        private final Map<Connection, Connection> proxies = new HashMap<Connection, Connection>();
+        private int preparedStatements = 0;
+        /** Emulates a driver that returns no generated keys for statements */
+        private boolean noGeneratedKeys = false;
+
+        private StatementCountingPool(JDBCConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public Connection reserveConnection() throws SQLException {
+            final Connection connection = pool.reserveConnection();
+            Connection proxy = (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method,
+                                Object[] args) throws Throwable {
+                            if (method.getName().equals("prepareStatement")) {
+                                preparedStatements++;
+                            }
+                            try {
+                                Object result = method.invoke(connection, args);
+                                if (noGeneratedKeys) {
+                                    result = withoutGeneratedKeys(result);
+                                }
+                                return result;
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        }
+                    });
+            proxies.put(proxy, connection);
+            return proxy;
+        }
+
+        private Object withoutGeneratedKeys(final Object statement) {
+            if (!(statement instanceof PreparedStatement)) {
+                return statement;
+            }
+            return Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method,
+                                Object[] args) throws Throwable {
+                            if (method.getName().equals("getGeneratedKeys")) {
+                                return null;
+                            }
+                            try {
+                                return method.invoke(statement, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        }
+                    });
+        }
+
+        @Override
+        public void releaseConnection(Connection conn) {
+            pool.releaseConnection(proxies.remove(conn));
+        }
+
+        @Override
+        public void destroy() {
+            pool.destroy();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void storeRows_manyModifiedRows_preparesStatementOnce()
+            throws SQLException {
+        DataGenerator.addFiveThousandPeople(connectionPool);
+        StatementCountingPool countingPool = new StatementCountingPool(
+                connectionPool);
+        TableQuery tQuery = new TableQuery("people", countingPool,
+                SQLTestsConstants.sqlGen);
+        SQLContainer container = new SQLContainer(tQuery);
+        container.setPageLength(500);
+        for (int i = 0; i < 1000; i++) {
+            container.getContainerProperty(container.getIdByIndex(i), "NAME")
+                    .setValue("Batch " + i);
+        }
+        for (int i = 1000; i < 1010; i++) {
+            container.removeItem(container.getIdByIndex(i));
+        }
+
+        List<RowItem> modified = getModifiedItems(container, 1000);
+        countingPool.preparedStatements = 0;
+        tQuery.beginTransaction();
+        int[] results = tQuery.storeRows(modified);
+        tQuery.commit();
+        Assert.assertEquals(1000, results.length);
+        for (int result : results) {
+            Assert.assertEquals(1, result);
+        }
+        Assert.assertEquals(1, countingPool.preparedStatements);
+
+        // one statement for the removals and one for the modifications
+        countingPool.preparedStatements = 0;
+        container.commit();
+        Assert.assertEquals(2, countingPool.preparedStatements);
+        Assert.assertEquals(4990, container.size());
+
+        Connection conn = connectionPool.reserveConnection();
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt
+                .executeQuery("SELECT COUNT(*) FROM PEOPLE WHERE \"NAME\" LIKE 'Batch %'");
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(1000, rs.getInt(1));
+        rs.close();
+        stmt.close();
+        conn.commit();
+        connectionPool.releaseConnection(conn);
+    }
+
+    private List<RowItem> getModifiedItems(SQLContainer container, int count) {
+        List<RowItem> items = new ArrayList<RowItem>();
+        for (int i = 0; i < count; i++) {
+            items.add((RowItem) container.getItem(container.getIdByIndex(i)));
+        }
+        return items;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void storeRows_addedRows_reportsGeneratedKeys() throws SQLException {
+        TableQuery tQuery = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        final List<RowId> newIds = new ArrayList<RowId>();
+        tQuery.addRowIdChangeListener(new RowIdChangeListener() {
+            @Override
+            public void rowIdChange(RowIdChangeEvent event) {
+                newIds.add(event.getNewRowId());
+            }
+        });
+        SQLContainer container = new SQLContainer(tQuery);
+        for (int i = 0; i < 3; i++) {
+            Object id = container.addItem();
+            container.getContainerProperty(id, "NAME").setValue("New " + i);
+            container.getContainerProperty(id, "AGE").setValue(i);
+        }
+        container.commit();
+
+        Assert.assertEquals(3, newIds.size());
+        Assert.assertEquals(7, container.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNotNull(newIds.get(i).getId()[0]);
+            Assert.assertEquals("New " + i, container.getContainerProperty(
+                    newIds.get(i), "NAME").getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void storeRows_noGeneratedKeys_noRowIdChangeEvents()
+            throws SQLException {
+        StatementCountingPool countingPool = new StatementCountingPool(
+                connectionPool);
+        countingPool.noGeneratedKeys = true;
+        TableQuery tQuery = new TableQuery("people", countingPool,
+                SQLTestsConstants.sqlGen);
+        final List<RowId> newIds = new ArrayList<RowId>();
+        tQuery.addRowIdChangeListener(new RowIdChangeListener() {
+            @Override
+            public void rowIdChange(RowIdChangeEvent event) {
+                newIds.add(event.getNewRowId());
+            }
+        });
+        SQLContainer container = new SQLContainer(tQuery);
+        for (int i = 0; i < 3; i++) {
+            Object id = container.addItem();
+            container.getContainerProperty(id, "NAME").setValue("New " + i);
+            container.getContainerProperty(id, "AGE").setValue(i);
+        }
+        container.commit();
+
+        Assert.assertTrue(newIds.isEmpty());
+        Assert.assertEquals(7, container.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void commit_tableQuerySubclass_usesOverriddenRowMethods()
+            throws SQLException {
+        final List<Object> stored = new ArrayList<Object>();
+        final List<Object> removed = new ArrayList<Object>();
+        TableQuery tQuery = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen) {
+            @Override
+            public int storeRow(RowItem row) throws SQLException {
+                stored.add(row.getId());
+                return super.storeRow(row);
+            }
+
+            @Override
+            public boolean removeRow(RowItem row) throws SQLException {
+                removed.add(row.getId());
+                return super.removeRow(row);
+            }
+        };
+        SQLContainer container = new SQLContainer(tQuery);
+        Object modifiedId = container.getIdByIndex(0);
+        Object removedId = container.getIdByIndex(1);
+        container.getContainerProperty(modifiedId, "NAME").setValue("Stored");
+        container.removeItem(removedId);
+        Object addedId = container.addItem();
+        container.getContainerProperty(addedId, "NAME").setValue("Added");
+        container.getContainerProperty(addedId, "AGE").setValue(1);
+        container.commit();
+
+        Assert.assertEquals(2, stored.size());
+        Assert.assertEquals(modifiedId, stored.get(0));
+        Assert.assertEquals(addedId, stored.get(1));
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals(removedId, removed.get(0));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(expected = OptimisticLockException.class)
+    public void storeRows_versionChangedByOtherConnection_shouldThrowException()
+            throws SQLException {
+        TableQuery tQuery = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        tQuery.setVersionColumn("AGE");
+        SQLContainer container = new SQLContainer(tQuery);
+        Object firstId = container.getIdByIndex(0);
+        Object secondId = container.getIdByIndex(1);
+        container.getContainerProperty(firstId, "NAME").setValue("First");
+        container.getContainerProperty(secondId, "NAME").setValue("Second");
+
+        Connection conn = connectionPool.reserveConnection();
+        PreparedStatement stmt = conn
+                .prepareStatement("UPDATE PEOPLE SET \"AGE\" = 99 WHERE \"ID\" = ?");
+        stmt.setObject(1, ((RowId) secondId).getId()[0]);
+        stmt.executeUpdate();
+        stmt.close();
+        conn.commit();
+        connectionPool.releaseConnection(conn);
+
+        container.commit();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setBatchSize_zero_shouldFail() {
+        TableQuery tQuery = new TableQuery("people", connectionPool,
+                SQLTestsConstants.sqlGen);
+        tQuery.setBatchSize(0);
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.server;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+
+import com.vaadin.server.StreamResource.StreamSource;
+import com.vaadin.server.communication.UidlRequestHandler;
+import com.vaadin.ui.Button;
+import com.vaadin.ui.UI;
+
+/**
+ * Tests that {@link ConnectorResourceHandler} and
+ * {@link GlobalResourceHandler} do not hold the session lock while the
+ * resource data or an error is being sent to the client.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class ConnectorResourceHandlerTest extends TestCase {
+
+    private static final byte[] DATA = "Slow download".getBytes();
+
+    private VaadinSession session;
+    private UI ui;
+    private Button button;
+    private FileDownloader downloader;
+    private SlowStreamSource source;
+
+    /**
+     * A stream source whose streams block on the first read until they are
+     * released, like a resource read from a slow backend.
+     */
+    private static class SlowStreamSource implements StreamSource {
+        private final CountDownLatch readStarted = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public InputStream getStream() {
+            return new InputStream() {
+                private int position = 0;
+
+                @Override
+                public int read() throws IOException {
+                    readStarted.countDown();
+                    try {
+                        released.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException("Interrupted");
+                    }
+                    if (position == DATA.length) {
+                        return -1;
+                    }
+                    return DATA[position++];
+                }
+            };
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        final DeploymentConfiguration configuration = new DefaultDeploymentConfiguration(
+                getClass(), new Properties());
+        final Lock lock = new ReentrantLock();
+
+        session = new VaadinSession(null) {
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+
+            @Override
+            public DeploymentConfiguration getConfiguration() {
+                return configuration;
+            }
+
+            @Override
+            public VaadinService getService() {
+                return createServiceMock(ui);
+            }
+        };
+        ui = new UI() {
+            @Override
+            protected void init(VaadinRequest request) {
+                // Nothing to initialize
+            }
+        };
+        source = new SlowStreamSource();
+        session.lock();
+        try {
+            session.setCommunicationManager(new LegacyCommunicationManager(
+                    session));
+            ui.setSession(session);
+            ui.doInit(createRequestMock(null), 1);
+            session.addUI(ui);
+            button = new Button("Download");
+            ui.setContent(button);
+            downloader = new FileDownloader(new StreamResource(source,
+                    "slow.txt"));
+            downloader.extend(button);
+        } finally {
+            session.unlock();
+        }
+    }
+
+    private static VaadinService createServiceMock(UI ui) {
+        VaadinService service = EasyMock.createNiceMock(VaadinService.class);
+        EasyMock.expect(service.findUI(EasyMock.<VaadinRequest> anyObject()))
+                .andReturn(ui).anyTimes();
+        EasyMock.replay(service);
+        return service;
+    }
+
+    private static VaadinRequest createRequestMock(String pathInfo)
+            throws IOException {
+        VaadinRequest request = EasyMock.createNiceMock(VaadinRequest.class);
+        EasyMock.expect(request.getPathInfo()).andReturn(pathInfo).anyTimes();
+        EasyMock.expect(request.getReader())
+                .andReturn(new BufferedReader(new StringReader("")))
+                .anyTimes();
+        EasyMock.replay(request);
+        return request;
+    }
+
+    private static VaadinResponse createResponseMock(OutputStream out)
+            throws IOException {
+        VaadinResponse response = EasyMock
+                .createNiceMock(VaadinResponse.class);
+        EasyMock.expect(response.getOutputStream()).andReturn(out).anyTimes();
+        EasyMock.replay(response);
+        return response;
+    }
+
+    private String getDownloadPath() {
+        session.lock();
+        try {
+            return "/APP/connector/" + ui.getUIId() + "/"
+                    + downloader.getConnectorId() + "/dl";
+        } finally {
+            session.unlock();
+        }
+    }
+
+    public void testSlowDownloadDoesNotBlockSession() throws Exception {
+        final VaadinRequest downloadRequest = createRequestMock(getDownloadPath());
+        final ByteArrayOutputStream downloadOut = new ByteArrayOutputStream();
+        final VaadinResponse downloadResponse = createResponseMock(downloadOut);
+        final boolean[] handled = new boolean[1];
+        final Throwable[] failure = new Throwable[1];
+
+        Thread downloadThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    handled[0] = new ConnectorResourceHandler().handleRequest(
+                            session, downloadRequest, downloadResponse);
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        };
+        downloadThread.start();
+        try {
+            assertTrue("The resource was never read",
+                    source.readStarted.await(10, TimeUnit.SECONDS));
+
+            // The download is in progress, the session must be free
+            assertTrue("The session is locked while sending the resource",
+                    session.getLockInstance().tryLock(1, TimeUnit.SECONDS));
+            session.unlock();
+
+            // A UIDL request to the same session completes meanwhile
+            ByteArrayOutputStream uidlOut = new ByteArrayOutputStream();
+            new UidlRequestHandler(null).handleRequest(session,
+                    createRequestMock(null), createResponseMock(uidlOut));
+            String uidlResponse = uidlOut.toString("UTF-8");
+            assertTrue(uidlResponse, uidlResponse.startsWith("for(;;);[{"));
+        } finally {
+            source.released.countDown();
+            downloadThread.join(10000);
+        }
+
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+        assertFalse("The download did not finish", downloadThread.isAlive());
+        assertTrue(handled[0]);
+        assertEquals(new String(DATA), downloadOut.toString());
+    }
+
+    public void testUnknownConnectorIsNotHandledUnderLock() throws Exception {
+        VaadinRequest request = createRequestMock("/APP/connector/"
+                + ui.getUIId() + "/12345/dl");
+        assertErrorSentWithoutLock(new ConnectorResourceHandler(), request);
+    }
+
+    public void testUnknownGlobalResourceIsNotHandledUnderLock()
+            throws Exception {
+        VaadinRequest request = createRequestMock("/APP/global/"
+                + ui.getUIId() + "/legacy/12345");
+        assertErrorSentWithoutLock(new GlobalResourceHandler(), request);
+    }
+
+    private void assertErrorSentWithoutLock(RequestHandler handler,
+            VaadinRequest request) throws IOException {
+        final ReentrantLock lock = (ReentrantLock) session.getLockInstance();
+        final boolean[] lockedWhileSending = new boolean[] { true };
+        VaadinResponse response = EasyMock
+                .createNiceMock(VaadinResponse.class);
+        response.sendError(EasyMock.anyInt(), EasyMock.<String> anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                lockedWhileSending[0] = lock.isLocked();
+                return null;
+            }
+        });
+        EasyMock.replay(response);
+
+        assertTrue(handler.handleRequest(session, request, response));
+        EasyMock.verify(response);
+        assertFalse("The error was sent while holding the session lock",
+                lockedWhileSending[0]);
+        assertFalse("The session lock was not released", lock.isLocked());
+    }
+
+    public void testDetachedConnectorDoesNotHandleRequest() throws Exception {
+        session.lock();
+        try {
+            downloader.remove();
+        } finally {
+            session.unlock();
+        }
+        assertFalse(downloader.handleConnectorRequest(createRequestMock(null),
+                createResponseMock(new ByteArrayOutputStream()), "dl"));
+    }
+}
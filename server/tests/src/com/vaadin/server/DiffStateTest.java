@@ -0,0 +1,197 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import com.vaadin.shared.ui.label.ContentMode;
+import com.vaadin.shared.ui.label.LabelState;
+import com.vaadin.shared.ui.splitpanel.AbstractSplitPanelState;
+
+/**
+ * Tests for {@link DiffState} and the related methods in {@link JsonCodec}.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class DiffStateTest extends TestCase {
+
+    private DiffState diffState;
+
+    @Override
+    protected void setUp() throws Exception {
+        diffState = JsonCodec.createDiffState(new LabelState(),
+                LabelState.class, null);
+    }
+
+    public void testUnchangedStateGivesEmptyDiff() throws Exception {
+        assertEquals(0, encodeDiff(new LabelState()).length());
+    }
+
+    public void testOnlyChangedValuesInDiff() throws Exception {
+        LabelState state = new LabelState();
+        state.text = "Hello";
+        state.contentMode = ContentMode.HTML;
+        state.styles = new ArrayList<String>(Arrays.asList("big"));
+
+        JSONObject diff = encodeDiff(state);
+        assertEquals(3, diff.length());
+        assertEquals("Hello", diff.getString("text"));
+        assertEquals("HTML", diff.getString("contentMode"));
+        assertEquals("big", diff.getJSONArray("styles").getString(0));
+
+        // The diff state has been updated
+        assertEquals(0, encodeDiff(state).length());
+
+        state.styles.add("bold");
+        state.text = null;
+        diff = encodeDiff(state);
+        assertEquals(2, diff.length());
+        assertEquals(2, diff.getJSONArray("styles").length());
+        assertEquals(JSONObject.NULL, diff.get("text"));
+    }
+
+    public void testNestedObject() throws Exception {
+        AbstractSplitPanelState state = new AbstractSplitPanelState();
+        DiffState splitDiffState = JsonCodec.createDiffState(state,
+                AbstractSplitPanelState.class, null);
+
+        state.splitterState.position = 25;
+        JSONObject diff = JsonCodec.encodeDiff(state,
+                AbstractSplitPanelState.class, splitDiffState, null);
+        assertEquals(1, diff.length());
+        assertEquals(25, diff.getJSONObject("splitterState").getInt(
+                "position"));
+    }
+
+    public void testPutForcesResend() throws Exception {
+        LabelState state = new LabelState();
+        diffState.put("enabled", false);
+
+        JSONObject diff = encodeDiff(state);
+        assertEquals(1, diff.length());
+        assertTrue(diff.getBoolean("enabled"));
+    }
+
+    public void testPutUnknownProperty() throws Exception {
+        try {
+            diffState.put("foo", "bar");
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testCopyIsIndependent() throws Exception {
+        DiffState copy = diffState.copy();
+        LabelState state = new LabelState();
+        state.text = "Changed";
+        assertEquals(1, encodeDiff(state).length());
+
+        assertEquals(1,
+                JsonCodec.encodeDiff(state, LabelState.class, copy, null)
+                        .length());
+    }
+
+    public void testSerialization() throws Exception {
+        LabelState state = new LabelState();
+        state.text = "Serialized";
+        state.styles = Arrays.asList("style");
+        encodeDiff(state);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(diffState);
+        out.close();
+        diffState = (DiffState) new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray())).readObject();
+
+        assertEquals(0, encodeDiff(state).length());
+        state.text = "Changed";
+        assertEquals(1, encodeDiff(state).length());
+    }
+
+    public void testSerializationWithMissingValues() throws Exception {
+        JSONObject known = new JSONObject();
+        known.put("text", "Known");
+        diffState = JsonCodec.jsonToDiffState(known, LabelState.class);
+
+        diffState = serializeAndDeserialize(diffState);
+
+        LabelState state = new LabelState();
+        state.text = "Known";
+        JSONObject diff = encodeDiff(state);
+        // Everything except the known text is sent
+        assertFalse(diff.has("text"));
+        assertTrue(diff.has("contentMode"));
+        assertEquals(0, encodeDiff(state).length());
+    }
+
+    public void testJsonConversion() throws Exception {
+        LabelState state = new LabelState();
+        state.text = "Hello";
+        state.styles = new ArrayList<String>(Arrays.asList("big"));
+        encodeDiff(state);
+
+        JSONObject json = JsonCodec.diffStateToJson(diffState,
+                LabelState.class);
+        assertEquals("Hello", json.getString("text"));
+        assertEquals("big", json.getJSONArray("styles").getString(0));
+
+        diffState = JsonCodec.jsonToDiffState(json, LabelState.class);
+        assertEquals(0, encodeDiff(state).length());
+    }
+
+    public void testJsonViewWritesThrough() throws Exception {
+        LabelState state = new LabelState();
+        state.text = "Hello";
+        encodeDiff(state);
+
+        JSONObject json = diffState.toJson(LabelState.class);
+        assertEquals("Hello", json.getString("text"));
+        // The client changed the value, so the server value must be resent
+        json.put("text", "Changed");
+        assertEquals("Changed", json.getString("text"));
+        assertEquals("Hello", encodeDiff(state).getString("text"));
+
+        json = diffState.toJson(LabelState.class);
+        json.remove("text");
+        assertEquals("Hello", encodeDiff(state).getString("text"));
+    }
+
+    private static DiffState serializeAndDeserialize(DiffState diffState)
+            throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(diffState);
+        out.close();
+        return (DiffState) new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray())).readObject();
+    }
+
+    private JSONObject encodeDiff(LabelState state) throws Exception {
+        return JsonCodec.encodeDiff(state, LabelState.class, diffState, null);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+/**
+ * Tests for range request support in {@link DownloadStream}.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class DownloadStreamTest extends TestCase {
+
+    private static final int LENGTH = 100000;
+
+    private byte[] data;
+
+    private File file;
+
+    /**
+     * Records the status, headers and body written to a response.
+     */
+    private static class ResponseRecorder implements InvocationHandler {
+        private int status = HttpServletResponse.SC_OK;
+        private final Map<String, Object> headers = new HashMap<String, Object>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if (name.equals("setStatus")) {
+                status = (Integer) args[0];
+            } else if (name.equals("setHeader")) {
+                headers.put((String) args[0], args[1]);
+            } else if (name.equals("setContentType")) {
+                headers.put("Content-Type", args[0]);
+            } else if (name.equals("getOutputStream")) {
+                return new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                        body.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        body.write(b, off, len);
+                    }
+                };
+            }
+            return null;
+        }
+
+        VaadinResponse createResponse() {
+            return (VaadinResponse) Proxy.newProxyInstance(getClass()
+                    .getClassLoader(), new Class<?>[] { VaadinResponse.class },
+                    this);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        data = new byte[LENGTH];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        file = File.createTempFile("vaadin", ".bin");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    private static VaadinRequest createRequest(String range, String ifRange) {
+        VaadinRequest request = EasyMock.createNiceMock(VaadinRequest.class);
+        EasyMock.expect(request.getHeader("Range")).andReturn(range)
+                .anyTimes();
+        EasyMock.expect(request.getHeader("If-Range")).andReturn(ifRange)
+                .anyTimes();
+        EasyMock.replay(request);
+        return request;
+    }
+
+    private ResponseRecorder downloadFile(String range, String ifRange)
+            throws IOException {
+        return download(new FileResource(file).getStream(), range, ifRange);
+    }
+
+    private ResponseRecorder download(DownloadStream stream, String range,
+            String ifRange) throws IOException {
+        ResponseRecorder recorder = new ResponseRecorder();
+        stream.writeResponse(createRequest(range, ifRange),
+                recorder.createResponse());
+        return recorder;
+    }
+
+    private DownloadStream createStream(boolean withLength) {
+        DownloadStream stream = new DownloadStream(new ByteArrayInputStream(
+                data), "application/octet-stream", "data.bin");
+        if (withLength) {
+            stream.setParameter("Content-Length", String.valueOf(LENGTH));
+        }
+        return stream;
+    }
+
+    private byte[] range(int start, int end) {
+        return Arrays.copyOfRange(data, start, end + 1);
+    }
+
+    private void assertPartial(ResponseRecorder recorder, int start, int end) {
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, recorder.status);
+        assertEquals("bytes " + start + "-" + end + "/" + LENGTH,
+                recorder.headers.get("Content-Range"));
+        assertEquals(String.valueOf(end - start + 1),
+                recorder.headers.get("Content-Length"));
+        assertTrue(Arrays.equals(range(start, end),
+                recorder.body.toByteArray()));
+    }
+
+    private void assertFull(ResponseRecorder recorder) {
+        assertEquals(HttpServletResponse.SC_OK, recorder.status);
+        assertNull(recorder.headers.get("Content-Range"));
+        assertTrue(Arrays.equals(data, recorder.body.toByteArray()));
+    }
+
+    public void testFullFile() throws Exception {
+        ResponseRecorder recorder = downloadFile(null, null);
+        assertFull(recorder);
+        assertEquals("bytes", recorder.headers.get("Accept-Ranges"));
+        assertEquals(String.valueOf(LENGTH),
+                recorder.headers.get("Content-Length"));
+        assertNotNull(recorder.headers.get("ETag"));
+        assertNotNull(recorder.headers.get("Last-Modified"));
+    }
+
+    public void testSingleRange() throws Exception {
+        assertPartial(downloadFile("bytes=100-199", null), 100, 199);
+        assertPartial(downloadFile("bytes=99000-", null), 99000, LENGTH - 1);
+        assertPartial(downloadFile("bytes=-500", null), LENGTH - 500,
+                LENGTH - 1);
+        // The end is limited to the length of the content
+        assertPartial(downloadFile("bytes=99990-200000", null), 99990,
+                LENGTH - 1);
+    }
+
+    public void testMultipleRanges() throws Exception {
+        ResponseRecorder recorder = downloadFile("bytes=5000-5009,0-9", null);
+
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, recorder.status);
+        String contentType = (String) recorder.headers.get("Content-Type");
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        byte[] body = recorder.body.toByteArray();
+        assertEquals(String.valueOf(body.length),
+                recorder.headers.get("Content-Length"));
+
+        String text = new String(body, "ISO-8859-1");
+        String[] parts = text.split("\r\n--" + boundary);
+        // Empty preamble, two ranges and the closing delimiter
+        assertEquals(4, parts.length);
+        assertEquals("--\r\n", parts[3]);
+        assertPart(parts[1], 5000, 5009);
+        assertPart(parts[2], 0, 9);
+    }
+
+    private void assertPart(String part, int start, int end) throws Exception {
+        int headersEnd = part.indexOf("\r\n\r\n");
+        String headers = part.substring(0, headersEnd);
+        assertTrue(headers, headers.contains("Content-Range: bytes " + start
+                + "-" + end + "/" + LENGTH));
+        byte[] content = part.substring(headersEnd + 4).getBytes(
+                "ISO-8859-1");
+        assertTrue(Arrays.equals(range(start, end), content));
+    }
+
+    public void testUnsatisfiableRange() throws Exception {
+        ResponseRecorder recorder = downloadFile("bytes=" + LENGTH + "-", null);
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+                recorder.status);
+        assertEquals("bytes */" + LENGTH,
+                recorder.headers.get("Content-Range"));
+        assertEquals(0, recorder.body.size());
+    }
+
+    public void testInvalidRangeIsIgnored() throws Exception {
+        assertFull(downloadFile("bytes=abc", null));
+        assertFull(downloadFile("bytes=200-100", null));
+        assertFull(downloadFile("lines=1-2", null));
+    }
+
+    public void testIfRange() throws Exception {
+        String eTag = (String) downloadFile(null, null).headers.get("ETag");
+        String lastModified = (String) downloadFile(null, null).headers
+                .get("Last-Modified");
+
+        assertPartial(downloadFile("bytes=10-19", eTag), 10, 19);
+        assertPartial(downloadFile("bytes=10-19", lastModified), 10, 19);
+
+        // The file has changed, send all of it
+        assertFull(downloadFile("bytes=10-19", "\"other\""));
+        assertFull(downloadFile("bytes=10-19", "W/" + eTag));
+        assertFull(downloadFile("bytes=10-19",
+                "Sat, 01 Jan 2000 00:00:00 GMT"));
+    }
+
+    public void testStreamRanges() throws Exception {
+        assertPartial(download(createStream(true), "bytes=1000-1999", null),
+                1000, 1999);
+
+        ResponseRecorder recorder = download(createStream(true),
+                "bytes=0-9,20-29", null);
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, recorder.status);
+
+        // A stream can only be read forward
+        assertFull(download(createStream(true), "bytes=20-29,0-9", null));
+    }
+
+    public void testStreamWithoutLength() throws Exception {
+        ResponseRecorder recorder = download(createStream(false),
+                "bytes=100-199", null);
+        assertFull(recorder);
+        assertNull(recorder.headers.get("Accept-Ranges"));
+        assertNull(recorder.headers.get("Content-Length"));
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import com.vaadin.server.ClientConnector.DetachEvent;
+import com.vaadin.server.ClientConnector.DetachListener;
+import com.vaadin.server.communication.HeartbeatHandler;
+import com.vaadin.shared.ui.ui.UIConstants;
+import com.vaadin.ui.UI;
+
+/**
+ * Tests that heartbeats are handled without locking the session and that
+ * inactive UIs are closed by the UI sweeper of {@link VaadinService}.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class InactiveUIsTest extends TestCase {
+
+    private VaadinService service;
+    private VaadinSession session;
+    private UI activeUI;
+    private UI inactiveUI;
+
+    @Override
+    protected void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(Constants.SERVLET_PARAMETER_HEARTBEAT_INTERVAL,
+                "300");
+        DeploymentConfiguration configuration = new DefaultDeploymentConfiguration(
+                getClass(), properties);
+        service = new VaadinServletService(new VaadinServlet(), configuration);
+
+        final WrappedSession wrappedSession = EasyMock
+                .createNiceMock(WrappedSession.class);
+        EasyMock.expect(wrappedSession.getId()).andReturn("session").anyTimes();
+        EasyMock.replay(wrappedSession);
+
+        final Lock lock = new ReentrantLock();
+        session = new VaadinSession(service) {
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+
+            @Override
+            public WrappedSession getSession() {
+                return wrappedSession;
+            }
+        };
+
+        session.lock();
+        try {
+            session.setConfiguration(configuration);
+            activeUI = createUI(1);
+            inactiveUI = createUI(2);
+        } finally {
+            session.unlock();
+        }
+        // Heartbeat timeout is 3.1 heartbeat intervals
+        inactiveUI.setLastHeartbeatTimestamp(System.currentTimeMillis()
+                - 4 * 300 * 1000);
+
+        service.registerSession(session);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        service.destroy();
+    }
+
+    private UI createUI(int id) {
+        UI ui = new UI() {
+            @Override
+            protected void init(VaadinRequest request) {
+                // Nothing to initialize
+            }
+        };
+        ui.setSession(session);
+        VaadinRequest request = EasyMock.createNiceMock(VaadinRequest.class);
+        EasyMock.replay(request);
+        ui.doInit(request, id);
+        session.addUI(ui);
+        return ui;
+    }
+
+    public void testHeartbeatWhileSessionLocked() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread lockHolder = new Thread() {
+            @Override
+            public void run() {
+                session.lock();
+                try {
+                    locked.countDown();
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Just unlock
+                } finally {
+                    session.unlock();
+                }
+            }
+        };
+        lockHolder.start();
+        try {
+            assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+            VaadinRequest request = EasyMock
+                    .createNiceMock(VaadinRequest.class);
+            EasyMock.expect(request.getParameter(UIConstants.UI_ID_PARAMETER))
+                    .andReturn("2");
+            VaadinResponse response = EasyMock
+                    .createNiceMock(VaadinResponse.class);
+            EasyMock.replay(request, response);
+
+            long before = System.currentTimeMillis();
+            new HeartbeatHandler().handleRequest(session, request, response);
+
+            assertTrue(inactiveUI.getLastHeartbeatTimestamp() >= before);
+        } finally {
+            release.countDown();
+            lockHolder.join(10000);
+        }
+    }
+
+    public void testInactiveUIsClosed() {
+        service.closeInactiveUIs();
+
+        session.lock();
+        try {
+            assertTrue(inactiveUI.isClosing());
+            assertNull(session.getUIById(2));
+
+            assertFalse(activeUI.isClosing());
+            assertSame(activeUI, session.getUIById(1));
+        } finally {
+            session.unlock();
+        }
+    }
+
+    public void testAccessTaskRunWhenSweeperUnlocks() {
+        final List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+        session.lock();
+        try {
+            inactiveUI.addDetachListener(new DetachListener() {
+                @Override
+                public void detach(DetachEvent event) {
+                    // The sweeper holds the lock, so the task is enqueued
+                    tasks.add(session.access(new Runnable() {
+                        @Override
+                        public void run() {
+                            // Nothing to do
+                        }
+                    }));
+                }
+            });
+        } finally {
+            session.unlock();
+        }
+
+        service.closeInactiveUIs();
+
+        assertEquals(1, tasks.size());
+        assertTrue("Task enqueued during the sweep was not run", tasks.get(0)
+                .isDone());
+    }
+
+    public void testLockedSessionSkipped() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread lockHolder = new Thread() {
+            @Override
+            public void run() {
+                session.lock();
+                try {
+                    locked.countDown();
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Just unlock
+                } finally {
+                    session.unlock();
+                }
+            }
+        };
+        lockHolder.start();
+        try {
+            assertTrue(locked.await(10, TimeUnit.SECONDS));
+            service.closeInactiveUIs();
+            assertFalse(inactiveUI.isClosing());
+        } finally {
+            release.countDown();
+            lockHolder.join(10000);
+        }
+
+        service.closeInactiveUIs();
+        assertTrue(inactiveUI.isClosing());
+    }
+
+    public void testCleanupSessionKeepsInactiveUIs() {
+        session.lock();
+        try {
+            service.cleanupSession(session);
+            assertFalse(inactiveUI.isClosing());
+        } finally {
+            session.unlock();
+        }
+    }
+
+    public void testUnboundSessionDestroyedOnce() {
+        final AtomicInteger destroyEvents = new AtomicInteger();
+        service.addSessionDestroyListener(new SessionDestroyListener() {
+            @Override
+            public void sessionDestroy(SessionDestroyEvent event) {
+                destroyEvents.incrementAndGet();
+            }
+        });
+
+        session.lock();
+        try {
+            session.valueUnbound(null);
+            assertEquals(1, destroyEvents.get());
+
+            service.cleanupSession(session);
+        } finally {
+            session.unlock();
+        }
+        service.closeInactiveUIs();
+
+        assertEquals(1, destroyEvents.get());
+    }
+}
@@ -31,6 +31,7 @@ import org.json.JSONObject;
 import com.vaadin.server.JsonCodec.BeanProperty;
 import com.vaadin.shared.communication.UidlValue;
 import com.vaadin.shared.ui.splitpanel.AbstractSplitPanelState;
+import com.vaadin.shared.ui.table.TableState;
 
 /**
  * Tests for {@link JsonCodec}
@@ -99,6 +100,41 @@ public class JSONSerializerTest extends TestCase {
         }
     }
 
+    public void testStateDiffContainsOnlyChangedFields() throws Exception {
+        TableState reference = new TableState();
+        JSONObject referenceJson = (JSONObject) JsonCodec.encode(reference,
+                null, TableState.class, null).getEncodedValue();
+
+        TableState state = new TableState();
+        state.caption = "Changed";
+        state.styles = Arrays.asList("foo");
+        EncodeResult result = JsonCodec.encode(state, referenceJson,
+                TableState.class, null);
+
+        JSONObject diff = (JSONObject) result.getDiff();
+        assertEquals(2, diff.length());
+        assertEquals("Changed", diff.getString("caption"));
+        assertEquals("foo", diff.getJSONArray("styles").getString(0));
+
+        // Encoding again against the previous result gives an empty diff
+        result = JsonCodec.encode(state, result.getEncodedValue(),
+                TableState.class, null);
+        assertEquals(0, ((JSONObject) result.getDiff()).length());
+    }
+
+    public void testStateDiffWithParsedReference() throws Exception {
+        AbstractSplitPanelState state = new AbstractSplitPanelState();
+        state.splitterState.position = 0.1f;
+        JSONObject encoded = (JSONObject) JsonCodec.encode(state, null,
+                AbstractSplitPanelState.class, null).getEncodedValue();
+
+        // Numbers are parsed as Doubles, should still be considered equal
+        JSONObject parsed = new JSONObject(encoded.toString());
+        EncodeResult result = JsonCodec.encode(state, parsed,
+                AbstractSplitPanelState.class, null);
+        assertEquals(0, ((JSONObject) result.getDiff()).length());
+    }
+
     private void ensureDecodedCorrectly(Object original, Object encoded,
             Type type) throws Exception {
         Object serverSideDecoded = JsonCodec.decodeInternalOrCustomType(type,
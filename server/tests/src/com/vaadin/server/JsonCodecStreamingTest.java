@@ -0,0 +1,189 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.server;
+
+import java.io.StringWriter;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.vaadin.shared.communication.URLReference;
+import com.vaadin.shared.ui.table.TableState;
+
+/**
+ * Tests that the streaming encoding in {@link JsonCodec} produces the same
+ * JSON as the {@link JSONObject} based encoding.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class JsonCodecStreamingTest extends TestCase {
+
+    List<String> stringList;
+    Map<String, Integer> stringToIntegerMap;
+    Map<Integer, String> integerToStringMap;
+    Map<String, TableState> stringToStateMap;
+
+    public void testDefaultState() throws Exception {
+        assertStreamedEquals(new TableState(), TableState.class);
+    }
+
+    public void testPopulatedState() throws Exception {
+        TableState state = new TableState();
+        state.caption = "Caption with \"quotes\", \\ and </script>";
+        state.width = "100%";
+        state.enabled = false;
+        state.tabIndex = 3;
+        state.styles = new ArrayList<String>(Arrays.asList("a", "b"));
+        state.registeredEventListeners = new HashSet<String>(Arrays.asList(
+                "focus", "blur"));
+        URLReference reference = new URLReference();
+        reference.setURL("theme://icon.png");
+        state.resources.put("icon", reference);
+
+        assertStreamedEquals(state, TableState.class);
+    }
+
+    public void testCollections() throws Exception {
+        stringList = Arrays.asList("foo", null, "bar");
+        assertStreamedEquals(stringList, getFieldType("stringList"));
+
+        stringToIntegerMap = new HashMap<String, Integer>();
+        assertStreamedEquals(stringToIntegerMap,
+                getFieldType("stringToIntegerMap"));
+        stringToIntegerMap.put("one", 1);
+        stringToIntegerMap.put("two", 2);
+        assertStreamedEquals(stringToIntegerMap,
+                getFieldType("stringToIntegerMap"));
+
+        integerToStringMap = new HashMap<Integer, String>();
+        integerToStringMap.put(1, "one");
+        integerToStringMap.put(2, "two");
+        assertStreamedEquals(integerToStringMap,
+                getFieldType("integerToStringMap"));
+
+        stringToStateMap = new HashMap<String, TableState>();
+        stringToStateMap.put("state", new TableState());
+        assertStreamedEquals(stringToStateMap,
+                getFieldType("stringToStateMap"));
+    }
+
+    public void testArraysAndPrimitives() throws Exception {
+        assertStreamedEquals(new String[] { "a", "b" }, String[].class);
+        assertStreamedEquals(new int[] { 1, 2, 3 }, int[].class);
+        assertStreamedEquals(Double.valueOf(1.5), Double.class);
+        assertStreamedEquals(Float.valueOf(2), Float.class);
+        assertStreamedEquals(Long.valueOf(Long.MAX_VALUE), Long.class);
+        assertStreamedEquals(Boolean.TRUE, Boolean.class);
+        assertStreamedEquals(Character.valueOf('"'), Character.class);
+        assertStreamedEquals(null, String.class);
+    }
+
+    public void testWriteJson() throws Exception {
+        JSONObject json = new JSONObject();
+        json.put("array", new JSONArray(Arrays.asList(1, "two", false)));
+        json.put("object", new JSONObject().put("null", JSONObject.NULL));
+        json.put("string", "line\nbreak");
+
+        StringWriter writer = new StringWriter();
+        JsonCodec.writeJson(json, writer);
+        assertJsonEquals(json, new JSONObject(writer.toString()));
+    }
+
+    public void testWriteDiff() throws Exception {
+        TableState state = new TableState();
+        DiffState streamedDiffState = JsonCodec.createDiffState(state,
+                TableState.class, null);
+        DiffState diffState = streamedDiffState.copy();
+
+        StringWriter writer = new StringWriter();
+        assertFalse(JsonCodec.writeDiff(state, TableState.class,
+                streamedDiffState, null, "\"key\":", writer));
+        assertEquals("", writer.toString());
+
+        state.caption = "Changed";
+        state.styles = new ArrayList<String>(Arrays.asList("a"));
+        state.enabled = false;
+        assertTrue(JsonCodec.writeDiff(state, TableState.class,
+                streamedDiffState, null, "\"key\":", writer));
+        JSONObject expected = JsonCodec.encodeDiff(state, TableState.class,
+                diffState, null);
+        JSONObject actual = new JSONObject("{" + writer.toString() + "}")
+                .getJSONObject("key");
+        assertEquals(3, actual.length());
+        assertJsonEquals(expected, actual);
+
+        // The diff state has been updated
+        writer = new StringWriter();
+        assertFalse(JsonCodec.writeDiff(state, TableState.class,
+                streamedDiffState, null, "", writer));
+        assertEquals("", writer.toString());
+    }
+
+    private Type getFieldType(String name) throws NoSuchFieldException {
+        return getClass().getDeclaredField(name).getGenericType();
+    }
+
+    private static void assertStreamedEquals(Object value, Type type)
+            throws Exception {
+        Object expected = JsonCodec.encode(value, null, type, null)
+                .getEncodedValue();
+
+        StringWriter writer = new StringWriter();
+        JsonCodec.encode(value, type, null, writer);
+
+        // Wrap in an array to be able to parse primitive values as well
+        Object actual = new JSONArray("[" + writer.toString() + "]").get(0);
+        Object expectedParsed = new JSONArray(new JSONArray().put(expected)
+                .toString()).get(0);
+        assertJsonEquals(expectedParsed, actual);
+    }
+
+    private static void assertJsonEquals(Object expected, Object actual)
+            throws Exception {
+        if (expected instanceof JSONObject) {
+            assertTrue(actual instanceof JSONObject);
+            JSONObject expectedObject = (JSONObject) expected;
+            JSONObject actualObject = (JSONObject) actual;
+            assertEquals(expectedObject.length(), actualObject.length());
+            for (Iterator<?> i = expectedObject.keys(); i.hasNext();) {
+                String key = (String) i.next();
+                assertTrue("Missing key " + key, actualObject.has(key));
+                assertJsonEquals(expectedObject.get(key), actualObject.get(key));
+            }
+        } else if (expected instanceof JSONArray) {
+            assertTrue(actual instanceof JSONArray);
+            JSONArray expectedArray = (JSONArray) expected;
+            JSONArray actualArray = (JSONArray) actual;
+            assertEquals(expectedArray.length(), actualArray.length());
+            for (int i = 0; i < expectedArray.length(); i++) {
+                assertJsonEquals(expectedArray.get(i), actualArray.get(i));
+            }
+        } else {
+            assertEquals(expected, actual);
+        }
+    }
+}
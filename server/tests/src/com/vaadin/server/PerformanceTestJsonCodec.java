@@ -0,0 +1,180 @@
+package com.vaadin.server;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import org.json.JSONObject;
+
+import com.vaadin.shared.communication.SharedState;
+import com.vaadin.shared.ui.button.ButtonState;
+import com.vaadin.shared.ui.label.LabelState;
+import com.vaadin.shared.ui.table.TableState;
+
+public class PerformanceTestJsonCodec extends TestCase {
+
+    private static final int REPEATS = 10;
+    private static final int CONNECTORS = 5000;
+    private static final long WRITE_STATES_FAIL_THRESHOLD = 500;
+    private static final long ENCODE_DIFF_FAIL_THRESHOLD = 500;
+
+    /**
+     * Writer that only counts the characters, so that the timings are not
+     * dominated by growing a buffer.
+     */
+    private static class CountingWriter extends Writer {
+        private long count = 0;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(int c) {
+            count++;
+        }
+
+        @Override
+        public void write(String str) {
+            count += str.length();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final List<SharedState> states = new ArrayList<SharedState>();
+
+    @Override
+    protected void setUp() throws Exception {
+        // Synthetic UI with a mix of state types
+        for (int i = 0; i < CONNECTORS; i++) {
+            SharedState state;
+            switch (i % 3) {
+            case 0:
+                TableState tableState = new TableState();
+                tableState.caption = "Table " + i;
+                tableState.width = "100%";
+                state = tableState;
+                break;
+            case 1:
+                ButtonState buttonState = new ButtonState();
+                buttonState.caption = "Button " + i;
+                buttonState.description = "Click \"me\"";
+                state = buttonState;
+                break;
+            default:
+                LabelState labelState = new LabelState();
+                labelState.text = "Label " + i;
+                state = labelState;
+            }
+            states.add(state);
+        }
+    }
+
+    public void testWriteStatesPerformance() throws Exception {
+        Collection<Long> treeTimes = new ArrayList<Long>();
+        Collection<Long> streamTimes = new ArrayList<Long>();
+        for (int j = 0; j < REPEATS; ++j) {
+            CountingWriter treeWriter = new CountingWriter();
+            long start = System.currentTimeMillis();
+            writeStatesUsingTree(treeWriter);
+            treeTimes.add(System.currentTimeMillis() - start);
+
+            CountingWriter streamWriter = new CountingWriter();
+            start = System.currentTimeMillis();
+            writeStatesStreaming(streamWriter);
+            streamTimes.add(System.currentTimeMillis() - start);
+
+            Assert.assertEquals(treeWriter.count, streamWriter.count);
+        }
+        System.out.println("JSONObject tree state writing timings (ms) for "
+                + CONNECTORS + " connectors: " + treeTimes);
+        checkMedian(CONNECTORS, streamTimes, "JsonCodec.encode(..., Writer)",
+                WRITE_STATES_FAIL_THRESHOLD);
+    }
+
+    public void testEncodeDiffPerformance() throws Exception {
+        // Encode once to get the reference, as done for the first response
+        List<Object> references = new ArrayList<Object>();
+        for (SharedState state : states) {
+            references.add(JsonCodec.encode(state, null, state.getClass(),
+                    null).getEncodedValue());
+        }
+        // A typical update only changes a few fields of a few states
+        for (int i = 0; i < states.size(); i += 10) {
+            states.get(i).enabled = false;
+        }
+
+        Collection<Long> times = new ArrayList<Long>();
+        for (int j = 0; j < REPEATS; ++j) {
+            int changed = 0;
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < states.size(); i++) {
+                SharedState state = states.get(i);
+                EncodeResult result = JsonCodec.encode(state,
+                        references.get(i), state.getClass(), null);
+                changed += ((JSONObject) result.getDiff()).length();
+            }
+            times.add(System.currentTimeMillis() - start);
+            Assert.assertEquals(CONNECTORS / 10, changed);
+        }
+        checkMedian(CONNECTORS, times, "JsonCodec.encode(state, reference)",
+                ENCODE_DIFF_FAIL_THRESHOLD);
+    }
+
+    private void writeStatesUsingTree(Writer writer) throws Exception {
+        JSONObject sharedStates = new JSONObject();
+        for (int i = 0; i < states.size(); i++) {
+            SharedState state = states.get(i);
+            sharedStates.put(String.valueOf(i),
+                    JsonCodec.encode(state, null, state.getClass(), null)
+                            .getEncodedValue());
+        }
+        writer.write(sharedStates.toString());
+    }
+
+    private void writeStatesStreaming(Writer writer) throws Exception,
+            IOException {
+        writer.write('{');
+        for (int i = 0; i < states.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            SharedState state = states.get(i);
+            writer.write(JSONObject.quote(String.valueOf(i)));
+            writer.write(':');
+            JsonCodec.encode(state, state.getClass(), null, writer);
+        }
+        writer.write('}');
+    }
+
+    private void checkMedian(int items, Collection<Long> times,
+            String methodName, long threshold) {
+        long median = median(times);
+        System.out.println(methodName + " timings (ms) for " + items
+                + " connectors: " + times);
+        Assert.assertTrue(methodName + " too slow, median time " + median
+                + "ms for " + items + " connectors", median <= threshold);
+    }
+
+    private Long median(Collection<Long> times) {
+        ArrayList<Long> list = new ArrayList<Long>(times);
+        Collections.sort(list);
+        // not exact median in some cases, but good enough
+        return list.get(list.size() / 2);
+    }
+
+}
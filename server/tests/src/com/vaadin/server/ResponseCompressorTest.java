@@ -0,0 +1,202 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+/**
+ * Tests for {@link ResponseCompressor}.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class ResponseCompressorTest extends TestCase {
+
+    private static byte[] createData(int length) {
+        // Compressible but not trivially so
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(42);
+        while (sb.length() < length) {
+            sb.append("{\"id\":").append(random.nextInt(1000))
+                    .append(",\"caption\":\"Row\"},");
+        }
+        return sb.substring(0, length).getBytes();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    public void testSelectEncoding() {
+        assertNull(ResponseCompressor.selectEncoding(null));
+        assertNull(ResponseCompressor.selectEncoding("identity"));
+        assertEquals("gzip", ResponseCompressor.selectEncoding("gzip, deflate"));
+        assertEquals("gzip", ResponseCompressor.selectEncoding("deflate, gzip"));
+        assertEquals("deflate",
+                ResponseCompressor.selectEncoding("gzip;q=0, deflate"));
+        assertEquals("deflate",
+                ResponseCompressor.selectEncoding("gzip;q=0.5, deflate;q=0.8"));
+        assertEquals("gzip", ResponseCompressor.selectEncoding("*"));
+        assertNull(ResponseCompressor.selectEncoding("*;q=0"));
+        assertEquals("gzip", ResponseCompressor.selectEncoding("x-gzip"));
+    }
+
+    public void testGzipRoundTrip() throws IOException {
+        ResponseCompressor compressor = new ResponseCompressor(0);
+        byte[] data = createData(100000);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream out = compressor.compress(compressed, "gzip");
+        out.write(data, 0, 1000);
+        out.write(data, 1000, data.length - 1000);
+        out.close();
+
+        byte[] result = readFully(new GZIPInputStream(new ByteArrayInputStream(
+                compressed.toByteArray())));
+        assertTrue(Arrays.equals(data, result));
+        assertEquals(data.length, compressor.getRawByteCount());
+        assertEquals(compressed.size(), compressor.getCompressedByteCount());
+        assertTrue(compressor.getCompressedByteCount() < data.length / 2);
+        assertEquals(1, compressor.getCompressedResponseCount());
+    }
+
+    public void testDeflateRoundTrip() throws IOException {
+        ResponseCompressor compressor = new ResponseCompressor(0);
+        byte[] data = createData(50000);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream out = compressor.compress(compressed, "deflate");
+        out.write(data);
+        out.close();
+
+        byte[] result = readFully(new InflaterInputStream(
+                new ByteArrayInputStream(compressed.toByteArray())));
+        assertTrue(Arrays.equals(data, result));
+    }
+
+    public void testDeflatersArePooled() throws IOException {
+        ResponseCompressor compressor = new ResponseCompressor(0);
+        byte[] data = createData(10000);
+        for (int i = 0; i < 10; i++) {
+            OutputStream out = compressor.compress(new ByteArrayOutputStream(),
+                    "gzip");
+            out.write(data);
+            out.close();
+        }
+        assertEquals(1, compressor.getPooledDeflaterCount());
+
+        // Reused deflaters produce the same output as new ones
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        OutputStream out = new ResponseCompressor(0).compress(first, "gzip");
+        out.write(data);
+        out.close();
+        ByteArrayOutputStream reused = new ByteArrayOutputStream();
+        out = compressor.compress(reused, "gzip");
+        out.write(data);
+        out.close();
+        assertTrue(Arrays.equals(first.toByteArray(),
+                reused.toByteArray()));
+    }
+
+    public void testDestroyEmptiesPools() throws IOException {
+        ResponseCompressor compressor = new ResponseCompressor(0);
+        byte[] data = createData(10000);
+        OutputStream gzip = compressor.compress(new ByteArrayOutputStream(),
+                "gzip");
+        OutputStream deflate = compressor.compress(
+                new ByteArrayOutputStream(), "deflate");
+        gzip.write(data);
+        gzip.close();
+        assertEquals(1, compressor.getPooledDeflaterCount());
+
+        compressor.destroy();
+        assertEquals(0, compressor.getPooledDeflaterCount());
+
+        // Deflaters in use are not pooled after being released
+        deflate.write(data);
+        deflate.close();
+        assertEquals(0, compressor.getPooledDeflaterCount());
+    }
+
+    public void testWriteResponseAboveThreshold() throws IOException {
+        ResponseCompressor compressor = new ResponseCompressor(1000);
+        byte[] data = createData(5000);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        VaadinRequest request = EasyMock.createMock(VaadinRequest.class);
+        EasyMock.expect(request.getHeader("Accept-Encoding")).andReturn(
+                "gzip, deflate");
+        VaadinResponse response = EasyMock.createMock(VaadinResponse.class);
+        response.setHeader("Vary", "Accept-Encoding");
+        response.setHeader("Content-Encoding", "gzip");
+        EasyMock.expect(response.getOutputStream()).andReturn(body);
+        EasyMock.replay(request, response);
+
+        compressor.writeResponse(request, response, data, 0, data.length);
+
+        EasyMock.verify(request, response);
+        byte[] result = readFully(new GZIPInputStream(new ByteArrayInputStream(
+                body.toByteArray())));
+        assertTrue(Arrays.equals(data, result));
+    }
+
+    public void testWriteResponseBelowThreshold() throws IOException {
+        ResponseCompressor compressor = new ResponseCompressor(1000);
+        byte[] data = createData(500);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        VaadinRequest request = EasyMock.createNiceMock(VaadinRequest.class);
+        EasyMock.expect(request.getHeader("Accept-Encoding")).andReturn("gzip")
+                .anyTimes();
+        VaadinResponse response = EasyMock.createMock(VaadinResponse.class);
+        response.setHeader("Vary", "Accept-Encoding");
+        EasyMock.expect(response.getOutputStream()).andReturn(body);
+        EasyMock.replay(request, response);
+
+        compressor.writeResponse(request, response, data, 0, data.length);
+
+        EasyMock.verify(response);
+        assertTrue(Arrays.equals(data, body.toByteArray()));
+        assertEquals(0, compressor.getCompressedResponseCount());
+    }
+
+    public void testDisabled() {
+        ResponseCompressor compressor = new ResponseCompressor(-1);
+        VaadinRequest request = EasyMock.createNiceMock(VaadinRequest.class);
+        EasyMock.expect(request.getHeader("Accept-Encoding")).andReturn("gzip")
+                .anyTimes();
+        EasyMock.replay(request);
+        assertNull(compressor.getEncoding(request, 1000000));
+    }
+}
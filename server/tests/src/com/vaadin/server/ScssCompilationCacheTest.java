@@ -0,0 +1,140 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.server;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.server.StaticResourceCache.CachedResource;
+
+/**
+ * Tests for {@link ScssCompilationCache}.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class ScssCompilationCacheTest extends TestCase {
+
+    private static final long LAST_MODIFIED = 1300000000000L;
+
+    private static final String FILENAME = "/VAADIN/themes/test/styles.scss";
+
+    private File dir;
+    private File main;
+    private File partial;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("theme", "");
+        dir.delete();
+        dir.mkdir();
+        main = new File(dir, "styles.scss");
+        partial = new File(dir, "_partial.scss");
+        write(main, "@import \"_partial\";\n.v-button {\n\tcolor: $color;\n}",
+                LAST_MODIFIED);
+        write(partial, "$color: red;", LAST_MODIFIED + 2000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        partial.delete();
+        main.delete();
+        dir.delete();
+    }
+
+    private static void write(File file, String content, long lastModified)
+            throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+        file.setLastModified(lastModified);
+    }
+
+    private CachedResource compile(ScssCompilationCache cache)
+            throws Exception {
+        ScssStylesheet scss = ScssStylesheet.get(main.getPath(), null,
+                cache.getParseCache());
+        scss.compile();
+        return cache.put(FILENAME, scss, "text/css", "no-cache");
+    }
+
+    public void testCompiledCssCached() throws Exception {
+        ScssCompilationCache cache = new ScssCompilationCache(null, true);
+        assertNull(cache.get(FILENAME));
+
+        CachedResource css = compile(cache);
+        assertEquals(".v-button {\n\tcolor: red;\n}",
+                new String(css.getData(), "UTF-8"));
+        // The newest file in the import graph
+        assertEquals(LAST_MODIFIED + 2000, css.getLastModified());
+        assertEquals(StaticResourceCache.createETag(css.getData()),
+                css.getETag());
+
+        assertSame(css, cache.get(FILENAME));
+        assertEquals(1, cache.getStylesheetCount());
+    }
+
+    public void testModifiedImportInvalidates() throws Exception {
+        ScssCompilationCache cache = new ScssCompilationCache(null, true);
+        CachedResource css = compile(cache);
+
+        write(partial, "$color: blue;", LAST_MODIFIED + 4000);
+        assertNull(cache.get(FILENAME));
+        assertEquals(0, cache.getStylesheetCount());
+
+        CachedResource recompiled = compile(cache);
+        assertEquals(".v-button {\n\tcolor: blue;\n}", new String(
+                recompiled.getData(), "UTF-8"));
+        assertFalse(css.getETag().equals(recompiled.getETag()));
+    }
+
+    public void testClearRemovesParsedSources() throws Exception {
+        ScssCompilationCache cache = new ScssCompilationCache(null, true);
+        compile(cache);
+        assertEquals(2, cache.getParseCache().size());
+
+        cache.clear();
+        assertEquals(0, cache.getStylesheetCount());
+        assertEquals(0, cache.getParseCache().size());
+    }
+
+    public void testNotCheckedInProductionMode() throws Exception {
+        ScssCompilationCache cache = new ScssCompilationCache(null, false);
+        CachedResource css = compile(cache);
+
+        write(partial, "$color: blue;", LAST_MODIFIED + 4000);
+        assertSame(css, cache.get(FILENAME));
+    }
+
+    public void testGzipVariant() throws Exception {
+        ScssCompilationCache cache = new ScssCompilationCache(
+                new ResponseCompressor(0), true);
+        StringBuilder rules = new StringBuilder("@import \"_partial\";\n");
+        for (int i = 0; i < 100; i++) {
+            rules.append(".v-button-").append(i)
+                    .append(" {\n\tcolor: $color;\n}\n");
+        }
+        write(main, rules.toString(), LAST_MODIFIED);
+
+        CachedResource css = compile(cache);
+        assertNotNull(css.getGzipData());
+        assertTrue(css.getGzipData().length < css.getData().length);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import junit.framework.TestCase;
+
+import com.vaadin.ui.UI;
+
+/**
+ * Tests for {@link VaadinSession#access(Runnable)} and
+ * {@link UI#access(Runnable)}.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class SessionAccessTest extends TestCase {
+
+    private VaadinSession session;
+
+    @Override
+    protected void setUp() throws Exception {
+        final Lock lock = new ReentrantLock();
+        session = new VaadinSession(null) {
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+        };
+    }
+
+    public void testAccessUnlockedSessionRunsImmediately() throws Exception {
+        final AtomicReference<VaadinSession> current = new AtomicReference<VaadinSession>();
+        Future<Void> future = session.access(new Runnable() {
+            @Override
+            public void run() {
+                assertTrue(session.hasLock());
+                current.set(VaadinSession.getCurrent());
+            }
+        });
+        assertTrue(future.isDone());
+        future.get();
+        assertSame(session, current.get());
+        assertFalse(session.hasLock());
+    }
+
+    public void testAccessLockedSessionDoesNotBlock() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Thread> runningThread = new AtomicReference<Thread>();
+        Thread lockHolder = new Thread() {
+            @Override
+            public void run() {
+                session.lock();
+                try {
+                    locked.countDown();
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Just unlock
+                } finally {
+                    session.unlock();
+                }
+            }
+        };
+        lockHolder.start();
+        assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+        Future<Void> future = session.access(new Runnable() {
+            @Override
+            public void run() {
+                runningThread.set(Thread.currentThread());
+            }
+        });
+        assertFalse(future.isDone());
+
+        release.countDown();
+        future.get(10, TimeUnit.SECONDS);
+        lockHolder.join(10000);
+        assertSame(lockHolder, runningThread.get());
+    }
+
+    public void testAccessWhileHoldingLockRunsOnUnlock() {
+        final boolean[] run = new boolean[1];
+        session.lock();
+        try {
+            session.access(new Runnable() {
+                @Override
+                public void run() {
+                    run[0] = true;
+                }
+            });
+            assertFalse(run[0]);
+        } finally {
+            session.unlock();
+        }
+        assertTrue(run[0]);
+    }
+
+    public void testAccessTaskExceptionInFuture() throws Exception {
+        Future<Void> future = session.access(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Expected");
+            }
+        });
+        try {
+            future.get();
+            fail("The exception should be available from the future");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertFalse(session.hasLock());
+    }
+}
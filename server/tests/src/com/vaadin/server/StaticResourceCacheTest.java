@@ -0,0 +1,305 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import com.vaadin.server.StaticResourceCache.CachedResource;
+
+/**
+ * Tests for {@link StaticResourceCache}.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class StaticResourceCacheTest extends TestCase {
+
+    private static final long LAST_MODIFIED = 1300000000000L;
+
+    private File file;
+
+    /**
+     * Records the status, headers and body written to a response.
+     */
+    private static class ResponseRecorder implements InvocationHandler {
+        private int status = HttpServletResponse.SC_OK;
+        private final Map<String, Object> headers = new HashMap<String, Object>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if (name.equals("setStatus")) {
+                status = (Integer) args[0];
+            } else if (name.equals("setHeader")
+                    || name.equals("setDateHeader")) {
+                headers.put((String) args[0], args[1]);
+            } else if (name.equals("setContentType")) {
+                headers.put("Content-Type", args[0]);
+            } else if (name.equals("setContentLength")) {
+                headers.put("Content-Length", args[0]);
+            } else if (name.equals("getOutputStream")) {
+                return new ServletOutputStream() {
+                    @Override
+                    public void write(int b) {
+                        body.write(b);
+                    }
+                };
+            }
+            return null;
+        }
+
+        HttpServletResponse createResponse() {
+            return (HttpServletResponse) Proxy.newProxyInstance(getClass()
+                    .getClassLoader(),
+                    new Class<?>[] { HttpServletResponse.class }, this);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("vaadin", ".js");
+        writeFile(createData(20000), LAST_MODIFIED);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    private static byte[] createData(int length) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (sb.length() < length) {
+            sb.append("function f").append(i++).append("(){return 1;}\n");
+        }
+        return sb.substring(0, length).getBytes();
+    }
+
+    private void writeFile(byte[] data, long lastModified) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        file.setLastModified(lastModified);
+    }
+
+    private URL getUrl() throws IOException {
+        return file.toURI().toURL();
+    }
+
+    private static HttpServletRequest createRequest(String acceptEncoding,
+            String ifNoneMatch, long ifModifiedSince) {
+        HttpServletRequest request = EasyMock
+                .createNiceMock(HttpServletRequest.class);
+        EasyMock.expect(request.getHeader("Accept-Encoding"))
+                .andReturn(acceptEncoding).anyTimes();
+        EasyMock.expect(request.getHeader("If-None-Match"))
+                .andReturn(ifNoneMatch).anyTimes();
+        EasyMock.expect(request.getDateHeader("If-Modified-Since"))
+                .andReturn(ifModifiedSince).anyTimes();
+        EasyMock.replay(request);
+        return request;
+    }
+
+    private static ResponseRecorder serve(CachedResource resource,
+            HttpServletRequest request) throws IOException {
+        ResponseRecorder recorder = new ResponseRecorder();
+        StaticResourceCache.writeResponse(resource, request,
+                recorder.createResponse());
+        return recorder;
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    public void testServedFromMemory() throws IOException {
+        StaticResourceCache cache = new StaticResourceCache(1024 * 1024,
+                null, false);
+        assertNull(cache.get("/VAADIN/test.js"));
+        CachedResource resource = cache.load("/VAADIN/test.js", getUrl(),
+                "text/javascript", "max-age=3600");
+        assertNotNull(resource);
+        assertEquals(LAST_MODIFIED, resource.getLastModified());
+
+        // Changes are not seen without modification checks
+        file.delete();
+        assertSame(resource, cache.get("/VAADIN/test.js"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        ResponseRecorder recorder = serve(resource,
+                createRequest(null, null, -1));
+        assertEquals(HttpServletResponse.SC_OK, recorder.status);
+        assertTrue(Arrays.equals(createData(20000),
+                recorder.body.toByteArray()));
+        assertEquals(resource.getETag(), recorder.headers.get("ETag"));
+        assertEquals(LAST_MODIFIED, recorder.headers.get("Last-Modified"));
+        assertEquals("max-age=3600", recorder.headers.get("Cache-Control"));
+        assertEquals("text/javascript", recorder.headers.get("Content-Type"));
+        assertEquals(20000, recorder.headers.get("Content-Length"));
+    }
+
+    public void testIfNoneMatch() throws IOException {
+        StaticResourceCache cache = new StaticResourceCache(1024 * 1024,
+                null, false);
+        CachedResource resource = cache.load("/VAADIN/test.js", getUrl(),
+                null, null);
+
+        ResponseRecorder recorder = serve(resource,
+                createRequest(null, "\"other\", " + resource.getETag(), -1));
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, recorder.status);
+        assertEquals(0, recorder.body.size());
+
+        recorder = serve(resource,
+                createRequest(null, "\"other\"", LAST_MODIFIED));
+        // If-None-Match takes precedence over If-Modified-Since
+        assertEquals(HttpServletResponse.SC_OK, recorder.status);
+        assertEquals(20000, recorder.body.size());
+    }
+
+    public void testIfModifiedSince() throws IOException {
+        StaticResourceCache cache = new StaticResourceCache(1024 * 1024,
+                null, false);
+        CachedResource resource = cache.load("/VAADIN/test.js", getUrl(),
+                null, null);
+
+        ResponseRecorder recorder = serve(resource,
+                createRequest(null, null, LAST_MODIFIED));
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, recorder.status);
+
+        recorder = serve(resource,
+                createRequest(null, null, LAST_MODIFIED - 1000));
+        assertEquals(HttpServletResponse.SC_OK, recorder.status);
+    }
+
+    public void testGzipVariant() throws IOException {
+        StaticResourceCache cache = new StaticResourceCache(1024 * 1024,
+                new ResponseCompressor(1024), false);
+        CachedResource resource = cache.load("/VAADIN/test.js", getUrl(),
+                null, null);
+        assertNotNull(resource.getGzipData());
+        assertTrue(resource.getGzipData().length < 20000);
+        assertEquals(20000 + resource.getGzipData().length, cache.getSize());
+
+        ResponseRecorder recorder = serve(resource,
+                createRequest("gzip, deflate", null, -1));
+        assertEquals("gzip", recorder.headers.get("Content-Encoding"));
+        assertEquals("Accept-Encoding", recorder.headers.get("Vary"));
+        assertTrue(Arrays.equals(createData(20000),
+                gunzip(recorder.body.toByteArray())));
+        String gzipETag = (String) recorder.headers.get("ETag");
+        assertFalse(resource.getETag().equals(gzipETag));
+
+        // Either representation's ETag validates the resource
+        recorder = serve(resource, createRequest(null, gzipETag, -1));
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, recorder.status);
+
+        recorder = serve(resource, createRequest(null, null, -1));
+        assertNull(recorder.headers.get("Content-Encoding"));
+        assertEquals(20000, recorder.body.size());
+    }
+
+    public void testIncompressibleHasNoGzipVariant() throws IOException {
+        byte[] data = new byte[20000];
+        new java.util.Random(42).nextBytes(data);
+        writeFile(data, LAST_MODIFIED);
+        StaticResourceCache cache = new StaticResourceCache(1024 * 1024,
+                new ResponseCompressor(1024), false);
+        CachedResource resource = cache.load("/VAADIN/test.png", getUrl(),
+                null, null);
+        assertNull(resource.getGzipData());
+
+        ResponseRecorder recorder = serve(resource,
+                createRequest("gzip", null, -1));
+        assertNull(recorder.headers.get("Content-Encoding"));
+        assertNull(recorder.headers.get("Vary"));
+        assertTrue(Arrays.equals(data, recorder.body.toByteArray()));
+    }
+
+    public void testLeastRecentlyUsedEvicted() throws IOException {
+        StaticResourceCache cache = new StaticResourceCache(80000, null,
+                false);
+        cache.load("/VAADIN/a.js", getUrl(), null, null);
+        cache.load("/VAADIN/b.js", getUrl(), null, null);
+        cache.load("/VAADIN/c.js", getUrl(), null, null);
+        cache.load("/VAADIN/d.js", getUrl(), null, null);
+        assertEquals(80000, cache.getSize());
+
+        // Makes b the eldest
+        assertNotNull(cache.get("/VAADIN/a.js"));
+        cache.load("/VAADIN/e.js", getUrl(), null, null);
+
+        assertEquals(4, cache.getResourceCount());
+        assertEquals(80000, cache.getSize());
+        assertNotNull(cache.get("/VAADIN/a.js"));
+        assertNull(cache.get("/VAADIN/b.js"));
+        assertNotNull(cache.get("/VAADIN/e.js"));
+    }
+
+    public void testLargeResourceNotCached() throws IOException {
+        StaticResourceCache cache = new StaticResourceCache(60000, null,
+                false);
+        assertNull(cache.load("/VAADIN/test.js", getUrl(), null, null));
+        assertEquals(0, cache.getResourceCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    public void testModifiedResourceReloaded() throws IOException {
+        StaticResourceCache cache = new StaticResourceCache(1024 * 1024,
+                null, true);
+        CachedResource resource = cache.load("/VAADIN/test.js", getUrl(),
+                null, null);
+        assertSame(resource, cache.get("/VAADIN/test.js"));
+
+        writeFile(createData(10000), LAST_MODIFIED + 5000);
+        assertNull(cache.get("/VAADIN/test.js"));
+        assertEquals(0, cache.getSize());
+
+        resource = cache.load("/VAADIN/test.js", getUrl(), null, null);
+        assertEquals(LAST_MODIFIED + 5000, resource.getLastModified());
+        assertEquals(10000, cache.getSize());
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.server.communication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import com.vaadin.server.Constants;
+import com.vaadin.server.DefaultDeploymentConfiguration;
+import com.vaadin.server.DeploymentConfiguration;
+import com.vaadin.server.StreamVariable;
+import com.vaadin.server.StreamVariable.ThreadSafeProgress;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.Upload;
+
+/**
+ * Tests how often {@link FileUploadHandler} locks the session while an upload
+ * is in progress.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class FileUploadHandlerTest extends TestCase {
+
+    private static final String BOUNDARY = "---------------------------7dd2d8185e0488";
+
+    private static final int UPLOAD_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Lock that counts how many times it has been acquired.
+     */
+    private static class CountingLock extends ReentrantLock {
+        private int lockCount = 0;
+
+        @Override
+        public void lock() {
+            super.lock();
+            lockCount++;
+        }
+    }
+
+    private static class ProgressStreamVariable implements StreamVariable {
+        private final List<Long> progress = new ArrayList<Long>();
+        private final List<Boolean> progressLocked = new ArrayList<Boolean>();
+        private final VaadinSession session;
+        private long bytesReceived = -1;
+
+        public ProgressStreamVariable(VaadinSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public boolean listenProgress() {
+            return true;
+        }
+
+        @Override
+        public void onProgress(StreamingProgressEvent event) {
+            progress.add(event.getBytesReceived());
+            progressLocked.add(session.hasLock());
+        }
+
+        @Override
+        public void streamingStarted(StreamingStartEvent event) {
+        }
+
+        @Override
+        public void streamingFinished(StreamingEndEvent event) {
+            bytesReceived = event.getBytesReceived();
+        }
+
+        @Override
+        public void streamingFailed(StreamingErrorEvent event) {
+            fail(event.getException().toString());
+        }
+
+        @Override
+        public boolean isInterrupted() {
+            return false;
+        }
+    }
+
+    private static class ThreadSafeProgressStreamVariable extends
+            ProgressStreamVariable implements ThreadSafeProgress {
+
+        public ThreadSafeProgressStreamVariable(VaadinSession session) {
+            super(session);
+        }
+    }
+
+    private CountingLock lock;
+    private Properties properties;
+    private VaadinSession session;
+
+    @Override
+    protected void setUp() throws Exception {
+        lock = new CountingLock();
+        properties = new Properties();
+        final DeploymentConfiguration configuration = new DefaultDeploymentConfiguration(
+                getClass(), properties);
+        session = new VaadinSession(null) {
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+
+            @Override
+            public DeploymentConfiguration getConfiguration() {
+                return configuration;
+            }
+        };
+    }
+
+    private void upload(StreamVariable streamVariable) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; "
+                + "filename=\"file.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n")
+                .getBytes("UTF-8"));
+        body.write(new byte[UPLOAD_SIZE]);
+        body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes("UTF-8"));
+
+        VaadinRequest request = EasyMock.createNiceMock(VaadinRequest.class);
+        EasyMock.expect(request.getInputStream())
+                .andReturn(new ByteArrayInputStream(body.toByteArray()))
+                .anyTimes();
+        VaadinResponse response = EasyMock
+                .createNiceMock(VaadinResponse.class);
+        EasyMock.expect(response.getOutputStream())
+                .andReturn(new ByteArrayOutputStream()).anyTimes();
+        EasyMock.replay(request, response);
+
+        lock.lockCount = 0;
+        new FileUploadHandler().doHandleSimpleMultipartFileUpload(session,
+                request, response, streamVariable, "file", new Upload(),
+                BOUNDARY);
+    }
+
+    public void testProgressEventsAreCoalesced() throws Exception {
+        ProgressStreamVariable streamVariable = new ProgressStreamVariable(
+                session);
+        upload(streamVariable);
+
+        assertEquals(UPLOAD_SIZE, streamVariable.bytesReceived);
+        long expectedEvents = UPLOAD_SIZE
+                / FileUploadHandler.DEFAULT_PROGRESS_BYTES;
+        assertTrue("Too many progress events: "
+                + streamVariable.progress.size(),
+                streamVariable.progress.size() <= 2 * expectedEvents);
+        assertEquals(Long.valueOf(UPLOAD_SIZE), streamVariable.progress
+                .get(streamVariable.progress.size() - 1));
+        assertFalse(streamVariable.progressLocked.contains(Boolean.FALSE));
+        // Started and finished events in addition to the progress events
+        assertEquals(streamVariable.progress.size() + 2, lock.lockCount);
+    }
+
+    public void testThreadSafeProgressDoesNotLockSession() throws Exception {
+        ProgressStreamVariable streamVariable = new ThreadSafeProgressStreamVariable(
+                session);
+        upload(streamVariable);
+
+        assertEquals(UPLOAD_SIZE, streamVariable.bytesReceived);
+        assertFalse(streamVariable.progress.isEmpty());
+        assertFalse(streamVariable.progressLocked.contains(Boolean.TRUE));
+        // Only the started and finished events lock the session
+        assertEquals(2, lock.lockCount);
+    }
+
+    public void testProgressByteInterval() throws Exception {
+        properties.setProperty(
+                Constants.SERVLET_PARAMETER_UPLOAD_PROGRESS_BYTES,
+                String.valueOf(1024 * 1024));
+        ProgressStreamVariable streamVariable = new ProgressStreamVariable(
+                session);
+        upload(streamVariable);
+
+        // At least one event per megabyte and not much more
+        assertTrue(streamVariable.progress.size() >= 16);
+        assertTrue(streamVariable.progress.size() <= 32);
+        // The event is sent after the read that reaches the limit
+        long maxBetweenEvents = 1024 * 1024 + 64 * 1024;
+        long previous = 0;
+        for (Long bytes : streamVariable.progress) {
+            assertTrue(bytes - previous < maxBetweenEvents);
+            previous = bytes;
+        }
+    }
+
+    public void testProgressForEveryBuffer() throws Exception {
+        properties.setProperty(
+                Constants.SERVLET_PARAMETER_UPLOAD_PROGRESS_BYTES, "0");
+        ProgressStreamVariable streamVariable = new ProgressStreamVariable(
+                session);
+        upload(streamVariable);
+
+        // One event for each buffer read
+        assertTrue(streamVariable.progress.size() >= UPLOAD_SIZE / 64 / 1024);
+        assertEquals(streamVariable.progress.size() + 2, lock.lockCount);
+    }
+}
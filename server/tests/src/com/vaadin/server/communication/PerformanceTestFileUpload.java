@@ -0,0 +1,212 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.server.communication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import com.vaadin.server.StreamVariable;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.Upload;
+
+/**
+ * Measures the throughput of streaming a large multipart upload through
+ * {@link FileUploadHandler} from an in-memory request stream.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class PerformanceTestFileUpload extends TestCase {
+
+    private static final long UPLOAD_SIZE = 1024L * 1024 * 1024;
+
+    private static final long UPLOAD_FAIL_THRESHOLD = 60000;
+
+    private static final String BOUNDARY = "---------------------------7dd2d8185e0488";
+
+    /**
+     * Generates a multipart request body with a single file of the given size
+     * without keeping the whole body in memory.
+     */
+    private static class MultipartRequestStream extends InputStream {
+        private final byte[] header;
+        private final byte[] content = new byte[8 * 1024];
+        private final byte[] trailer;
+        private final long size;
+        private long position = 0;
+
+        public MultipartRequestStream(long contentSize) throws IOException {
+            header = ("--" + BOUNDARY + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; "
+                    + "filename=\"large.bin\"\r\n"
+                    + "Content-Type: application/octet-stream\r\n\r\n")
+                    .getBytes("UTF-8");
+            trailer = ("\r\n--" + BOUNDARY + "--\r\n").getBytes("UTF-8");
+            size = header.length + contentSize + trailer.length;
+
+            new Random(0).nextBytes(content);
+            // Include something that looks like the start of the boundary
+            byte[] partialBoundary = ("\r\n--" + BOUNDARY.substring(0, 20))
+                    .getBytes("UTF-8");
+            System.arraycopy(partialBoundary, 0, content, 1000,
+                    partialBoundary.length);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position == size) {
+                return -1;
+            }
+            long contentEnd = size - trailer.length;
+            int count;
+            if (position < header.length) {
+                count = (int) Math.min(len, header.length - position);
+                System.arraycopy(header, (int) position, b, off, count);
+            } else if (position < contentEnd) {
+                long contentPosition = position - header.length;
+                int contentOffset = (int) (contentPosition % content.length);
+                count = (int) Math.min(Math.min(len, content.length
+                        - contentOffset), contentEnd - position);
+                System.arraycopy(content, contentOffset, b, off, count);
+            } else {
+                count = (int) Math.min(len, size - position);
+                System.arraycopy(trailer, (int) (position - contentEnd), b,
+                        off, count);
+            }
+            position += count;
+            return count;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    private static class CountingStreamVariable implements StreamVariable {
+        private final CountingOutputStream out = new CountingOutputStream();
+        private long bytesReceived = -1;
+        private Exception exception;
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public boolean listenProgress() {
+            return true;
+        }
+
+        @Override
+        public void onProgress(StreamingProgressEvent event) {
+        }
+
+        @Override
+        public void streamingStarted(StreamingStartEvent event) {
+        }
+
+        @Override
+        public void streamingFinished(StreamingEndEvent event) {
+            bytesReceived = event.getBytesReceived();
+        }
+
+        @Override
+        public void streamingFailed(StreamingErrorEvent event) {
+            exception = event.getException();
+        }
+
+        @Override
+        public boolean isInterrupted() {
+            return false;
+        }
+    }
+
+    public void testUploadThroughput() throws Exception {
+        final Lock lock = new ReentrantLock();
+        VaadinSession session = new VaadinSession(null) {
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+        };
+
+        MultipartRequestStream requestStream = new MultipartRequestStream(
+                UPLOAD_SIZE);
+        VaadinRequest request = EasyMock.createNiceMock(VaadinRequest.class);
+        EasyMock.expect(request.getInputStream()).andReturn(requestStream)
+                .anyTimes();
+        EasyMock.expect(request.getHeader("Content-Length"))
+                .andReturn(String.valueOf(requestStream.getSize()))
+                .anyTimes();
+        VaadinResponse response = EasyMock
+                .createNiceMock(VaadinResponse.class);
+        EasyMock.expect(response.getOutputStream())
+                .andReturn(new ByteArrayOutputStream()).anyTimes();
+        EasyMock.replay(request, response);
+
+        CountingStreamVariable streamVariable = new CountingStreamVariable();
+
+        long start = System.currentTimeMillis();
+        new FileUploadHandler().doHandleSimpleMultipartFileUpload(session,
+                request, response, streamVariable, "file", new Upload(),
+                BOUNDARY);
+        long time = System.currentTimeMillis() - start;
+
+        assertNull(streamVariable.exception);
+        assertEquals(UPLOAD_SIZE, streamVariable.out.count);
+        assertEquals(UPLOAD_SIZE, streamVariable.bytesReceived);
+
+        System.out.println("Uploaded " + (UPLOAD_SIZE / 1024 / 1024)
+                + " MB in " + time + " ms ("
+                + (UPLOAD_SIZE * 1000 / 1024 / 1024 / Math.max(1, time))
+                + " MB/s)");
+        assertTrue("Upload too slow, " + time + "ms for "
+                + (UPLOAD_SIZE / 1024 / 1024) + " MB",
+                time <= UPLOAD_FAIL_THRESHOLD);
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.server.communication;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import com.vaadin.server.DefaultDeploymentConfiguration;
+import com.vaadin.server.DeploymentConfiguration;
+import com.vaadin.server.LegacyCommunicationManager;
+import com.vaadin.server.LegacyCommunicationManager.Callback;
+import com.vaadin.server.ResponseCompressor;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.server.WrappedSession;
+import com.vaadin.shared.ApplicationConstants;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.UI;
+
+/**
+ * Tests that {@link UidlRequestHandler} does not hold the session lock while
+ * the response is being written to the client.
+ * 
+ * @author Vaadin Ltd
+ * @since 7.1
+ */
+public class UidlRequestHandlerTest extends TestCase {
+
+    private static final String SECURITY_KEY = "key";
+
+    private Properties properties;
+    private VaadinSession session;
+    private UI ui;
+    private Label label;
+
+    /**
+     * An output stream that blocks on the first write until it is released,
+     * like a client on a very slow connection.
+     */
+    private static class SlowOutputStream extends OutputStream {
+        private final CountDownLatch writeStarted = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writeStarted.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+            written.write(b, off, len);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        properties = new Properties();
+        final DeploymentConfiguration configuration = new DefaultDeploymentConfiguration(
+                getClass(), properties);
+        final Lock lock = new ReentrantLock();
+        final WrappedSession wrappedSession = EasyMock
+                .createNiceMock(WrappedSession.class);
+        EasyMock.expect(
+                wrappedSession
+                        .getAttribute(ApplicationConstants.UIDL_SECURITY_TOKEN_ID))
+                .andReturn(SECURITY_KEY).anyTimes();
+        EasyMock.replay(wrappedSession);
+
+        session = new VaadinSession(null) {
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+
+            @Override
+            public DeploymentConfiguration getConfiguration() {
+                return configuration;
+            }
+
+            @Override
+            public VaadinService getService() {
+                return createServiceMock(ui);
+            }
+
+            @Override
+            public WrappedSession getSession() {
+                return wrappedSession;
+            }
+        };
+        ui = new UI() {
+            @Override
+            protected void init(VaadinRequest request) {
+                // Nothing to initialize
+            }
+        };
+        session.lock();
+        try {
+            session.setCommunicationManager(new LegacyCommunicationManager(
+                    session));
+            ui.setSession(session);
+            label = new Label("Hello");
+            ui.setContent(label);
+        } finally {
+            session.unlock();
+        }
+    }
+
+    private static VaadinService createServiceMock(UI ui) {
+        VaadinService service = EasyMock.createNiceMock(VaadinService.class);
+        EasyMock.expect(service.findUI(EasyMock.<VaadinRequest> anyObject()))
+                .andReturn(ui).anyTimes();
+        EasyMock.replay(service);
+        return service;
+    }
+
+    private static VaadinRequest createRequestMock() throws IOException {
+        return createRequestMock(false);
+    }
+
+    private static VaadinRequest createRequestMock(boolean longPoll)
+            throws IOException {
+        return createRequestMock(longPoll, SECURITY_KEY);
+    }
+
+    private static VaadinRequest createRequestMock(boolean longPoll,
+            String securityKey) throws IOException {
+        VaadinRequest request = EasyMock.createNiceMock(VaadinRequest.class);
+        String message = "";
+        if (longPoll) {
+            EasyMock.expect(
+                    request.getParameter(ApplicationConstants.PARAM_LONG_POLL))
+                    .andReturn("1").anyTimes();
+            message = securityKey + ServerRpcHandler.VAR_BURST_SEPARATOR;
+        }
+        EasyMock.expect(request.getReader())
+                .andReturn(new BufferedReader(new StringReader(message)))
+                .anyTimes();
+        EasyMock.replay(request);
+        return request;
+    }
+
+    private static VaadinResponse createResponseMock(OutputStream out)
+            throws IOException {
+        VaadinResponse response = EasyMock
+                .createNiceMock(VaadinResponse.class);
+        EasyMock.expect(response.getOutputStream()).andReturn(out).anyTimes();
+        EasyMock.replay(response);
+        return response;
+    }
+
+    public void testSlowClientDoesNotBlockSession() throws Exception {
+        final SlowOutputStream slowOut = new SlowOutputStream();
+        final VaadinRequest slowRequest = createRequestMock();
+        final VaadinResponse slowResponse = createResponseMock(slowOut);
+        final Throwable[] failure = new Throwable[1];
+
+        Thread slowThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    new UidlRequestHandler(null).handleRequest(session,
+                            slowRequest, slowResponse);
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        };
+        slowThread.start();
+        try {
+            assertTrue("The response was never written",
+                    slowOut.writeStarted.await(10, TimeUnit.SECONDS));
+
+            // The slow response is being written, the session must be free
+            assertTrue("The session is locked while writing the response",
+                    session.getLockInstance().tryLock(1, TimeUnit.SECONDS));
+            session.unlock();
+
+            // Another request to the same session completes meanwhile
+            ByteArrayOutputStream fastOut = new ByteArrayOutputStream();
+            new UidlRequestHandler(null).handleRequest(session,
+                    createRequestMock(), createResponseMock(fastOut));
+            String fastResponse = fastOut.toString("UTF-8");
+            assertTrue(fastResponse, fastResponse.startsWith("for(;;);[{"));
+            assertTrue(fastResponse, fastResponse.endsWith("}]"));
+        } finally {
+            slowOut.released.countDown();
+            slowThread.join(10000);
+        }
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+
+        String slowResponseText = slowOut.written.toString("UTF-8");
+        assertTrue(slowResponseText, slowResponseText.startsWith("for(;;);[{"));
+        assertTrue(slowResponseText, slowResponseText.endsWith("}]"));
+    }
+
+    public void testLongPollRespondsToChanges() throws Exception {
+        // Send the initial state in a normal request
+        new UidlRequestHandler(null).handleRequest(session,
+                createRequestMock(),
+                createResponseMock(new ByteArrayOutputStream()));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final VaadinRequest request = createRequestMock(true);
+        final VaadinResponse response = createResponseMock(out);
+        final Throwable[] failure = new Throwable[1];
+        Thread longPoll = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    new UidlRequestHandler(null).handleRequest(session,
+                            request, response);
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        };
+        long start = System.currentTimeMillis();
+        longPoll.start();
+        try {
+            waitUntilWaiting(longPoll);
+            assertEquals("No response expected before changes", 0,
+                    out.size());
+
+            ui.access(new Runnable() {
+                @Override
+                public void run() {
+                    label.setValue("Pushed");
+                }
+            });
+        } finally {
+            longPoll.join(10000);
+        }
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+        assertFalse(longPoll.isAlive());
+        long time = System.currentTimeMillis() - start;
+        assertTrue("Responded after " + time + " ms",
+                time < 1000 * UidlRequestHandler.DEFAULT_LONG_POLL_TIMEOUT);
+        String text = out.toString("UTF-8");
+        assertTrue(text, text.contains("Pushed"));
+        assertTrue(text, text.contains("\"" + ApplicationConstants.SERVER_ASYNC
+                + "\": true"));
+    }
+
+    public void testLongPollTimeout() throws Exception {
+        properties.setProperty("longPollTimeout", "1");
+        new UidlRequestHandler(null).handleRequest(session,
+                createRequestMock(),
+                createResponseMock(new ByteArrayOutputStream()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long start = System.currentTimeMillis();
+        new UidlRequestHandler(null).handleRequest(session,
+                createRequestMock(true), createResponseMock(out));
+        long time = System.currentTimeMillis() - start;
+
+        assertTrue("Responded after " + time + " ms", time >= 900);
+        String text = out.toString("UTF-8");
+        assertTrue(text, text.startsWith("for(;;);[{"));
+        assertFalse(text, text.contains("Hello"));
+    }
+
+    public void testLongPollInvalidSecurityKey() throws Exception {
+        Callback criticalNotifier = EasyMock.createMock(Callback.class);
+        criticalNotifier.criticalNotification(
+                EasyMock.<VaadinRequest> anyObject(),
+                EasyMock.<VaadinResponse> anyObject(),
+                EasyMock.<String> isNull(), EasyMock.<String> isNull(),
+                EasyMock.<String> isNull(), EasyMock.<String> isNull());
+        EasyMock.replay(criticalNotifier);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new UidlRequestHandler(criticalNotifier).handleRequest(session,
+                createRequestMock(true, "forged"), createResponseMock(out));
+
+        EasyMock.verify(criticalNotifier);
+        assertEquals("No UIDL expected for an invalid key", 0, out.size());
+    }
+
+    public void testResponsesHaveIncreasingSyncIds() throws Exception {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        new UidlRequestHandler(null).handleRequest(session,
+                createRequestMock(), createResponseMock(first));
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        new UidlRequestHandler(null).handleRequest(session,
+                createRequestMock(), createResponseMock(second));
+
+        String syncId = "\"" + ApplicationConstants.SERVER_SYNC_ID + "\": ";
+        String text = first.toString("UTF-8");
+        assertTrue(text, text.contains(syncId + "0,"));
+        text = second.toString("UTF-8");
+        assertTrue(text, text.contains(syncId + "1,"));
+        assertFalse(text, text.contains(ApplicationConstants.SERVER_ASYNC));
+    }
+
+    private static void waitUntilWaiting(Thread thread)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (thread.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue("The thread never started waiting",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    public void testResponseCompressed() throws Exception {
+        ResponseCompressor compressor = new ResponseCompressor(0);
+        VaadinService service = EasyMock.createNiceMock(VaadinService.class);
+        EasyMock.expect(service.getResponseCompressor()).andReturn(compressor)
+                .anyTimes();
+
+        VaadinRequest request = EasyMock.createNiceMock(VaadinRequest.class);
+        EasyMock.expect(request.getReader())
+                .andReturn(new BufferedReader(new StringReader("")))
+                .anyTimes();
+        EasyMock.expect(request.getHeader("Accept-Encoding"))
+                .andReturn("gzip").anyTimes();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VaadinResponse response = EasyMock
+                .createNiceMock(VaadinResponse.class);
+        EasyMock.expect(response.getService()).andReturn(service).anyTimes();
+        EasyMock.expect(response.getOutputStream()).andReturn(out).anyTimes();
+        response.setHeader("Content-Encoding", "gzip");
+        EasyMock.expectLastCall().once();
+        EasyMock.replay(service, request, response);
+
+        new UidlRequestHandler(null).handleRequest(session, request, response);
+
+        EasyMock.verify(response);
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(
+                out.toByteArray()));
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            uncompressed.write(buffer, 0, read);
+        }
+        String text = uncompressed.toString("UTF-8");
+        assertTrue(text, text.startsWith("for(;;);[{"));
+        assertTrue(text, text.contains("Hello"));
+        assertEquals(uncompressed.size(), compressor.getRawByteCount());
+    }
+
+    public void testBuffersAreReused() {
+        ResponseBuffer buffer = ResponseBuffer.acquire();
+        buffer.write(1);
+        buffer.release();
+
+        ResponseBuffer reused = ResponseBuffer.acquire();
+        try {
+            assertSame(buffer, reused);
+            assertEquals(0, reused.size());
+        } finally {
+            reused.release();
+        }
+    }
+
+    public void testReleasingTwiceHasNoEffect() {
+        ResponseBuffer buffer = ResponseBuffer.acquire();
+        buffer.release();
+        buffer.release();
+
+        ResponseBuffer first = ResponseBuffer.acquire();
+        ResponseBuffer second = ResponseBuffer.acquire();
+        try {
+            assertSame(buffer, first);
+            assertNotSame(first, second);
+        } finally {
+            first.release();
+            second.release();
+        }
+    }
+
+    public void testLargeBuffersAreNotPooled() {
+        ResponseBuffer buffer = ResponseBuffer.acquire();
+        buffer.write(new byte[ResponseBuffer.MAX_POOLED_CAPACITY + 1], 0,
+                ResponseBuffer.MAX_POOLED_CAPACITY + 1);
+        buffer.release();
+
+        ResponseBuffer next = ResponseBuffer.acquire();
+        try {
+            assertNotSame(buffer, next);
+            assertTrue(next.getCapacity() <= ResponseBuffer.MAX_POOLED_CAPACITY);
+        } finally {
+            next.release();
+        }
+    }
+}
@@ -43,6 +43,7 @@ public class TestClassesSerializable extends TestCase {
             "com\\.vaadin\\.server\\.VaadinPortlet", //
             "com\\.vaadin\\.server\\.Constants", //
             "com\\.vaadin\\.util\\.SerializerHelper", // fully static
+            "com\\.vaadin\\.data\\.util\\.ParallelTasks", // fully static
             // class level filtering, also affecting nested classes and
             // interfaces
             "com\\.vaadin\\.server\\.LegacyCommunicationManager.*", //
@@ -51,6 +52,14 @@ public class TestClassesSerializable extends TestCase {
             "com\\.vaadin\\.data\\.util\\.ReflectTools.*", //
             "com\\.vaadin\\.sass.*", //
             "com\\.vaadin\\.util\\.CurrentInstance\\$1", //
+            // pooled buffers and deflaters, only used while writing a response
+            "com\\.vaadin\\.server\\.communication\\.ResponseBuffer", //
+            "com\\.vaadin\\.server\\.ResponseCompressor\\$PooledDeflater", //
+            "com\\.vaadin\\.server\\.ResponseCompressor\\$CompressingOutputStream", //
+            // JSON view returned by the deprecated diff state API
+            "com\\.vaadin\\.server\\.DiffState\\$WriteThroughJson", //
+            // wrappers of live JDBC connections, never serialized
+            "com\\.vaadin\\.data\\.util\\.sqlcontainer\\.connection\\.ConcurrentJDBCConnectionPool\\$.*", //
     };
 
     /**
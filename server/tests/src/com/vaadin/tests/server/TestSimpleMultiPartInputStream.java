@@ -3,7 +3,9 @@ package com.vaadin.tests.server;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -131,6 +133,80 @@ public class TestSimpleMultiPartInputStream extends TestCase {
     // }
     // }
 
+    /**
+     * Stream that returns at most a few bytes for each read, so that the
+     * boundary is split between reads.
+     */
+    private static class TricklingInputStream extends ByteArrayInputStream {
+        private final int maxRead;
+
+        public TricklingInputStream(byte[] buf, int maxRead) {
+            super(buf);
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, maxRead));
+        }
+    }
+
+    protected byte[] readInBlocks(InputStream input, String boundary,
+            int blockSize) throws IOException {
+        SimpleMultiPartInputStream smpis = new SimpleMultiPartInputStream(
+                input, boundary);
+        ByteArrayOutputStream resultStream = new ByteArrayOutputStream();
+        byte[] block = new byte[blockSize];
+        int read;
+        while ((read = smpis.read(block, 0, block.length)) != -1) {
+            resultStream.write(block, 0, read);
+        }
+        return resultStream.toByteArray();
+    }
+
+    public void testBlockReadsWithBoundarySplitBetweenReads() throws Exception {
+        byte[] input = ("xyz123abca" + getFullBoundary("abcabd") + "123")
+                .getBytes();
+        for (int maxRead = 1; maxRead < input.length; maxRead++) {
+            for (int blockSize = 1; blockSize < 8; blockSize++) {
+                byte[] result = readInBlocks(new TricklingInputStream(input,
+                        maxRead), "abcabd", blockSize);
+                assertEquals("xyz123abca", new String(result));
+            }
+        }
+    }
+
+    public void testLargeInput() throws Exception {
+        String boundary = "---------------------------7dd2d8185e0488";
+        byte[] content = new byte[1024 * 1024];
+        new Random(0).nextBytes(content);
+        // Partial boundaries in the content must not end the stream
+        byte[] partial = ("\r\n--" + boundary.substring(0, 30)).getBytes();
+        for (int i = 0; i < content.length - partial.length; i += 50000) {
+            System.arraycopy(partial, 0, content, i, partial.length);
+        }
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        input.write(content);
+        input.write(getFullBoundary(boundary).getBytes());
+
+        byte[] result = readInBlocks(new TricklingInputStream(
+                input.toByteArray(), 10000), boundary, 4096);
+        assertTrue(Arrays.equals(content, result));
+
+        // Single byte reads
+        checkBoundaryDetection(input.toByteArray(), boundary, content);
+    }
+
+    public void testNoBoundaryInInputWithBlockReads() throws Exception {
+        try {
+            readInBlocks(new ByteArrayInputStream("xyz123ab".getBytes()),
+                    "abc", 100);
+            fail();
+        } catch (IOException e) {
+            // Expected as the stream ended before the boundary
+        }
+    }
+
     public static String getFullBoundary(String str) {
         return "\r\n--" + str + "--";
     }
@@ -61,6 +61,28 @@ public class ApplicationConstants implements Serializable {
      */
     public static final String URL_PARAMETER_REPAINT_ALL = "repaintAll";
 
+    /**
+     * URL parameter used in UIDL requests to indicate a long-polling push
+     * request. The server does not respond to such a request until there are
+     * changes to send to the client or a timeout elapses.
+     */
+    public static final String PARAM_LONG_POLL = "v-longpoll";
+
+    /**
+     * The name of the attribute in UIDL responses giving the sequence number
+     * of the response. As push and normal responses may arrive in any order,
+     * the client uses it to handle the responses in the order they were
+     * rendered. Messages that arrive before a message with a smaller sync id
+     * are postponed until that message has been handled.
+     */
+    public static final String SERVER_SYNC_ID = "syncId";
+
+    /**
+     * The name of the attribute marking UIDL messages that the server pushes
+     * to the client, as opposed to responses to requests made by the client.
+     */
+    public static final String SERVER_ASYNC = "async";
+
     /**
      * Configuration parameter giving the (in some cases relative) URL to the
      * VAADIN folder from where themes and widgetsets are loaded.
@@ -34,5 +34,10 @@ public class TableConstants implements Serializable {
      */
     @Deprecated
     public static final String ATTRIBUTE_KEY_MAPPER_RESET = "clearKeyMap";
+    /**
+     * Tell the client to reuse the DOM of rows that have been scrolled out of
+     * the cache window when rendering new rows.
+     */
+    public static final String ATTRIBUTE_RECYCLE_ROWS = "recycleRows";
 
 }
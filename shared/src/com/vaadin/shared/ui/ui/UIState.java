@@ -18,6 +18,12 @@ package com.vaadin.shared.ui.ui;
 import com.vaadin.shared.ui.TabIndexState;
 
 public class UIState extends TabIndexState {
+    /**
+     * Whether the client should keep a long-polling request open for
+     * receiving changes made on the server outside of client requests.
+     */
+    public boolean pushEnabled = false;
+
     {
         primaryStyleName = "v-ui";
         // Default is 1 for legacy reasons
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.sass.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps parsed stylesheets so that a stylesheet (including imported
+ * stylesheets) is only parsed again if the last modification time of its
+ * source has changed. A cache is passed to
+ * {@link ScssStylesheet#get(String, String, ParseCache)} and is used for all
+ * stylesheets imported by the returned stylesheet.
+ * <p>
+ * The cache holds at most a given number of stylesheets, removing the least
+ * recently used ones when full. It is safe to use the same cache for
+ * compiling several stylesheets concurrently.
+ * </p>
+ * 
+ * @since 7.1
+ */
+public class ParseCache {
+
+    /**
+     * The default maximum number of stylesheets in a cache.
+     */
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private final Map<String, ParsedStylesheet> stylesheets;
+
+    /**
+     * Creates a cache holding at most {@link #DEFAULT_MAX_SIZE} stylesheets.
+     */
+    public ParseCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a cache holding at most the given number of stylesheets.
+     * 
+     * @param maxSize
+     *            the maximum number of stylesheets to keep, must be positive
+     */
+    public ParseCache(final int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid maximum size "
+                    + maxSize);
+        }
+        stylesheets = new LinkedHashMap<String, ParsedStylesheet>(16, 0.75f,
+                true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, ParsedStylesheet> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets a copy of a cached stylesheet if it has been parsed from a source
+     * with the given modification time.
+     * 
+     * @param key
+     *            the source URI and encoding of the stylesheet
+     * @param lastModified
+     *            the current modification time of the source
+     * @return a copy of the parsed stylesheet, or <code>null</code> if it is
+     *         not cached or the source has been modified
+     */
+    ScssStylesheet get(String key, long lastModified) {
+        ParsedStylesheet parsed;
+        synchronized (stylesheets) {
+            parsed = stylesheets.get(key);
+        }
+        if (parsed == null || parsed.lastModified != lastModified) {
+            return null;
+        }
+        // The cached tree is never compiled, a copy is returned instead
+        return parsed.stylesheet.copy();
+    }
+
+    /**
+     * Adds a parsed stylesheet to the cache. The stylesheet is copied, so it
+     * can be compiled afterwards.
+     * 
+     * @param key
+     *            the source URI and encoding of the stylesheet
+     * @param stylesheet
+     *            the parsed stylesheet
+     * @param lastModified
+     *            the modification time of the source
+     */
+    void put(String key, ScssStylesheet stylesheet, long lastModified) {
+        ParsedStylesheet parsed = new ParsedStylesheet(stylesheet.copy(),
+                lastModified);
+        synchronized (stylesheets) {
+            stylesheets.put(key, parsed);
+        }
+    }
+
+    /**
+     * Gets the number of stylesheets in the cache.
+     * 
+     * @return the number of cached stylesheets
+     */
+    public int size() {
+        synchronized (stylesheets) {
+            return stylesheets.size();
+        }
+    }
+
+    /**
+     * Removes all stylesheets from the cache.
+     */
+    public void clear() {
+        synchronized (stylesheets) {
+            stylesheets.clear();
+        }
+    }
+
+    private static class ParsedStylesheet {
+        private final ScssStylesheet stylesheet;
+        private final long lastModified;
+
+        ParsedStylesheet(ScssStylesheet stylesheet, long lastModified) {
+            this.stylesheet = stylesheet;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.sass.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vaadin.sass.internal.tree.MixinDefNode;
+import com.vaadin.sass.internal.tree.Node;
+import com.vaadin.sass.internal.tree.VariableNode;
+
+/**
+ * The state of a single compilation of a {@link ScssStylesheet}: variables in
+ * scope, mixin definitions, selectors extended using @extend and the insertion
+ * points of nested blocks.
+ * 
+ * A new context is created by {@link ScssStylesheet#compile()} and passed to
+ * each node and visitor, so that different stylesheets can be compiled
+ * concurrently in different threads. A context itself is not thread safe.
+ */
+public class ScssContext {
+
+    private final ScssStylesheet stylesheet;
+
+    private final HashMap<String, VariableNode> variables = new HashMap<String, VariableNode>();
+
+    private final Map<String, MixinDefNode> mixinDefs = new HashMap<String, MixinDefNode>();
+
+    private final HashMap<Node, Node> lastNodeAdded = new HashMap<Node, Node>();
+
+    private final Map<String, List<ArrayList<String>>> extendsMap = new HashMap<String, List<ArrayList<String>>>();
+
+    /**
+     * Creates a context for compiling the given stylesheet.
+     * 
+     * @param stylesheet
+     *            the main stylesheet being compiled
+     */
+    public ScssContext(ScssStylesheet stylesheet) {
+        this.stylesheet = stylesheet;
+    }
+
+    /**
+     * Gets the main stylesheet being compiled.
+     * 
+     * @return the stylesheet
+     */
+    public ScssStylesheet getStylesheet() {
+        return stylesheet;
+    }
+
+    /**
+     * Start a new scope for variables. Any variables set or modified after
+     * opening a new scope are only valid until the scope is closed, at which
+     * time they are replaced with their old values.
+     * 
+     * @return old scope to give to a paired {@link #closeVariableScope(Map)}
+     *         call at the end of the scope (unmodifiable map).
+     */
+    public Map<String, VariableNode> openVariableScope() {
+        @SuppressWarnings("unchecked")
+        HashMap<String, VariableNode> variableScope = (HashMap<String, VariableNode>) variables
+                .clone();
+        return Collections.unmodifiableMap(variableScope);
+    }
+
+    /**
+     * End a scope for variables, replacing all active variables with those from
+     * the original scope (obtained from {@link #openVariableScope()}).
+     * 
+     * @param originalScope
+     *            original scope
+     */
+    public void closeVariableScope(Map<String, VariableNode> originalScope) {
+        variables.clear();
+        variables.putAll(originalScope);
+    }
+
+    public void addVariable(VariableNode node) {
+        variables.put(node.getName(), node);
+    }
+
+    public VariableNode getVariable(String string) {
+        return variables.get(string);
+    }
+
+    public ArrayList<VariableNode> getVariables() {
+        return new ArrayList<VariableNode>(variables.values());
+    }
+
+    public void addMixinDefinition(MixinDefNode node) {
+        mixinDefs.put(node.getName(), node);
+    }
+
+    public MixinDefNode getMixinDefinition(String name) {
+        return mixinDefs.get(name);
+    }
+
+    public HashMap<Node, Node> getLastNodeAdded() {
+        return lastNodeAdded;
+    }
+
+    /**
+     * Gets the selectors extending other selectors, by the extended selector.
+     * 
+     * @return the map of extending selector lists
+     */
+    public Map<String, List<ArrayList<String>>> getExtendsMap() {
+        return extendsMap;
+    }
+}
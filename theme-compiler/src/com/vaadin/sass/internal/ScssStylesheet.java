@@ -18,11 +18,14 @@ package com.vaadin.sass.internal;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -41,28 +44,20 @@ import com.vaadin.sass.internal.tree.BlockNode;
 import com.vaadin.sass.internal.tree.MixinDefNode;
 import com.vaadin.sass.internal.tree.Node;
 import com.vaadin.sass.internal.tree.VariableNode;
-import com.vaadin.sass.internal.tree.controldirective.IfElseDefNode;
-import com.vaadin.sass.internal.visitor.ExtendNodeHandler;
 import com.vaadin.sass.internal.visitor.ImportNodeHandler;
 
 public class ScssStylesheet extends Node {
 
     private static final long serialVersionUID = 3849790204404961608L;
 
-    private static ScssStylesheet mainStyleSheet = null;
-
-    private static final HashMap<String, VariableNode> variables = new HashMap<String, VariableNode>();
-
-    private static final Map<String, MixinDefNode> mixinDefs = new HashMap<String, MixinDefNode>();
-
-    private static final HashSet<IfElseDefNode> ifElseDefNodes = new HashSet<IfElseDefNode>();
-
-    private static HashMap<Node, Node> lastNodeAdded = new HashMap<Node, Node>();
-
     private String fileName;
 
+    private LinkedHashSet<String> sourceUris = new LinkedHashSet<String>();
+
     private String charset;
 
+    private transient ParseCache parseCache;
+
     /**
      * Read in a file SCSS and parse it into a ScssStylesheet
      * 
@@ -103,6 +98,27 @@ public class ScssStylesheet extends Node {
      */
     public static ScssStylesheet get(String identifier, String encoding)
             throws CSSException, IOException {
+        return get(identifier, encoding, null);
+    }
+
+    /**
+     * Takes in a file and encoding then builds up a ScssStylesheet tree out of
+     * it, using the given cache for the stylesheet and all stylesheets it
+     * imports. A stylesheet is only parsed again if its source has been
+     * modified since it was added to the cache.
+     * 
+     * @param identifier
+     *            The file path. If null then null is returned.
+     * @param encoding
+     * @param parseCache
+     *            the cache of parsed stylesheets, or null to always parse
+     * @return
+     * @throws CSSException
+     * @throws IOException
+     * @since 7.1
+     */
+    public static ScssStylesheet get(String identifier, String encoding,
+            ParseCache parseCache) throws CSSException, IOException {
         /*
          * The encoding to be used is passed through "encoding" parameter. the
          * imported children scss node will have the same encoding as their
@@ -129,6 +145,20 @@ public class ScssStylesheet extends Node {
         }
         source.setEncoding(encoding);
 
+        String cacheKey = null;
+        long lastModified = 0;
+        if (parseCache != null) {
+            lastModified = getLastModified(source.getURI());
+            cacheKey = source.getURI() + ";" + encoding;
+            ScssStylesheet cached = lastModified > 0 ? parseCache.get(
+                    cacheKey, lastModified) : null;
+            if (cached != null) {
+                closeQuietly(source.getByteStream());
+                cached.parseCache = parseCache;
+                return cached;
+            }
+        }
+
         Parser parser = new Parser();
         parser.setErrorHandler(new SCSSErrorHandler());
         parser.setDocumentHandler(handler);
@@ -142,10 +172,59 @@ public class ScssStylesheet extends Node {
         }
 
         stylesheet.setCharset(parser.getInputSource().getEncoding());
+
+        if (cacheKey != null && lastModified > 0) {
+            parseCache.put(cacheKey, stylesheet, lastModified);
+        }
+        stylesheet.parseCache = parseCache;
         return stylesheet;
     }
 
-    private static ScssStylesheetResolver[] resolvers = null;
+    /**
+     * Gets the last modification time of a stylesheet source. The URI is
+     * either a file system path or a class loader resource name, as set by
+     * the {@link ScssStylesheetResolver} that found the stylesheet.
+     * 
+     * @param uri
+     *            the URI of the stylesheet source
+     * @return the last modification time in milliseconds, or 0 if not known
+     */
+    public static long getLastModified(String uri) {
+        if (uri == null) {
+            return 0;
+        }
+        File file = new File(uri);
+        if (file.isFile()) {
+            return file.lastModified();
+        }
+        URL url = ScssStylesheet.class.getClassLoader().getResource(
+                uri.replace(File.separatorChar, '/'));
+        if (url == null) {
+            return 0;
+        }
+        try {
+            URLConnection connection = url.openConnection();
+            long lastModified = connection.getLastModified();
+            // Close the stream to not leave the resource open, see
+            // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4257700
+            connection.getInputStream().close();
+            return lastModified;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void closeQuietly(InputStream is) {
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    private static volatile ScssStylesheetResolver[] resolvers = null;
 
     public static void setStylesheetResolvers(
             ScssStylesheetResolver... styleSheetResolvers) {
@@ -163,6 +242,7 @@ public class ScssStylesheet extends Node {
             if (source != null) {
                 File f = new File(source.getURI());
                 setFileName(f.getParent());
+                sourceUris.add(source.getURI());
                 return source;
             }
         }
@@ -173,18 +253,16 @@ public class ScssStylesheet extends Node {
     /**
      * Applies all the visitors and compiles SCSS into Css.
      * 
+     * The state of the compilation is kept in a {@link ScssContext} created
+     * for each call, so different stylesheets can be compiled concurrently.
+     * 
      * @throws Exception
      */
     public void compile() throws Exception {
-        mainStyleSheet = this;
-        mixinDefs.clear();
-        variables.clear();
-        ifElseDefNodes.clear();
-        lastNodeAdded.clear();
-        ExtendNodeHandler.clear();
+        ScssContext context = new ScssContext(this);
         importOtherFiles(this);
-        populateDefinitions(this);
-        traverse(this);
+        populateDefinitions(context, this);
+        traverse(context, this);
         removeEmptyBlocks(this);
     }
 
@@ -192,16 +270,14 @@ public class ScssStylesheet extends Node {
         ImportNodeHandler.traverse(node);
     }
 
-    private void populateDefinitions(Node node) {
+    private void populateDefinitions(ScssContext context, Node node) {
         if (node instanceof MixinDefNode) {
-            mixinDefs.put(((MixinDefNode) node).getName(), (MixinDefNode) node);
+            context.addMixinDefinition((MixinDefNode) node);
             node.getParentNode().removeChild(node);
-        } else if (node instanceof IfElseDefNode) {
-            ifElseDefNodes.add((IfElseDefNode) node);
         }
 
         for (final Node child : new ArrayList<Node>(node.getChildren())) {
-            populateDefinitions(child);
+            populateDefinitions(context, child);
         }
 
     }
@@ -243,51 +319,49 @@ public class ScssStylesheet extends Node {
         }
     }
 
-    public static ScssStylesheet get() {
-        return mainStyleSheet;
-    }
-
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         // Not used for ScssStylesheet
     }
 
     /**
      * Traverses a node and its children recursively, calling all the
-     * appropriate handlers via {@link Node#traverse()}.
+     * appropriate handlers via {@link Node#traverse(ScssContext)}.
      * 
      * The node itself may be removed during the traversal and replaced with
      * other nodes at the same position or later on the child list of its
      * parent.
      * 
+     * @param context
+     *            the compilation context
      * @param node
      *            node to traverse
      * @return true if the node was removed (and possibly replaced by others),
      *         false if not
      */
-    public boolean traverse(Node node) {
+    public boolean traverse(ScssContext context, Node node) {
         Node originalParent = node.getParentNode();
 
-        node.traverse();
+        node.traverse(context);
 
-        Map<String, VariableNode> variableScope = openVariableScope();
+        Map<String, VariableNode> variableScope = context.openVariableScope();
 
         // the size of the child list may change on each iteration: current node
         // may get deleted and possibly other nodes have been inserted where it
         // was or after that position
         for (int i = 0; i < node.getChildren().size(); i++) {
             Node current = node.getChildren().get(i);
-            if (traverse(current)) {
+            if (traverse(context, current)) {
                 // current has been removed
                 --i;
             }
         }
 
-        closeVariableScope(variableScope);
+        context.closeVariableScope(variableScope);
 
         // clean up insert point so that processing of the next block will
         // insert after that block
-        lastNodeAdded.remove(originalParent);
+        context.getLastNodeAdded().remove(originalParent);
 
         // has the node been removed from its parent?
         if (originalParent != null) {
@@ -298,34 +372,6 @@ public class ScssStylesheet extends Node {
         }
     }
 
-    /**
-     * Start a new scope for variables. Any variables set or modified after
-     * opening a new scope are only valid until the scope is closed, at which
-     * time they are replaced with their old values.
-     * 
-     * @return old scope to give to a paired {@link #closeVariableScope(Map)}
-     *         call at the end of the scope (unmodifiable map).
-     */
-    public static Map<String, VariableNode> openVariableScope() {
-        @SuppressWarnings("unchecked")
-        HashMap<String, VariableNode> variableScope = (HashMap<String, VariableNode>) variables
-                .clone();
-        return Collections.unmodifiableMap(variableScope);
-    }
-
-    /**
-     * End a scope for variables, replacing all active variables with those from
-     * the original scope (obtained from {@link #openVariableScope()}).
-     * 
-     * @param originalScope
-     *            original scope
-     */
-    public static void closeVariableScope(
-            Map<String, VariableNode> originalScope) {
-        variables.clear();
-        variables.putAll(originalScope);
-    }
-
     public void removeEmptyBlocks(Node node) {
         // depth first for avoiding re-checking parents of removed nodes
         for (Node child : new ArrayList<Node>(node.getChildren())) {
@@ -339,22 +385,6 @@ public class ScssStylesheet extends Node {
         }
     }
 
-    public static void addVariable(VariableNode node) {
-        variables.put(node.getName(), node);
-    }
-
-    public static VariableNode getVariable(String string) {
-        return variables.get(string);
-    }
-
-    public static ArrayList<VariableNode> getVariables() {
-        return new ArrayList<VariableNode>(variables.values());
-    }
-
-    public static MixinDefNode getMixinDefinition(String name) {
-        return mixinDefs.get(name);
-    }
-
     public void setFileName(String fileName) {
         this.fileName = fileName;
     }
@@ -363,14 +393,44 @@ public class ScssStylesheet extends Node {
         return fileName;
     }
 
-    public static HashMap<Node, Node> getLastNodeAdded() {
-        return lastNodeAdded;
+    /**
+     * Gets the URIs of the sources of this stylesheet and all stylesheets
+     * imported into it. Imports are resolved by {@link #compile()}, so the
+     * list only contains the source of this stylesheet before compiling.
+     * 
+     * @return an unmodifiable list of source URIs, this stylesheet first
+     * @see #getLastModified(String)
+     */
+    public List<String> getSourceUris() {
+        return Collections.unmodifiableList(new ArrayList<String>(sourceUris));
+    }
+
+    /**
+     * Adds the sources of an imported stylesheet to the sources of this
+     * stylesheet.
+     * 
+     * @param imported
+     *            the imported stylesheet
+     */
+    public void addSourceUris(ScssStylesheet imported) {
+        sourceUris.addAll(imported.sourceUris);
     }
 
     public static final void warning(String msg) {
         Logger.getLogger(ScssStylesheet.class.getName()).warning(msg);
     }
 
+    /**
+     * Gets the cache used for parsing this stylesheet and the stylesheets it
+     * imports.
+     * 
+     * @return the parse cache, or null if stylesheets are always parsed
+     * @since 7.1
+     */
+    public ParseCache getParseCache() {
+        return parseCache;
+    }
+
     public String getCharset() {
         return charset;
     }
@@ -378,4 +438,12 @@ public class ScssStylesheet extends Node {
     public void setCharset(String charset) {
         this.charset = charset;
     }
+
+    @Override
+    public ScssStylesheet copy() {
+        ScssStylesheet copy = (ScssStylesheet) super.copy();
+        copy.sourceUris = new LinkedHashSet<String>(sourceUris);
+        return copy;
+    }
+
 }
@@ -24,12 +24,15 @@
 package com.vaadin.sass.internal.parser;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import org.w3c.css.sac.LexicalUnit;
 
 import com.vaadin.sass.internal.expression.exception.IncompatibleUnitsException;
+import com.vaadin.sass.internal.util.Clonable;
 import com.vaadin.sass.internal.util.ColorUtil;
-import com.vaadin.sass.internal.util.DeepCopy;
 
 /**
  * @version $Revision: 1.3 $
@@ -38,7 +41,7 @@ import com.vaadin.sass.internal.util.DeepCopy;
  * @modified Sebastian Nyholm @ Vaadin Ltd
  */
 public class LexicalUnitImpl implements LexicalUnit, SCSSLexicalUnit,
-        Serializable {
+        Serializable, Cloneable, Clonable {
     private static final long serialVersionUID = -6649833716809789399L;
 
     LexicalUnitImpl prev;
@@ -430,8 +433,7 @@ public class LexicalUnitImpl implements LexicalUnit, SCSSLexicalUnit,
 
     public void replaceValue(LexicalUnitImpl another) {
         // shouldn't modify 'another' directly, should only modify its copy.
-        LexicalUnitImpl deepCopyAnother = (LexicalUnitImpl) DeepCopy
-                .copy(another);
+        LexicalUnitImpl deepCopyAnother = another.copy();
         type = deepCopyAnother.getLexicalUnitType();
         i = deepCopyAnother.getIntegerValue();
         f = deepCopyAnother.getFloatValue();
@@ -710,9 +712,54 @@ public class LexicalUnitImpl implements LexicalUnit, SCSSLexicalUnit,
 
     @Override
     public LexicalUnitImpl clone() {
-        LexicalUnitImpl cloned = new LexicalUnitImpl(type, line, column, prev);
-        cloned.replaceValue(this);
-        return cloned;
+        return copy();
+    }
+
+    /**
+     * Creates a deep copy of this unit. All units reachable from this unit
+     * through the previous, next and parameter links are copied so that the
+     * copy can be modified without affecting the original. Units shared within
+     * the original structure are also shared within the copy.
+     * 
+     * @return a copy of this unit, linked to copies of its related units
+     */
+    public LexicalUnitImpl copy() {
+        Map<LexicalUnitImpl, LexicalUnitImpl> copies = new IdentityHashMap<LexicalUnitImpl, LexicalUnitImpl>();
+        ArrayList<LexicalUnitImpl> pending = new ArrayList<LexicalUnitImpl>();
+        LexicalUnitImpl copy = shallowCopy(this, copies, pending);
+        // Iterate instead of recursing as the chains can be long
+        while (!pending.isEmpty()) {
+            LexicalUnitImpl original = pending.remove(pending.size() - 1);
+            LexicalUnitImpl unitCopy = copies.get(original);
+            unitCopy.prev = shallowCopy(original.prev, copies, pending);
+            unitCopy.next = shallowCopy(original.next, copies, pending);
+            unitCopy.params = shallowCopy(original.params, copies, pending);
+        }
+        return copy;
+    }
+
+    private static LexicalUnitImpl shallowCopy(LexicalUnitImpl unit,
+            Map<LexicalUnitImpl, LexicalUnitImpl> copies,
+            ArrayList<LexicalUnitImpl> pending) {
+        if (unit == null) {
+            return null;
+        }
+        LexicalUnitImpl copy = copies.get(unit);
+        if (copy == null) {
+            try {
+                copy = (LexicalUnitImpl) unit.superClone();
+            } catch (CloneNotSupportedException e) {
+                // Cannot happen as this class is Cloneable
+                throw new RuntimeException(e);
+            }
+            copies.put(unit, copy);
+            pending.add(unit);
+        }
+        return copy;
+    }
+
+    private Object superClone() throws CloneNotSupportedException {
+        return super.clone();
     }
 
     /**
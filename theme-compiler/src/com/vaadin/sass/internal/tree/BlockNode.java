@@ -18,7 +18,7 @@ package com.vaadin.sass.internal.tree;
 
 import java.util.ArrayList;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.visitor.BlockNodeHandler;
 
 public class BlockNode extends Node implements IVariableNode {
@@ -103,13 +103,21 @@ public class BlockNode extends Node implements IVariableNode {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         try {
-            BlockNodeHandler.traverse(this);
-            replaceVariables(ScssStylesheet.getVariables());
+            BlockNodeHandler.traverse(context, this);
+            replaceVariables(context.getVariables());
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    @Override
+    public BlockNode copy() {
+        BlockNode copy = (BlockNode) super.copy();
+        if (selectorList != null) {
+            copy.selectorList = new ArrayList<String>(selectorList);
+        }
+        return copy;
+    }
 }
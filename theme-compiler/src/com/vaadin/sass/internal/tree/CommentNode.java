@@ -16,6 +16,8 @@
 
 package com.vaadin.sass.internal.tree;
 
+import com.vaadin.sass.internal.ScssContext;
+
 public class CommentNode extends Node {
     private String comment;
 
@@ -37,7 +39,7 @@ public class CommentNode extends Node {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         // Not used in CommentNode
     }
 }
@@ -19,10 +19,12 @@
  */
 package com.vaadin.sass.internal.tree;
 
+import com.vaadin.sass.internal.ScssContext;
+
 public class ContentNode extends Node {
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         /*
          * ContentNode is basically just a placeholder for some content which
          * will be included. So for traverse of this node, it does nothing. it
@@ -18,6 +18,7 @@ package com.vaadin.sass.internal.tree;
 
 import java.util.ArrayList;
 
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.visitor.ExtendNodeHandler;
 
 public class ExtendNode extends Node implements IVariableNode {
@@ -49,12 +50,21 @@ public class ExtendNode extends Node implements IVariableNode {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         try {
-            ExtendNodeHandler.traverse(this);
+            ExtendNodeHandler.traverse(context, this);
             getParentNode().removeChild(this);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    @Override
+    public ExtendNode copy() {
+        ExtendNode copy = (ExtendNode) super.copy();
+        if (list != null) {
+            copy.list = new ArrayList<String>(list);
+        }
+        return copy;
+    }
 }
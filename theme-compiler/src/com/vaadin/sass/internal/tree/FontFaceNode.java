@@ -15,6 +15,8 @@
  */
 package com.vaadin.sass.internal.tree;
 
+import com.vaadin.sass.internal.ScssContext;
+
 public class FontFaceNode extends Node {
 
     @Override
@@ -31,7 +33,7 @@ public class FontFaceNode extends Node {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         // Not in use for FontFaceNode
     }
 
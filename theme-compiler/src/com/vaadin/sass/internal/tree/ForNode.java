@@ -16,6 +16,8 @@
 
 package com.vaadin.sass.internal.tree;
 
+import com.vaadin.sass.internal.ScssContext;
+
 public class ForNode extends Node {
     private static final long serialVersionUID = -1159180539216623335L;
 
@@ -42,7 +44,7 @@ public class ForNode extends Node {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
 
     }
 
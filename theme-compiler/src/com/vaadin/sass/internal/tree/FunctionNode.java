@@ -18,7 +18,7 @@ package com.vaadin.sass.internal.tree;
 
 import java.util.ArrayList;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.util.StringUtil;
 
 public class FunctionNode extends Node implements IVariableNode {
@@ -56,7 +56,7 @@ public class FunctionNode extends Node implements IVariableNode {
     }
 
     @Override
-    public void traverse() {
-        replaceVariables(ScssStylesheet.getVariables());
+    public void traverse(ScssContext context) {
+        replaceVariables(context.getVariables());
     }
 }
@@ -18,6 +18,7 @@ package com.vaadin.sass.internal.tree;
 
 import org.w3c.css.sac.SACMediaList;
 
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.ScssStylesheet;
 import com.vaadin.sass.internal.visitor.ImportNodeHandler;
 
@@ -73,7 +74,7 @@ public class ImportNode extends Node {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         // TODO shouldn't be reached with current setup, try anyway?
         ImportNodeHandler.traverse((ScssStylesheet) getParentNode());
     }
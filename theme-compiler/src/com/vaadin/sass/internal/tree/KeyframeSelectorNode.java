@@ -16,6 +16,8 @@
 
 package com.vaadin.sass.internal.tree;
 
+import com.vaadin.sass.internal.ScssContext;
+
 public class KeyframeSelectorNode extends Node {
     private String selector;
 
@@ -35,7 +37,7 @@ public class KeyframeSelectorNode extends Node {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
 
     }
 
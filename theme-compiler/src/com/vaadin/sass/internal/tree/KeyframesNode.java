@@ -19,7 +19,7 @@ package com.vaadin.sass.internal.tree;
 import java.util.ArrayList;
 import java.util.regex.Pattern;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 
 public class KeyframesNode extends Node implements IVariableNode {
     private String keyframeName;
@@ -43,8 +43,8 @@ public class KeyframesNode extends Node implements IVariableNode {
     }
 
     @Override
-    public void traverse() {
-        replaceVariables(ScssStylesheet.getVariables());
+    public void traverse(ScssContext context) {
+        replaceVariables(context.getVariables());
     }
 
     @Override
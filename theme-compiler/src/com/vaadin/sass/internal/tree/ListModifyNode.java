@@ -18,7 +18,7 @@ package com.vaadin.sass.internal.tree;
 import java.util.ArrayList;
 import java.util.Arrays;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.parser.LexicalUnitImpl;
 
 public abstract class ListModifyNode extends Node implements IVariableNode {
@@ -116,10 +116,21 @@ public abstract class ListModifyNode extends Node implements IVariableNode {
     }
 
     @Override
-    public void traverse() {
-        replaceVariables(ScssStylesheet.getVariables());
-        ScssStylesheet.addVariable(getModifiedList());
+    public void traverse(ScssContext context) {
+        replaceVariables(context.getVariables());
+        context.addVariable(getModifiedList());
         getParentNode().removeChild(this);
     }
 
+    @Override
+    public ListModifyNode copy() {
+        ListModifyNode copy = (ListModifyNode) super.copy();
+        if (list != null) {
+            copy.list = new ArrayList<String>(list);
+        }
+        if (modify != null) {
+            copy.modify = new ArrayList<String>(modify);
+        }
+        return copy;
+    }
 }
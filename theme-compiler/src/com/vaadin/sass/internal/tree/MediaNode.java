@@ -18,6 +18,8 @@ package com.vaadin.sass.internal.tree;
 
 import org.w3c.css.sac.SACMediaList;
 
+import com.vaadin.sass.internal.ScssContext;
+
 public class MediaNode extends Node {
     private static final long serialVersionUID = 2502097081457509523L;
 
@@ -58,7 +60,7 @@ public class MediaNode extends Node {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
 
     }
 
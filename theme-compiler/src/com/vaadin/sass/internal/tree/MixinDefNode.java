@@ -19,8 +19,7 @@ package com.vaadin.sass.internal.tree;
 import java.util.ArrayList;
 import java.util.Collection;
 
-import com.vaadin.sass.internal.ScssStylesheet;
-import com.vaadin.sass.internal.util.DeepCopy;
+import com.vaadin.sass.internal.ScssContext;
 
 public class MixinDefNode extends Node implements IVariableNode {
     private static final long serialVersionUID = 5469294053247343948L;
@@ -66,8 +65,7 @@ public class MixinDefNode extends Node implements IVariableNode {
             for (final VariableNode arg : new ArrayList<VariableNode>(arglist)) {
                 if (arg.getName().equals(var.getName())
                         && arg.getExpr() == null) {
-                    arglist.add(arglist.indexOf(arg),
-                            (VariableNode) DeepCopy.copy(var));
+                    arglist.add(arglist.indexOf(arg), var.copy());
                     arglist.remove(arg);
                 }
             }
@@ -75,11 +73,11 @@ public class MixinDefNode extends Node implements IVariableNode {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         if (!arglist.isEmpty()) {
             for (final VariableNode arg : arglist) {
                 if (arg.getExpr() != null) {
-                    ScssStylesheet.addVariable(arg);
+                    context.addVariable(arg);
                 }
             }
         }
@@ -114,9 +112,19 @@ public class MixinDefNode extends Node implements IVariableNode {
             MixinNode mixinNode) {
         if (contentNode != null) {
             contentNode.getParentNode().appendChildrenAfter(
-                    DeepCopy.copy(mixinNode.getChildren()), contentNode);
+                    Node.copy(mixinNode.getChildren()), contentNode);
             contentNode.getParentNode().removeChild(contentNode);
         }
         return this;
     }
+
+    @Override
+    public MixinDefNode copy() {
+        MixinDefNode copy = (MixinDefNode) super.copy();
+        copy.arglist = new ArrayList<VariableNode>(arglist.size());
+        for (VariableNode arg : arglist) {
+            copy.arglist.add(arg.copy());
+        }
+        return copy;
+    }
 }
@@ -20,7 +20,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.parser.LexicalUnitImpl;
 import com.vaadin.sass.internal.visitor.MixinNodeHandler;
 
@@ -96,31 +96,42 @@ public class MixinNode extends Node implements IVariableNode {
         }
     }
 
-    protected void replaceVariablesForChildren() {
+    protected void replaceVariablesForChildren(ScssContext context) {
         for (Node child : getChildren()) {
             if (child instanceof IVariableNode) {
-                ((IVariableNode) child).replaceVariables(ScssStylesheet
+                ((IVariableNode) child).replaceVariables(context
                         .getVariables());
             }
         }
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         try {
             // limit variable scope to the mixin
-            Map<String, VariableNode> variableScope = ScssStylesheet
+            Map<String, VariableNode> variableScope = context
                     .openVariableScope();
 
-            replaceVariables(ScssStylesheet.getVariables());
-            replaceVariablesForChildren();
-            MixinNodeHandler.traverse(this);
+            replaceVariables(context.getVariables());
+            replaceVariablesForChildren(context);
+            MixinNodeHandler.traverse(context, this);
 
-            ScssStylesheet.closeVariableScope(variableScope);
+            context.closeVariableScope(variableScope);
 
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    @Override
+    public MixinNode copy() {
+        MixinNode copy = (MixinNode) super.copy();
+        if (arglist != null) {
+            copy.arglist = new ArrayList<LexicalUnitImpl>(arglist.size());
+            for (LexicalUnitImpl arg : arglist) {
+                copy.arglist.add(arg.copy());
+            }
+        }
+        return copy;
+    }
 }
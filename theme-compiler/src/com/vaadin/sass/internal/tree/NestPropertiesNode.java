@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.visitor.NestedNodeHandler;
 
 public class NestPropertiesNode extends Node implements IVariableNode {
@@ -67,7 +68,7 @@ public class NestPropertiesNode extends Node implements IVariableNode {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         NestedNodeHandler.traverse(this);
     }
 
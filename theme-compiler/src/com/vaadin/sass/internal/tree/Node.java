@@ -20,7 +20,10 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 
-public abstract class Node implements Serializable {
+import com.vaadin.sass.internal.ScssContext;
+import com.vaadin.sass.internal.util.Clonable;
+
+public abstract class Node implements Serializable, Cloneable, Clonable {
     private static final long serialVersionUID = 5914711715839294816L;
 
     protected ArrayList<Node> children;
@@ -120,8 +123,58 @@ public abstract class Node implements Serializable {
      * more nodes at the same or later position in its parent and modify the
      * children of the node, but not modify or remove preceding nodes in its
      * parent.
+     * 
+     * @param context
+     *            the state of the ongoing compilation
+     */
+    public abstract void traverse(ScssContext context);
+
+    /**
+     * Creates a deep copy of this node and its children. The copy is not
+     * attached to any parent node.
+     * 
+     * Subclasses with mutable state should override this method to also copy
+     * that state.
+     * 
+     * @return a copy of the subtree starting from this node
      */
-    public abstract void traverse();
+    public Node copy() {
+        Node copy;
+        try {
+            copy = (Node) super.clone();
+        } catch (CloneNotSupportedException e) {
+            // Cannot happen as this class is Cloneable
+            throw new RuntimeException(e);
+        }
+        copy.parentNode = null;
+        copy.children = new ArrayList<Node>(children.size());
+        for (Node child : children) {
+            Node childCopy = child.copy();
+            childCopy.parentNode = copy;
+            copy.children.add(childCopy);
+        }
+        return copy;
+    }
+
+    @Override
+    public Node clone() {
+        return copy();
+    }
+
+    /**
+     * Creates deep copies of the given nodes.
+     * 
+     * @param nodes
+     *            the nodes to copy
+     * @return a new list containing copies of the nodes
+     */
+    public static ArrayList<Node> copy(Collection<? extends Node> nodes) {
+        ArrayList<Node> copies = new ArrayList<Node>(nodes.size());
+        for (Node node : nodes) {
+            copies.add(node.copy());
+        }
+        return copies;
+    }
 
     public Node getParentNode() {
         return parentNode;
@@ -19,7 +19,7 @@ package com.vaadin.sass.internal.tree;
 import java.util.ArrayList;
 import java.util.regex.Pattern;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.expression.ArithmeticExpressionEvaluator;
 import com.vaadin.sass.internal.parser.LexicalUnitImpl;
 import com.vaadin.sass.internal.util.StringUtil;
@@ -140,9 +140,9 @@ public class RuleNode extends Node implements IVariableNode {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         /*
-         * "replaceVariables(ScssStylesheet.getVariables());" seems duplicated
+         * "replaceVariables(context.getVariables());" seems duplicated
          * and can be extracted out of if, but it is not.
          * containsArithmeticalOperator must be called before replaceVariables.
          * Because for the "/" operator, it needs to see if its predecessor or
@@ -151,10 +151,19 @@ public class RuleNode extends Node implements IVariableNode {
          */
         if (ArithmeticExpressionEvaluator.get().containsArithmeticalOperator(
                 value)) {
-            replaceVariables(ScssStylesheet.getVariables());
+            replaceVariables(context.getVariables());
             value = ArithmeticExpressionEvaluator.get().evaluate(value);
         } else {
-            replaceVariables(ScssStylesheet.getVariables());
+            replaceVariables(context.getVariables());
         }
     }
+
+    @Override
+    public RuleNode copy() {
+        RuleNode copy = (RuleNode) super.copy();
+        if (value != null) {
+            copy.value = value.copy();
+        }
+        return copy;
+    }
 }
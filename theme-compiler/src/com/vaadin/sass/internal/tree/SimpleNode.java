@@ -17,7 +17,7 @@ package com.vaadin.sass.internal.tree;
 
 import java.util.ArrayList;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.util.StringUtil;
 
 /**
@@ -53,7 +53,7 @@ public class SimpleNode extends Node implements IVariableNode {
     }
 
     @Override
-    public void traverse() {
-        replaceVariables(ScssStylesheet.getVariables());
+    public void traverse(ScssContext context) {
+        replaceVariables(context.getVariables());
     }
 }
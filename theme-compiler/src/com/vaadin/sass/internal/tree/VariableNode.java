@@ -18,7 +18,7 @@ package com.vaadin.sass.internal.tree;
 
 import java.util.ArrayList;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.expression.ArithmeticExpressionEvaluator;
 import com.vaadin.sass.internal.parser.LexicalUnitImpl;
 import com.vaadin.sass.internal.util.StringUtil;
@@ -101,9 +101,9 @@ public class VariableNode extends Node implements IVariableNode {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         /*
-         * "replaceVariables(ScssStylesheet.getVariables());" seems duplicated
+         * "replaceVariables(context.getVariables());" seems duplicated
          * and can be extracted out of if, but it is not.
          * containsArithmeticalOperator must be called before replaceVariables.
          * Because for the "/" operator, it needs to see if its predecessor or
@@ -112,11 +112,20 @@ public class VariableNode extends Node implements IVariableNode {
          */
         if (ArithmeticExpressionEvaluator.get().containsArithmeticalOperator(
                 expr)) {
-            replaceVariables(ScssStylesheet.getVariables());
+            replaceVariables(context.getVariables());
             expr = ArithmeticExpressionEvaluator.get().evaluate(expr);
         } else {
-            replaceVariables(ScssStylesheet.getVariables());
+            replaceVariables(context.getVariables());
         }
-        VariableNodeHandler.traverse(this);
+        VariableNodeHandler.traverse(context, this);
+    }
+
+    @Override
+    public VariableNode copy() {
+        VariableNode copy = (VariableNode) super.copy();
+        if (expr != null) {
+            copy.expr = expr.copy();
+        }
+        return copy;
     }
 }
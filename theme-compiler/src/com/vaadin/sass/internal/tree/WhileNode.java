@@ -16,6 +16,8 @@
 
 package com.vaadin.sass.internal.tree;
 
+import com.vaadin.sass.internal.ScssContext;
+
 public class WhileNode extends Node {
     private static final long serialVersionUID = 7593896018196027279L;
 
@@ -33,7 +35,7 @@ public class WhileNode extends Node {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
 
     }
 
@@ -19,7 +19,7 @@ package com.vaadin.sass.internal.tree.controldirective;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.parser.LexicalUnitImpl;
 import com.vaadin.sass.internal.tree.IVariableNode;
 import com.vaadin.sass.internal.tree.Node;
@@ -97,8 +97,17 @@ public class EachDefNode extends Node implements IVariableNode {
     }
 
     @Override
-    public void traverse() {
-        replaceVariables(ScssStylesheet.getVariables());
-        EachNodeHandler.traverse(this);
+    public void traverse(ScssContext context) {
+        replaceVariables(context.getVariables());
+        EachNodeHandler.traverse(context, this);
+    }
+
+    @Override
+    public EachDefNode copy() {
+        EachDefNode copy = (EachDefNode) super.copy();
+        if (list != null) {
+            copy.list = new ArrayList<String>(list);
+        }
+        return copy;
     }
 }
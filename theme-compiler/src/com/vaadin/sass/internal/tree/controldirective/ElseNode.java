@@ -15,6 +15,7 @@
  */
 package com.vaadin.sass.internal.tree.controldirective;
 
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.tree.Node;
 
 public class ElseNode extends Node implements IfElseNode {
@@ -25,7 +26,7 @@ public class ElseNode extends Node implements IfElseNode {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
 
     }
 
@@ -15,6 +15,7 @@
  */
 package com.vaadin.sass.internal.tree.controldirective;
 
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.tree.Node;
 import com.vaadin.sass.internal.visitor.IfElseNodeHandler;
 
@@ -31,11 +32,11 @@ public class IfElseDefNode extends Node {
     }
 
     @Override
-    public void traverse() {
+    public void traverse(ScssContext context) {
         try {
 
             for (final Node child : children) {
-                child.traverse();
+                child.traverse(context);
             }
 
             IfElseNodeHandler.traverse(this);
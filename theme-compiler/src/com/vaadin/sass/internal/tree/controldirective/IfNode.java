@@ -17,7 +17,7 @@ package com.vaadin.sass.internal.tree.controldirective;
 
 import java.util.ArrayList;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.tree.IVariableNode;
 import com.vaadin.sass.internal.tree.Node;
 import com.vaadin.sass.internal.tree.VariableNode;
@@ -55,8 +55,8 @@ public class IfNode extends Node implements IfElseNode, IVariableNode {
     }
 
     @Override
-    public void traverse() {
-        replaceVariables(ScssStylesheet.getVariables());
+    public void traverse(ScssContext context) {
+        replaceVariables(context.getVariables());
     }
 
 }
\ No newline at end of file
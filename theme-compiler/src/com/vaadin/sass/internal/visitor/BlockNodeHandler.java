@@ -19,6 +19,7 @@ package com.vaadin.sass.internal.visitor;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.ScssStylesheet;
 import com.vaadin.sass.internal.tree.BlockNode;
 import com.vaadin.sass.internal.tree.Node;
@@ -44,7 +45,7 @@ import com.vaadin.sass.internal.tree.Node;
  */
 public class BlockNodeHandler {
 
-    public static void traverse(BlockNode node) {
+    public static void traverse(ScssContext context, BlockNode node) {
 
         if (node.getChildren().size() == 0) {
             // empty blocks are removed later
@@ -54,7 +55,7 @@ public class BlockNodeHandler {
         Node parent = node.getParentNode();
 
         if (parent instanceof BlockNode) {
-            combineParentSelectorListToChild(node);
+            combineParentSelectorListToChild(context, node);
 
         } else if (node.getSelectors().contains("&")) {
             ScssStylesheet.warning("Base-level rule contains"
@@ -83,7 +84,8 @@ public class BlockNodeHandler {
         node.setSelectorList(newList);
     }
 
-    private static void combineParentSelectorListToChild(BlockNode node) {
+    private static void combineParentSelectorListToChild(
+            ScssContext context, BlockNode node) {
         ArrayList<String> newList = new ArrayList<String>();
         BlockNode parentBlock = (BlockNode) node.getParentNode();
         for (String parentSelector : parentBlock.getSelectorList()) {
@@ -99,7 +101,7 @@ public class BlockNodeHandler {
         node.setSelectorList(newList);
         Node oldParent = node.getParentNode();
 
-        HashMap<Node, Node> lastNodeAdded = ScssStylesheet.getLastNodeAdded();
+        HashMap<Node, Node> lastNodeAdded = context.getLastNodeAdded();
         Node lastAdded = lastNodeAdded.get(oldParent.getParentNode());
         if (lastAdded == null) {
             lastAdded = oldParent;
@@ -17,33 +17,33 @@ package com.vaadin.sass.internal.visitor;
 
 import java.util.ArrayList;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.parser.LexicalUnitImpl;
 import com.vaadin.sass.internal.tree.IVariableNode;
 import com.vaadin.sass.internal.tree.Node;
 import com.vaadin.sass.internal.tree.VariableNode;
 import com.vaadin.sass.internal.tree.controldirective.EachDefNode;
-import com.vaadin.sass.internal.util.DeepCopy;
 
 public class EachNodeHandler {
 
-    public static void traverse(EachDefNode node) {
-        replaceEachDefNode(node);
+    public static void traverse(ScssContext context, EachDefNode node) {
+        replaceEachDefNode(context, node);
     }
 
-    private static void replaceEachDefNode(EachDefNode defNode) {
+    private static void replaceEachDefNode(ScssContext context,
+            EachDefNode defNode) {
         Node last = defNode;
 
         for (final String var : defNode.getVariables()) {
             VariableNode varNode = new VariableNode(defNode.getVariableName()
                     .substring(1), LexicalUnitImpl.createIdent(var), false);
             ArrayList<VariableNode> variables = new ArrayList<VariableNode>(
-                    ScssStylesheet.getVariables());
+                    context.getVariables());
             variables.add(varNode);
 
             for (final Node child : defNode.getChildren()) {
 
-                Node copy = (Node) DeepCopy.copy(child);
+                Node copy = child.copy();
 
                 replaceInterpolation(copy, variables);
 
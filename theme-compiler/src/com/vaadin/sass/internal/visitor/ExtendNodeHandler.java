@@ -17,32 +17,28 @@
 package com.vaadin.sass.internal.visitor;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.tree.BlockNode;
 import com.vaadin.sass.internal.tree.ExtendNode;
 import com.vaadin.sass.internal.tree.Node;
 import com.vaadin.sass.internal.util.StringUtil;
 
 public class ExtendNodeHandler {
-    private static Map<String, List<ArrayList<String>>> extendsMap = new HashMap<String, List<ArrayList<String>>>();
-
-    public static void traverse(ExtendNode node) throws Exception {
-        buildExtendsMap(node);
-        modifyTree(ScssStylesheet.get());
-    }
-
-    public static void clear() {
-        if (extendsMap != null) {
-            extendsMap.clear();
-        }
+    public static void traverse(ScssContext context, ExtendNode node)
+            throws Exception {
+        Map<String, List<ArrayList<String>>> extendsMap = context
+                .getExtendsMap();
+        buildExtendsMap(extendsMap, node);
+        modifyTree(extendsMap, context.getStylesheet());
     }
 
-    private static void modifyTree(Node node) throws Exception {
+    private static void modifyTree(
+            Map<String, List<ArrayList<String>>> extendsMap, Node node)
+            throws Exception {
         for (Node child : node.getChildren()) {
             if (child instanceof BlockNode) {
                 BlockNode blockNode = (BlockNode) child;
@@ -74,7 +70,8 @@ public class ExtendNodeHandler {
 
     }
 
-    private static void buildExtendsMap(ExtendNode node) {
+    private static void buildExtendsMap(
+            Map<String, List<ArrayList<String>>> extendsMap, ExtendNode node) {
         String extendedString = node.getListAsString();
         if (extendsMap.get(extendedString) == null) {
             extendsMap.put(extendedString, new ArrayList<ArrayList<String>>());
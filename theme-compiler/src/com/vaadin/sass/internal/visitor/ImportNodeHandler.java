@@ -50,17 +50,19 @@ public class ImportNodeHandler {
 
                         // set parent's charset to imported node.
                         ScssStylesheet imported = ScssStylesheet.get(
-                                filePathBuilder.toString(), node.getCharset());
+                                filePathBuilder.toString(), node.getCharset(),
+                                node.getParseCache());
                         if (imported == null) {
-                            imported = ScssStylesheet.get(importNode.getUri());
+                            imported = ScssStylesheet.get(importNode.getUri(),
+                                    null, node.getParseCache());
                         }
                         if (imported == null) {
                             throw new FileNotFoundException(importNode.getUri()
-                                    + " (parent: "
-                                    + ScssStylesheet.get().getFileName() + ")");
+                                    + " (parent: " + node.getFileName() + ")");
                         }
 
                         traverse(imported);
+                        node.addSourceUris(imported);
 
                         String prefix = getUrlPrefix(importNode.getUri());
                         if (prefix != null) {
@@ -18,6 +18,7 @@ package com.vaadin.sass.internal.visitor;
 
 import java.util.ArrayList;
 
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.ScssStylesheet;
 import com.vaadin.sass.internal.parser.LexicalUnitImpl;
 import com.vaadin.sass.internal.tree.IVariableNode;
@@ -25,28 +26,28 @@ import com.vaadin.sass.internal.tree.MixinDefNode;
 import com.vaadin.sass.internal.tree.MixinNode;
 import com.vaadin.sass.internal.tree.Node;
 import com.vaadin.sass.internal.tree.VariableNode;
-import com.vaadin.sass.internal.util.DeepCopy;
 
 public class MixinNodeHandler {
 
-    public static void traverse(MixinNode node) throws Exception {
-        replaceMixins(node);
+    public static void traverse(ScssContext context, MixinNode node)
+            throws Exception {
+        replaceMixins(context, node);
     }
 
-    private static void replaceMixins(MixinNode node) throws Exception {
-        MixinDefNode mixinDef = ScssStylesheet.getMixinDefinition(node
-                .getName());
+    private static void replaceMixins(ScssContext context, MixinNode node)
+            throws Exception {
+        MixinDefNode mixinDef = context.getMixinDefinition(node.getName());
         if (mixinDef == null) {
             throw new Exception("Mixin Definition: " + node.getName()
                     + " not found");
         }
-        replaceMixinNode(node, mixinDef);
+        replaceMixinNode(context, node, mixinDef);
     }
 
-    private static void replaceMixinNode(MixinNode mixinNode,
-            MixinDefNode mixinDef) {
-        MixinDefNode defClone = (MixinDefNode) DeepCopy.copy(mixinDef);
-        defClone.traverse();
+    private static void replaceMixinNode(ScssContext context,
+            MixinNode mixinNode, MixinDefNode mixinDef) {
+        MixinDefNode defClone = mixinDef.copy();
+        defClone.traverse(context);
 
         defClone.replaceContentDirective(mixinNode);
 
@@ -62,7 +63,7 @@ public class MixinNodeHandler {
             Node previous = mixinNode;
             for (final Node child : defClone.getChildren()) {
 
-                Node clone = (Node) DeepCopy.copy(child);
+                Node clone = child.copy();
 
                 replaceChildVariables(defClone, clone);
 
@@ -98,8 +99,7 @@ public class MixinNodeHandler {
                         && unit.getNextLexicalUnit() != null) {
                     for (final VariableNode node : def.getArglist()) {
                         if (node.getName().equals(unit.getValue().toString())) {
-                            node.setExpr((LexicalUnitImpl) DeepCopy.copy(unit
-                                    .getNextLexicalUnit()));
+                            node.setExpr(unit.getNextLexicalUnit().copy());
                             remainingNodes.remove(node);
                             remainingUnits.remove(unit);
                             break;
@@ -112,8 +112,7 @@ public class MixinNodeHandler {
             for (int i = 0; i < remainingNodes.size()
                     && i < remainingUnits.size(); i++) {
                 LexicalUnitImpl unit = remainingUnits.get(i);
-                remainingNodes.get(i).setExpr(
-                        (LexicalUnitImpl) DeepCopy.copy(unit));
+                remainingNodes.get(i).setExpr(unit.copy());
             }
         }
 
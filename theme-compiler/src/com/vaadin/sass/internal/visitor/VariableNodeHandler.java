@@ -16,15 +16,14 @@
 
 package com.vaadin.sass.internal.visitor;
 
-import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.ScssContext;
 import com.vaadin.sass.internal.tree.VariableNode;
 
 public class VariableNodeHandler {
 
-    public static void traverse(VariableNode node) {
-        if (ScssStylesheet.getVariable(node.getName()) == null
-                || !node.isGuarded()) {
-            ScssStylesheet.addVariable(node);
+    public static void traverse(ScssContext context, VariableNode node) {
+        if (context.getVariable(node.getName()) == null || !node.isGuarded()) {
+            context.addVariable(node);
         }
         node.getParentNode().removeChild(node);
     }
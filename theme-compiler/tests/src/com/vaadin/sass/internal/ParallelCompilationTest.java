@@ -0,0 +1,101 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.sass.internal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Compiles the bundled themes concurrently and checks that the result is
+ * identical to compiling them one at a time.
+ */
+public class ParallelCompilationTest {
+
+    private static final String[] THEMES = { "base", "reindeer", "runo",
+            "chameleon", "liferay" };
+
+    private static final int ROUNDS = 2;
+
+    private static File getThemesDirectory() {
+        // Tests are run either from the module or from the project directory
+        File themes = new File("../WebContent/VAADIN/themes");
+        if (!themes.isDirectory()) {
+            themes = new File("WebContent/VAADIN/themes");
+        }
+        return themes;
+    }
+
+    private static String compile(File themes, String theme,
+            ParseCache parseCache) throws Exception {
+        File scss = new File(new File(themes, theme), "styles.scss");
+        ScssStylesheet stylesheet = ScssStylesheet.get(scss.getPath(), null,
+                parseCache);
+        stylesheet.compile();
+        return stylesheet.toString();
+    }
+
+    @Test
+    public void testParallelCompilationMatchesSequential() throws Exception {
+        final File themes = getThemesDirectory();
+        Assume.assumeTrue(themes.isDirectory());
+
+        Map<String, String> sequential = new HashMap<String, String>();
+        for (String theme : THEMES) {
+            sequential.put(theme, compile(themes, theme, null));
+        }
+
+        // The themes share imported stylesheets, which are then also shared
+        // through the parse cache
+        final ParseCache parseCache = new ParseCache();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(2,
+                Runtime.getRuntime().availableProcessors()));
+        try {
+            List<String> submitted = new ArrayList<String>();
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < ROUNDS; i++) {
+                for (final String theme : THEMES) {
+                    submitted.add(theme);
+                    results.add(executor.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            return compile(themes, theme, parseCache);
+                        }
+                    }));
+                }
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                String theme = submitted.get(i);
+                Assert.assertEquals("Output for " + theme + " differs",
+                        sequential.get(theme), results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
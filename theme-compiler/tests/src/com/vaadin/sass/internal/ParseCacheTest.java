@@ -0,0 +1,125 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.sass.internal;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParseCacheTest {
+
+    private static final long LAST_MODIFIED = 1300000000000L;
+
+    private File dir;
+    private File main;
+    private File partial;
+    private ParseCache parseCache;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("scss", "");
+        dir.delete();
+        dir.mkdir();
+        main = new File(dir, "main.scss");
+        partial = new File(dir, "_partial.scss");
+        write(main, "@import \"_partial\";\n.v-button {\n\tcolor: $color;\n}",
+                LAST_MODIFIED);
+        write(partial, "$color: red;", LAST_MODIFIED);
+        parseCache = new ParseCache();
+    }
+
+    @After
+    public void tearDown() {
+        partial.delete();
+        main.delete();
+        dir.delete();
+    }
+
+    private static void write(File file, String content, long lastModified)
+            throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+        file.setLastModified(lastModified);
+    }
+
+    private String compile() throws Exception {
+        ScssStylesheet stylesheet = ScssStylesheet.get(main.getPath(), null,
+                parseCache);
+        stylesheet.compile();
+        return stylesheet.toString();
+    }
+
+    @Test
+    public void testSourceUris() throws Exception {
+        ScssStylesheet stylesheet = ScssStylesheet.get(main.getPath());
+        Assert.assertEquals(Arrays.asList(main.getPath()),
+                stylesheet.getSourceUris());
+        stylesheet.compile();
+        Assert.assertEquals(Arrays.asList(main.getPath(), dir.getPath()
+                + File.separator + "_partial.scss"), stylesheet.getSourceUris());
+        Assert.assertEquals(LAST_MODIFIED,
+                ScssStylesheet.getLastModified(main.getPath()));
+    }
+
+    @Test
+    public void testCachedStylesheetNotModifiedByCompile() throws Exception {
+        String css = compile();
+        Assert.assertEquals(".v-button {\n\tcolor: red;\n}", css);
+        // Compiling must not have changed the cached parse trees
+        Assert.assertEquals(css, compile());
+    }
+
+    @Test
+    public void testModifiedImportParsedAgain() throws Exception {
+        Assert.assertEquals(".v-button {\n\tcolor: red;\n}", compile());
+
+        write(partial, "$color: blue;", LAST_MODIFIED + 1000);
+        Assert.assertEquals(".v-button {\n\tcolor: blue;\n}", compile());
+    }
+
+    @Test
+    public void testDisabledCacheAlwaysParses() throws Exception {
+        parseCache = null;
+        Assert.assertEquals(".v-button {\n\tcolor: red;\n}", compile());
+
+        // Same timestamp, would not be noticed by the cache
+        write(partial, "$color: blue;", LAST_MODIFIED);
+        Assert.assertEquals(".v-button {\n\tcolor: blue;\n}", compile());
+    }
+
+    @Test
+    public void testImportsCached() throws Exception {
+        compile();
+        Assert.assertEquals(2, parseCache.size());
+        parseCache.clear();
+        Assert.assertEquals(0, parseCache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedRemovedWhenFull() throws Exception {
+        parseCache = new ParseCache(1);
+        Assert.assertEquals(".v-button {\n\tcolor: red;\n}", compile());
+        Assert.assertEquals(1, parseCache.size());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.sass.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.sass.internal.tree.Node;
+
+/**
+ * Compares copying stylesheet trees through serialization, as was done before
+ * nodes could be copied structurally, with {@link Node#copy()} and measures the
+ * compilation time of the bundled themes.
+ */
+public class PerformanceTestThemeCompilation {
+
+    private static final String[] THEMES = { "base", "reindeer", "runo",
+            "chameleon", "liferay" };
+
+    private static final int REPEATS = 5;
+
+    private static final long COMPILE_THEMES_FAIL_THRESHOLD = 20000;
+
+    private final List<ScssStylesheet> stylesheets = new ArrayList<ScssStylesheet>();
+
+    private File themes;
+
+    @Before
+    public void setUp() throws Exception {
+        // Tests are run either from the module or from the project directory
+        themes = new File("../WebContent/VAADIN/themes");
+        if (!themes.isDirectory()) {
+            themes = new File("WebContent/VAADIN/themes");
+        }
+        Assume.assumeTrue(themes.isDirectory());
+
+        for (String theme : THEMES) {
+            stylesheets.add(ScssStylesheet.get(getStylesheetFile(theme)
+                    .getPath()));
+        }
+    }
+
+    private File getStylesheetFile(String theme) {
+        return new File(new File(themes, theme), "styles.scss");
+    }
+
+    @Test
+    public void testCopyPerformance() throws Exception {
+        List<Long> serializationTimes = new ArrayList<Long>();
+        List<Long> structuralTimes = new ArrayList<Long>();
+        for (int i = 0; i < REPEATS; i++) {
+            long start = System.currentTimeMillis();
+            for (ScssStylesheet stylesheet : stylesheets) {
+                ScssStylesheet copy = (ScssStylesheet) copyBySerialization(stylesheet);
+                Assert.assertEquals(stylesheet.toString(), copy.toString());
+            }
+            serializationTimes.add(System.currentTimeMillis() - start);
+
+            start = System.currentTimeMillis();
+            for (ScssStylesheet stylesheet : stylesheets) {
+                ScssStylesheet copy = stylesheet.copy();
+                Assert.assertEquals(stylesheet.toString(), copy.toString());
+            }
+            structuralTimes.add(System.currentTimeMillis() - start);
+        }
+        System.out.println("Serialization based copy timings (ms) for "
+                + THEMES.length + " themes: " + serializationTimes);
+        System.out.println("Structural copy timings (ms) for " + THEMES.length
+                + " themes: " + structuralTimes);
+        Assert.assertTrue("Structural copy slower than serialization",
+                median(structuralTimes) <= median(serializationTimes));
+    }
+
+    @Test
+    public void testCompilePerformance() throws Exception {
+        List<Long> times = new ArrayList<Long>();
+        for (int i = 0; i < REPEATS; i++) {
+            long start = System.currentTimeMillis();
+            for (String theme : THEMES) {
+                ScssStylesheet stylesheet = ScssStylesheet
+                        .get(getStylesheetFile(theme).getPath());
+                stylesheet.compile();
+                stylesheet.toString();
+            }
+            times.add(System.currentTimeMillis() - start);
+        }
+        long median = median(times);
+        System.out.println("Theme compilation timings (ms) for "
+                + THEMES.length + " themes: " + times);
+        Assert.assertTrue("Theme compilation too slow, median time " + median
+                + "ms for " + THEMES.length + " themes",
+                median <= COMPILE_THEMES_FAIL_THRESHOLD);
+    }
+
+    private static Object copyBySerialization(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray()));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long median(List<Long> times) {
+        List<Long> sorted = new ArrayList<Long>(times);
+        Collections.sort(sorted);
+        // not exact median in some cases, but good enough
+        return sorted.get(sorted.size() / 2);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2000-2013 Vaadin Ltd.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.vaadin.sass.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.vaadin.sass.internal.parser.LexicalUnitImpl;
+import com.vaadin.sass.internal.tree.BlockNode;
+import com.vaadin.sass.internal.tree.Node;
+import com.vaadin.sass.internal.tree.RuleNode;
+
+public class NodeCopyTest {
+
+    private LexicalUnitImpl createValue() {
+        // 1px solid red
+        LexicalUnitImpl first = LexicalUnitImpl.createPX(0, 0, null, 1);
+        LexicalUnitImpl second = LexicalUnitImpl.createIdent(0, 0, first,
+                "solid");
+        LexicalUnitImpl.createIdent(0, 0, second, "red");
+        return first;
+    }
+
+    private BlockNode createBlock() {
+        BlockNode block = new BlockNode(new ArrayList<String>(
+                Arrays.asList(".v-button")));
+        block.appendChild(new RuleNode("border", createValue(), false, null));
+        return block;
+    }
+
+    @Test
+    public void testCopyIsDetachedFromParent() {
+        BlockNode parent = createBlock();
+        Node rule = parent.getChildren().get(0);
+
+        Node copy = rule.copy();
+
+        Assert.assertNull(copy.getParentNode());
+        Assert.assertSame(parent, rule.getParentNode());
+        Assert.assertEquals(1, parent.getChildren().size());
+    }
+
+    @Test
+    public void testChildrenAreCopied() {
+        BlockNode block = createBlock();
+
+        BlockNode copy = block.copy();
+
+        Assert.assertEquals(block.toString(), copy.toString());
+        Node childCopy = copy.getChildren().get(0);
+        Assert.assertNotSame(block.getChildren().get(0), childCopy);
+        Assert.assertSame(copy, childCopy.getParentNode());
+    }
+
+    @Test
+    public void testModifyingCopyDoesNotAffectOriginal() {
+        BlockNode block = createBlock();
+        String original = block.toString();
+
+        BlockNode copy = block.copy();
+        copy.getSelectorList().add(".v-link");
+        RuleNode rule = (RuleNode) copy.getChildren().get(0);
+        rule.getValue().getNextLexicalUnit().setStringValue("dotted");
+        copy.appendChild(new RuleNode("color", LexicalUnitImpl
+                .createIdent("blue"), false, null));
+
+        Assert.assertEquals(original, block.toString());
+        Assert.assertFalse(original.equals(copy.toString()));
+    }
+
+    @Test
+    public void testLexicalUnitCopyKeepsLinks() {
+        LexicalUnitImpl first = createValue();
+        LexicalUnitImpl second = first.getNextLexicalUnit();
+
+        LexicalUnitImpl copy = second.copy();
+
+        Assert.assertNotSame(second, copy);
+        Assert.assertEquals(second.toString(), copy.toString());
+        LexicalUnitImpl previous = copy.getPreviousLexicalUnit();
+        Assert.assertNotSame(first, previous);
+        Assert.assertSame(copy, previous.getNextLexicalUnit());
+        Assert.assertSame(copy, copy.getNextLexicalUnit()
+                .getPreviousLexicalUnit());
+        Assert.assertEquals(first.toString(), previous.toString());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012 Vaadin Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.vaadin.tests.components.table;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.Property.ValueChangeEvent;
+import com.vaadin.data.Property.ValueChangeListener;
+import com.vaadin.data.util.IndexedContainer;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.tests.components.AbstractTestUI;
+import com.vaadin.ui.CheckBox;
+import com.vaadin.ui.Table;
+
+public class TableRowRecycling extends AbstractTestUI {
+
+    private static final int ROWS = 100000;
+    private static final int COLUMNS = 5;
+
+    @Override
+    protected void setup(VaadinRequest request) {
+        final Table table = new Table();
+        table.setWidth("100%");
+        table.setPageLength(30);
+        table.setContainerDataSource(createContainer());
+
+        final CheckBox recycle = new CheckBox("Recycle rows");
+        recycle.setImmediate(true);
+        recycle.addValueChangeListener(new ValueChangeListener() {
+            @Override
+            public void valueChange(ValueChangeEvent event) {
+                table.setRowRecyclingEnabled(recycle.getValue());
+            }
+        });
+
+        addComponent(recycle);
+        addComponent(table);
+    }
+
+    private static IndexedContainer createContainer() {
+        IndexedContainer container = new IndexedContainer();
+        for (int col = 0; col < COLUMNS; col++) {
+            container.addContainerProperty("col" + col, String.class, null);
+        }
+        for (int row = 0; row < ROWS; row++) {
+            Item item = container.addItem(Integer.valueOf(row));
+            for (int col = 0; col < COLUMNS; col++) {
+                item.getItemProperty("col" + col).setValue(
+                        "Row " + row + ", column " + col);
+            }
+        }
+        return container;
+    }
+
+    @Override
+    protected String getTestDescription() {
+        return "Scrolling a table with "
+                + ROWS
+                + " rows should reuse the discarded rows when row recycling is enabled. "
+                + "Compile the widgetset with the vaadin.profiler property set to true "
+                + "and compare the VScrollTableBody.createRow and "
+                + "VScrollTableBody.reuseRecycledRow counts after each scroll step "
+                + "with the check box on and off.";
+    }
+
+    @Override
+    protected Integer getTicketNumber() {
+        return null;
+    }
+
+}